@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded cost of the TopologyDM operations, parameterised over the size and depth of
+ * the (generated) topology. The sizes run from 100 to 1,000,000 Nodes, so that the lookups can be
+ * seen to stay flat as the topology grows.
+ * <p>
+ * The 1,000,000 Node trials need a heap of around 4GB (and take a minute or so to set up), a
+ * subset of the sizes can be run with (e.g.) "-p topologySize=100,10000".
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class TopologyDMBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int topologySize;
+
+    @Param({"3", "6"})
+    public int hierarchyDepth;
+
+    private TopologyGenerator generator;
+    private TopologyDM topologyDM;
+    private List<NodeElement> nodes;
+    private List<NodeElement> leafNodes;
+    private NodeElement transientNode;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        generator = new TopologyGenerator(topologySize, hierarchyDepth);
+        topologyDM = new TopologyDM();
+        for (EndpointElement currentEndpoint : generator.getEndpoints()) {
+            topologyDM.addEndpoint(currentEndpoint);
+        }
+        for (NodeElement currentNode : generator.getNodes()) {
+            topologyDM.addNode(currentNode);
+        }
+        for (LinkElement currentLink : generator.getLinks()) {
+            topologyDM.addLink(currentLink);
+        }
+        nodes = generator.getNodes();
+        leafNodes = generator.getLeafNodes();
+        transientNode = generator.newWUP(0, "Transient-WUP");
+    }
+
+    private int randomNodeIndex() {
+        return (ThreadLocalRandom.current().nextInt(nodes.size()));
+    }
+
+    private NodeElement randomLeafNode() {
+        return (leafNodes.get(ThreadLocalRandom.current().nextInt(leafNodes.size())));
+    }
+
+    @Benchmark
+    public NodeElement addRemoveNode() {
+        topologyDM.addNode(transientNode);
+        topologyDM.removeNode(transientNode.getNodeInstanceID());
+        return (transientNode);
+    }
+
+    @Benchmark
+    public NodeElement getNodeByIdentifier() {
+        return (topologyDM.getNode(nodes.get(randomNodeIndex()).getNodeInstanceID()));
+    }
+
+    @Benchmark
+    public NodeElement getNodeByNameTypeVersion() {
+        int nodeIndex = randomNodeIndex();
+        NodeElement node = nodes.get(nodeIndex);
+        return (topologyDM.getNode(generator.getUnqualifiedName(nodeIndex), node.getNodeArchetype(), node.getVersion()));
+    }
+
+    @Benchmark
+    public NodeElement getNodeByKey() {
+        NodeElement node = nodes.get(randomNodeIndex());
+        return (topologyDM.getNodeByKey(node.getNodeInstanceID().toTag() + "." + node.getVersion()));
+    }
+
+    @Benchmark
+    public Map<Integer, NodeElementIdentifier> findNodesWithMatchingUnqualifiedInstanceName() {
+        return (topologyDM.findNodesWithMatchingUnqualifiedInstanceName(generator.getUnqualifiedName(randomNodeIndex())));
+    }
+
+    @Benchmark
+    public Map<Integer, NodeElement> getNodeContainmentHierarchy() {
+        return (topologyDM.getNodeContainmentHierarchy(randomLeafNode().getNodeInstanceID()));
+    }
+
+    @Benchmark
+    public EndpointElement getEndpointByNameAndVersion() {
+        return (topologyDM.getEndpoint(randomLeafNode(), "ingress", TopologyGenerator.DEFAULT_VERSION));
+    }
+
+    @Benchmark
+    public Set<NodeElement> getNodeSet() {
+        return (topologyDM.getNodeSet());
+    }
+
+    @Benchmark
+    public Set<LinkElement> getLinkSet() {
+        return (topologyDM.getLinkSet());
+    }
+
+    @Benchmark
+    public Set<EndpointElement> getEndpointSet() {
+        return (topologyDM.getEndpointSet());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The heap retained by the TopologyDM per registered element (Node, Link or Endpoint). The
+ * elements themselves are held by the generator throughout, so the figure is the cost of the
+ * TopologyDM's own maps, indexes and identifier copies. Each (single shot) iteration times the
+ * building of a fresh TopologyDM, and then prints the used heap (after garbage collection) that is
+ * released when it is dropped.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class TopologyFootprintBenchmark {
+
+    @Param({"10000", "100000"})
+    public int topologySize;
+
+    @Param({"6"})
+    public int hierarchyDepth;
+
+    private TopologyGenerator generator;
+    private TopologyDM topologyDM;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        generator = new TopologyGenerator(topologySize, hierarchyDepth);
+    }
+
+    /**
+     * The footprint is measured by dropping the TopologyDM (rather than against a baseline taken
+     * before it was built), so anything else retained across iterations cancels out.
+     */
+    @TearDown(Level.Iteration)
+    public void reportFootprint() {
+        long usedHeapBytes = usedHeapAfterCollection();
+        topologyDM = null;
+        long retainedBytes = usedHeapBytes - usedHeapAfterCollection();
+        int elementCount = generator.getNodes().size() + generator.getLinks().size() + generator.getEndpoints().size();
+        System.out.printf("%nTopologyDM footprint: elements=%d, retained=%d bytes, heapBytesPerElement=%.1f%n", elementCount, retainedBytes, (double) retainedBytes / elementCount);
+    }
+
+    /**
+     * The TopologyDM is held by the state (and not returned), as the Blackhole may retain a returned
+     * object into the next iteration's baseline.
+     */
+    @Benchmark
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        topologyDM.addTopology(generator.getNodes(), generator.getLinks(), generator.getEndpoints());
+    }
+
+    private static long usedHeapAfterCollection() {
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        long usedBytes = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 3; attempt++) {
+            System.gc();
+            usedBytes = Math.min(usedBytes, memoryBean.getHeapMemoryUsage().getUsed());
+        }
+        return (usedBytes);
+    }
+}
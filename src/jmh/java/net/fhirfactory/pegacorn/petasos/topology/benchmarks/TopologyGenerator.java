@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+
+/**
+ * Generates a synthetic (but realistically shaped) Pegacorn topology: a single Solution, containing
+ * Sites, containing Platforms, containing Services, containing Process Areas, containing WUPs. Each
+ * WUP has an ingress endpoint, and consecutive WUPs are joined by a link (from one WUP's endpoint to
+ * the next).
+ * <p>
+ * The depth of the hierarchy (2 to 6 levels, always Solution at the top and WUPs at the bottom) and
+ * the (approximate) total number of nodes are configurable; the fan-out at each level is chosen so
+ * that the requested number of nodes is reached.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyGenerator {
+
+    public static final String DEFAULT_VERSION = "1.0.0";
+    public static final String ENDPOINT_QUALIFIER = "Endpoint";
+    public static final String LINK_QUALIFIER = "Link";
+
+    private static final NodeElementTypeEnum[] HIERARCHY = {
+            NodeElementTypeEnum.SOLUTION,
+            NodeElementTypeEnum.SITE,
+            NodeElementTypeEnum.PLATFORM,
+            NodeElementTypeEnum.SERVICE,
+            NodeElementTypeEnum.PROCESS_AREA,
+            NodeElementTypeEnum.WUP
+    };
+
+    private final List<NodeElement> nodes;
+    private final List<NodeElement> leafNodes;
+    private final List<EndpointElement> endpoints;
+    private final List<LinkElement> links;
+    private final List<List<RDN>> nodePaths;
+
+    public TopologyGenerator(int topologySize, int hierarchyDepth) {
+        if (hierarchyDepth < 2 || hierarchyDepth > HIERARCHY.length) {
+            throw (new IllegalArgumentException("hierarchyDepth must be between 2 and " + HIERARCHY.length));
+        }
+        this.nodes = new ArrayList<NodeElement>(topologySize);
+        this.leafNodes = new ArrayList<NodeElement>();
+        this.endpoints = new ArrayList<EndpointElement>();
+        this.links = new ArrayList<LinkElement>();
+        this.nodePaths = new ArrayList<List<RDN>>(topologySize);
+        generate(Math.max(topologySize, hierarchyDepth), hierarchyDepth);
+    }
+
+    private NodeElementTypeEnum levelType(int level, int hierarchyDepth) {
+        if (level == hierarchyDepth - 1) {
+            return (NodeElementTypeEnum.WUP);
+        }
+        return (HIERARCHY[level]);
+    }
+
+    private void generate(int topologySize, int hierarchyDepth) {
+        int fanOut = Math.max(2, (int) Math.ceil(Math.pow(topologySize, 1.0 / (hierarchyDepth - 1))));
+        List<NodeElement> currentLevel = new ArrayList<NodeElement>();
+        List<List<RDN>> currentPaths = new ArrayList<List<RDN>>();
+        List<RDN> solutionPath = new ArrayList<RDN>();
+        solutionPath.add(new RDN(NodeElementTypeEnum.SOLUTION.getNodeElementType(), "Solution"));
+        currentLevel.add(newNode(solutionPath, NodeElementTypeEnum.SOLUTION, null));
+        currentPaths.add(solutionPath);
+        for (int level = 1; level < hierarchyDepth && nodes.size() < topologySize; level++) {
+            NodeElementTypeEnum childType = levelType(level, hierarchyDepth);
+            List<NodeElement> nextLevel = new ArrayList<NodeElement>();
+            List<List<RDN>> nextPaths = new ArrayList<List<RDN>>();
+            for (int parentIndex = 0; parentIndex < currentLevel.size() && nodes.size() < topologySize; parentIndex++) {
+                for (int childIndex = 0; childIndex < fanOut && nodes.size() < topologySize; childIndex++) {
+                    List<RDN> childPath = new ArrayList<RDN>(currentPaths.get(parentIndex));
+                    childPath.add(new RDN(childType.getNodeElementType(), childType.getNodeElementType() + "-" + parentIndex + "-" + childIndex));
+                    NodeElement childNode = newNode(childPath, childType, currentLevel.get(parentIndex).getNodeInstanceID());
+                    nextLevel.add(childNode);
+                    nextPaths.add(childPath);
+                }
+            }
+            currentLevel = nextLevel;
+            currentPaths = nextPaths;
+        }
+        EndpointElementIdentifier previousEndpointID = null;
+        for (int leafIndex = 0; leafIndex < currentLevel.size(); leafIndex++) {
+            NodeElement leafNode = currentLevel.get(leafIndex);
+            List<RDN> endpointPath = new ArrayList<RDN>(currentPaths.get(leafIndex));
+            endpointPath.add(new RDN(ENDPOINT_QUALIFIER, "ingress"));
+            EndpointElement endpoint = new EndpointElement();
+            endpoint.setEndpointInstanceID(new EndpointElementIdentifier(toFDN(endpointPath).getToken()));
+            endpoint.setVersion(DEFAULT_VERSION);
+            leafNode.getEndpoints().add(endpoint.getEndpointInstanceID());
+            endpoints.add(endpoint);
+            leafNodes.add(leafNode);
+            if (previousEndpointID != null) {
+                List<RDN> linkPath = new ArrayList<RDN>(currentPaths.get(leafIndex));
+                linkPath.add(new RDN(LINK_QUALIFIER, "link-" + leafIndex));
+                LinkElement link = new LinkElement();
+                link.setLinkID(new LinkElementIdentifier(toFDN(linkPath).getToken()));
+                link.setSource(previousEndpointID);
+                link.setTarget(endpoint.getEndpointInstanceID());
+                links.add(link);
+            }
+            previousEndpointID = endpoint.getEndpointInstanceID();
+        }
+    }
+
+    private NodeElement newNode(List<RDN> path, NodeElementTypeEnum nodeType, NodeElementIdentifier containingNodeID) {
+        NodeElement node = new NodeElement();
+        node.setNodeInstanceID(new NodeElementIdentifier(toFDN(path).getToken()));
+        node.setNodeArchetype(nodeType);
+        node.setVersion(DEFAULT_VERSION);
+        node.setContainingElementID(containingNodeID);
+        node.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE);
+        node.setResilienceMode(ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
+        node.setInstanceInPlace(true);
+        nodes.add(node);
+        nodePaths.add(path);
+        return (node);
+    }
+
+    private static FDN toFDN(List<RDN> path) {
+        FDN fdn = new FDN();
+        for (RDN currentRDN : path) {
+            fdn.appendRDN(currentRDN);
+        }
+        return (fdn);
+    }
+
+    /**
+     * @return The nodes, in containing-node-first order
+     */
+    public List<NodeElement> getNodes() {
+        return nodes;
+    }
+
+    public List<NodeElement> getLeafNodes() {
+        return leafNodes;
+    }
+
+    public List<EndpointElement> getEndpoints() {
+        return endpoints;
+    }
+
+    public List<LinkElement> getLinks() {
+        return links;
+    }
+
+    /**
+     * @param nodeIndex The index (within getNodes()) of the node
+     * @return The unqualified name of the node
+     */
+    public String getUnqualifiedName(int nodeIndex) {
+        List<RDN> path = nodePaths.get(nodeIndex);
+        return (path.get(path.size() - 1).getValue());
+    }
+
+    /**
+     * Creates a new (unregistered) WUP, contained by the given node.
+     *
+     * @param containingNodeIndex The index (within getNodes()) of the containing node
+     * @param name The unqualified name of the new WUP
+     * @return The new WUP
+     */
+    public NodeElement newWUP(int containingNodeIndex, String name) {
+        List<RDN> path = new ArrayList<RDN>(nodePaths.get(containingNodeIndex));
+        path.add(new RDN(NodeElementTypeEnum.WUP.getNodeElementType(), name));
+        NodeElement node = new NodeElement();
+        node.setNodeInstanceID(new NodeElementIdentifier(toFDN(path).getToken()));
+        node.setNodeArchetype(NodeElementTypeEnum.WUP);
+        node.setVersion(DEFAULT_VERSION);
+        node.setContainingElementID(nodes.get(containingNodeIndex).getNodeInstanceID());
+        return (node);
+    }
+}
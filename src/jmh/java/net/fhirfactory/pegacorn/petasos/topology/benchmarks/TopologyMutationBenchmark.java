@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyMutation;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyBackPressurePolicyEnum;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyMutationPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of concurrent mutations (the re-registration of a random leaf Node, as happens during
+ * a redeployment) applied directly by the mutating threads, versus queued on (and awaited from) the
+ * single writer of a TopologyMutationPipeline.
+ * <p>
+ * The number of mutating threads defaults to 8; it can be changed at run time with JMH's threads
+ * option, e.g. "-t 32".
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class TopologyMutationBenchmark {
+
+    @Param({"10000"})
+    public int topologySize;
+
+    @Param({"6"})
+    public int hierarchyDepth;
+
+    @Param({"500"})
+    public int maximumBatchSize;
+
+    private TopologyDM topologyDM;
+    private TopologyMutationPipeline mutationPipeline;
+    private List<NodeElement> leafNodes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        TopologyGenerator generator = new TopologyGenerator(topologySize, hierarchyDepth);
+        topologyDM = new TopologyDM();
+        topologyDM.addTopology(generator.getNodes(), generator.getLinks(), generator.getEndpoints());
+        leafNodes = generator.getLeafNodes();
+        mutationPipeline = new TopologyMutationPipeline(topologyDM, TopologyMutationPipeline.DEFAULT_QUEUE_CAPACITY, maximumBatchSize, TopologyBackPressurePolicyEnum.BLOCK, 0, null);
+        mutationPipeline.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mutationPipeline.stop();
+    }
+
+    private TopologyMutation randomReregistration() {
+        return (TopologyMutation.addNode(leafNodes.get(ThreadLocalRandom.current().nextInt(leafNodes.size()))));
+    }
+
+    @Benchmark
+    public void directMutation() {
+        topologyDM.applyMutation(randomReregistration());
+    }
+
+    @Benchmark
+    public void pipelinedMutation() {
+        mutationPipeline.submit(randomReregistration()).join();
+    }
+
+    /**
+     * The submitter doesn't wait for the mutation, so this is bound by the rate at which the writer
+     * drains the queue (the submitters block once it is full).
+     */
+    @Benchmark
+    public CompletableFuture<Void> pipelinedMutationFireAndForget() {
+        return (mutationPipeline.submit(randomReregistration()));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.manager;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.benchmarks.TopologyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mixed reader/writer load against the TopologyIM (and so the TopologyDM). Readers resolve nodes
+ * (by identifier and by name/type/version) while writers register and unregister WUPs within the
+ * generated topology.
+ * <p>
+ * The reader and writer thread counts default to 3 and 1; they can be changed at run time with
+ * JMH's thread-groups option, e.g. "-tg 7,1" for 7 readers and 1 writer.
+ * <p>
+ * (This benchmark lives in the manager package so that it can wire the TopologyIM to a
+ * TopologyDM without a CDI container.)
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopologyContentionBenchmark {
+
+    @Param({"10000", "100000"})
+    public int topologySize;
+
+    @Param({"6"})
+    public int hierarchyDepth;
+
+    private TopologyGenerator generator;
+    private TopologyIM topologyIM;
+    private List<NodeElement> nodes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        generator = new TopologyGenerator(topologySize, hierarchyDepth);
+        topologyIM = new TopologyIM();
+        topologyIM.topologyDataManager = new TopologyDM();
+        topologyIM.registerTopology(generator.getNodes(), generator.getLinks(), generator.getEndpoints());
+        nodes = generator.getNodes();
+    }
+
+    @State(Scope.Thread)
+    public static class WriterState {
+        int sequence = 0;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public NodeElement reader() {
+        int nodeIndex = ThreadLocalRandom.current().nextInt(nodes.size());
+        NodeElement node = nodes.get(nodeIndex);
+        if ((nodeIndex & 1) == 0) {
+            return (topologyIM.getNode(node.getNodeInstanceID()));
+        }
+        return (topologyIM.getNode(generator.getUnqualifiedName(nodeIndex), node.getNodeArchetype(), node.getVersion()));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public NodeElement writer(WriterState writerState) {
+        int containingNodeIndex = ThreadLocalRandom.current().nextInt(nodes.size());
+        NodeElement newWUP = generator.newWUP(containingNodeIndex, "Transient-" + Thread.currentThread().getId() + "-" + writerState.sequence++);
+        topologyIM.registerNode(newWUP);
+        topologyIM.unregisterNode(newWUP.getNodeInstanceID());
+        return (newWUP);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.manager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.topology.benchmarks.TopologyGenerator;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Node registration throughput through the TopologyIM with the mutation journal off, on with
+ * asynchronous (background) commit, and on with synchronous (group) commit. Several threads
+ * register concurrently, so the synchronous case shows how well group commit shares each fsync.
+ * <p>
+ * Writers repeatedly re-register the WUPs of a generated topology (so the topology stays the same
+ * size for the whole run). The journal is written to a temporary directory, which can be placed
+ * on the device of interest with "-Djava.io.tmpdir=...". The number of registering threads
+ * defaults to 4; it can be changed at run time with JMH's threads option, e.g. "-t 16".
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TopologyJournalBenchmark {
+
+    @Param({"OFF", "ASYNCHRONOUS", "SYNCHRONOUS"})
+    public String journalMode;
+
+    @Param({"10000"})
+    public int topologySize;
+
+    private static final long COMMIT_INTERVAL_MILLIS = 10;
+
+    private TopologyIM topologyIM;
+    private List<NodeElement> leafNodes;
+    private Path journalDirectory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        TopologyGenerator generator = new TopologyGenerator(topologySize, 6);
+        topologyIM = new TopologyIM();
+        topologyIM.topologyDataManager = new TopologyDM();
+        journalDirectory = Files.createTempDirectory("topology-journal-benchmark");
+        if (!journalMode.equals("OFF")) {
+            topologyIM.enableJournal(journalDirectory, journalMode.equals("SYNCHRONOUS"), COMMIT_INTERVAL_MILLIS, 0);
+        }
+        topologyIM.registerTopology(generator.getNodes(), generator.getLinks(), generator.getEndpoints());
+        leafNodes = generator.getLeafNodes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        topologyIM.disableJournal();
+        try (Stream<Path> journalFiles = Files.walk(journalDirectory)) {
+            journalFiles.sorted(Comparator.reverseOrder()).forEach(currentPath -> currentPath.toFile().delete());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WriterState {
+        int sequence = 0;
+    }
+
+    @Benchmark
+    public NodeElement registerNode(WriterState writerState) {
+        NodeElement node = leafNodes.get(Math.floorMod(writerState.sequence++ * 31 + (int) Thread.currentThread().getId(), leafNodes.size()));
+        topologyIM.registerNode(node);
+        return (node);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+
+/**
+ * A compressed bitmap of (non-negative) ordinals. The ordinal space is divided into chunks of
+ * CHUNK_SIZE ordinals, each held as an array of CHUNK_WORDS words - and a chunk with no members
+ * isn't held at all, so a bitmap costs (at most) a bit per ordinal within its populated chunks.
+ * <p>
+ * The bitmap is not thread-safe, access must be guarded by the owner (see NodeAttributeIndex).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+class CompressedBitmap {
+
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_WORDS = CHUNK_SIZE >>> 6;
+
+    private long[][] chunks;
+    private int[] chunkCardinalities;
+    private int cardinality;
+
+    CompressedBitmap() {
+        this.chunks = new long[0][];
+        this.chunkCardinalities = new int[0];
+        this.cardinality = 0;
+    }
+
+    /**
+     * @param ordinal The ordinal to add
+     * @return True if the ordinal wasn't already a member
+     */
+    boolean add(int ordinal) {
+        int chunkIndex = ordinal >>> CHUNK_SHIFT;
+        if (chunkIndex >= chunks.length) {
+            int newLength = Math.max(chunkIndex + 1, chunks.length * 2);
+            chunks = Arrays.copyOf(chunks, newLength);
+            chunkCardinalities = Arrays.copyOf(chunkCardinalities, newLength);
+        }
+        long[] chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            chunk = new long[CHUNK_WORDS];
+            chunks[chunkIndex] = chunk;
+        }
+        int wordIndex = (ordinal & (CHUNK_SIZE - 1)) >>> 6;
+        long bit = 1L << ordinal;
+        if ((chunk[wordIndex] & bit) != 0) {
+            return (false);
+        }
+        chunk[wordIndex] |= bit;
+        chunkCardinalities[chunkIndex]++;
+        cardinality++;
+        return (true);
+    }
+
+    /**
+     * @param ordinal The ordinal to remove
+     * @return True if the ordinal was a member
+     */
+    boolean remove(int ordinal) {
+        int chunkIndex = ordinal >>> CHUNK_SHIFT;
+        if (chunkIndex >= chunks.length || chunks[chunkIndex] == null) {
+            return (false);
+        }
+        long[] chunk = chunks[chunkIndex];
+        int wordIndex = (ordinal & (CHUNK_SIZE - 1)) >>> 6;
+        long bit = 1L << ordinal;
+        if ((chunk[wordIndex] & bit) == 0) {
+            return (false);
+        }
+        chunk[wordIndex] &= ~bit;
+        cardinality--;
+        chunkCardinalities[chunkIndex]--;
+        if (chunkCardinalities[chunkIndex] == 0) {
+            chunks[chunkIndex] = null;
+        }
+        return (true);
+    }
+
+    boolean contains(int ordinal) {
+        int chunkIndex = ordinal >>> CHUNK_SHIFT;
+        if (chunkIndex >= chunks.length || chunks[chunkIndex] == null) {
+            return (false);
+        }
+        return ((chunks[chunkIndex][(ordinal & (CHUNK_SIZE - 1)) >>> 6] & (1L << ordinal)) != 0);
+    }
+
+    int getCardinality() {
+        return (cardinality);
+    }
+
+    /**
+     * @return The number of chunks spanned by the bitmap (populated or not)
+     */
+    int getChunkCount() {
+        return (chunks.length);
+    }
+
+    /**
+     * @param chunkIndex The index of the chunk
+     * @return The words of the chunk (not a copy), or null if the chunk has no members
+     */
+    long[] getChunk(int chunkIndex) {
+        if (chunkIndex >= chunks.length) {
+            return (null);
+        }
+        return (chunks[chunkIndex]);
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An explicit (materialised) view of the Node containment hierarchy, as described by each
+ * NodeElement's containing element identifier.
+ * <p>
+ * Each node in the tree carries its full ancestor path (the canonical keys from the root of its
+ * tree down to, and including, itself) and the size of its subtree. As the path is indexed by
+ * depth, "is A an ancestor of B" is answered in constant time by checking whether B's path holds
+ * A's key at A's depth. Both are maintained incrementally: adding or removing a leaf costs
+ * O(depth), re-parenting a subtree costs O(subtree size).
+ * <p>
+ * A node may be registered before its containing node; it is then held as a (temporary) root and
+ * is attached to its container when the container is registered. Likewise, the children of a
+ * removed node become roots until their container is re-registered.
+ * <p>
+ * A containing node that would make a node (transitively) contain itself is rejected before the
+ * tree is changed, so the tree never holds a cycle.
+ * <p>
+ * The tree keys its nodes by the (shared) canonical key instances held by the ParsedIdentifierCache.
+ * <p>
+ * Mutations are serialised on the tree instance, queries are lock-free.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class ContainmentTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContainmentTree.class);
+
+    private ConcurrentHashMap<String, TreeNode> treeNodeSet;
+    private HashMap<String, Set<String>> pendingChildren;
+    private Set<String> rootKeys;
+    private ParsedIdentifierCache parsedIdentifiers;
+
+    public ContainmentTree(ParsedIdentifierCache parsedIdentifiers) {
+        this.treeNodeSet = new ConcurrentHashMap<String, TreeNode>();
+        this.pendingChildren = new HashMap<String, Set<String>>();
+        this.rootKeys = ConcurrentHashMap.newKeySet();
+        this.parsedIdentifiers = parsedIdentifiers;
+    }
+
+    private static class TreeNode {
+        final String key;
+        final NodeElementIdentifier nodeID;
+        volatile Set<String> children;
+        volatile String parentKey;
+        volatile String[] ancestorPath;
+        volatile int subtreeSize;
+
+        TreeNode(String key, NodeElementIdentifier nodeID) {
+            this.key = key;
+            this.nodeID = nodeID;
+            this.children = Collections.emptySet();
+            this.parentKey = null;
+            this.ancestorPath = new String[]{key};
+            this.subtreeSize = 1;
+        }
+    }
+
+    /**
+     * Adds the node to the tree (or, if it's already present, moves it if its containing node
+     * has changed).
+     *
+     * @param nodeID The identifier of the node
+     * @param containingNodeID The identifier of the node's containing node (may be null)
+     * @throws IllegalArgumentException if the node would (transitively) contain itself, in which
+     * case the tree is left unchanged
+     */
+    public synchronized void addNode(NodeElementIdentifier nodeID, NodeElementIdentifier containingNodeID) {
+        LOG.debug(".addNode(): Entry, nodeID --> {}, containingNodeID --> {}", nodeID, containingNodeID);
+        String nodeKey = parsedIdentifiers.keyOf(nodeID);
+        String parentKey = null;
+        if (containingNodeID != null) {
+            parentKey = parsedIdentifiers.keyOf(containingNodeID);
+        }
+        if (wouldCreateCycle(nodeKey, parentKey)) {
+            throw (new IllegalArgumentException(".addNode(): containing node would make the node contain itself, nodeID --> " + nodeKey + ", containingNodeID --> " + parentKey));
+        }
+        TreeNode treeNode = treeNodeSet.get(nodeKey);
+        if (treeNode != null) {
+            if (Objects.equals(treeNode.parentKey, parentKey)) {
+                LOG.trace(".addNode(): Node already in tree with same containing node, nothing to do");
+                return;
+            }
+            detach(treeNode);
+        } else {
+            treeNode = new TreeNode(nodeKey, nodeID);
+            treeNodeSet.put(nodeKey, treeNode);
+            Set<String> waitingChildren = pendingChildren.remove(nodeKey);
+            if (waitingChildren != null) {
+                LOG.trace(".addNode(): Adopting {} previously registered contained nodes", waitingChildren.size());
+                for (String childKey : waitingChildren) {
+                    TreeNode childNode = treeNodeSet.get(childKey);
+                    if (childNode != null) {
+                        link(treeNode, childNode);
+                    }
+                }
+            }
+        }
+        attach(treeNode, parentKey);
+    }
+
+    public synchronized void removeNode(NodeElementIdentifier nodeID) {
+        LOG.debug(".removeNode(): Entry, nodeID --> {}", nodeID);
+        String nodeKey = TopologyDM.canonicalKey(nodeID);
+        TreeNode treeNode = treeNodeSet.get(nodeKey);
+        if (treeNode == null) {
+            return;
+        }
+        detach(treeNode);
+        for (String childKey : treeNode.children) {
+            TreeNode childNode = treeNodeSet.get(childKey);
+            if (childNode != null) {
+                pendingChildren.computeIfAbsent(nodeKey, key -> new HashSet<String>()).add(childKey);
+                updateAncestorPaths(childNode, null);
+            }
+        }
+        treeNode.children = Collections.emptySet();
+        treeNodeSet.remove(nodeKey);
+        rootKeys.remove(nodeKey);
+    }
+
+    /**
+     * A link closes a cycle if the containing node is the node itself or one of its descendants.
+     * A node that isn't yet in the tree has no descendants, but it adopts the roots waiting for it
+     * (see addNode) - so the link closes a cycle if the containing node's tree hangs from one of
+     * those roots.
+     */
+    private boolean wouldCreateCycle(String nodeKey, String parentKey) {
+        if (parentKey == null) {
+            return (false);
+        }
+        if (parentKey.equals(nodeKey)) {
+            return (true);
+        }
+        TreeNode parentNode = treeNodeSet.get(parentKey);
+        if (parentNode == null) {
+            return (false);
+        }
+        String[] parentPath = parentNode.ancestorPath;
+        TreeNode treeNode = treeNodeSet.get(nodeKey);
+        if (treeNode != null) {
+            return (isAncestor(treeNode, parentPath));
+        }
+        TreeNode parentRootNode = treeNodeSet.get(parentPath[0]);
+        return (parentRootNode != null && nodeKey.equals(parentRootNode.parentKey));
+    }
+
+    private void attach(TreeNode treeNode, String parentKey) {
+        treeNode.parentKey = parentKey;
+        if (parentKey == null) {
+            updateAncestorPaths(treeNode, null);
+            return;
+        }
+        TreeNode parentNode = treeNodeSet.get(parentKey);
+        if (parentNode == null) {
+            LOG.trace(".attach(): Containing node not (yet) registered, holding node as a root");
+            pendingChildren.computeIfAbsent(parentKey, key -> new HashSet<String>()).add(treeNode.key);
+            updateAncestorPaths(treeNode, null);
+            return;
+        }
+        link(parentNode, treeNode);
+    }
+
+    private void link(TreeNode parentNode, TreeNode childNode) {
+        if (parentNode.children.isEmpty()) {
+            parentNode.children = ConcurrentHashMap.newKeySet();
+        }
+        parentNode.children.add(childNode.key);
+        updateAncestorPaths(childNode, parentNode.ancestorPath);
+        adjustSubtreeSizes(parentNode.ancestorPath, childNode.subtreeSize);
+    }
+
+    private void detach(TreeNode treeNode) {
+        String parentKey = treeNode.parentKey;
+        if (parentKey == null) {
+            return;
+        }
+        TreeNode parentNode = treeNodeSet.get(parentKey);
+        if (parentNode != null && parentNode.children.remove(treeNode.key)) {
+            adjustSubtreeSizes(parentNode.ancestorPath, -treeNode.subtreeSize);
+        } else {
+            Set<String> waitingChildren = pendingChildren.get(parentKey);
+            if (waitingChildren != null) {
+                waitingChildren.remove(treeNode.key);
+                if (waitingChildren.isEmpty()) {
+                    pendingChildren.remove(parentKey);
+                }
+            }
+        }
+        treeNode.parentKey = null;
+    }
+
+    private void updateAncestorPaths(TreeNode subtreeRoot, String[] parentPath) {
+        ArrayDeque<TreeNode> workQueue = new ArrayDeque<TreeNode>();
+        if (parentPath == null) {
+            subtreeRoot.ancestorPath = new String[]{subtreeRoot.key};
+            rootKeys.add(subtreeRoot.key);
+        } else {
+            rootKeys.remove(subtreeRoot.key);
+            String[] newPath = Arrays.copyOf(parentPath, parentPath.length + 1);
+            newPath[parentPath.length] = subtreeRoot.key;
+            subtreeRoot.ancestorPath = newPath;
+        }
+        workQueue.add(subtreeRoot);
+        while (!workQueue.isEmpty()) {
+            TreeNode currentNode = workQueue.poll();
+            String[] currentPath = currentNode.ancestorPath;
+            for (String childKey : currentNode.children) {
+                TreeNode childNode = treeNodeSet.get(childKey);
+                if (childNode != null) {
+                    String[] childPath = Arrays.copyOf(currentPath, currentPath.length + 1);
+                    childPath[currentPath.length] = childKey;
+                    childNode.ancestorPath = childPath;
+                    workQueue.add(childNode);
+                }
+            }
+        }
+    }
+
+    private void adjustSubtreeSizes(String[] path, int delta) {
+        for (String ancestorKey : path) {
+            TreeNode ancestorNode = treeNodeSet.get(ancestorKey);
+            if (ancestorNode != null) {
+                ancestorNode.subtreeSize += delta;
+            }
+        }
+    }
+
+    //
+    // Queries
+    //
+
+    public boolean contains(NodeElementIdentifier nodeID) {
+        return (treeNodeSet.containsKey(TopologyDM.canonicalKey(nodeID)));
+    }
+
+    /**
+     * Tests whether one node (transitively) contains another. A node is not its own ancestor.
+     *
+     * @param ancestorID The identifier of the (possible) containing node
+     * @param descendantID The identifier of the (possible) contained node
+     * @return True if ancestorID is on the containment path of descendantID
+     */
+    public boolean isAncestorOf(NodeElementIdentifier ancestorID, NodeElementIdentifier descendantID) {
+        if (ancestorID == null || descendantID == null) {
+            return (false);
+        }
+        TreeNode ancestorNode = treeNodeSet.get(TopologyDM.canonicalKey(ancestorID));
+        TreeNode descendantNode = treeNodeSet.get(TopologyDM.canonicalKey(descendantID));
+        if (ancestorNode == null || descendantNode == null) {
+            return (false);
+        }
+        return (isAncestor(ancestorNode, descendantNode.ancestorPath));
+    }
+
+    private static boolean isAncestor(TreeNode ancestorNode, String[] descendantPath) {
+        int ancestorDepth = ancestorNode.ancestorPath.length - 1;
+        if (descendantPath.length <= ancestorDepth + 1) {
+            return (false);
+        }
+        return (descendantPath[ancestorDepth].equals(ancestorNode.key));
+    }
+
+    /**
+     * @param nodeKey The canonical key of the node
+     * @return The canonical key of the node's containing node (which may not yet be registered), or
+     * null if the node has none or isn't in the tree
+     */
+    public String getContainingKey(String nodeKey) {
+        TreeNode treeNode = treeNodeSet.get(nodeKey);
+        if (treeNode == null) {
+            return (null);
+        }
+        return (treeNode.parentKey);
+    }
+
+    /**
+     * @param nodeID The identifier of the node
+     * @return The canonical keys of the node's ancestors - from the root down to (and including) the
+     * node itself, or null if the node isn't in the tree
+     */
+    public String[] getAncestorPath(NodeElementIdentifier nodeID) {
+        TreeNode treeNode = treeNodeSet.get(TopologyDM.canonicalKey(nodeID));
+        if (treeNode == null) {
+            return (null);
+        }
+        return (treeNode.ancestorPath);
+    }
+
+    /**
+     * @param nodeKey The canonical key of the node
+     * @return The canonical keys of the nodes directly contained within the node (a read-only view,
+     * live once the node has contained nodes), or an empty set if the node isn't in the tree
+     */
+    public Set<String> getChildKeys(String nodeKey) {
+        TreeNode treeNode = treeNodeSet.get(nodeKey);
+        if (treeNode == null) {
+            return (Collections.emptySet());
+        }
+        return (Collections.unmodifiableSet(treeNode.children));
+    }
+
+    /**
+     * @param nodeID The identifier of the node
+     * @return The depth of the node within the tree (a root has depth 0), or -1 if the node isn't in the tree
+     */
+    public int getDepth(NodeElementIdentifier nodeID) {
+        TreeNode treeNode = treeNodeSet.get(TopologyDM.canonicalKey(nodeID));
+        if (treeNode == null) {
+            return (-1);
+        }
+        return (treeNode.ancestorPath.length - 1);
+    }
+
+    /**
+     * @return The number of nodes at each depth of the tree (indexed by depth, a root has depth 0)
+     */
+    public long[] getDepthDistribution() {
+        long[] depthCounts = new long[8];
+        for (TreeNode currentTreeNode : treeNodeSet.values()) {
+            int depth = currentTreeNode.ancestorPath.length - 1;
+            if (depth >= depthCounts.length) {
+                depthCounts = Arrays.copyOf(depthCounts, Math.max(depth + 1, depthCounts.length * 2));
+            }
+            depthCounts[depth]++;
+        }
+        int maximumDepth = depthCounts.length - 1;
+        while (maximumDepth > 0 && depthCounts[maximumDepth] == 0) {
+            maximumDepth--;
+        }
+        return (Arrays.copyOf(depthCounts, maximumDepth + 1));
+    }
+
+    public int size() {
+        return (treeNodeSet.size());
+    }
+
+    /**
+     * @return The canonical keys of the nodes at the root of the tree (those with no registered
+     * containing node) - a live, read-only view
+     */
+    public Set<String> getRootKeys() {
+        return (Collections.unmodifiableSet(rootKeys));
+    }
+
+    /**
+     * @param nodeID The identifier of the node
+     * @return The number of nodes in the subtree rooted at the node (including the node itself), or
+     * 0 if the node isn't in the tree
+     */
+    public int getSubtreeSize(NodeElementIdentifier nodeID) {
+        TreeNode treeNode = treeNodeSet.get(TopologyDM.canonicalKey(nodeID));
+        if (treeNode == null) {
+            return (0);
+        }
+        return (treeNode.subtreeSize);
+    }
+
+    /**
+     * @param nodeID The identifier of the node
+     * @return The identifiers of all the nodes (transitively) contained within the node, in
+     * breadth-first order (the node itself is not included)
+     */
+    public List<NodeElementIdentifier> getDescendants(NodeElementIdentifier nodeID) {
+        ArrayList<NodeElementIdentifier> descendants = new ArrayList<NodeElementIdentifier>();
+        if (nodeID == null) {
+            return (descendants);
+        }
+        TreeNode treeNode = treeNodeSet.get(TopologyDM.canonicalKey(nodeID));
+        if (treeNode == null) {
+            return (descendants);
+        }
+        ArrayDeque<TreeNode> workQueue = new ArrayDeque<TreeNode>();
+        workQueue.add(treeNode);
+        while (!workQueue.isEmpty()) {
+            TreeNode currentNode = workQueue.poll();
+            for (String childKey : currentNode.children) {
+                TreeNode childNode = treeNodeSet.get(childKey);
+                if (childNode != null) {
+                    descendants.add(childNode.nodeID);
+                    workQueue.add(childNode);
+                }
+            }
+        }
+        return (descendants);
+    }
+}
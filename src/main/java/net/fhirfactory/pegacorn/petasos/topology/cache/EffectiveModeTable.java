@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A precomputed table of the effective ConcurrencyModeEnum and ResilienceModeEnum of each Node.
+ * A Node that doesn't carry an explicit mode inherits the effective mode of its containing node
+ * (see NodeElement.getContainingElementID()), and a Node with no containing node (or whose
+ * containing node isn't registered) defaults to the STANDALONE modes. The two modes are inherited
+ * independently.
+ * <p>
+ * The table is maintained incrementally: when a Node is added, replaced or removed, the effective
+ * modes of the Node and its (transitively) contained nodes are re-resolved - stopping at any
+ * contained node whose effective modes are unchanged.
+ * <p>
+ * Each entry records the explicit modes its Node had when it was resolved (and the entry of the
+ * containing node it inherited from), and a query checks them against the live NodeElements up the
+ * inheritance chain - so a mode set directly on a registered NodeElement (rather than by re-adding
+ * it) is noticed by the next query of that Node or of any Node inheriting from it, and the affected
+ * entries are re-resolved there and then (which also brings the attribute index up to date, via the
+ * mode change listener).
+ * <p>
+ * Queries are allocation-free: the effective modes are interned (one instance per mode
+ * combination), and a small direct-mapped cache (indexed by the hash of the identifier's content)
+ * maps recently queried identifiers to their entry, so a repeated query - with the same or an equal
+ * identifier instance - is an array read and a walk of the (short) inheritance chain. The cache
+ * only ever refers to the entries of registered Nodes (a removed Node's entry is cleared from it).
+ * <p>
+ * Mutations are serialised on the table instance, queries are lock-free.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class EffectiveModeTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EffectiveModeTable.class);
+
+    private static final int PROBE_SLOTS = 4096;
+    private static final EffectiveModes[][] INTERNED_MODES = internModes();
+    private static final EffectiveModes DEFAULT_MODES = EffectiveModes.of(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE, ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
+
+    private ConcurrentHashMap<String, ModeEntry> effectiveModeSet;
+    private AtomicReferenceArray<ModeEntry> entryProbes;
+    private Function<String, NodeElement> nodeLookup;
+    private ContainmentTree containmentTree;
+    private BiConsumer<String, EffectiveModes> modeChangeListener;
+
+    /**
+     * @param nodeLookup Resolves a canonical key to the registered Node
+     * @param containmentTree The containment hierarchy the modes are inherited through
+     * @param modeChangeListener Is given the canonical key and new effective modes of each Node
+     * whose effective modes change (called with the table locked)
+     */
+    public EffectiveModeTable(Function<String, NodeElement> nodeLookup, ContainmentTree containmentTree, BiConsumer<String, EffectiveModes> modeChangeListener) {
+        this.effectiveModeSet = new ConcurrentHashMap<String, ModeEntry>();
+        this.entryProbes = new AtomicReferenceArray<ModeEntry>(PROBE_SLOTS);
+        this.nodeLookup = nodeLookup;
+        this.containmentTree = containmentTree;
+        this.modeChangeListener = modeChangeListener;
+    }
+
+    private static EffectiveModes[][] internModes() {
+        ConcurrencyModeEnum[] concurrencyModes = ConcurrencyModeEnum.values();
+        ResilienceModeEnum[] resilienceModes = ResilienceModeEnum.values();
+        EffectiveModes[][] internedModes = new EffectiveModes[concurrencyModes.length][resilienceModes.length];
+        for (ConcurrencyModeEnum concurrencyMode : concurrencyModes) {
+            for (ResilienceModeEnum resilienceMode : resilienceModes) {
+                internedModes[concurrencyMode.ordinal()][resilienceMode.ordinal()] = new EffectiveModes(concurrencyMode, resilienceMode);
+            }
+        }
+        return (internedModes);
+    }
+
+    /**
+     * The (immutable, interned) effective modes of a Node.
+     */
+    public static final class EffectiveModes {
+        private final ConcurrencyModeEnum concurrencyMode;
+        private final ResilienceModeEnum resilienceMode;
+
+        private EffectiveModes(ConcurrencyModeEnum concurrencyMode, ResilienceModeEnum resilienceMode) {
+            this.concurrencyMode = concurrencyMode;
+            this.resilienceMode = resilienceMode;
+        }
+
+        static EffectiveModes of(ConcurrencyModeEnum concurrencyMode, ResilienceModeEnum resilienceMode) {
+            return (INTERNED_MODES[concurrencyMode.ordinal()][resilienceMode.ordinal()]);
+        }
+
+        public ConcurrencyModeEnum getConcurrencyMode() {
+            return concurrencyMode;
+        }
+
+        public ResilienceModeEnum getResilienceMode() {
+            return resilienceMode;
+        }
+    }
+
+    /**
+     * The (one) entry of a registered Node, for as long as it stays registered - so the entries of
+     * the Nodes inheriting from it can refer to it directly.
+     */
+    private static final class ModeEntry {
+        final String nodeKey;
+        final String nodeContent;
+        volatile ResolvedModes resolvedModes;
+        volatile boolean removed;
+
+        ModeEntry(String nodeKey, String nodeContent, ResolvedModes resolvedModes) {
+            this.nodeKey = nodeKey;
+            this.nodeContent = nodeContent;
+            this.resolvedModes = resolvedModes;
+            this.removed = false;
+        }
+    }
+
+    /**
+     * The outcome of resolving a Node's effective modes, and what they were resolved from.
+     */
+    private static final class ResolvedModes {
+        final NodeElement node;
+        final ConcurrencyModeEnum explicitConcurrencyMode;
+        final ResilienceModeEnum explicitResilienceMode;
+        final ModeEntry containingEntry;
+        final EffectiveModes effectiveModes;
+
+        ResolvedModes(NodeElement node, ConcurrencyModeEnum explicitConcurrencyMode, ResilienceModeEnum explicitResilienceMode, ModeEntry containingEntry, EffectiveModes effectiveModes) {
+            this.node = node;
+            this.explicitConcurrencyMode = explicitConcurrencyMode;
+            this.explicitResilienceMode = explicitResilienceMode;
+            this.containingEntry = containingEntry;
+            this.effectiveModes = effectiveModes;
+        }
+
+        boolean isStale() {
+            return (node.getConcurrencyMode() != explicitConcurrencyMode || node.getResilienceMode() != explicitResilienceMode);
+        }
+    }
+
+    private static int probeSlot(String nodeContent) {
+        return (nodeContent.hashCode() & (PROBE_SLOTS - 1));
+    }
+
+    //
+    // Maintenance
+    //
+
+    /**
+     * Re-resolves the effective modes of a newly added (or replaced) Node, and of the nodes it
+     * contains. Must be called after the Node has been added to the node map and the containment
+     * tree.
+     *
+     * @param nodeKey The canonical key of the Node
+     */
+    public synchronized void updateNode(String nodeKey) {
+        LOG.trace(".updateNode(): Entry, nodeKey --> {}", nodeKey);
+        ArrayDeque<String> workQueue = new ArrayDeque<String>();
+        workQueue.add(nodeKey);
+        boolean subtreeRoot = true;
+        int resolvedCount = 0;
+        while (!workQueue.isEmpty()) {
+            String currentKey = workQueue.poll();
+            NodeElement currentNode = nodeLookup.apply(currentKey);
+            if (currentNode == null) {
+                continue;
+            }
+            ResolvedModes resolvedModes = resolve(currentNode);
+            ModeEntry currentEntry = effectiveModeSet.get(currentKey);
+            EffectiveModes previousModes = null;
+            if (currentEntry == null) {
+                effectiveModeSet.put(currentKey, new ModeEntry(currentKey, currentNode.getNodeInstanceID().getContent(), resolvedModes));
+            } else {
+                previousModes = currentEntry.resolvedModes.effectiveModes;
+                currentEntry.resolvedModes = resolvedModes;
+            }
+            if (previousModes != resolvedModes.effectiveModes) {
+                modeChangeListener.accept(currentKey, resolvedModes.effectiveModes);
+            }
+            resolvedCount++;
+            if (subtreeRoot || previousModes != resolvedModes.effectiveModes) {
+                workQueue.addAll(containmentTree.getChildKeys(currentKey));
+            }
+            subtreeRoot = false;
+        }
+        LOG.trace(".updateNode(): Exit, re-resolved node count --> {}", resolvedCount);
+    }
+
+    /**
+     * Removes a Node from the table, and re-resolves the effective modes of the nodes it contains
+     * (which no longer have a registered container to inherit from). Must be called after the Node
+     * has been removed from the node map, but before it is removed from the containment tree.
+     *
+     * @param nodeKey The canonical key of the Node
+     */
+    public synchronized void removeNode(String nodeKey) {
+        LOG.trace(".removeNode(): Entry, nodeKey --> {}", nodeKey);
+        ModeEntry removedEntry = effectiveModeSet.remove(nodeKey);
+        if (removedEntry == null) {
+            return;
+        }
+        removedEntry.removed = true;
+        entryProbes.compareAndSet(probeSlot(removedEntry.nodeContent), removedEntry, null);
+        for (String childKey : containmentTree.getChildKeys(nodeKey)) {
+            updateNode(childKey);
+        }
+    }
+
+    private ResolvedModes resolve(NodeElement node) {
+        ConcurrencyModeEnum explicitConcurrencyMode = node.getConcurrencyMode();
+        ResilienceModeEnum explicitResilienceMode = node.getResilienceMode();
+        if (explicitConcurrencyMode != null && explicitResilienceMode != null) {
+            return (new ResolvedModes(node, explicitConcurrencyMode, explicitResilienceMode, null, EffectiveModes.of(explicitConcurrencyMode, explicitResilienceMode)));
+        }
+        ModeEntry containingEntry = null;
+        EffectiveModes inheritedModes = DEFAULT_MODES;
+        if (node.getContainingElementID() != null) {
+            containingEntry = effectiveModeSet.get(TopologyDM.canonicalKey(node.getContainingElementID()));
+            if (containingEntry != null) {
+                inheritedModes = containingEntry.resolvedModes.effectiveModes;
+            }
+        }
+        ConcurrencyModeEnum concurrencyMode = explicitConcurrencyMode == null ? inheritedModes.getConcurrencyMode() : explicitConcurrencyMode;
+        ResilienceModeEnum resilienceMode = explicitResilienceMode == null ? inheritedModes.getResilienceMode() : explicitResilienceMode;
+        return (new ResolvedModes(node, explicitConcurrencyMode, explicitResilienceMode, containingEntry, EffectiveModes.of(concurrencyMode, resilienceMode)));
+    }
+
+    /**
+     * Re-resolves the entries, up the inheritance chain of the given entry, whose Nodes' explicit
+     * modes have been changed directly - the furthest up first, as re-resolving it may re-resolve
+     * the rest.
+     */
+    private synchronized void refreshStaleEntries(ModeEntry entry) {
+        int remainingPasses = Integer.MAX_VALUE;
+        while (remainingPasses > 0) {
+            ModeEntry furthestStaleEntry = null;
+            int chainLength = 0;
+            for (ModeEntry currentEntry = entry; currentEntry != null; currentEntry = currentEntry.resolvedModes.containingEntry) {
+                if (currentEntry.removed) {
+                    return;
+                }
+                if (currentEntry.resolvedModes.isStale()) {
+                    furthestStaleEntry = currentEntry;
+                }
+                chainLength++;
+            }
+            if (furthestStaleEntry == null) {
+                return;
+            }
+            LOG.debug(".refreshStaleEntries(): Explicit modes changed directly, re-resolving nodeKey --> {}", furthestStaleEntry.nodeKey);
+            updateNode(furthestStaleEntry.nodeKey);
+            remainingPasses = Math.min(remainingPasses, chainLength) - 1;
+        }
+    }
+
+    //
+    // Queries
+    //
+
+    /**
+     * @param nodeID The identifier of the Node
+     * @return The effective modes of the Node, or the STANDALONE modes if the Node isn't registered
+     */
+    public EffectiveModes getEffectiveModes(NodeElementIdentifier nodeID) {
+        if (nodeID == null || nodeID.getContent() == null) {
+            return (DEFAULT_MODES);
+        }
+        String nodeContent = nodeID.getContent();
+        int probeSlot = probeSlot(nodeContent);
+        ModeEntry entry = entryProbes.get(probeSlot);
+        if (entry == null || entry.removed || !entry.nodeContent.equals(nodeContent)) {
+            entry = effectiveModeSet.get(TopologyDM.canonicalKey(nodeID));
+            if (entry == null) {
+                return (DEFAULT_MODES);
+            }
+            entryProbes.set(probeSlot, entry);
+            if (entry.removed) {
+                entryProbes.compareAndSet(probeSlot, entry, null);
+            }
+        }
+        for (ModeEntry currentEntry = entry; currentEntry != null; currentEntry = currentEntry.resolvedModes.containingEntry) {
+            if (currentEntry.removed || currentEntry.resolvedModes.isStale()) {
+                refreshStaleEntries(entry);
+                break;
+            }
+        }
+        return (entry.resolvedModes.effectiveModes);
+    }
+
+    public int size() {
+        return (effectiveModeSet.size());
+    }
+}
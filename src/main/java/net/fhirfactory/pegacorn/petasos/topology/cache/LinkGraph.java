@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An adjacency index over the LinkElements of the topology, plus (memoised) path queries on top
+ * of it.
+ * <p>
+ * Each Link joins its source to its target (each of which is an Endpoint or a Node). The outgoing
+ * and incoming Links of every source/target are indexed as Links are added and removed, and the
+ * Endpoints of each Node are tracked (as Nodes are added and removed) so that the Links of a Node
+ * include those of its Endpoints. For the path queries, an Endpoint stands in for the Node that
+ * owns it, so paths are expressed Node-to-Node.
+ * <p>
+ * Query results are memoised against the topology epoch at which they were computed, and are
+ * discarded once the epoch moves on.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class LinkGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinkGraph.class);
+
+    private static final int MAXIMUM_MEMOISED_RESULTS = 10000;
+
+    private static final String[] NO_KEYS = new String[0];
+
+    private ConcurrentHashMap<String, String[]> outgoingLinks;
+    private ConcurrentHashMap<String, String[]> incomingLinks;
+    private ConcurrentHashMap<String, String> endpointOwners;
+    private ConcurrentHashMap<String, String[]> ownedEndpoints;
+    private ConcurrentHashMap<String, MemoisedResult> memoisedResults;
+    private Function<String, LinkElement> linkLookup;
+    private Function<String, NodeElement> nodeLookup;
+    private LongSupplier epochSupplier;
+    private ParsedIdentifierCache parsedIdentifiers;
+
+    public LinkGraph(Function<String, LinkElement> linkLookup, Function<String, NodeElement> nodeLookup, LongSupplier epochSupplier, ParsedIdentifierCache parsedIdentifiers) {
+        this.outgoingLinks = new ConcurrentHashMap<String, String[]>();
+        this.incomingLinks = new ConcurrentHashMap<String, String[]>();
+        this.endpointOwners = new ConcurrentHashMap<String, String>();
+        this.ownedEndpoints = new ConcurrentHashMap<String, String[]>();
+        this.memoisedResults = new ConcurrentHashMap<String, MemoisedResult>();
+        this.linkLookup = linkLookup;
+        this.nodeLookup = nodeLookup;
+        this.epochSupplier = epochSupplier;
+        this.parsedIdentifiers = parsedIdentifiers;
+    }
+
+    private static class MemoisedResult {
+        final long epoch;
+        final Object result;
+
+        MemoisedResult(long epoch, Object result) {
+            this.epoch = epoch;
+            this.result = result;
+        }
+    }
+
+    //
+    // Maintenance
+    //
+
+    public void addLink(LinkElement link, String linkKey) {
+        if (link.getSource() != null) {
+            addAdjacency(outgoingLinks, parsedIdentifiers.keyOf(link.getSource()), linkKey);
+        }
+        if (link.getTarget() != null) {
+            addAdjacency(incomingLinks, parsedIdentifiers.keyOf(link.getTarget()), linkKey);
+        }
+    }
+
+    public void removeLink(LinkElement link, String linkKey) {
+        if (link.getSource() != null) {
+            removeAdjacency(outgoingLinks, TopologyDM.canonicalKey(link.getSource()), linkKey);
+        }
+        if (link.getTarget() != null) {
+            removeAdjacency(incomingLinks, TopologyDM.canonicalKey(link.getTarget()), linkKey);
+        }
+    }
+
+    public void addNode(NodeElement node, String nodeKey) {
+        Set<EndpointElementIdentifier> endpointIDs = node.getEndpoints();
+        if (endpointIDs == null) {
+            return;
+        }
+        for (EndpointElementIdentifier currentEndpointID : endpointIDs) {
+            String endpointKey = parsedIdentifiers.keyOf(currentEndpointID);
+            endpointOwners.put(endpointKey, nodeKey);
+            addAdjacency(ownedEndpoints, nodeKey, endpointKey);
+        }
+    }
+
+    public void removeNode(String nodeKey) {
+        String[] endpointKeys = ownedEndpoints.remove(nodeKey);
+        if (endpointKeys == null) {
+            return;
+        }
+        for (String currentEndpointKey : endpointKeys) {
+            endpointOwners.remove(currentEndpointKey, nodeKey);
+        }
+    }
+
+    /**
+     * Each adjacency is an immutable array of keys (replaced on write) - an element has only a few
+     * Links (or Endpoints), so this is far more compact than a concurrent set per element.
+     */
+    private static void addAdjacency(ConcurrentHashMap<String, String[]> adjacency, String fromKey, String toKey) {
+        adjacency.compute(fromKey, (key, adjacent) -> {
+            if (adjacent == null) {
+                return (new String[]{toKey});
+            }
+            for (String currentKey : adjacent) {
+                if (currentKey.equals(toKey)) {
+                    return (adjacent);
+                }
+            }
+            String[] newAdjacent = Arrays.copyOf(adjacent, adjacent.length + 1);
+            newAdjacent[adjacent.length] = toKey;
+            return (newAdjacent);
+        });
+    }
+
+    private static void removeAdjacency(ConcurrentHashMap<String, String[]> adjacency, String fromKey, String toKey) {
+        adjacency.computeIfPresent(fromKey, (key, adjacent) -> {
+            String[] newAdjacent = new String[adjacent.length];
+            int newAdjacentSize = 0;
+            for (String currentKey : adjacent) {
+                if (!currentKey.equals(toKey)) {
+                    newAdjacent[newAdjacentSize] = currentKey;
+                    newAdjacentSize++;
+                }
+            }
+            if (newAdjacentSize == 0) {
+                return (null);
+            }
+            return (Arrays.copyOf(newAdjacent, newAdjacentSize));
+        });
+    }
+
+    //
+    // Adjacency Queries
+    //
+
+    public List<LinkElement> getOutgoingLinks(FDNToken elementID) {
+        return (resolveLinks(collectLinkKeys(outgoingLinks, TopologyDM.canonicalKey(elementID))));
+    }
+
+    public List<LinkElement> getIncomingLinks(FDNToken elementID) {
+        return (resolveLinks(collectLinkKeys(incomingLinks, TopologyDM.canonicalKey(elementID))));
+    }
+
+    private Set<String> collectLinkKeys(ConcurrentHashMap<String, String[]> adjacency, String elementKey) {
+        HashSet<String> linkKeys = new HashSet<String>();
+        Collections.addAll(linkKeys, adjacency.getOrDefault(elementKey, NO_KEYS));
+        for (String currentEndpointKey : ownedEndpoints.getOrDefault(elementKey, NO_KEYS)) {
+            Collections.addAll(linkKeys, adjacency.getOrDefault(currentEndpointKey, NO_KEYS));
+        }
+        return (linkKeys);
+    }
+
+    private List<LinkElement> resolveLinks(Set<String> linkKeys) {
+        ArrayList<LinkElement> links = new ArrayList<LinkElement>(linkKeys.size());
+        for (String currentLinkKey : linkKeys) {
+            LinkElement currentLink = linkLookup.apply(currentLinkKey);
+            if (currentLink != null) {
+                links.add(currentLink);
+            }
+        }
+        return (links);
+    }
+
+    //
+    // Path Queries
+    //
+
+    private String vertexOf(String elementKey) {
+        String ownerKey = endpointOwners.get(elementKey);
+        if (ownerKey != null) {
+            return (ownerKey);
+        }
+        return (elementKey);
+    }
+
+    private Object memoised(String queryKey) {
+        MemoisedResult memoisedResult = memoisedResults.get(queryKey);
+        if (memoisedResult != null && memoisedResult.epoch == epochSupplier.getAsLong()) {
+            return (memoisedResult.result);
+        }
+        return (null);
+    }
+
+    private void memoise(String queryKey, long epoch, Object result) {
+        if (epochSupplier.getAsLong() != epoch) {
+            return;
+        }
+        if (memoisedResults.size() >= MAXIMUM_MEMOISED_RESULTS) {
+            LOG.trace(".memoise(): Memoised result set is full, clearing it");
+            memoisedResults.clear();
+        }
+        memoisedResults.put(queryKey, new MemoisedResult(epoch, result));
+    }
+
+    /**
+     * Performs a breadth-first search (following Links from source to target) from the given vertex,
+     * recording the Link by which each vertex was first reached.
+     */
+    private HashMap<String, String> search(String fromVertex, String toVertex) {
+        HashMap<String, String> arrivalLinks = new HashMap<String, String>();
+        arrivalLinks.put(fromVertex, null);
+        ArrayDeque<String> workQueue = new ArrayDeque<String>();
+        workQueue.add(fromVertex);
+        while (!workQueue.isEmpty()) {
+            String currentVertex = workQueue.poll();
+            if (currentVertex.equals(toVertex)) {
+                break;
+            }
+            for (String currentLinkKey : collectLinkKeys(outgoingLinks, currentVertex)) {
+                LinkElement currentLink = linkLookup.apply(currentLinkKey);
+                if (currentLink == null || currentLink.getTarget() == null) {
+                    continue;
+                }
+                String nextVertex = vertexOf(TopologyDM.canonicalKey(currentLink.getTarget()));
+                if (!arrivalLinks.containsKey(nextVertex)) {
+                    arrivalLinks.put(nextVertex, currentLinkKey);
+                    workQueue.add(nextVertex);
+                }
+            }
+        }
+        return (arrivalLinks);
+    }
+
+    public boolean isReachable(FDNToken fromElementID, FDNToken toElementID) {
+        if (fromElementID == null || toElementID == null) {
+            return (false);
+        }
+        String fromVertex = vertexOf(TopologyDM.canonicalKey(fromElementID));
+        String toVertex = vertexOf(TopologyDM.canonicalKey(toElementID));
+        String queryKey = "R|" + fromVertex + "|" + toVertex;
+        Object result = memoised(queryKey);
+        if (result == null) {
+            long epoch = epochSupplier.getAsLong();
+            result = search(fromVertex, toVertex).containsKey(toVertex);
+            memoise(queryKey, epoch, result);
+        }
+        return ((Boolean) result);
+    }
+
+    /**
+     * @param fromElementID The identifier of the Node (or Endpoint) at the start of the path
+     * @param toElementID The identifier of the Node (or Endpoint) at the end of the path
+     * @return The Links (in order) along a path with the fewest hops, an empty list if the two are
+     * the same vertex, or null if there is no path
+     */
+    @SuppressWarnings("unchecked")
+    public List<LinkElement> getShortestPath(FDNToken fromElementID, FDNToken toElementID) {
+        if (fromElementID == null || toElementID == null) {
+            return (null);
+        }
+        String fromVertex = vertexOf(TopologyDM.canonicalKey(fromElementID));
+        String toVertex = vertexOf(TopologyDM.canonicalKey(toElementID));
+        String queryKey = "P|" + fromVertex + "|" + toVertex;
+        Object result = memoised(queryKey);
+        if (result == null) {
+            long epoch = epochSupplier.getAsLong();
+            HashMap<String, String> arrivalLinks = search(fromVertex, toVertex);
+            List<LinkElement> path = null;
+            if (arrivalLinks.containsKey(toVertex)) {
+                ArrayList<LinkElement> workingPath = new ArrayList<LinkElement>();
+                String currentVertex = toVertex;
+                String arrivalLinkKey = arrivalLinks.get(currentVertex);
+                while (arrivalLinkKey != null) {
+                    LinkElement arrivalLink = linkLookup.apply(arrivalLinkKey);
+                    if (arrivalLink == null) {
+                        break;
+                    }
+                    workingPath.add(arrivalLink);
+                    currentVertex = vertexOf(TopologyDM.canonicalKey(arrivalLink.getSource()));
+                    arrivalLinkKey = arrivalLinks.get(currentVertex);
+                }
+                Collections.reverse(workingPath);
+                path = Collections.unmodifiableList(workingPath);
+            }
+            result = new Object[]{path};
+            memoise(queryKey, epoch, result);
+        }
+        return ((List<LinkElement>) ((Object[]) result)[0]);
+    }
+
+    /**
+     * @param fromElementID The identifier of the Node (or Endpoint) to start from
+     * @return Every (registered) Node reachable, by following Links downstream, from the given Node
+     */
+    @SuppressWarnings("unchecked")
+    public List<NodeElement> getDownstreamNodes(FDNToken fromElementID) {
+        if (fromElementID == null) {
+            return (Collections.emptyList());
+        }
+        String fromVertex = vertexOf(TopologyDM.canonicalKey(fromElementID));
+        String queryKey = "D|" + fromVertex;
+        Object result = memoised(queryKey);
+        if (result == null) {
+            long epoch = epochSupplier.getAsLong();
+            ArrayList<NodeElement> downstreamNodes = new ArrayList<NodeElement>();
+            for (String currentVertex : search(fromVertex, null).keySet()) {
+                if (currentVertex.equals(fromVertex)) {
+                    continue;
+                }
+                NodeElement currentNode = nodeLookup.apply(currentVertex);
+                if (currentNode != null) {
+                    downstreamNodes.add(currentNode);
+                }
+            }
+            result = Collections.unmodifiableList(downstreamNodes);
+            memoise(queryKey, epoch, result);
+        }
+        return ((List<NodeElement>) result);
+    }
+}
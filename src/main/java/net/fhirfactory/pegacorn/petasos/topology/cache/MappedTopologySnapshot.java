@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only, memory-mapped view of a binary topology snapshot file, used to warm-start the
+ * TopologyDM after a restart.
+ * <p>
+ * The file is made up of a fixed length header (magic number, format version, epoch, creation time,
+ * element counts, body length and a CRC32 of the body), followed by a directory for each of the
+ * Nodes, Links and Endpoints and then the element records themselves. Each directory holds the
+ * offsets of its records, sorted by the (UTF-8 encoded) canonical key of the element, so a single
+ * element can be found by a binary search of the mapped file. Elements are only decoded (and then
+ * retained) when they are first accessed.
+ * <p>
+ * Files are written to a temporary file alongside the target, forced to disk, and then atomically
+ * moved into place - so a reader never sees a partially written snapshot.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class MappedTopologySnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedTopologySnapshot.class);
+
+    private static final int MAGIC_NUMBER = 0x50544F50;
+    public static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 64;
+
+    private final MappedByteBuffer mappedFile;
+    private final long epoch;
+    private final long creationTime;
+    private final int nodeCount;
+    private final int linkCount;
+    private final int endpointCount;
+    private final AtomicReferenceArray<NodeElement> nodes;
+    private final AtomicReferenceArray<LinkElement> links;
+    private final AtomicReferenceArray<EndpointElement> endpoints;
+
+    private MappedTopologySnapshot(MappedByteBuffer mappedFile) {
+        this.mappedFile = mappedFile;
+        this.epoch = mappedFile.getLong(8);
+        this.creationTime = mappedFile.getLong(16);
+        this.nodeCount = mappedFile.getInt(24);
+        this.linkCount = mappedFile.getInt(28);
+        this.endpointCount = mappedFile.getInt(32);
+        this.nodes = new AtomicReferenceArray<NodeElement>(nodeCount);
+        this.links = new AtomicReferenceArray<LinkElement>(linkCount);
+        this.endpoints = new AtomicReferenceArray<EndpointElement>(endpointCount);
+    }
+
+    //
+    // Writing
+    //
+
+    /**
+     * Writes the given TopologySnapshot to the target file (atomically replacing any existing file).
+     *
+     * @param snapshot The TopologySnapshot to be written
+     * @param targetFile The file to write to
+     * @throws IOException If the file can't be written
+     */
+    public static void write(TopologySnapshot snapshot, Path targetFile) throws IOException {
+        LOG.debug(".write(): Entry, epoch --> {}, targetFile --> {}", snapshot.getEpoch(), targetFile);
+        List<EncodedRecord> nodeRecords = new ArrayList<EncodedRecord>(snapshot.getNodeCount());
+        for (NodeElement currentNode : snapshot.getNodes()) {
+            nodeRecords.add(encodeNode(currentNode));
+        }
+        List<EncodedRecord> linkRecords = new ArrayList<EncodedRecord>(snapshot.getLinkCount());
+        for (LinkElement currentLink : snapshot.getLinks()) {
+            linkRecords.add(encodeLink(currentLink));
+        }
+        List<EncodedRecord> endpointRecords = new ArrayList<EncodedRecord>(snapshot.getEndpointCount());
+        for (EndpointElement currentEndpoint : snapshot.getEndpoints()) {
+            endpointRecords.add(encodeEndpoint(currentEndpoint));
+        }
+        nodeRecords.sort(null);
+        linkRecords.sort(null);
+        endpointRecords.sort(null);
+
+        int directoryLength = 4 * (nodeRecords.size() + linkRecords.size() + endpointRecords.size());
+        int recordsLength = 0;
+        for (List<EncodedRecord> currentSection : Arrays.asList(nodeRecords, linkRecords, endpointRecords)) {
+            for (EncodedRecord currentRecord : currentSection) {
+                recordsLength += currentRecord.content.length;
+            }
+        }
+        ByteBuffer body = ByteBuffer.allocate(directoryLength + recordsLength);
+        int recordOffset = HEADER_LENGTH + directoryLength;
+        for (List<EncodedRecord> currentSection : Arrays.asList(nodeRecords, linkRecords, endpointRecords)) {
+            for (EncodedRecord currentRecord : currentSection) {
+                body.putInt(recordOffset);
+                recordOffset += currentRecord.content.length;
+            }
+        }
+        for (List<EncodedRecord> currentSection : Arrays.asList(nodeRecords, linkRecords, endpointRecords)) {
+            for (EncodedRecord currentRecord : currentSection) {
+                body.put(currentRecord.content);
+            }
+        }
+        body.flip();
+        CRC32 checksum = new CRC32();
+        checksum.update(body.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC_NUMBER);
+        header.putInt(FORMAT_VERSION);
+        header.putLong(snapshot.getEpoch());
+        header.putLong(System.currentTimeMillis());
+        header.putInt(nodeRecords.size());
+        header.putInt(linkRecords.size());
+        header.putInt(endpointRecords.size());
+        header.putInt(body.remaining());
+        header.putLong(checksum.getValue());
+        header.position(0);
+
+        Path absoluteTarget = targetFile.toAbsolutePath();
+        Path temporaryFile = Files.createTempFile(absoluteTarget.getParent(), absoluteTarget.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (body.hasRemaining()) {
+                    channel.write(body);
+                }
+                channel.force(true);
+            }
+            Files.move(temporaryFile, absoluteTarget, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        LOG.debug(".write(): Exit, nodes --> {}, links --> {}, endpoints --> {}", nodeRecords.size(), linkRecords.size(), endpointRecords.size());
+    }
+
+    private static class EncodedRecord implements Comparable<EncodedRecord> {
+        final byte[] key;
+        final byte[] content;
+
+        EncodedRecord(byte[] key, byte[] content) {
+            this.key = key;
+            this.content = content;
+        }
+
+        @Override
+        public int compareTo(EncodedRecord other) {
+            return (compareKeys(this.key, other.key));
+        }
+    }
+
+    private static int compareKeys(byte[] firstKey, byte[] secondKey) {
+        int commonLength = Math.min(firstKey.length, secondKey.length);
+        for (int index = 0; index < commonLength; index++) {
+            int difference = (firstKey[index] & 0xFF) - (secondKey[index] & 0xFF);
+            if (difference != 0) {
+                return (difference);
+            }
+        }
+        return (firstKey.length - secondKey.length);
+    }
+
+    private static EncodedRecord encodeNode(NodeElement node) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        byte[] key = TopologyDM.canonicalKey(node.getNodeInstanceID()).getBytes(StandardCharsets.UTF_8);
+        TopologyElementCodec.writeBytes(record, key);
+        TopologyElementCodec.writeNode(record, node);
+        return (new EncodedRecord(key, recordBytes.toByteArray()));
+    }
+
+    private static EncodedRecord encodeLink(LinkElement link) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        byte[] key = TopologyDM.canonicalKey(link.getLinkID()).getBytes(StandardCharsets.UTF_8);
+        TopologyElementCodec.writeBytes(record, key);
+        TopologyElementCodec.writeLink(record, link);
+        return (new EncodedRecord(key, recordBytes.toByteArray()));
+    }
+
+    private static EncodedRecord encodeEndpoint(EndpointElement endpoint) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        byte[] key = TopologyDM.canonicalKey(endpoint.getEndpointInstanceID()).getBytes(StandardCharsets.UTF_8);
+        TopologyElementCodec.writeBytes(record, key);
+        TopologyElementCodec.writeEndpoint(record, endpoint);
+        return (new EncodedRecord(key, recordBytes.toByteArray()));
+    }
+
+    //
+    // Loading
+    //
+
+    /**
+     * Maps (and validates) a topology snapshot file. Only the header and checksum are examined, no
+     * element is decoded until it is accessed.
+     *
+     * @param snapshotFile The file to be mapped
+     * @param maximumAgeMillis The maximum age of a usable snapshot (or 0 if any age is acceptable)
+     * @return The mapped snapshot, or null if the file is absent, corrupt, of a different format
+     * version or too old - in which case the topology should be registered in the normal way
+     */
+    public static MappedTopologySnapshot open(Path snapshotFile, long maximumAgeMillis) {
+        LOG.debug(".open(): Entry, snapshotFile --> {}, maximumAgeMillis --> {}", snapshotFile, maximumAgeMillis);
+        if (snapshotFile == null || !Files.isRegularFile(snapshotFile)) {
+            LOG.debug(".open(): Exit, no snapshot file available");
+            return (null);
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            long fileLength = channel.size();
+            if (fileLength < HEADER_LENGTH || fileLength > Integer.MAX_VALUE) {
+                LOG.warn(".open(): Snapshot file has an invalid length, ignoring it --> {}", fileLength);
+                return (null);
+            }
+            MappedByteBuffer mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength);
+            if (mappedFile.getInt(0) != MAGIC_NUMBER) {
+                LOG.warn(".open(): Snapshot file is not a topology snapshot, ignoring it");
+                return (null);
+            }
+            if (mappedFile.getInt(4) != FORMAT_VERSION) {
+                LOG.warn(".open(): Snapshot file has an unsupported format version, ignoring it --> {}", mappedFile.getInt(4));
+                return (null);
+            }
+            if (mappedFile.getInt(36) != fileLength - HEADER_LENGTH) {
+                LOG.warn(".open(): Snapshot file is truncated, ignoring it");
+                return (null);
+            }
+            ByteBuffer body = mappedFile.duplicate();
+            body.position(HEADER_LENGTH);
+            CRC32 checksum = new CRC32();
+            checksum.update(body);
+            if (checksum.getValue() != mappedFile.getLong(40)) {
+                LOG.warn(".open(): Snapshot file checksum doesn't match, ignoring it");
+                return (null);
+            }
+            MappedTopologySnapshot snapshot = new MappedTopologySnapshot(mappedFile);
+            if (maximumAgeMillis > 0 && System.currentTimeMillis() - snapshot.getCreationTime() > maximumAgeMillis) {
+                LOG.warn(".open(): Snapshot file is stale, ignoring it --> created {}", snapshot.getCreationTime());
+                return (null);
+            }
+            if (HEADER_LENGTH + 4L * (snapshot.nodeCount + snapshot.linkCount + snapshot.endpointCount) > fileLength) {
+                LOG.warn(".open(): Snapshot file directory is inconsistent, ignoring it");
+                return (null);
+            }
+            LOG.debug(".open(): Exit, epoch --> {}, nodes --> {}, links --> {}, endpoints --> {}", snapshot.epoch, snapshot.nodeCount, snapshot.linkCount, snapshot.endpointCount);
+            return (snapshot);
+        } catch (IOException ex) {
+            LOG.warn(".open(): Unable to map snapshot file, ignoring it --> {}", ex.getMessage());
+            return (null);
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getLinkCount() {
+        return linkCount;
+    }
+
+    public int getEndpointCount() {
+        return endpointCount;
+    }
+
+    //
+    // Lookups
+    //
+
+    private int nodeDirectoryOffset() {
+        return (HEADER_LENGTH);
+    }
+
+    private int linkDirectoryOffset() {
+        return (HEADER_LENGTH + 4 * nodeCount);
+    }
+
+    private int endpointDirectoryOffset() {
+        return (HEADER_LENGTH + 4 * (nodeCount + linkCount));
+    }
+
+    /**
+     * Binary searches a directory for the record with the given key, comparing the key against the
+     * mapped record keys in place (so nothing is decoded along the way).
+     *
+     * @return The index (within the directory) of the record, or -1 if there is no such record
+     */
+    private int findRecord(int directoryOffset, int recordCount, byte[] key) {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareRecordKey(mappedFile.getInt(directoryOffset + 4 * middle), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return (middle);
+            }
+        }
+        return (-1);
+    }
+
+    private int compareRecordKey(int recordOffset, byte[] key) {
+        int recordKeyLength = mappedFile.getInt(recordOffset);
+        int commonLength = Math.min(recordKeyLength, key.length);
+        for (int index = 0; index < commonLength; index++) {
+            int difference = (mappedFile.get(recordOffset + 4 + index) & 0xFF) - (key[index] & 0xFF);
+            if (difference != 0) {
+                return (difference);
+            }
+        }
+        return (recordKeyLength - key.length);
+    }
+
+    private ByteBuffer recordAt(int directoryOffset, int index) {
+        ByteBuffer record = mappedFile.duplicate();
+        record.position(mappedFile.getInt(directoryOffset + 4 * index));
+        TopologyElementCodec.readString(record);
+        return (record);
+    }
+
+    public NodeElement getNode(String canonicalKey) {
+        int index = findRecord(nodeDirectoryOffset(), nodeCount, canonicalKey.getBytes(StandardCharsets.UTF_8));
+        if (index < 0) {
+            return (null);
+        }
+        return (getNode(index));
+    }
+
+    public LinkElement getLink(String canonicalKey) {
+        int index = findRecord(linkDirectoryOffset(), linkCount, canonicalKey.getBytes(StandardCharsets.UTF_8));
+        if (index < 0) {
+            return (null);
+        }
+        return (getLink(index));
+    }
+
+    public EndpointElement getEndpoint(String canonicalKey) {
+        int index = findRecord(endpointDirectoryOffset(), endpointCount, canonicalKey.getBytes(StandardCharsets.UTF_8));
+        if (index < 0) {
+            return (null);
+        }
+        return (getEndpoint(index));
+    }
+
+    public List<NodeElement> getNodes() {
+        ArrayList<NodeElement> nodeList = new ArrayList<NodeElement>(nodeCount);
+        for (int index = 0; index < nodeCount; index++) {
+            nodeList.add(getNode(index));
+        }
+        return (nodeList);
+    }
+
+    public List<LinkElement> getLinks() {
+        ArrayList<LinkElement> linkList = new ArrayList<LinkElement>(linkCount);
+        for (int index = 0; index < linkCount; index++) {
+            linkList.add(getLink(index));
+        }
+        return (linkList);
+    }
+
+    public List<EndpointElement> getEndpoints() {
+        ArrayList<EndpointElement> endpointList = new ArrayList<EndpointElement>(endpointCount);
+        for (int index = 0; index < endpointCount; index++) {
+            endpointList.add(getEndpoint(index));
+        }
+        return (endpointList);
+    }
+
+    //
+    // Decoding (each element is decoded once, and the decoded instance shared thereafter)
+    //
+
+    private NodeElement getNode(int index) {
+        NodeElement node = nodes.get(index);
+        if (node == null) {
+            NodeElement decodedNode = TopologyElementCodec.readNode(recordAt(nodeDirectoryOffset(), index));
+            if (nodes.compareAndSet(index, null, decodedNode)) {
+                node = decodedNode;
+            } else {
+                node = nodes.get(index);
+            }
+        }
+        return (node);
+    }
+
+    private LinkElement getLink(int index) {
+        LinkElement link = links.get(index);
+        if (link == null) {
+            LinkElement decodedLink = TopologyElementCodec.readLink(recordAt(linkDirectoryOffset(), index));
+            if (links.compareAndSet(index, null, decodedLink)) {
+                link = decodedLink;
+            } else {
+                link = links.get(index);
+            }
+        }
+        return (link);
+    }
+
+    private EndpointElement getEndpoint(int index) {
+        EndpointElement endpoint = endpoints.get(index);
+        if (endpoint == null) {
+            EndpointElement decodedEndpoint = TopologyElementCodec.readEndpoint(recordAt(endpointDirectoryOffset(), index));
+            if (endpoints.compareAndSet(index, null, decodedEndpoint)) {
+                endpoint = decodedEndpoint;
+            } else {
+                endpoint = endpoints.get(index);
+            }
+        }
+        return (endpoint);
+    }
+}
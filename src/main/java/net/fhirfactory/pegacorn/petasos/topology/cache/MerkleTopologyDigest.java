@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+
+/**
+ * The Merkle digests of the TopologyDM (see TopologyDigestSource).
+ * <p>
+ * The digest of each Node's own attributes (identifier, version, archetype, containing node,
+ * modes, instance state and endpoints) and of each Link and Endpoint is computed eagerly as the
+ * element is added. The subtree digests are computed lazily and cached: a mutation of a Node
+ * invalidates the cached subtree digests along its ancestor path (O(depth)), and the next query
+ * re-computes only those. Collections (endpoints, contained nodes, bucket members) are combined
+ * by (wrapping) addition, so a digest doesn't depend on iteration order.
+ * <p>
+ * The element and subtree digests are held in arrays indexed by the element's identifier handle
+ * (see ParsedIdentifierCache), rather than in maps of boxed digests - each Link and Endpoint bucket
+ * just holds the keys of its members.
+ * <p>
+ * Maintenance may run concurrently with other maintenance, but the caller must exclude maintenance
+ * while the subtree digests are being queried.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class MerkleTopologyDigest {
+
+    public static final int BUCKET_COUNT = 256;
+
+    private static final long ABSENT_DIGEST = 0L;
+    private static final long NULL_VALUE_DIGEST = 0x2545F4914F6CDD1DL;
+    private static final long NODE_SEED = 0x4E4F44454C454D4EL;
+    private static final long LINK_SEED = 0x4C494E4B454C454DL;
+    private static final long ENDPOINT_SEED = 0x454E44504F494E54L;
+    private static final long TOPOLOGY_SEED = 0x544F504F4C4F4759L;
+
+    private ContainmentTree containmentTree;
+    private ParsedIdentifierCache parsedIdentifiers;
+    private HandleDigestArray nodeDigests;
+    private HandleDigestArray subtreeDigests;
+    private HandleDigestArray linkDigests;
+    private Set<String>[] linkBuckets;
+    private AtomicLongArray linkBucketDigests;
+    private HandleDigestArray endpointDigests;
+    private Set<String>[] endpointBuckets;
+    private AtomicLongArray endpointBucketDigests;
+
+    public MerkleTopologyDigest(ContainmentTree containmentTree, ParsedIdentifierCache parsedIdentifiers) {
+        this.containmentTree = containmentTree;
+        this.parsedIdentifiers = parsedIdentifiers;
+        this.nodeDigests = new HandleDigestArray();
+        this.subtreeDigests = new HandleDigestArray();
+        this.linkDigests = new HandleDigestArray();
+        this.linkBuckets = newBuckets();
+        this.linkBucketDigests = new AtomicLongArray(BUCKET_COUNT);
+        this.endpointDigests = new HandleDigestArray();
+        this.endpointBuckets = newBuckets();
+        this.endpointBucketDigests = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String>[] newBuckets() {
+        Set<String>[] buckets = new Set[BUCKET_COUNT];
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            buckets[bucket] = ConcurrentHashMap.newKeySet();
+        }
+        return (buckets);
+    }
+
+    /**
+     * A growable array of digests indexed by handle, with ABSENT_DIGEST for an empty slot. It grows
+     * by adding fixed size pages (existing pages are never copied), so a digest written while another
+     * thread is growing the array is never lost.
+     */
+    private static final class HandleDigestArray {
+        private static final int PAGE_SHIFT = 10;
+        private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+        private volatile long[][] pages = new long[0][];
+
+        long get(int handle) {
+            long[][] currentPages = this.pages;
+            int page = handle >>> PAGE_SHIFT;
+            if (handle < 0 || page >= currentPages.length) {
+                return (ABSENT_DIGEST);
+            }
+            return (currentPages[page][handle & (PAGE_SIZE - 1)]);
+        }
+
+        void set(int handle, long digest) {
+            int page = handle >>> PAGE_SHIFT;
+            long[][] currentPages = this.pages;
+            if (page >= currentPages.length) {
+                currentPages = grow(page);
+            }
+            currentPages[page][handle & (PAGE_SIZE - 1)] = digest;
+        }
+
+        void clear(int handle) {
+            if (handle >= 0) {
+                long[][] currentPages = this.pages;
+                int page = handle >>> PAGE_SHIFT;
+                if (page < currentPages.length) {
+                    currentPages[page][handle & (PAGE_SIZE - 1)] = ABSENT_DIGEST;
+                }
+            }
+        }
+
+        private synchronized long[][] grow(int page) {
+            long[][] currentPages = this.pages;
+            if (page < currentPages.length) {
+                return (currentPages);
+            }
+            long[][] newPages = Arrays.copyOf(currentPages, Math.max(page + 1, currentPages.length * 2));
+            for (int newPage = currentPages.length; newPage < newPages.length; newPage++) {
+                newPages[newPage] = new long[PAGE_SIZE];
+            }
+            this.pages = newPages;
+            return (newPages);
+        }
+    }
+
+    public static int bucketOf(String key) {
+        int keyHash = key.hashCode();
+        return ((keyHash ^ (keyHash >>> 16)) & (BUCKET_COUNT - 1));
+    }
+
+    //
+    // Element digests
+    //
+
+    public static long digestNode(NodeElement node) {
+        long digest = NODE_SEED;
+        digest = combine(digest, digestIdentifier(node.getNodeInstanceID()));
+        digest = combine(digest, digestString(node.getVersion()));
+        digest = combine(digest, digestString(node.getNodeArchetype() == null ? null : node.getNodeArchetype().name()));
+        digest = combine(digest, digestIdentifier(node.getContainingElementID()));
+        digest = combine(digest, digestString(node.getConcurrencyMode() == null ? null : node.getConcurrencyMode().name()));
+        digest = combine(digest, digestString(node.getResilienceMode() == null ? null : node.getResilienceMode().name()));
+        digest = combine(digest, node.isInstanceInPlace() ? 1L : 2L);
+        digest = combine(digest, digestIdentifiers(node.getEndpoints()));
+        return (nonAbsent(digest));
+    }
+
+    public static long digestLink(LinkElement link) {
+        long digest = LINK_SEED;
+        digest = combine(digest, digestIdentifier(link.getLinkID()));
+        digest = combine(digest, digestIdentifier(link.getSource()));
+        digest = combine(digest, digestIdentifier(link.getTarget()));
+        return (nonAbsent(digest));
+    }
+
+    public static long digestEndpoint(EndpointElement endpoint) {
+        long digest = ENDPOINT_SEED;
+        digest = combine(digest, digestIdentifier(endpoint.getEndpointInstanceID()));
+        digest = combine(digest, digestString(endpoint.getVersion()));
+        return (nonAbsent(digest));
+    }
+
+    private static long digestIdentifiers(Collection<? extends FDNToken> identifiers) {
+        long digestSum = 0L;
+        if (identifiers != null) {
+            for (FDNToken currentIdentifier : identifiers) {
+                digestSum += digestIdentifier(currentIdentifier);
+            }
+        }
+        return (digestSum);
+    }
+
+    private static long digestIdentifier(FDNToken identifier) {
+        if (identifier == null) {
+            return (NULL_VALUE_DIGEST);
+        }
+        return (digestString(identifier.getContent()));
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the characters of the value, finished with the MurmurHash3 mixer.
+     */
+    private static long digestString(String value) {
+        if (value == null) {
+            return (NULL_VALUE_DIGEST);
+        }
+        long digest = 0xCBF29CE484222325L;
+        for (int index = 0; index < value.length(); index++) {
+            digest ^= value.charAt(index);
+            digest *= 0x100000001B3L;
+        }
+        return (mix(digest));
+    }
+
+    private static long combine(long digest, long value) {
+        return (mix(digest + value * 0x9E3779B97F4A7C15L));
+    }
+
+    private static long mix(long value) {
+        long mixed = value;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xFF51AFD7ED558CCDL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xC4CEB9FE1A85EC53L;
+        mixed ^= mixed >>> 33;
+        return (mixed);
+    }
+
+    private static long nonAbsent(long digest) {
+        if (digest == ABSENT_DIGEST) {
+            return (1L);
+        }
+        return (digest);
+    }
+
+    //
+    // Maintenance
+    //
+
+    /**
+     * Records the digest of a (new or replaced) Node. The caller must also invalidate the ancestor
+     * paths of the Node - both before and after it was (re-)attached to the containment tree.
+     */
+    public void updateNode(String nodeKey, NodeElement node) {
+        int nodeHandle = parsedIdentifiers.handleOf(nodeKey);
+        if (nodeHandle == ParsedIdentifierCache.NO_HANDLE) {
+            throw (new IllegalStateException(".updateNode(): node identifier is not registered, nodeKey --> " + nodeKey));
+        }
+        nodeDigests.set(nodeHandle, digestNode(node));
+    }
+
+    /**
+     * Must be called before the Node's identifier is released (see ParsedIdentifierCache.evict()).
+     */
+    public void removeNode(String nodeKey) {
+        int nodeHandle = parsedIdentifiers.handleOf(nodeKey);
+        nodeDigests.clear(nodeHandle);
+        subtreeDigests.clear(nodeHandle);
+    }
+
+    /**
+     * @param ancestorPath The canonical keys of a Node's ancestors (see ContainmentTree), may be null
+     */
+    public void invalidatePath(String[] ancestorPath) {
+        if (ancestorPath == null) {
+            return;
+        }
+        for (String ancestorKey : ancestorPath) {
+            subtreeDigests.clear(parsedIdentifiers.handleOf(ancestorKey));
+        }
+    }
+
+    public void updateLink(String linkKey, LinkElement link) {
+        updateBucket(linkDigests, linkBuckets, linkBucketDigests, linkKey, digestLink(link));
+    }
+
+    /**
+     * Must be called before the Link's identifier is released (see ParsedIdentifierCache.evict()).
+     */
+    public void removeLink(String linkKey) {
+        removeFromBucket(linkDigests, linkBuckets, linkBucketDigests, linkKey);
+    }
+
+    public void updateEndpoint(String endpointKey, EndpointElement endpoint) {
+        updateBucket(endpointDigests, endpointBuckets, endpointBucketDigests, endpointKey, digestEndpoint(endpoint));
+    }
+
+    /**
+     * Must be called before the Endpoint's identifier is released (see ParsedIdentifierCache.evict()).
+     */
+    public void removeEndpoint(String endpointKey) {
+        removeFromBucket(endpointDigests, endpointBuckets, endpointBucketDigests, endpointKey);
+    }
+
+    private void updateBucket(HandleDigestArray digests, Set<String>[] buckets, AtomicLongArray bucketDigests, String key, long digest) {
+        int handle = parsedIdentifiers.handleOf(key);
+        if (handle == ParsedIdentifierCache.NO_HANDLE) {
+            throw (new IllegalStateException(".updateBucket(): element identifier is not registered, key --> " + key));
+        }
+        int bucket = bucketOf(key);
+        long previousDigest = digests.get(handle);
+        digests.set(handle, digest);
+        buckets[bucket].add(key);
+        bucketDigests.addAndGet(bucket, digest - previousDigest);
+    }
+
+    private void removeFromBucket(HandleDigestArray digests, Set<String>[] buckets, AtomicLongArray bucketDigests, String key) {
+        int bucket = bucketOf(key);
+        if (buckets[bucket].remove(key)) {
+            int handle = parsedIdentifiers.handleOf(key);
+            long previousDigest = digests.get(handle);
+            digests.clear(handle);
+            bucketDigests.addAndGet(bucket, -previousDigest);
+        }
+    }
+
+    //
+    // Queries
+    //
+
+    public long getNodeDigest(String nodeKey) {
+        return (nodeDigests.get(parsedIdentifiers.handleOf(nodeKey)));
+    }
+
+    /**
+     * @param nodeKey The canonical key of a Node
+     * @return The digest of the subtree rooted at the Node, or 0 if the Node isn't in the topology
+     */
+    public long getSubtreeDigest(String nodeKey) {
+        int nodeHandle = parsedIdentifiers.handleOf(nodeKey);
+        long subtreeDigest = subtreeDigests.get(nodeHandle);
+        if (subtreeDigest != ABSENT_DIGEST) {
+            return (subtreeDigest);
+        }
+        long nodeDigest = nodeDigests.get(nodeHandle);
+        if (nodeDigest == ABSENT_DIGEST) {
+            return (ABSENT_DIGEST);
+        }
+        long containedDigestSum = 0L;
+        for (String childKey : containmentTree.getChildKeys(nodeKey)) {
+            containedDigestSum += getSubtreeDigest(childKey);
+        }
+        long computedDigest = nonAbsent(combine(nodeDigest, containedDigestSum));
+        subtreeDigests.set(nodeHandle, computedDigest);
+        return (computedDigest);
+    }
+
+    public Map<String, Long> getRootNodeDigests() {
+        return (getSubtreeDigests(containmentTree.getRootKeys()));
+    }
+
+    public Map<String, Long> getContainedNodeDigests(String nodeKey) {
+        return (getSubtreeDigests(containmentTree.getChildKeys(nodeKey)));
+    }
+
+    private Map<String, Long> getSubtreeDigests(Set<String> nodeKeys) {
+        HashMap<String, Long> subtreeDigests = new HashMap<String, Long>();
+        for (String currentKey : nodeKeys) {
+            long subtreeDigest = getSubtreeDigest(currentKey);
+            if (subtreeDigest != ABSENT_DIGEST) {
+                subtreeDigests.put(currentKey, subtreeDigest);
+            }
+        }
+        return (subtreeDigests);
+    }
+
+    public long getTopologyDigest() {
+        long rootDigestSum = 0L;
+        for (String rootKey : containmentTree.getRootKeys()) {
+            rootDigestSum += getSubtreeDigest(rootKey);
+        }
+        long linkDigestSum = 0L;
+        long endpointDigestSum = 0L;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            linkDigestSum += linkBucketDigests.get(bucket);
+            endpointDigestSum += endpointBucketDigests.get(bucket);
+        }
+        long digest = TOPOLOGY_SEED;
+        digest = combine(digest, rootDigestSum);
+        digest = combine(digest, linkDigestSum);
+        digest = combine(digest, endpointDigestSum);
+        return (digest);
+    }
+
+    public long[] getLinkBucketDigests() {
+        return (copyOf(linkBucketDigests));
+    }
+
+    public Map<String, Long> getLinkDigests(int bucket) {
+        return (getBucketDigests(linkDigests, linkBuckets[bucket]));
+    }
+
+    public long[] getEndpointBucketDigests() {
+        return (copyOf(endpointBucketDigests));
+    }
+
+    public Map<String, Long> getEndpointDigests(int bucket) {
+        return (getBucketDigests(endpointDigests, endpointBuckets[bucket]));
+    }
+
+    private Map<String, Long> getBucketDigests(HandleDigestArray digests, Set<String> bucketKeys) {
+        HashMap<String, Long> bucketDigests = new HashMap<String, Long>();
+        for (String currentKey : bucketKeys) {
+            long digest = digests.get(parsedIdentifiers.handleOf(currentKey));
+            if (digest != ABSENT_DIGEST) {
+                bucketDigests.put(currentKey, digest);
+            }
+        }
+        return (bucketDigests);
+    }
+
+    private static long[] copyOf(AtomicLongArray bucketDigests) {
+        long[] bucketDigestCopy = new long[BUCKET_COUNT];
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            bucketDigestCopy[bucket] = bucketDigests.get(bucket);
+        }
+        return (bucketDigestCopy);
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bitmap indexes over the attributes of the Nodes of the topology. Each Node is identified by a
+ * dense ordinal (its identifier handle, see ParsedIdentifierCache), and a CompressedBitmap of
+ * ordinals is maintained for every NodeElementTypeEnum, (effective) ConcurrencyModeEnum and
+ * (effective) ResilienceModeEnum value and for each instance-in-place state. A NodeAttributeQuery
+ * is then answered by intersecting and uniting bitmaps - chunk by chunk, so the working set is a
+ * few chunk-sized buffers however large the topology - and a count is just the population count of
+ * the result.
+ * <p>
+ * Note that a change made directly to a registered NodeElement (rather than through the TopologyDM)
+ * isn't seen until the Node is next added or replaced.
+ * <p>
+ * Maintenance may run concurrently with other maintenance (each update is atomic), and each query
+ * sees the bitmaps as at a single point in time.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeAttributeIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeAttributeIndex.class);
+
+    private CompressedBitmap nodeBitmap;
+    private CompressedBitmap[] archetypeBitmaps;
+    private CompressedBitmap[] concurrencyModeBitmaps;
+    private CompressedBitmap[] resilienceModeBitmaps;
+    private CompressedBitmap[] instanceInPlaceBitmaps;
+    private ReentrantReadWriteLock indexLock;
+
+    public NodeAttributeIndex() {
+        this.nodeBitmap = new CompressedBitmap();
+        this.archetypeBitmaps = newBitmaps(NodeElementTypeEnum.values().length);
+        this.concurrencyModeBitmaps = newBitmaps(ConcurrencyModeEnum.values().length);
+        this.resilienceModeBitmaps = newBitmaps(ResilienceModeEnum.values().length);
+        this.instanceInPlaceBitmaps = newBitmaps(2);
+        this.indexLock = new ReentrantReadWriteLock();
+    }
+
+    private static CompressedBitmap[] newBitmaps(int bitmapCount) {
+        CompressedBitmap[] bitmaps = new CompressedBitmap[bitmapCount];
+        for (int index = 0; index < bitmapCount; index++) {
+            bitmaps[index] = new CompressedBitmap();
+        }
+        return (bitmaps);
+    }
+
+    //
+    // Maintenance
+    //
+
+    /**
+     * Indexes the archetype and instance-in-place state of a (new or replaced) Node.
+     *
+     * @param ordinal The Node's ordinal
+     * @param node The Node
+     */
+    public void updateNode(int ordinal, NodeElement node) {
+        indexLock.writeLock().lock();
+        try {
+            nodeBitmap.add(ordinal);
+            setMember(archetypeBitmaps, node.getNodeArchetype() == null ? -1 : node.getNodeArchetype().ordinal(), ordinal);
+            setMember(instanceInPlaceBitmaps, node.isInstanceInPlace() ? 1 : 0, ordinal);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the effective modes of a Node (see EffectiveModeTable).
+     *
+     * @param ordinal The Node's ordinal
+     * @param effectiveModes The Node's effective modes
+     */
+    public void updateModes(int ordinal, EffectiveModeTable.EffectiveModes effectiveModes) {
+        indexLock.writeLock().lock();
+        try {
+            setMember(concurrencyModeBitmaps, effectiveModes.getConcurrencyMode().ordinal(), ordinal);
+            setMember(resilienceModeBitmaps, effectiveModes.getResilienceMode().ordinal(), ordinal);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called before the Node's identifier is released (see ParsedIdentifierCache.evict()).
+     *
+     * @param ordinal The Node's ordinal
+     */
+    public void removeNode(int ordinal) {
+        indexLock.writeLock().lock();
+        try {
+            nodeBitmap.remove(ordinal);
+            setMember(archetypeBitmaps, -1, ordinal);
+            setMember(concurrencyModeBitmaps, -1, ordinal);
+            setMember(resilienceModeBitmaps, -1, ordinal);
+            setMember(instanceInPlaceBitmaps, -1, ordinal);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the ordinal a member of exactly one (or, for a memberIndex of -1, none) of the bitmaps.
+     */
+    private static void setMember(CompressedBitmap[] bitmaps, int memberIndex, int ordinal) {
+        for (int index = 0; index < bitmaps.length; index++) {
+            if (index == memberIndex) {
+                bitmaps[index].add(ordinal);
+            } else {
+                bitmaps[index].remove(ordinal);
+            }
+        }
+    }
+
+    //
+    // Queries
+    //
+
+    /**
+     * @param query The query
+     * @return The number of Nodes matching the query
+     */
+    public int count(NodeAttributeQuery query) {
+        int[] matchCount = new int[1];
+        evaluate(query, (chunkIndex, resultChunk) -> {
+            for (long word : resultChunk) {
+                matchCount[0] += Long.bitCount(word);
+            }
+        });
+        LOG.trace(".count(): Exit, query --> {}, matchCount --> {}", query, matchCount[0]);
+        return (matchCount[0]);
+    }
+
+    /**
+     * @param query The query
+     * @param ordinalConsumer Receives the ordinal of each Node matching the query (in ascending
+     * order), while the index is locked against maintenance - so it must be quick and must not
+     * mutate the topology
+     */
+    public void forEachMatch(NodeAttributeQuery query, IntConsumer ordinalConsumer) {
+        evaluate(query, (chunkIndex, resultChunk) -> {
+            int chunkBase = chunkIndex << CompressedBitmap.CHUNK_SHIFT;
+            for (int wordIndex = 0; wordIndex < resultChunk.length; wordIndex++) {
+                long word = resultChunk[wordIndex];
+                while (word != 0) {
+                    ordinalConsumer.accept(chunkBase + (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        });
+    }
+
+    public int size() {
+        indexLock.readLock().lock();
+        try {
+            return (nodeBitmap.getCardinality());
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private interface ChunkConsumer {
+        void accept(int chunkIndex, long[] resultChunk);
+    }
+
+    /**
+     * Evaluates the query one chunk at a time (every indexed bitmap is a subset of the node bitmap,
+     * so only the node bitmap's chunks need be visited), passing each non-empty result chunk to the
+     * consumer.
+     */
+    private void evaluate(NodeAttributeQuery query, ChunkConsumer chunkConsumer) {
+        if (query == null) {
+            throw (new IllegalArgumentException(".evaluate(): query is null"));
+        }
+        long[][] workingChunks = new long[query.getDepth()][CompressedBitmap.CHUNK_WORDS];
+        indexLock.readLock().lock();
+        try {
+            int chunkCount = nodeBitmap.getChunkCount();
+            for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+                if (nodeBitmap.getChunk(chunkIndex) == null) {
+                    continue;
+                }
+                if (evaluateChunk(query, chunkIndex, workingChunks, 0)) {
+                    chunkConsumer.accept(chunkIndex, workingChunks[0]);
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Evaluates (one chunk of) the query into workingChunks[depth], using the deeper working
+     * chunks for its operands.
+     *
+     * @return False if the resulting chunk is empty
+     */
+    private boolean evaluateChunk(NodeAttributeQuery query, int chunkIndex, long[][] workingChunks, int depth) {
+        long[] resultChunk = workingChunks[depth];
+        switch (query.getOperator()) {
+            case AND: {
+                NodeAttributeQuery[] operands = query.getOperands();
+                if (!evaluateChunk(operands[0], chunkIndex, workingChunks, depth + 1)) {
+                    return (false);
+                }
+                System.arraycopy(workingChunks[depth + 1], 0, resultChunk, 0, resultChunk.length);
+                for (int operandIndex = 1; operandIndex < operands.length; operandIndex++) {
+                    if (!evaluateChunk(operands[operandIndex], chunkIndex, workingChunks, depth + 1)) {
+                        return (false);
+                    }
+                    long[] operandChunk = workingChunks[depth + 1];
+                    long remainingBits = 0L;
+                    for (int wordIndex = 0; wordIndex < resultChunk.length; wordIndex++) {
+                        resultChunk[wordIndex] &= operandChunk[wordIndex];
+                        remainingBits |= resultChunk[wordIndex];
+                    }
+                    if (remainingBits == 0L) {
+                        return (false);
+                    }
+                }
+                return (true);
+            }
+            case OR: {
+                boolean nonEmpty = false;
+                Arrays.fill(resultChunk, 0L);
+                for (NodeAttributeQuery currentOperand : query.getOperands()) {
+                    if (evaluateChunk(currentOperand, chunkIndex, workingChunks, depth + 1)) {
+                        long[] operandChunk = workingChunks[depth + 1];
+                        for (int wordIndex = 0; wordIndex < resultChunk.length; wordIndex++) {
+                            resultChunk[wordIndex] |= operandChunk[wordIndex];
+                        }
+                        nonEmpty = true;
+                    }
+                }
+                return (nonEmpty);
+            }
+            default: {
+                long[] bitmapChunk = bitmapOf(query).getChunk(chunkIndex);
+                if (bitmapChunk == null) {
+                    return (false);
+                }
+                System.arraycopy(bitmapChunk, 0, resultChunk, 0, resultChunk.length);
+                return (true);
+            }
+        }
+    }
+
+    private CompressedBitmap bitmapOf(NodeAttributeQuery criterion) {
+        Object attributeValue = criterion.getAttributeValue();
+        switch (criterion.getOperator()) {
+            case ARCHETYPE:
+                return (archetypeBitmaps[((NodeElementTypeEnum) attributeValue).ordinal()]);
+            case CONCURRENCY_MODE:
+                return (concurrencyModeBitmaps[((ConcurrencyModeEnum) attributeValue).ordinal()]);
+            case RESILIENCE_MODE:
+                return (resilienceModeBitmaps[((ResilienceModeEnum) attributeValue).ordinal()]);
+            case INSTANCE_IN_PLACE:
+                return (instanceInPlaceBitmaps[((Boolean) attributeValue) ? 1 : 0]);
+            default:
+                return (nodeBitmap);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+
+/**
+ * An (immutable) query over the indexed attributes of the Nodes of the topology - archetype,
+ * effective ConcurrencyModeEnum, effective ResilienceModeEnum and instance-in-place state - built
+ * from single attribute criteria combined with and() / or(). The query is answered from the
+ * attribute bitmaps of the NodeAttributeIndex, so no Node is visited to evaluate it.
+ * <p>
+ * For example, the in-place, concurrent WUPs: {@code archetype(WUP).and(instanceInPlace(true))
+ * .and(concurrencyMode(CONCURRENCY_MODE_CONCURRENT))}.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeAttributeQuery {
+
+    enum Operator {
+        ALL_NODES, ARCHETYPE, CONCURRENCY_MODE, RESILIENCE_MODE, INSTANCE_IN_PLACE, AND, OR
+    }
+
+    private static final NodeAttributeQuery ALL_NODES = new NodeAttributeQuery(Operator.ALL_NODES, null, null);
+
+    private final Operator operator;
+    private final Object attributeValue;
+    private final NodeAttributeQuery[] operands;
+
+    private NodeAttributeQuery(Operator operator, Object attributeValue, NodeAttributeQuery[] operands) {
+        this.operator = operator;
+        this.attributeValue = attributeValue;
+        this.operands = operands;
+    }
+
+    /**
+     * @return The query matching every Node
+     */
+    public static NodeAttributeQuery allNodes() {
+        return (ALL_NODES);
+    }
+
+    public static NodeAttributeQuery archetype(NodeElementTypeEnum archetype) {
+        if (archetype == null) {
+            throw (new IllegalArgumentException(".archetype(): archetype is null"));
+        }
+        return (new NodeAttributeQuery(Operator.ARCHETYPE, archetype, null));
+    }
+
+    /**
+     * @param concurrencyMode The effective (own or inherited, see TopologyDM.getEffectiveConcurrencyMode()) mode
+     * @return The query
+     */
+    public static NodeAttributeQuery concurrencyMode(ConcurrencyModeEnum concurrencyMode) {
+        if (concurrencyMode == null) {
+            throw (new IllegalArgumentException(".concurrencyMode(): concurrencyMode is null"));
+        }
+        return (new NodeAttributeQuery(Operator.CONCURRENCY_MODE, concurrencyMode, null));
+    }
+
+    /**
+     * @param resilienceMode The effective (own or inherited, see TopologyDM.getEffectiveResilienceMode()) mode
+     * @return The query
+     */
+    public static NodeAttributeQuery resilienceMode(ResilienceModeEnum resilienceMode) {
+        if (resilienceMode == null) {
+            throw (new IllegalArgumentException(".resilienceMode(): resilienceMode is null"));
+        }
+        return (new NodeAttributeQuery(Operator.RESILIENCE_MODE, resilienceMode, null));
+    }
+
+    public static NodeAttributeQuery instanceInPlace(boolean instanceInPlace) {
+        return (new NodeAttributeQuery(Operator.INSTANCE_IN_PLACE, instanceInPlace, null));
+    }
+
+    /**
+     * @param queries The queries to be intersected
+     * @return The query matching the Nodes matched by every one of the queries
+     */
+    public static NodeAttributeQuery allOf(NodeAttributeQuery... queries) {
+        return (combine(Operator.AND, queries));
+    }
+
+    /**
+     * @param queries The queries to be united
+     * @return The query matching the Nodes matched by any one of the queries
+     */
+    public static NodeAttributeQuery anyOf(NodeAttributeQuery... queries) {
+        return (combine(Operator.OR, queries));
+    }
+
+    public NodeAttributeQuery and(NodeAttributeQuery otherQuery) {
+        return (combine(Operator.AND, this, otherQuery));
+    }
+
+    public NodeAttributeQuery or(NodeAttributeQuery otherQuery) {
+        return (combine(Operator.OR, this, otherQuery));
+    }
+
+    /**
+     * Combines the queries, flattening nested combinations with the same operator (so a chain of
+     * and() calls is a single intersection).
+     */
+    private static NodeAttributeQuery combine(Operator operator, NodeAttributeQuery... queries) {
+        if (queries == null || queries.length == 0) {
+            throw (new IllegalArgumentException(".combine(): at least one query is required"));
+        }
+        List<NodeAttributeQuery> combinedOperands = new ArrayList<NodeAttributeQuery>();
+        for (NodeAttributeQuery currentQuery : queries) {
+            if (currentQuery == null) {
+                throw (new IllegalArgumentException(".combine(): query is null"));
+            }
+            if (currentQuery.operator == operator) {
+                combinedOperands.addAll(Arrays.asList(currentQuery.operands));
+            } else {
+                combinedOperands.add(currentQuery);
+            }
+        }
+        if (combinedOperands.size() == 1) {
+            return (combinedOperands.get(0));
+        }
+        return (new NodeAttributeQuery(operator, null, combinedOperands.toArray(new NodeAttributeQuery[0])));
+    }
+
+    Operator getOperator() {
+        return operator;
+    }
+
+    Object getAttributeValue() {
+        return attributeValue;
+    }
+
+    NodeAttributeQuery[] getOperands() {
+        return operands;
+    }
+
+    /**
+     * @return The depth of the query (a single criterion has depth 1)
+     */
+    int getDepth() {
+        if (operands == null) {
+            return (1);
+        }
+        int maximumOperandDepth = 0;
+        for (NodeAttributeQuery currentOperand : operands) {
+            maximumOperandDepth = Math.max(maximumOperandDepth, currentOperand.getDepth());
+        }
+        return (maximumOperandDepth + 1);
+    }
+
+    @Override
+    public String toString() {
+        switch (operator) {
+            case ALL_NODES:
+                return ("allNodes()");
+            case AND:
+            case OR:
+                StringBuilder combination = new StringBuilder(operator == Operator.AND ? "allOf(" : "anyOf(");
+                for (int index = 0; index < operands.length; index++) {
+                    if (index > 0) {
+                        combination.append(", ");
+                    }
+                    combination.append(operands[index]);
+                }
+                return (combination.append(")").toString());
+            default:
+                return (operator.name().toLowerCase() + "(" + attributeValue + ")");
+        }
+    }
+}
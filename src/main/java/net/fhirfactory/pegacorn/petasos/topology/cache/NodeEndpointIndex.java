@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A per-Node index of the Node's Endpoints, keyed by the Endpoint's (unqualified) name and then
+ * ordered by version - so resolving a Node's Endpoint by name and version is a direct probe.
+ * <p>
+ * The index for a Node is built (lazily) from the Node's set of Endpoint identifiers, and is
+ * discarded whenever the Node is replaced or removed, or one of the Endpoints it refers to is
+ * added, replaced or removed. It is also rebuilt if the Node's Endpoint set is seen to have
+ * changed (a different set, or a different number of Endpoints) since it was built. Each built
+ * index registers its Node as a referrer of the Endpoints it was built from, and that registration
+ * is withdrawn whenever the index is discarded or rebuilt - so the referrers only ever reflect the
+ * indexes currently held.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeEndpointIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeEndpointIndex.class);
+
+    private static final Comparator<EndpointElement> VERSION_ORDER = (endpointA, endpointB) -> compareVersions(endpointA.getVersion(), endpointB.getVersion());
+
+    private ConcurrentHashMap<String, NodeEndpoints> nodeEndpointSet;
+    private ConcurrentHashMap<String, Set<String>> endpointReferrers;
+    private Function<String, EndpointElement> endpointLookup;
+    private ParsedIdentifierCache parsedIdentifiers;
+
+    public NodeEndpointIndex(Function<String, EndpointElement> endpointLookup, ParsedIdentifierCache parsedIdentifiers) {
+        this.nodeEndpointSet = new ConcurrentHashMap<String, NodeEndpoints>();
+        this.endpointReferrers = new ConcurrentHashMap<String, Set<String>>();
+        this.endpointLookup = endpointLookup;
+        this.parsedIdentifiers = parsedIdentifiers;
+    }
+
+    private static class NodeEndpoints {
+        final Set<EndpointElementIdentifier> sourceSet;
+        final int sourceSize;
+        final Map<String, EndpointElement[]> endpointsByName;
+        final List<String> referencedEndpointKeys;
+
+        NodeEndpoints(Set<EndpointElementIdentifier> sourceSet, int sourceSize, Map<String, EndpointElement[]> endpointsByName, List<String> referencedEndpointKeys) {
+            this.sourceSet = sourceSet;
+            this.sourceSize = sourceSize;
+            this.endpointsByName = endpointsByName;
+            this.referencedEndpointKeys = referencedEndpointKeys;
+        }
+
+        boolean isStale(NodeElement node) {
+            Set<EndpointElementIdentifier> currentSet = node.getEndpoints();
+            return (currentSet != sourceSet || (currentSet != null && currentSet.size() != sourceSize));
+        }
+    }
+
+    /**
+     * Resolves one of the Node's Endpoints by name and version. If no version is given, an Endpoint
+     * with no version is preferred, otherwise the Endpoint with the latest version is returned.
+     *
+     * @param node The Node
+     * @param nodeKey The canonical key of the Node's identifier
+     * @param endpointName The (unqualified) name of the Endpoint
+     * @param endpointVersion The version of the Endpoint (may be null)
+     * @return The matching EndpointElement, or null if the Node has no such Endpoint
+     */
+    public EndpointElement resolve(NodeElement node, String nodeKey, String endpointName, String endpointVersion) {
+        if (endpointName == null) {
+            return (null);
+        }
+        NodeEndpoints nodeEndpoints = nodeEndpointSet.get(nodeKey);
+        if (nodeEndpoints == null || nodeEndpoints.isStale(node)) {
+            nodeEndpoints = nodeEndpointSet.compute(nodeKey, (key, current) -> {
+                if (current != null) {
+                    if (!current.isStale(node)) {
+                        return (current);
+                    }
+                    withdrawReferrers(key, current);
+                }
+                return (build(node, key));
+            });
+        }
+        EndpointElement[] candidates = nodeEndpoints.endpointsByName.get(endpointName);
+        if (candidates == null) {
+            return (null);
+        }
+        if (endpointVersion == null) {
+            if (candidates[0].getVersion() == null) {
+                return (candidates[0]);
+            }
+            return (candidates[candidates.length - 1]);
+        }
+        for (EndpointElement currentEndpoint : candidates) {
+            if (endpointVersion.equals(currentEndpoint.getVersion())) {
+                return (currentEndpoint);
+            }
+        }
+        return (null);
+    }
+
+    private NodeEndpoints build(NodeElement node, String nodeKey) {
+        LOG.trace(".build(): Building endpoint index for node --> {}", nodeKey);
+        Set<EndpointElementIdentifier> endpointIDs = node.getEndpoints();
+        HashMap<String, List<EndpointElement>> workingSet = new HashMap<String, List<EndpointElement>>();
+        ArrayList<String> referencedEndpointKeys = new ArrayList<String>();
+        int sourceSize = 0;
+        if (endpointIDs != null) {
+            for (EndpointElementIdentifier currentEndpointID : endpointIDs) {
+                sourceSize++;
+                String endpointKey = TopologyDM.canonicalKey(currentEndpointID);
+                ParsedIdentifierCache.ParsedIdentifier parsedEndpointID = parsedIdentifiers.get(endpointKey);
+                if (parsedEndpointID != null) {
+                    endpointKey = parsedEndpointID.getCanonicalKey();
+                }
+                endpointReferrers.compute(endpointKey, (key, referringNodes) -> {
+                    if (referringNodes == null) {
+                        referringNodes = ConcurrentHashMap.newKeySet();
+                    }
+                    referringNodes.add(nodeKey);
+                    return (referringNodes);
+                });
+                referencedEndpointKeys.add(endpointKey);
+                EndpointElement currentEndpoint = endpointLookup.apply(endpointKey);
+                if (currentEndpoint == null || parsedEndpointID == null) {
+                    continue;
+                }
+                workingSet.computeIfAbsent(parsedEndpointID.getValue(), name -> new ArrayList<EndpointElement>()).add(currentEndpoint);
+            }
+        }
+        HashMap<String, EndpointElement[]> endpointsByName = new HashMap<String, EndpointElement[]>();
+        for (Map.Entry<String, List<EndpointElement>> currentEntry : workingSet.entrySet()) {
+            EndpointElement[] versions = currentEntry.getValue().toArray(new EndpointElement[0]);
+            Arrays.sort(versions, VERSION_ORDER);
+            endpointsByName.put(currentEntry.getKey(), versions);
+        }
+        return (new NodeEndpoints(endpointIDs, sourceSize, endpointsByName, referencedEndpointKeys));
+    }
+
+    /**
+     * Withdraws the Node's registration as a referrer of the Endpoints its (discarded) index was
+     * built from. This is only called from within a compute on the Node's entry, so it can't
+     * interleave with a rebuild of the same Node's index.
+     */
+    private void withdrawReferrers(String nodeKey, NodeEndpoints nodeEndpoints) {
+        for (String currentEndpointKey : nodeEndpoints.referencedEndpointKeys) {
+            endpointReferrers.computeIfPresent(currentEndpointKey, (key, referringNodes) -> {
+                referringNodes.remove(nodeKey);
+                if (referringNodes.isEmpty()) {
+                    return (null);
+                }
+                return (referringNodes);
+            });
+        }
+    }
+
+    private void discard(String nodeKey) {
+        nodeEndpointSet.computeIfPresent(nodeKey, (key, current) -> {
+            withdrawReferrers(key, current);
+            return (null);
+        });
+    }
+
+    public void invalidateNode(String nodeKey) {
+        discard(nodeKey);
+    }
+
+    public void invalidateEndpoint(String endpointKey) {
+        Set<String> referringNodes = endpointReferrers.get(endpointKey);
+        if (referringNodes != null) {
+            for (String currentNodeKey : new ArrayList<String>(referringNodes)) {
+                discard(currentNodeKey);
+            }
+        }
+    }
+
+    public void removeNode(String nodeKey) {
+        discard(nodeKey);
+    }
+
+    /**
+     * @param endpointKey The canonical key of an Endpoint's identifier
+     * @return The number of Nodes whose (currently held) index was built from the Endpoint
+     */
+    int getReferringNodeCount(String endpointKey) {
+        Set<String> referringNodes = endpointReferrers.get(endpointKey);
+        return (referringNodes == null ? 0 : referringNodes.size());
+    }
+
+    /**
+     * Orders versions numerically by dot-separated segment (where both segments are numeric),
+     * otherwise lexically - a null version sorts first.
+     */
+    static int compareVersions(String versionA, String versionB) {
+        if (versionA == null || versionB == null) {
+            if (versionA == versionB) {
+                return (0);
+            }
+            return (versionA == null ? -1 : 1);
+        }
+        String[] segmentsA = versionA.split("\\.");
+        String[] segmentsB = versionB.split("\\.");
+        for (int index = 0; index < Math.min(segmentsA.length, segmentsB.length); index++) {
+            int comparison;
+            if (isNumeric(segmentsA[index]) && isNumeric(segmentsB[index])) {
+                comparison = Long.compare(Long.parseLong(segmentsA[index]), Long.parseLong(segmentsB[index]));
+            } else {
+                comparison = segmentsA[index].compareTo(segmentsB[index]);
+            }
+            if (comparison != 0) {
+                return (comparison);
+            }
+        }
+        return (Integer.compare(segmentsA.length, segmentsB.length));
+    }
+
+    private static boolean isNumeric(String segment) {
+        if (segment.isEmpty() || segment.length() > 18) {
+            return (false);
+        }
+        for (int index = 0; index < segment.length(); index++) {
+            if (!Character.isDigit(segment.charAt(index))) {
+                return (false);
+            }
+        }
+        return (true);
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A dictionary of the identifiers registered within the TopologyDM. Each Node, Link and Endpoint
+ * identifier is parsed once (when the element is added) and is given a dense int handle, and its
+ * unqualified RDN is dictionary-encoded (see RdnSegmentDictionary) - so the read paths never need
+ * to re-parse an FDNToken, and the parsed form costs a handful of ints rather than an FDN and its
+ * RDN chain.
+ * <p>
+ * The dictionary also holds the one canonical key (see TopologyDM) String instance of each
+ * registered identifier: the TopologyDM and its indexes key their entries for the element by that
+ * instance, rather than each holding its own copy. Handles are reference counted (an identifier
+ * registered by more than one element stays registered until the last of them is removed) and are
+ * recycled once released. Each registered identifier also holds a reference to its RDN segments,
+ * and once the released segments outnumber the live ones the segment dictionary is rebuilt (the
+ * registered identifiers are re-encoded into a new dictionary, see rebuildSegmentDictionary()), so
+ * a topology whose names churn doesn't grow the dictionary without bound.
+ * <p>
+ * Registration is serialised on the dictionary instance. Lookups are lock-free: the handle table
+ * is probed optimistically, and the result verified against the handle's canonical key (only a
+ * lookup that races a registration, or misses, takes the lock).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class ParsedIdentifierCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParsedIdentifierCache.class);
+
+    public static final int NO_HANDLE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private StringIntTable handleTable;
+    private volatile ParsedIdentifier[] parsedIdentifiersByHandle;
+    private int[] freeHandles;
+    private int freeHandleCount;
+    private int handleLimit;
+    private int registeredCount;
+    private volatile RdnSegmentDictionary segmentDictionary;
+
+    public ParsedIdentifierCache() {
+        this.handleTable = new StringIntTable(INITIAL_CAPACITY);
+        this.parsedIdentifiersByHandle = new ParsedIdentifier[INITIAL_CAPACITY];
+        this.freeHandles = new int[0];
+        this.freeHandleCount = 0;
+        this.handleLimit = 0;
+        this.registeredCount = 0;
+        this.segmentDictionary = new RdnSegmentDictionary();
+    }
+
+    /**
+     * Parses (if not already registered) and registers the supplied identifier, taking a reference
+     * to it (released by evict()).
+     *
+     * @param elementID The identifier (Node, Link or Endpoint) of a registered element
+     * @return The parsed form of the identifier
+     */
+    public synchronized ParsedIdentifier register(FDNToken elementID) {
+        String canonicalKey = TopologyDM.canonicalKey(elementID);
+        int handle = handleTable.get(canonicalKey);
+        if (handle != StringIntTable.NO_VALUE) {
+            ParsedIdentifier parsedIdentifier = parsedIdentifiersByHandle[handle];
+            parsedIdentifier.referenceCount++;
+            return (parsedIdentifier);
+        }
+        handle = allocateHandle();
+        RDN unqualifiedRDN = new FDN(elementID).getUnqualifiedRDN();
+        RdnSegmentDictionary currentDictionary = this.segmentDictionary;
+        int qualifierCode = currentDictionary.acquire(unqualifiedRDN.getQualifier());
+        int valueCode = currentDictionary.acquire(unqualifiedRDN.getValue());
+        int unqualifiedValueCode = currentDictionary.acquire(unqualifiedRDN.getUnqualifiedValue());
+        ParsedIdentifier parsedIdentifier = new ParsedIdentifier(elementID, canonicalKey, handle, qualifierCode, valueCode, unqualifiedValueCode, currentDictionary);
+        parsedIdentifier.referenceCount = 1;
+        ParsedIdentifier[] currentParsedIdentifiers = this.parsedIdentifiersByHandle;
+        if (handle >= currentParsedIdentifiers.length) {
+            currentParsedIdentifiers = Arrays.copyOf(currentParsedIdentifiers, currentParsedIdentifiers.length * 2);
+        }
+        currentParsedIdentifiers[handle] = parsedIdentifier;
+        this.parsedIdentifiersByHandle = currentParsedIdentifiers;
+        handleTable.put(canonicalKey, handle);
+        registeredCount++;
+        return (parsedIdentifier);
+    }
+
+    private int allocateHandle() {
+        if (freeHandleCount > 0) {
+            freeHandleCount--;
+            return (freeHandles[freeHandleCount]);
+        }
+        int handle = handleLimit;
+        handleLimit++;
+        return (handle);
+    }
+
+    /**
+     * Parses an identifier that isn't registered - its segments are encoded without a reference
+     * (so are dead as soon as they are added, and are dropped by the next rebuild).
+     */
+    private ParsedIdentifier parseUnregistered(FDNToken elementID, String canonicalKey) {
+        RDN unqualifiedRDN = new FDN(elementID).getUnqualifiedRDN();
+        RdnSegmentDictionary currentDictionary = this.segmentDictionary;
+        int qualifierCode = currentDictionary.encode(unqualifiedRDN.getQualifier());
+        int valueCode = currentDictionary.encode(unqualifiedRDN.getValue());
+        int unqualifiedValueCode = currentDictionary.encode(unqualifiedRDN.getUnqualifiedValue());
+        if (currentDictionary.isRebuildDue()) {
+            synchronized (this) {
+                if (this.segmentDictionary.isRebuildDue()) {
+                    rebuildSegmentDictionary();
+                }
+            }
+        }
+        return (new ParsedIdentifier(elementID, canonicalKey, NO_HANDLE, qualifierCode, valueCode, unqualifiedValueCode, currentDictionary));
+    }
+
+    /**
+     * Retrieves the parsed form of the identifier with the given canonical key.
+     *
+     * @param canonicalKey The canonical key (see TopologyDM) of the identifier
+     * @return The parsed form of the identifier, or null if it is not registered
+     */
+    public ParsedIdentifier get(String canonicalKey) {
+        ParsedIdentifier[] currentParsedIdentifiers = this.parsedIdentifiersByHandle;
+        int handle = handleTable.get(canonicalKey);
+        if (handle >= 0 && handle < currentParsedIdentifiers.length) {
+            ParsedIdentifier candidate = currentParsedIdentifiers[handle];
+            if (candidate != null && candidate.canonicalKey.equals(canonicalKey)) {
+                return (candidate);
+            }
+        }
+        synchronized (this) {
+            handle = handleTable.get(canonicalKey);
+            if (handle == StringIntTable.NO_VALUE) {
+                return (null);
+            }
+            return (parsedIdentifiersByHandle[handle]);
+        }
+    }
+
+    /**
+     * Retrieves the parsed form of the identifier, parsing it (without registering it) if the
+     * identifier isn't one of the registered elements.
+     *
+     * @param elementID The identifier (Node, Link or Endpoint) of the element
+     * @return The parsed form of the identifier
+     */
+    public ParsedIdentifier getOrParse(FDNToken elementID) {
+        String canonicalKey = TopologyDM.canonicalKey(elementID);
+        ParsedIdentifier parsedIdentifier = get(canonicalKey);
+        if (parsedIdentifier == null) {
+            LOG.trace(".getOrParse(): Identifier not registered, parsing it --> {}", elementID);
+            parsedIdentifier = parseUnregistered(elementID, canonicalKey);
+        }
+        return (parsedIdentifier);
+    }
+
+    /**
+     * @param elementID The identifier (Node, Link or Endpoint) of the element
+     * @return The (shared) canonical key instance of the identifier if it is registered, otherwise
+     * a new canonical key
+     */
+    public String keyOf(FDNToken elementID) {
+        String canonicalKey = TopologyDM.canonicalKey(elementID);
+        ParsedIdentifier parsedIdentifier = get(canonicalKey);
+        if (parsedIdentifier == null) {
+            return (canonicalKey);
+        }
+        return (parsedIdentifier.canonicalKey);
+    }
+
+    /**
+     * @param canonicalKey The canonical key (see TopologyDM) of the identifier
+     * @return The handle of the identifier, or NO_HANDLE if it is not registered
+     */
+    public int handleOf(String canonicalKey) {
+        ParsedIdentifier parsedIdentifier = get(canonicalKey);
+        if (parsedIdentifier == null) {
+            return (NO_HANDLE);
+        }
+        return (parsedIdentifier.handle);
+    }
+
+    /**
+     * @param handle A handle
+     * @return The (shared) canonical key of the identifier registered with the handle, or null if
+     * the handle isn't in use
+     */
+    public String keyOfHandle(int handle) {
+        ParsedIdentifier[] currentParsedIdentifiers = this.parsedIdentifiersByHandle;
+        if (handle >= 0 && handle < currentParsedIdentifiers.length) {
+            ParsedIdentifier parsedIdentifier = currentParsedIdentifiers[handle];
+            if (parsedIdentifier != null) {
+                return (parsedIdentifier.canonicalKey);
+            }
+        }
+        synchronized (this) {
+            if (handle < 0 || handle >= parsedIdentifiersByHandle.length || parsedIdentifiersByHandle[handle] == null) {
+                return (null);
+            }
+            return (parsedIdentifiersByHandle[handle].canonicalKey);
+        }
+    }
+
+    /**
+     * Releases a reference to the identifier, and un-registers it (recycling its handle) once the
+     * last reference has been released.
+     *
+     * @param elementID The identifier (Node, Link or Endpoint) of the element
+     */
+    public synchronized void evict(FDNToken elementID) {
+        String canonicalKey = TopologyDM.canonicalKey(elementID);
+        int handle = handleTable.get(canonicalKey);
+        if (handle == StringIntTable.NO_VALUE) {
+            return;
+        }
+        ParsedIdentifier parsedIdentifier = parsedIdentifiersByHandle[handle];
+        parsedIdentifier.referenceCount--;
+        if (parsedIdentifier.referenceCount > 0) {
+            return;
+        }
+        handleTable.remove(canonicalKey);
+        parsedIdentifiersByHandle[handle] = null;
+        if (freeHandleCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, Math.max(16, freeHandles.length * 2));
+        }
+        freeHandles[freeHandleCount] = handle;
+        freeHandleCount++;
+        registeredCount--;
+        RdnSegmentDictionary currentDictionary = this.segmentDictionary;
+        currentDictionary.release(parsedIdentifier.qualifierCode);
+        currentDictionary.release(parsedIdentifier.valueCode);
+        currentDictionary.release(parsedIdentifier.unqualifiedValueCode);
+        if (currentDictionary.isRebuildDue()) {
+            rebuildSegmentDictionary();
+        }
+    }
+
+    /**
+     * Reclaims the dead segments: re-encodes each registered identifier into a new dictionary
+     * (which holds only their segments) and publishes the re-encoded identifiers. The codes of the
+     * retired dictionary never change, so a caller still holding one of its ParsedIdentifiers goes
+     * on decoding it correctly (and the retired dictionary is collected once none are held).
+     */
+    private void rebuildSegmentDictionary() {
+        RdnSegmentDictionary retiredDictionary = this.segmentDictionary;
+        RdnSegmentDictionary rebuiltDictionary = new RdnSegmentDictionary();
+        ParsedIdentifier[] currentParsedIdentifiers = this.parsedIdentifiersByHandle;
+        ParsedIdentifier[] rebuiltParsedIdentifiers = new ParsedIdentifier[currentParsedIdentifiers.length];
+        for (int handle = 0; handle < handleLimit; handle++) {
+            ParsedIdentifier currentParsedIdentifier = currentParsedIdentifiers[handle];
+            if (currentParsedIdentifier != null) {
+                rebuiltParsedIdentifiers[handle] = currentParsedIdentifier.reencode(rebuiltDictionary);
+            }
+        }
+        this.segmentDictionary = rebuiltDictionary;
+        this.parsedIdentifiersByHandle = rebuiltParsedIdentifiers;
+        LOG.debug(".rebuildSegmentDictionary(): Exit, segments before --> {}, segments after --> {}", retiredDictionary.size(), rebuiltDictionary.size());
+    }
+
+    public synchronized int size() {
+        return (registeredCount);
+    }
+
+    /**
+     * @return One more than the highest handle issued, i.e. the length a handle-indexed array
+     * needs to be
+     */
+    public synchronized int getHandleLimit() {
+        return (handleLimit);
+    }
+
+    /**
+     * @return The number of RDN segments held by the (current) segment dictionary, live and dead
+     */
+    public int getSegmentCount() {
+        return (segmentDictionary.size());
+    }
+
+    /**
+     * @return The number of RDN segments referenced by the registered identifiers
+     */
+    public int getLiveSegmentCount() {
+        return (segmentDictionary.getLiveSegmentCount());
+    }
+
+    /**
+     * The (immutable) parsed form of a single identifier. The full FDN is only parsed if it is
+     * asked for (most identifiers never are), and is then retained.
+     */
+    public static class ParsedIdentifier {
+        private final FDNToken identifier;
+        private final String canonicalKey;
+        private final int handle;
+        private final int qualifierCode;
+        private final int valueCode;
+        private final int unqualifiedValueCode;
+        private final RdnSegmentDictionary segmentDictionary;
+        private volatile FDN identifierFDN;
+        private int referenceCount;
+
+        ParsedIdentifier(FDNToken identifier, String canonicalKey, int handle, int qualifierCode, int valueCode, int unqualifiedValueCode, RdnSegmentDictionary segmentDictionary) {
+            this.identifier = identifier;
+            this.canonicalKey = canonicalKey;
+            this.handle = handle;
+            this.qualifierCode = qualifierCode;
+            this.valueCode = valueCode;
+            this.unqualifiedValueCode = unqualifiedValueCode;
+            this.segmentDictionary = segmentDictionary;
+            this.referenceCount = 0;
+        }
+
+        public FDNToken getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return The (shared) canonical key of the identifier
+         */
+        public String getCanonicalKey() {
+            return canonicalKey;
+        }
+
+        /**
+         * @return The handle of the identifier, or NO_HANDLE if it isn't registered
+         */
+        public int getHandle() {
+            return handle;
+        }
+
+        /**
+         * The FDN is parsed on the first call and the same instance is returned thereafter, so
+         * callers must not modify it (copy it before appending RDNs to it). Two racing first calls
+         * may each parse the identifier, but only one of the (equal) FDNs is kept.
+         */
+        public FDN getIdentifierFDN() {
+            FDN parsedFDN = identifierFDN;
+            if (parsedFDN == null) {
+                parsedFDN = new FDN(identifier);
+                identifierFDN = parsedFDN;
+            }
+            return (parsedFDN);
+        }
+
+        /**
+         * Note that the RDN isn't retained, so a new RDN is built (from the dictionary-encoded
+         * segments) on each call.
+         */
+        public RDN getUnqualifiedRDN() {
+            return (new RDN(getQualifier(), getValue()));
+        }
+
+        /**
+         * @return The value of the unqualified RDN (as per RDN.getValue())
+         */
+        public String getValue() {
+            return (segmentDictionary.decode(valueCode));
+        }
+
+        /**
+         * @return The unqualified value of the unqualified RDN (as per RDN.getUnqualifiedValue())
+         */
+        public String getUnqualifiedValue() {
+            return (segmentDictionary.decode(unqualifiedValueCode));
+        }
+
+        public String getQualifier() {
+            return (segmentDictionary.decode(qualifierCode));
+        }
+
+        /**
+         * @param rebuiltDictionary The dictionary to encode the segments into (taking a reference
+         * to each)
+         * @return An equivalent ParsedIdentifier whose segments are encoded by the rebuilt
+         * dictionary
+         */
+        private ParsedIdentifier reencode(RdnSegmentDictionary rebuiltDictionary) {
+            int rebuiltQualifierCode = rebuiltDictionary.acquire(getQualifier());
+            int rebuiltValueCode = rebuiltDictionary.acquire(getValue());
+            int rebuiltUnqualifiedValueCode = rebuiltDictionary.acquire(getUnqualifiedValue());
+            ParsedIdentifier reencodedIdentifier = new ParsedIdentifier(identifier, canonicalKey, handle, rebuiltQualifierCode, rebuiltValueCode, rebuiltUnqualifiedValueCode, rebuiltDictionary);
+            reencodedIdentifier.identifierFDN = this.identifierFDN;
+            reencodedIdentifier.referenceCount = this.referenceCount;
+            return (reencodedIdentifier);
+        }
+    }
+}
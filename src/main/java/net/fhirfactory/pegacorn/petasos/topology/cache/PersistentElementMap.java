@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable (persistent) map from canonical key to element, used to hold the contents of the
+ * TopologySnapshots. It is a hash array mapped trie: put() and remove() copy only the path from the
+ * root to the changed entry (at most seven 32-way nodes) and share the rest of the trie with the
+ * map they were applied to - so building the next epoch's snapshot costs O(changed elements), not
+ * O(topology size), and every snapshot remains valid (and unchanged) however many follow it.
+ * <p>
+ * Keys whose hashes are equal share a single leaf.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+final class PersistentElementMap<V> {
+
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    private static final int MAXIMUM_DEPTH = 7;
+
+    private static final PersistentElementMap<Object> EMPTY = new PersistentElementMap<Object>(null, 0);
+
+    private final TrieNode root;
+    private final int size;
+
+    private PersistentElementMap(TrieNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentElementMap<V> empty() {
+        return ((PersistentElementMap<V>) EMPTY);
+    }
+
+    private static final class TrieNode {
+        final int bitmap;
+        final Object[] entries;
+
+        TrieNode(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+    }
+
+    private static final class Leaf {
+        final int hash;
+        final String[] keys;
+        final Object[] values;
+
+        Leaf(int hash, String[] keys, Object[] values) {
+            this.hash = hash;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        int indexOf(String key) {
+            for (int keyIndex = 0; keyIndex < keys.length; keyIndex++) {
+                if (keys[keyIndex].equals(key)) {
+                    return (keyIndex);
+                }
+            }
+            return (-1);
+        }
+    }
+
+    public int size() {
+        return (size);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+        int hash = key.hashCode();
+        Object entry = root;
+        int shift = 0;
+        while (entry instanceof TrieNode) {
+            TrieNode trieNode = (TrieNode) entry;
+            int bit = 1 << ((hash >>> shift) & LEVEL_MASK);
+            if ((trieNode.bitmap & bit) == 0) {
+                return (null);
+            }
+            entry = trieNode.entries[Integer.bitCount(trieNode.bitmap & (bit - 1))];
+            shift += BITS_PER_LEVEL;
+        }
+        if (entry == null) {
+            return (null);
+        }
+        Leaf leaf = (Leaf) entry;
+        if (leaf.hash != hash) {
+            return (null);
+        }
+        int keyIndex = leaf.indexOf(key);
+        return (keyIndex < 0 ? null : (V) leaf.values[keyIndex]);
+    }
+
+    /**
+     * @return A map holding the same entries as this one, except that the key maps to the value
+     */
+    public PersistentElementMap<V> put(String key, V value) {
+        int hash = key.hashCode();
+        boolean[] added = new boolean[1];
+        TrieNode newRoot = put(root, 0, hash, key, value, added);
+        return (new PersistentElementMap<V>(newRoot, added[0] ? size + 1 : size));
+    }
+
+    private static TrieNode put(TrieNode trieNode, int shift, int hash, String key, Object value, boolean[] added) {
+        int bit = 1 << ((hash >>> shift) & LEVEL_MASK);
+        if (trieNode == null) {
+            added[0] = true;
+            return (new TrieNode(bit, new Object[]{new Leaf(hash, new String[]{key}, new Object[]{value})}));
+        }
+        int entryIndex = Integer.bitCount(trieNode.bitmap & (bit - 1));
+        if ((trieNode.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] newEntries = new Object[trieNode.entries.length + 1];
+            System.arraycopy(trieNode.entries, 0, newEntries, 0, entryIndex);
+            newEntries[entryIndex] = new Leaf(hash, new String[]{key}, new Object[]{value});
+            System.arraycopy(trieNode.entries, entryIndex, newEntries, entryIndex + 1, trieNode.entries.length - entryIndex);
+            return (new TrieNode(trieNode.bitmap | bit, newEntries));
+        }
+        Object entry = trieNode.entries[entryIndex];
+        Object newEntry;
+        if (entry instanceof TrieNode) {
+            newEntry = put((TrieNode) entry, shift + BITS_PER_LEVEL, hash, key, value, added);
+        } else {
+            Leaf leaf = (Leaf) entry;
+            if (leaf.hash == hash) {
+                newEntry = putInLeaf(leaf, key, value, added);
+            } else {
+                added[0] = true;
+                newEntry = split(leaf, new Leaf(hash, new String[]{key}, new Object[]{value}), shift + BITS_PER_LEVEL);
+            }
+        }
+        Object[] newEntries = trieNode.entries.clone();
+        newEntries[entryIndex] = newEntry;
+        return (new TrieNode(trieNode.bitmap, newEntries));
+    }
+
+    private static Leaf putInLeaf(Leaf leaf, String key, Object value, boolean[] added) {
+        int keyIndex = leaf.indexOf(key);
+        if (keyIndex >= 0) {
+            Object[] newValues = leaf.values.clone();
+            newValues[keyIndex] = value;
+            return (new Leaf(leaf.hash, leaf.keys, newValues));
+        }
+        added[0] = true;
+        String[] newKeys = Arrays.copyOf(leaf.keys, leaf.keys.length + 1);
+        Object[] newValues = Arrays.copyOf(leaf.values, leaf.values.length + 1);
+        newKeys[leaf.keys.length] = key;
+        newValues[leaf.values.length] = value;
+        return (new Leaf(leaf.hash, newKeys, newValues));
+    }
+
+    /**
+     * Builds the sub-trie holding two leaves whose hashes differ (but agree below the shift).
+     */
+    private static TrieNode split(Leaf firstLeaf, Leaf secondLeaf, int shift) {
+        int firstIndex = (firstLeaf.hash >>> shift) & LEVEL_MASK;
+        int secondIndex = (secondLeaf.hash >>> shift) & LEVEL_MASK;
+        if (firstIndex == secondIndex) {
+            return (new TrieNode(1 << firstIndex, new Object[]{split(firstLeaf, secondLeaf, shift + BITS_PER_LEVEL)}));
+        }
+        int bitmap = (1 << firstIndex) | (1 << secondIndex);
+        if (firstIndex < secondIndex) {
+            return (new TrieNode(bitmap, new Object[]{firstLeaf, secondLeaf}));
+        }
+        return (new TrieNode(bitmap, new Object[]{secondLeaf, firstLeaf}));
+    }
+
+    /**
+     * @return A map holding the same entries as this one, except for the key (this map, if the key
+     * isn't present)
+     */
+    public PersistentElementMap<V> remove(String key) {
+        if (root == null) {
+            return (this);
+        }
+        Object newRoot = remove(root, 0, key.hashCode(), key);
+        if (newRoot == root) {
+            return (this);
+        }
+        if (newRoot instanceof Leaf) {
+            Leaf leaf = (Leaf) newRoot;
+            newRoot = new TrieNode(1 << (leaf.hash & LEVEL_MASK), new Object[]{leaf});
+        }
+        return (new PersistentElementMap<V>((TrieNode) newRoot, size - 1));
+    }
+
+    /**
+     * @return The trie node without the key - the same instance if the key isn't present, null if
+     * nothing is left, or the one remaining leaf (so that its parent can collapse a chain of
+     * single-entry nodes left behind by a removal)
+     */
+    private static Object remove(TrieNode trieNode, int shift, int hash, String key) {
+        int bit = 1 << ((hash >>> shift) & LEVEL_MASK);
+        if ((trieNode.bitmap & bit) == 0) {
+            return (trieNode);
+        }
+        int entryIndex = Integer.bitCount(trieNode.bitmap & (bit - 1));
+        Object entry = trieNode.entries[entryIndex];
+        Object newEntry;
+        if (entry instanceof TrieNode) {
+            newEntry = remove((TrieNode) entry, shift + BITS_PER_LEVEL, hash, key);
+        } else {
+            Leaf leaf = (Leaf) entry;
+            int keyIndex = leaf.hash == hash ? leaf.indexOf(key) : -1;
+            if (keyIndex < 0) {
+                return (trieNode);
+            }
+            newEntry = removeFromLeaf(leaf, keyIndex);
+        }
+        if (newEntry == entry) {
+            return (trieNode);
+        }
+        if (newEntry != null) {
+            if (trieNode.entries.length == 1 && newEntry instanceof Leaf) {
+                return (newEntry);
+            }
+            Object[] newEntries = trieNode.entries.clone();
+            newEntries[entryIndex] = newEntry;
+            return (new TrieNode(trieNode.bitmap, newEntries));
+        }
+        if (trieNode.entries.length == 1) {
+            return (null);
+        }
+        if (trieNode.entries.length == 2 && trieNode.entries[1 - entryIndex] instanceof Leaf) {
+            return (trieNode.entries[1 - entryIndex]);
+        }
+        Object[] newEntries = new Object[trieNode.entries.length - 1];
+        System.arraycopy(trieNode.entries, 0, newEntries, 0, entryIndex);
+        System.arraycopy(trieNode.entries, entryIndex + 1, newEntries, entryIndex, newEntries.length - entryIndex);
+        return (new TrieNode(trieNode.bitmap & ~bit, newEntries));
+    }
+
+    private static Leaf removeFromLeaf(Leaf leaf, int keyIndex) {
+        if (leaf.keys.length == 1) {
+            return (null);
+        }
+        String[] newKeys = new String[leaf.keys.length - 1];
+        Object[] newValues = new Object[leaf.values.length - 1];
+        System.arraycopy(leaf.keys, 0, newKeys, 0, keyIndex);
+        System.arraycopy(leaf.keys, keyIndex + 1, newKeys, keyIndex, newKeys.length - keyIndex);
+        System.arraycopy(leaf.values, 0, newValues, 0, keyIndex);
+        System.arraycopy(leaf.values, keyIndex + 1, newValues, keyIndex, newValues.length - keyIndex);
+        return (new Leaf(leaf.hash, newKeys, newValues));
+    }
+
+    /**
+     * @return A read-only view of the values of the map (in no particular order)
+     */
+    public AbstractCollection<V> values() {
+        return (new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return (new ValueIterator<V>(root));
+            }
+
+            @Override
+            public int size() {
+                return (size);
+            }
+        });
+    }
+
+    /**
+     * A depth-first walk of the trie, holding the position within each trie node on the current
+     * path.
+     */
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final TrieNode[] pathNodes = new TrieNode[MAXIMUM_DEPTH + 1];
+        private final int[] pathPositions = new int[MAXIMUM_DEPTH + 1];
+        private int depth;
+        private Leaf currentLeaf;
+        private int leafPosition;
+
+        ValueIterator(TrieNode root) {
+            this.depth = -1;
+            if (root != null) {
+                this.depth = 0;
+                this.pathNodes[0] = root;
+            }
+            advance();
+        }
+
+        private void advance() {
+            currentLeaf = null;
+            leafPosition = 0;
+            while (depth >= 0) {
+                TrieNode trieNode = pathNodes[depth];
+                if (pathPositions[depth] == trieNode.entries.length) {
+                    pathNodes[depth] = null;
+                    pathPositions[depth] = 0;
+                    depth--;
+                    continue;
+                }
+                Object entry = trieNode.entries[pathPositions[depth]];
+                pathPositions[depth]++;
+                if (entry instanceof TrieNode) {
+                    depth++;
+                    pathNodes[depth] = (TrieNode) entry;
+                    pathPositions[depth] = 0;
+                } else {
+                    currentLeaf = (Leaf) entry;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (currentLeaf != null);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (currentLeaf == null) {
+                throw (new NoSuchElementException());
+            }
+            V value = (V) currentLeaf.values[leafPosition];
+            leafPosition++;
+            if (leafPosition == currentLeaf.values.length) {
+                advance();
+            }
+            return (value);
+        }
+    }
+}
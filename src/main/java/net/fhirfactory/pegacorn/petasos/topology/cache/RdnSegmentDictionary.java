@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+
+/**
+ * A dictionary of the RDN segments (qualifiers, values and unqualified values) of the registered
+ * identifiers. Each distinct segment is held once and is given a dense int code, so a parsed
+ * identifier carries a few ints rather than its own RDN chain - and every index keyed by a segment
+ * shares the dictionary's String instance.
+ * <p>
+ * Segments are reference counted (acquire() / release()), but a code is never re-issued within a
+ * dictionary: a reader may still hold a ParsedIdentifier whose segments have just been released,
+ * and must go on decoding them. A released segment is instead left in place (as a dead segment)
+ * and the owner reclaims the dead segments by rebuilding - encoding the live segments into a new
+ * dictionary once isRebuildDue() - leaving the codes of the retired dictionary intact for any reader
+ * still holding one of them. See ParsedIdentifierCache.
+ * <p>
+ * Encoding is serialised on the dictionary instance, decoding is lock-free.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class RdnSegmentDictionary {
+
+    public static final int NULL_SEGMENT_CODE = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MINIMUM_DEAD_SEGMENTS_FOR_REBUILD = 1024;
+
+    private StringIntTable codeTable;
+    private volatile String[] segmentsByCode;
+    private int[] referenceCounts;
+    private int segmentCount;
+    private int liveSegmentCount;
+
+    public RdnSegmentDictionary() {
+        this.codeTable = new StringIntTable(INITIAL_CAPACITY);
+        this.segmentsByCode = new String[INITIAL_CAPACITY];
+        this.referenceCounts = new int[INITIAL_CAPACITY];
+        this.segmentCount = 0;
+        this.liveSegmentCount = 0;
+    }
+
+    /**
+     * Encodes the segment without taking a reference to it (for an identifier that is parsed but
+     * not registered), so a segment added by this call is dead until it is acquired.
+     *
+     * @param segment An RDN segment (may be null)
+     * @return The code of the segment (adding it to the dictionary if need be), or
+     * NULL_SEGMENT_CODE for a null segment
+     */
+    public synchronized int encode(String segment) {
+        if (segment == null) {
+            return (NULL_SEGMENT_CODE);
+        }
+        int code = codeTable.get(segment);
+        if (code != StringIntTable.NO_VALUE) {
+            return (code);
+        }
+        code = segmentCount;
+        String[] currentSegments = this.segmentsByCode;
+        if (code == currentSegments.length) {
+            currentSegments = Arrays.copyOf(currentSegments, currentSegments.length * 2);
+            referenceCounts = Arrays.copyOf(referenceCounts, currentSegments.length);
+        }
+        currentSegments[code] = segment;
+        this.segmentsByCode = currentSegments;
+        codeTable.put(segment, code);
+        segmentCount++;
+        return (code);
+    }
+
+    /**
+     * Encodes the segment and takes a reference to it (released by release()).
+     *
+     * @param segment An RDN segment (may be null)
+     * @return The code of the segment, or NULL_SEGMENT_CODE for a null segment
+     */
+    public synchronized int acquire(String segment) {
+        int code = encode(segment);
+        if (code == NULL_SEGMENT_CODE) {
+            return (code);
+        }
+        if (referenceCounts[code] == 0) {
+            liveSegmentCount++;
+        }
+        referenceCounts[code]++;
+        return (code);
+    }
+
+    /**
+     * Releases a reference taken by acquire(). The segment stays decodable (its code is not
+     * re-issued) but, once its last reference is released, is dead - and is dropped by the next
+     * rebuild.
+     *
+     * @param code A code returned by acquire()
+     */
+    public synchronized void release(int code) {
+        if (code == NULL_SEGMENT_CODE) {
+            return;
+        }
+        if (code < 0 || code >= segmentCount || referenceCounts[code] == 0) {
+            throw (new IllegalArgumentException(".release(): code is not an acquired segment code --> " + code));
+        }
+        referenceCounts[code]--;
+        if (referenceCounts[code] == 0) {
+            liveSegmentCount--;
+        }
+    }
+
+    /**
+     * @param code A code returned by encode() or acquire()
+     * @return The segment with that code, or null for NULL_SEGMENT_CODE
+     */
+    public String decode(int code) {
+        if (code == NULL_SEGMENT_CODE) {
+            return (null);
+        }
+        String[] currentSegments = this.segmentsByCode;
+        if (code < currentSegments.length && currentSegments[code] != null) {
+            return (currentSegments[code]);
+        }
+        synchronized (this) {
+            return (this.segmentsByCode[code]);
+        }
+    }
+
+    /**
+     * @return Whether the dead segments outnumber the live ones (and are numerous enough for a
+     * rebuild to be worth its cost)
+     */
+    public synchronized boolean isRebuildDue() {
+        int deadSegmentCount = segmentCount - liveSegmentCount;
+        return (deadSegmentCount >= MINIMUM_DEAD_SEGMENTS_FOR_REBUILD && deadSegmentCount > liveSegmentCount);
+    }
+
+    /**
+     * @return The number of segments held, live and dead
+     */
+    public synchronized int size() {
+        return (segmentCount);
+    }
+
+    /**
+     * @return The number of segments with at least one reference
+     */
+    public synchronized int getLiveSegmentCount() {
+        return (liveSegmentCount);
+    }
+}
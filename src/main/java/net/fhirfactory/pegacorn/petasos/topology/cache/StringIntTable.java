@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+/**
+ * A compact map from String keys to (non-negative) int values: an open-addressing table with
+ * linear probing over a pair of parallel arrays, so an entry costs two array slots rather than a
+ * map node, a boxed value and a table slot.
+ * <p>
+ * Mutations are not thread-safe and must be serialised by the owner. A reader racing a mutation
+ * may see a stale (or missing) value but never fails, so an owner can offer an optimistic,
+ * lock-free lookup that it verifies against its own state (and, on a miss, repeats under its
+ * lock) - see ParsedIdentifierCache.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+class StringIntTable {
+
+    static final int NO_VALUE = -1;
+
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final String REMOVED_KEY = new String("<removed>");
+
+    private volatile Slots slots;
+    private int size;
+    private int usedSlotCount;
+
+    StringIntTable(int expectedSize) {
+        this.slots = new Slots(capacityFor(expectedSize));
+        this.size = 0;
+        this.usedSlotCount = 0;
+    }
+
+    private static final class Slots {
+        final String[] keys;
+        final int[] values;
+
+        Slots(int capacity) {
+            this.keys = new String[capacity];
+            this.values = new int[capacity];
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity = capacity << 1;
+        }
+        return (capacity);
+    }
+
+    private static int slotOf(String key, int mask) {
+        int keyHash = key.hashCode();
+        return ((keyHash ^ (keyHash >>> 16)) & mask);
+    }
+
+    /**
+     * @param key The key
+     * @return The value mapped to the key, or NO_VALUE if there is none
+     */
+    int get(String key) {
+        Slots currentSlots = this.slots;
+        String[] keys = currentSlots.keys;
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        for (int probeCount = 0; probeCount < keys.length; probeCount++) {
+            String slotKey = keys[slot];
+            if (slotKey == null) {
+                return (NO_VALUE);
+            }
+            if (slotKey != REMOVED_KEY && slotKey.equals(key)) {
+                return (currentSlots.values[slot]);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return (NO_VALUE);
+    }
+
+    /**
+     * Maps the key to the value, replacing any existing mapping. The value is written before the
+     * key, so a racing reader that finds the key reads (at worst) a value it must then verify.
+     *
+     * @param key The key
+     * @param value The (non-negative) value
+     */
+    void put(String key, int value) {
+        if (value < 0) {
+            throw (new IllegalArgumentException(".put(): value must not be negative"));
+        }
+        Slots currentSlots = this.slots;
+        int mask = currentSlots.keys.length - 1;
+        int slot = slotOf(key, mask);
+        int firstRemovedSlot = -1;
+        while (currentSlots.keys[slot] != null) {
+            String slotKey = currentSlots.keys[slot];
+            if (slotKey == REMOVED_KEY) {
+                if (firstRemovedSlot < 0) {
+                    firstRemovedSlot = slot;
+                }
+            } else if (slotKey.equals(key)) {
+                currentSlots.values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (firstRemovedSlot >= 0) {
+            slot = firstRemovedSlot;
+        } else {
+            usedSlotCount++;
+        }
+        currentSlots.values[slot] = value;
+        currentSlots.keys[slot] = key;
+        size++;
+        if (usedSlotCount * 4 >= currentSlots.keys.length * 3) {
+            rehash();
+        }
+    }
+
+    /**
+     * @param key The key
+     * @return The value that was mapped to the key, or NO_VALUE if there was none
+     */
+    int remove(String key) {
+        Slots currentSlots = this.slots;
+        int mask = currentSlots.keys.length - 1;
+        int slot = slotOf(key, mask);
+        while (currentSlots.keys[slot] != null) {
+            String slotKey = currentSlots.keys[slot];
+            if (slotKey != REMOVED_KEY && slotKey.equals(key)) {
+                int removedValue = currentSlots.values[slot];
+                currentSlots.keys[slot] = REMOVED_KEY;
+                size--;
+                return (removedValue);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return (NO_VALUE);
+    }
+
+    /**
+     * Copies the live entries into a new table (sized for the live entries, so removed slots are
+     * reclaimed) and publishes it - readers of the previous table still see a consistent table.
+     */
+    private void rehash() {
+        Slots currentSlots = this.slots;
+        Slots newSlots = new Slots(capacityFor(Math.max(size * 2, MINIMUM_CAPACITY)));
+        int mask = newSlots.keys.length - 1;
+        for (int index = 0; index < currentSlots.keys.length; index++) {
+            String currentKey = currentSlots.keys[index];
+            if (currentKey != null && currentKey != REMOVED_KEY) {
+                int slot = slotOf(currentKey, mask);
+                while (newSlots.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                newSlots.keys[slot] = currentKey;
+                newSlots.values[slot] = currentSlots.values[index];
+            }
+        }
+        this.usedSlotCount = size;
+        this.slots = newSlots;
+    }
+
+    int size() {
+        return (size);
+    }
+}
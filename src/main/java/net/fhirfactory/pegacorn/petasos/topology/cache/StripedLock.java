@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks ("stripes"), each guarding the elements whose canonical key hashes to it.
+ * A mutation that touches several related elements (e.g. a Node and its containing Node) locks the
+ * stripes of all of them - always in ascending stripe order, so two such mutations can never
+ * deadlock - while mutations of unrelated elements (almost always) lock different stripes and so
+ * proceed in parallel.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class StripedLock {
+
+    private static final int[] NO_STRIPES = new int[0];
+
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param stripeCount The (minimum) number of stripes, rounded up to a power of two
+     */
+    public StripedLock(int stripeCount) {
+        if (stripeCount < 1) {
+            throw (new IllegalArgumentException(".StripedLock(): stripeCount must be positive"));
+        }
+        int roundedStripeCount = Integer.highestOneBit(stripeCount);
+        if (roundedStripeCount < stripeCount) {
+            roundedStripeCount = roundedStripeCount << 1;
+        }
+        this.stripes = new ReentrantLock[roundedStripeCount];
+        for (int stripe = 0; stripe < roundedStripeCount; stripe++) {
+            this.stripes[stripe] = new ReentrantLock();
+        }
+        this.stripeMask = roundedStripeCount - 1;
+    }
+
+    public int stripeOf(String key) {
+        int keyHash = key.hashCode();
+        return ((keyHash ^ (keyHash >>> 16)) & stripeMask);
+    }
+
+    /**
+     * Locks the stripes guarding the given keys (null keys are ignored).
+     *
+     * @param keys The canonical keys of the elements to be mutated
+     * @return The (ascending, distinct) stripes locked, to be passed to unlock()
+     */
+    public int[] lock(String... keys) {
+        int[] keyStripes = new int[keys.length];
+        int stripeCount = 0;
+        for (String key : keys) {
+            if (key != null) {
+                keyStripes[stripeCount] = stripeOf(key);
+                stripeCount++;
+            }
+        }
+        if (stripeCount == 0) {
+            return (NO_STRIPES);
+        }
+        Arrays.sort(keyStripes, 0, stripeCount);
+        int distinctCount = 1;
+        for (int index = 1; index < stripeCount; index++) {
+            if (keyStripes[index] != keyStripes[distinctCount - 1]) {
+                keyStripes[distinctCount] = keyStripes[index];
+                distinctCount++;
+            }
+        }
+        int[] lockedStripes = Arrays.copyOf(keyStripes, distinctCount);
+        for (int stripe : lockedStripes) {
+            stripes[stripe].lock();
+        }
+        return (lockedStripes);
+    }
+
+    public void unlock(int[] lockedStripes) {
+        for (int index = lockedStripes.length - 1; index >= 0; index--) {
+            stripes[lockedStripes[index]].unlock();
+        }
+    }
+
+    public int getStripeCount() {
+        return (stripes.length);
+    }
+}
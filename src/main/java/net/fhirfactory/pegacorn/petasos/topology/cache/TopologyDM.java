@@ -21,23 +21,43 @@
  */
 package net.fhirfactory.pegacorn.petasos.topology.cache;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.*;
 
 import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
 import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
 import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
 import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyChangeFeed;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyChangeTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.metrics.TopologyLookupEnum;
+import net.fhirfactory.pegacorn.petasos.topology.metrics.TopologyMetrics;
+import net.fhirfactory.pegacorn.petasos.topology.metrics.TopologyMetricsSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.enterprise.context.ApplicationScoped;
 
-import net.fhirfactory.pegacorn.common.model.FDN;
-import net.fhirfactory.pegacorn.common.model.RDN;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
 
 
@@ -46,23 +66,93 @@ import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
  * @since 2020-07-01
  */
 @ApplicationScoped
-public class TopologyDM {
+public class TopologyDM implements TopologyMetricsSource, TopologyDigestSource {
 
     private static final Logger LOG = LoggerFactory.getLogger(TopologyDM.class);
+    private static final int REGISTRATION_LOCK_STRIPES = 64;
+
+    public static final int MAXIMUM_REPORTED_VIOLATIONS = 100;
 
     private NodeElementIdentifier deploymentSolutionName;
-    private ConcurrentHashMap<NodeElementIdentifier, NodeElement> nodeSet;
+    private ConcurrentHashMap<String, NodeElement> nodeSet;
+    private ConcurrentSkipListSet<String> orderedNodeKeys;
     private ConcurrentHashMap<String, FDNToken> nodeKeySet;
-    private ConcurrentHashMap<LinkElementIdentifier, LinkElement> linkSet;
-    private ConcurrentHashMap<EndpointElementIdentifier, EndpointElement> endpointSet;
+    private ConcurrentHashMap<String, LinkElement> linkSet;
+    private ConcurrentHashMap<String, EndpointElement> endpointSet;
+    private ConcurrentHashMap<String, NodeElement[]> nodeSignatureIndex;
+    private ConcurrentSkipListMap<String, NodeElementIdentifier[]> nodeNameIndex;
+    private ParsedIdentifierCache parsedIdentifiers;
+    private ContainmentTree containmentTree;
+    private NodeEndpointIndex nodeEndpoints;
+    private LinkGraph linkGraph;
+    private EffectiveModeTable effectiveModes;
+    private NodeAttributeIndex nodeAttributes;
+    private MerkleTopologyDigest merkleDigest;
+    private AtomicLong topologyEpoch;
+    private ReentrantReadWriteLock snapshotLock;
+    private StripedLock registrationLocks;
+    private volatile TopologySnapshot currentSnapshot;
+    private PersistentElementMap<NodeElement> snapshotNodes;
+    private PersistentElementMap<LinkElement> snapshotLinks;
+    private PersistentElementMap<EndpointElement> snapshotEndpoints;
+    private Set<String> changedNodeKeys;
+    private Set<String> changedLinkKeys;
+    private Set<String> changedEndpointKeys;
+    private volatile MappedTopologySnapshot warmStartSnapshot;
+    private TopologyChangeFeed changeFeed;
+    private volatile TopologyJournal journal;
+    private TopologyMetrics metrics;
 
     public TopologyDM() {
         LOG.info(".TopologyDM(): Constructor initialisation");
         this.deploymentSolutionName = null;
-        this.nodeSet = new ConcurrentHashMap<NodeElementIdentifier, NodeElement>();
-        this.linkSet = new ConcurrentHashMap<LinkElementIdentifier, LinkElement>();
+        this.nodeSet = new ConcurrentHashMap<String, NodeElement>();
+        this.orderedNodeKeys = new ConcurrentSkipListSet<String>();
+        this.linkSet = new ConcurrentHashMap<String, LinkElement>();
         this.nodeKeySet = new ConcurrentHashMap<String, FDNToken>();
-        this.endpointSet = new ConcurrentHashMap<EndpointElementIdentifier, EndpointElement>();
+        this.endpointSet = new ConcurrentHashMap<String, EndpointElement>();
+        this.nodeSignatureIndex = new ConcurrentHashMap<String, NodeElement[]>();
+        this.nodeNameIndex = new ConcurrentSkipListMap<String, NodeElementIdentifier[]>();
+        this.parsedIdentifiers = new ParsedIdentifierCache();
+        this.containmentTree = new ContainmentTree(this.parsedIdentifiers);
+        this.nodeAttributes = new NodeAttributeIndex();
+        this.effectiveModes = new EffectiveModeTable(this.nodeSet::get, this.containmentTree, this::indexEffectiveModes);
+        this.merkleDigest = new MerkleTopologyDigest(this.containmentTree, this.parsedIdentifiers);
+        this.nodeEndpoints = new NodeEndpointIndex(this.endpointSet::get, this.parsedIdentifiers);
+        this.topologyEpoch = new AtomicLong(0);
+        this.linkGraph = new LinkGraph(this.linkSet::get, this.nodeSet::get, this.topologyEpoch::get, this.parsedIdentifiers);
+        this.snapshotLock = new ReentrantReadWriteLock();
+        this.registrationLocks = new StripedLock(REGISTRATION_LOCK_STRIPES);
+        this.currentSnapshot = null;
+        this.snapshotNodes = PersistentElementMap.empty();
+        this.snapshotLinks = PersistentElementMap.empty();
+        this.snapshotEndpoints = PersistentElementMap.empty();
+        this.changedNodeKeys = ConcurrentHashMap.newKeySet();
+        this.changedLinkKeys = ConcurrentHashMap.newKeySet();
+        this.changedEndpointKeys = ConcurrentHashMap.newKeySet();
+        this.warmStartSnapshot = null;
+        this.changeFeed = new TopologyChangeFeed();
+        this.journal = null;
+        this.metrics = new TopologyMetrics();
+        this.metrics.setMetricsSource(this);
+    }
+
+    /**
+     * The identifier classes (FDNToken and its subclasses) only provide a deep (content)
+     * equivalence test, so they can't be used directly as ConcurrentHashMap keys. Instead, each
+     * map is keyed by the canonical (content-based) String form of the identifier, which allows
+     * for direct O(1) probes rather than a scan of the whole key set. The maps and indexes all hold
+     * the one key instance registered for the element in the ParsedIdentifierCache.
+     *
+     * @param elementID The identifier (Node, Link or Endpoint) of the element
+     * @return The canonical key for the identifier
+     */
+    static String canonicalKey(FDNToken elementID) {
+        return (elementID.toFullString());
+    }
+
+    private String nodeKeyOf(NodeElement node) {
+        return (node.getNodeInstanceID().toTag() + "." + node.getVersion());
     }
 
     public NodeElementIdentifier getDeploymentSolutionName() {
@@ -79,10 +169,15 @@ public class TopologyDM {
      * Note that the default behaviour is to UPDATE the values with the set if
      * there already exists an instance for the specified FDNToken (identifier).
      *
-     * Note, we have to do a deep inspection of the ConcurrentHashMap key (FDNToken) content,
-     * as the default only only looks for equivalence with respect to the action Object instance.
+     * Note, the ConcurrentHashMap is keyed by the canonical (content) form of the FDNToken,
+     * as the default only looks for equivalence with respect to the actual Object instance.
+     *
+     * The Node is added to its containing Node's contained element set (and any already registered
+     * Nodes it contains are added to its own) as part of the same atomic update.
      *
      * @param newElement The NodeElement to be added to the Set
+     * @throws IllegalArgumentException if the Node's containing Node is the Node itself or one of
+     * the Nodes it (transitively) contains
      */
     public void addNode(NodeElement newElement) {
         LOG.debug(".addNode(): Entry, newElement --> {}", newElement);
@@ -92,54 +187,303 @@ public class TopologyDM {
         if (newElement.getNodeInstanceID() == null) {
             throw (new IllegalArgumentException(".addNode(): bad elementID within newElement"));
         }
-        boolean elementFound = false;
-        Enumeration<NodeElementIdentifier> list = this.nodeSet.keys();
-        NodeElementIdentifier currentNodeID = null;
-        while (list.hasMoreElements()) {
-            currentNodeID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".getNode(): Cache Entry --> {}", currentNodeID.toFullString());
-            }
-            if (currentNodeID.equals(newElement)) {
-                LOG.trace(".addNode(): Element already in Cache");
-                elementFound = true;
-                break;
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = lockNodeAndContainers(canonicalKey(newElement.getNodeInstanceID()), newElement.getContainingElementID());
+            try {
+                NodeElement existingElement = addNodeInternal(newElement);
+                publishAddition(TopologyElementTypeEnum.NODE, newElement.getNodeInstanceID(), newElement, existingElement, topologyEpoch.incrementAndGet());
+                TopologyJournal currentJournal = this.journal;
+                if (currentJournal != null) {
+                    currentJournal.logNodeAdded(newElement);
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private NodeElement addNodeInternal(NodeElement newElement) {
+        String nodeKey = nodeKeyOf(newElement);
+        ParsedIdentifierCache.ParsedIdentifier parsedNodeID = parsedIdentifiers.register(newElement.getNodeInstanceID());
+        String canonicalNodeKey = parsedNodeID.getCanonicalKey();
+        String[] previousAncestorPath = containmentTree.getAncestorPath(newElement.getNodeInstanceID());
+        try {
+            containmentTree.addNode(newElement.getNodeInstanceID(), newElement.getContainingElementID());
+        } catch (IllegalArgumentException containmentCycle) {
+            parsedIdentifiers.evict(newElement.getNodeInstanceID());
+            throw (containmentCycle);
+        }
+        NodeElement existingElement = this.nodeSet.put(canonicalNodeKey, newElement);
+        this.orderedNodeKeys.add(canonicalNodeKey);
+        changedNodeKeys.add(canonicalNodeKey);
+        if (existingElement != null) {
+            LOG.trace(".addNode(): Element already in Cache, replaced it");
+            parsedIdentifiers.evict(newElement.getNodeInstanceID());
+            String existingNodeKey = nodeKeyOf(existingElement);
+            if (!existingNodeKey.contentEquals(nodeKey)) {
+                this.nodeKeySet.remove(existingNodeKey);
             }
         }
-        if (elementFound) {
-        	String nodeKey = currentNodeID.toTag() +"." + newElement.getVersion();
-            this.nodeSet.put(currentNodeID, newElement);
-            this.nodeKeySet.replace(nodeKey, currentNodeID);
+        this.nodeKeySet.put(nodeKey, newElement.getNodeInstanceID());
+        if (existingElement != null) {
+            unindexNodeSignature(existingElement, parsedNodeID);
+            nodeEndpoints.invalidateNode(canonicalNodeKey);
+            linkGraph.removeNode(canonicalNodeKey);
         } else {
-        	String nodeKey = newElement.getNodeInstanceID().toTag() + "."+newElement.getVersion();
-            this.nodeSet.put(newElement.getNodeInstanceID(), newElement);
-            this.nodeKeySet.put(nodeKey, newElement.getNodeInstanceID());
+            indexNodeName(newElement.getNodeInstanceID(), parsedNodeID);
+        }
+        indexNodeSignature(newElement, parsedNodeID);
+        linkGraph.addNode(newElement, canonicalNodeKey);
+        merkleDigest.invalidatePath(previousAncestorPath);
+        nodeAttributes.updateNode(parsedNodeID.getHandle(), newElement);
+        effectiveModes.updateNode(canonicalNodeKey);
+        merkleDigest.updateNode(canonicalNodeKey, newElement);
+        merkleDigest.invalidatePath(containmentTree.getAncestorPath(newElement.getNodeInstanceID()));
+        if (existingElement != null && existingElement.getContainingElementID() != null) {
+            String existingContainingNodeKey = canonicalKey(existingElement.getContainingElementID());
+            if (newElement.getContainingElementID() == null || !canonicalKey(newElement.getContainingElementID()).contentEquals(existingContainingNodeKey)) {
+                removeContainedNode(existingElement.getContainingElementID(), canonicalNodeKey);
+            }
+        }
+        if (newElement.getContainingElementID() != null) {
+            String containingNodeKey = canonicalKey(newElement.getContainingElementID());
+            NodeElement containingNode = this.nodeSet.get(containingNodeKey);
+            if (containingNode != null) {
+                containingNode.addContainedElement(newElement.getNodeInstanceID());
+                changedNodeKeys.add(containingNodeKey);
+            }
+        }
+        adoptContainedNodes(newElement);
+        return (existingElement);
+    }
+
+    /**
+     * Locks the registration stripes of a Node, of its current containing Node (if it is already
+     * registered) and of its new containing Node - re-trying if the Node is replaced while the
+     * stripes are being acquired.
+     *
+     * @param nodeKey The canonical key of the Node
+     * @param newContainingNodeID The identifier of the Node's new containing node (may be null)
+     * @return The locked stripes
+     */
+    private int[] lockNodeAndContainers(String nodeKey, NodeElementIdentifier newContainingNodeID) {
+        String newContainingNodeKey = null;
+        if (newContainingNodeID != null) {
+            newContainingNodeKey = canonicalKey(newContainingNodeID);
+        }
+        while (true) {
+            NodeElement currentElement = this.nodeSet.get(nodeKey);
+            String currentContainingNodeKey = null;
+            if (currentElement != null && currentElement.getContainingElementID() != null) {
+                currentContainingNodeKey = canonicalKey(currentElement.getContainingElementID());
+            }
+            int[] lockedStripes = registrationLocks.lock(nodeKey, currentContainingNodeKey, newContainingNodeKey);
+            if (this.nodeSet.get(nodeKey) == currentElement) {
+                return (lockedStripes);
+            }
+            LOG.trace(".lockNodeAndContainers(): Node replaced while locking, retrying");
+            registrationLocks.unlock(lockedStripes);
+        }
+    }
+
+    private void removeContainedNode(NodeElementIdentifier containingNodeID, String containedNodeKey) {
+        String containingNodeKey = canonicalKey(containingNodeID);
+        NodeElement containingNode = this.nodeSet.get(containingNodeKey);
+        if (containingNode != null) {
+            containingNode.getContainedElements().removeIf(containedID -> canonicalKey(containedID).contentEquals(containedNodeKey));
+            changedNodeKeys.add(containingNodeKey);
         }
     }
 
+    /**
+     * Nodes may be registered before their containing Node, so a newly added Node takes up any
+     * already registered Nodes that name it as their container.
+     */
+    private void adoptContainedNodes(NodeElement node) {
+        Set<String> childKeys = containmentTree.getChildKeys(canonicalKey(node.getNodeInstanceID()));
+        if (childKeys.isEmpty()) {
+            return;
+        }
+        HashSet<String> containedKeys = new HashSet<String>();
+        for (NodeElementIdentifier containedID : node.getContainedElements()) {
+            containedKeys.add(canonicalKey(containedID));
+        }
+        for (String childKey : childKeys) {
+            NodeElement childNode = this.nodeSet.get(childKey);
+            if (childNode != null && !containedKeys.contains(childKey)) {
+                node.addContainedElement(childNode.getNodeInstanceID());
+            }
+        }
+    }
+
+    /**
+     * Adds a Node to the contained element set of its containing Node. The contained Node must be
+     * registered (checked while holding both Nodes' registration stripes, so a concurrent removal of
+     * the contained Node can't leave the containing Node holding an unregistered Node) - a Node that
+     * is registered later is added to its containing Node's contained element set by addNode().
+     *
+     * @param containingNodeID The identifier of the containing Node
+     * @param containedNodeID The identifier of the contained Node
+     * @return True if the containing Node is registered (and so contains the Node, if it is registered)
+     */
+    public boolean addContainedNode(NodeElementIdentifier containingNodeID, NodeElementIdentifier containedNodeID) {
+        LOG.debug(".addContainedNode(): Entry, containingNodeID --> {}, containedNodeID --> {}", containingNodeID, containedNodeID);
+        if (containingNodeID == null || containedNodeID == null) {
+            throw (new IllegalArgumentException(".addContainedNode(): containingNodeID or containedNodeID is null"));
+        }
+        ensureMaterialised();
+        String containingNodeKey = canonicalKey(containingNodeID);
+        String containedNodeKey = canonicalKey(containedNodeID);
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = registrationLocks.lock(containingNodeKey, containedNodeKey);
+            try {
+                if (!this.nodeSet.containsKey(containingNodeKey)) {
+                    LOG.debug(".addContainedNode(): Exit, containing node is not in the map");
+                    return (false);
+                }
+                NodeElement containingNode = addContainedNodeInternal(containingNodeKey, containedNodeID, containedNodeKey);
+                if (containingNode == null) {
+                    LOG.debug(".addContainedNode(): Exit, node is already contained (or isn't registered)");
+                    return (true);
+                }
+                publishNodeUpdate(containingNodeKey, containingNodeID, containingNode, topologyEpoch.incrementAndGet());
+                TopologyJournal currentJournal = this.journal;
+                if (currentJournal != null) {
+                    currentJournal.logContainedNodeAdded(containingNodeID, containedNodeID);
+                }
+                LOG.debug(".addContainedNode(): Exit, node added to the contained element set");
+                return (true);
+            } finally {
+                registrationLocks.unlock(lockedStripes);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The containing Node, if the contained Node was added to its contained element set (or
+     * null, if either Node isn't registered or the containing Node already contains the Node)
+     */
+    private NodeElement addContainedNodeInternal(String containingNodeKey, NodeElementIdentifier containedNodeID, String containedNodeKey) {
+        NodeElement containingNode = this.nodeSet.get(containingNodeKey);
+        if (containingNode == null || !this.nodeSet.containsKey(containedNodeKey)) {
+            return (null);
+        }
+        for (NodeElementIdentifier containedID : containingNode.getContainedElements()) {
+            if (canonicalKey(containedID).contentEquals(containedNodeKey)) {
+                return (null);
+            }
+        }
+        containingNode.addContainedElement(containedNodeID);
+        changedNodeKeys.add(containingNodeKey);
+        return (containingNode);
+    }
+
+    /**
+     * The (unqualified name, NodeElementTypeEnum, version) signature index is bucketed by the
+     * unqualified name of the node. Each bucket is an immutable array (replaced on write) holding the
+     * (typically one or two) nodes sharing that name, so a query is a single map probe followed by a
+     * scan of the bucket - with no FDN parsing and no allocation on the read path.
+     *
+     * @param node The NodeElement to be added to the signature index
+     * @param parsedNodeID The (already parsed) identifier of the node
+     */
+    private void indexNodeSignature(NodeElement node, ParsedIdentifierCache.ParsedIdentifier parsedNodeID) {
+        String nodeName = parsedNodeID.getUnqualifiedValue();
+        this.nodeSignatureIndex.compute(nodeName, (name, bucket) -> {
+            if (bucket == null) {
+                return (new NodeElement[]{node});
+            }
+            NodeElement[] newBucket = Arrays.copyOf(bucket, bucket.length + 1);
+            newBucket[bucket.length] = node;
+            return (newBucket);
+        });
+    }
+
+    private void unindexNodeSignature(NodeElement node, ParsedIdentifierCache.ParsedIdentifier parsedNodeID) {
+        String nodeName = parsedNodeID.getUnqualifiedValue();
+        this.nodeSignatureIndex.computeIfPresent(nodeName, (name, bucket) -> {
+            NodeElement[] newBucket = new NodeElement[bucket.length];
+            int newBucketSize = 0;
+            for (NodeElement currentNode : bucket) {
+                if (currentNode != node) {
+                    newBucket[newBucketSize] = currentNode;
+                    newBucketSize++;
+                }
+            }
+            if (newBucketSize == 0) {
+                return (null);
+            }
+            return (Arrays.copyOf(newBucket, newBucketSize));
+        });
+    }
+
+    /**
+     * The unqualified instance name index is an inverted (and sorted) index from the value of a
+     * node's unqualified RDN to the identifiers of the nodes carrying that value. Being sorted, it
+     * supports exact, prefix and wildcard queries without a scan of the whole node set.
+     *
+     * @param nodeID The identifier of the node to be added to the name index
+     * @param parsedNodeID The (already parsed) identifier of the node
+     */
+    private void indexNodeName(NodeElementIdentifier nodeID, ParsedIdentifierCache.ParsedIdentifier parsedNodeID) {
+        this.nodeNameIndex.compute(parsedNodeID.getValue(), (name, bucket) -> {
+            if (bucket == null) {
+                return (new NodeElementIdentifier[]{nodeID});
+            }
+            NodeElementIdentifier[] newBucket = Arrays.copyOf(bucket, bucket.length + 1);
+            newBucket[bucket.length] = nodeID;
+            return (newBucket);
+        });
+    }
+
+    private void unindexNodeName(NodeElementIdentifier nodeID, ParsedIdentifierCache.ParsedIdentifier parsedNodeID) {
+        String nodeKey = canonicalKey(nodeID);
+        this.nodeNameIndex.computeIfPresent(parsedNodeID.getValue(), (name, bucket) -> {
+            NodeElementIdentifier[] newBucket = new NodeElementIdentifier[bucket.length];
+            int newBucketSize = 0;
+            for (NodeElementIdentifier currentNodeID : bucket) {
+                if (!canonicalKey(currentNodeID).contentEquals(nodeKey)) {
+                    newBucket[newBucketSize] = currentNodeID;
+                    newBucketSize++;
+                }
+            }
+            if (newBucketSize == 0) {
+                return (null);
+            }
+            return (Arrays.copyOf(newBucket, newBucketSize));
+        });
+    }
+
     public NodeElement getNode(String nodeName, NodeElementTypeEnum nodeType, String nodeVersion){
         LOG.debug(".getNode(): Entry, nodeName (String) --> {}, nodeType (NodeElementTypeEnum) --> {}, nodeVersion (String) --> {}", nodeName, nodeType, nodeVersion);
-        if(nodeName == null || nodeType == null){
-            LOG.debug(".getNode(): Exit, either nodeName or nodeType are null");
+        ensureMaterialised();
+        if(nodeName == null || nodeType == null || nodeVersion == null){
+            LOG.debug(".getNode(): Exit, either nodeName, nodeType or nodeVersion are null");
             return(null);
         }
-        Collection<NodeElement> workingNodeSet = this.nodeSet.values();
-        for(NodeElement currentNode: workingNodeSet){
-            boolean isSameType = currentNode.getNodeArchetype() == nodeType;
-            boolean isSameVersion = false;
-            if( currentNode.getVersion() != null){
-                isSameVersion = currentNode.getVersion().contentEquals(nodeVersion);
-            }
-            if(isSameType && isSameVersion){
-                NodeElementIdentifier currentNodeID = currentNode.getNodeInstanceID();
-                FDN nodeFDN = new FDN(currentNodeID);
-                String nodeElementUnqualifiedName = nodeFDN.getUnqualifiedRDN().getUnqualifiedValue();
-                if(nodeElementUnqualifiedName.contentEquals(nodeName)){
+        NodeElement[] candidateNodes = this.nodeSignatureIndex.get(nodeName);
+        if(candidateNodes != null){
+            for(NodeElement currentNode: candidateNodes){
+                boolean isSameType = currentNode.getNodeArchetype() == nodeType;
+                boolean isSameVersion = false;
+                if( currentNode.getVersion() != null){
+                    isSameVersion = currentNode.getVersion().contentEquals(nodeVersion);
+                }
+                if(isSameType && isSameVersion){
+                    metrics.recordLookup(TopologyLookupEnum.NODE_BY_SIGNATURE, true);
                     LOG.debug(".getNode(): Exit, returning found node (NodeElement) --> {}", currentNode);
                     return(currentNode);
                 }
             }
         }
+        metrics.recordLookup(TopologyLookupEnum.NODE_BY_SIGNATURE, false);
         LOG.debug(".getNode(): Exit, could not find any node matching specify nodeName, nodeType");
         return(null);
     }
@@ -149,30 +493,497 @@ public class TopologyDM {
         if (elementID == null) {
             throw (new IllegalArgumentException(".removeNode(): elementID is null"));
         }
-        boolean elementFound = false;
-        Enumeration<NodeElementIdentifier> list = this.nodeSet.keys();
-        while (list.hasMoreElements()) {
-            NodeElementIdentifier currentNodeID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".getNode(): Cache Entry --> {}", currentNodeID.toFullString());
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = lockNodeAndContainers(canonicalKey(elementID), null);
+            try {
+                if (removeNodeInternal(elementID)) {
+                    publishRemoval(TopologyElementTypeEnum.NODE, elementID, topologyEpoch.incrementAndGet());
+                    TopologyJournal currentJournal = this.journal;
+                    if (currentJournal != null) {
+                        currentJournal.logNodeRemoved(elementID);
+                    }
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        LOG.debug(".removeNode(): Exit");
+    }
+
+    private boolean removeNodeInternal(NodeElementIdentifier elementID) {
+        String canonicalNodeKey = canonicalKey(elementID);
+        NodeElement currentElement = this.nodeSet.remove(canonicalNodeKey);
+        if (currentElement != null) {
+            this.orderedNodeKeys.remove(canonicalNodeKey);
+            changedNodeKeys.add(canonicalNodeKey);
+            LOG.trace(".removeNode(): Element found and removed, now removing its key...");
+            this.nodeKeySet.remove(nodeKeyOf(currentElement));
+            ParsedIdentifierCache.ParsedIdentifier parsedNodeID = parsedIdentifiers.getOrParse(currentElement.getNodeInstanceID());
+            unindexNodeSignature(currentElement, parsedNodeID);
+            unindexNodeName(currentElement.getNodeInstanceID(), parsedNodeID);
+            effectiveModes.removeNode(canonicalNodeKey);
+            if (parsedNodeID.getHandle() != ParsedIdentifierCache.NO_HANDLE) {
+                nodeAttributes.removeNode(parsedNodeID.getHandle());
             }
-            if (currentNodeID.equals(elementID)) {
-                LOG.trace(".removeNode(): Element found, now removing it...");
-                NodeElement currentElement = this.getNode(currentNodeID);
-                String nodeKey = currentNodeID.toString() + "."+currentElement.getVersion();
-                this.nodeKeySet.remove(nodeKey);
-                this.nodeSet.remove(elementID);
-                elementFound = true;
+            merkleDigest.invalidatePath(containmentTree.getAncestorPath(elementID));
+            merkleDigest.removeNode(canonicalNodeKey);
+            containmentTree.removeNode(elementID);
+            nodeEndpoints.removeNode(canonicalNodeKey);
+            linkGraph.removeNode(canonicalNodeKey);
+            if (currentElement.getContainingElementID() != null) {
+                removeContainedNode(currentElement.getContainingElementID(), canonicalNodeKey);
             }
+            parsedIdentifiers.evict(elementID);
+            return (true);
         }
-        if(!elementFound){
-            LOG.trace(".removeNode(): No element with that elementID is in the map");
+        LOG.trace(".removeNode(): No element with that elementID is in the map");
+        return (false);
+    }
+
+    /**
+     * Adds a whole batch of Nodes, Links and Endpoints to the topology as a single mutation.
+     * <p>
+     * The batch is validated up-front (so an invalid batch, including one that would make a Node
+     * contain itself, makes no change at all), then applied while excluding other writers and
+     * snapshot builders, and published as a single new epoch. The Nodes are added containing-node
+     * first (so the containment tree never has to re-parent a subtree), and each Node is added to
+     * its container's contained element set as it is added.
+     *
+     * @param nodes The NodeElements to be added (may be null or empty)
+     * @param links The LinkElements to be added (may be null or empty)
+     * @param endpoints The EndpointElements to be added (may be null or empty)
+     */
+    public void addTopology(Collection<NodeElement> nodes, Collection<LinkElement> links, Collection<EndpointElement> endpoints) {
+        LOG.debug(".addTopology(): Entry");
+        List<NodeElement> orderedNodes = orderNodesContainerFirst(validateBatch(nodes, "nodes"));
+        Collection<LinkElement> validatedLinks = validateBatch(links, "links");
+        Collection<EndpointElement> validatedEndpoints = validateBatch(endpoints, "endpoints");
+        for (NodeElement currentNode : orderedNodes) {
+            if (currentNode.getNodeInstanceID() == null) {
+                throw (new IllegalArgumentException(".addTopology(): bad elementID within node --> " + currentNode));
+            }
+        }
+        for (LinkElement currentLink : validatedLinks) {
+            if (currentLink.getLinkID() == null) {
+                throw (new IllegalArgumentException(".addTopology(): bad Route Token within link --> " + currentLink));
+            }
+        }
+        for (EndpointElement currentEndpoint : validatedEndpoints) {
+            if (currentEndpoint.getEndpointInstanceID() == null) {
+                throw (new IllegalArgumentException(".addTopology(): bad Route Token within endpoint --> " + currentEndpoint));
+            }
+        }
+        ensureMaterialised();
+        snapshotLock.writeLock().lock();
+        try {
+            applyTopology(orderedNodes, validatedLinks, validatedEndpoints);
+            TopologyJournal currentJournal = this.journal;
+            if (currentJournal != null) {
+                currentJournal.logTopologyAdded(orderedNodes, validatedLinks, validatedEndpoints);
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        LOG.debug(".addTopology(): Exit, added nodes --> {}, links --> {}, endpoints --> {}", orderedNodes.size(), validatedLinks.size(), validatedEndpoints.size());
+    }
+
+    /**
+     * Applies a (validated) batch as a single new epoch, the caller must hold the write side of the
+     * snapshot lock.
+     */
+    private void applyTopology(List<NodeElement> orderedNodes, Collection<LinkElement> validatedLinks, Collection<EndpointElement> validatedEndpoints) {
+        rejectContainmentCycles(orderedNodes);
+        long batchEpoch = topologyEpoch.get() + 1;
+        for (EndpointElement currentEndpoint : validatedEndpoints) {
+            EndpointElement existingEndpoint = addEndpointInternal(currentEndpoint);
+            publishAddition(TopologyElementTypeEnum.ENDPOINT, currentEndpoint.getEndpointInstanceID(), currentEndpoint, existingEndpoint, batchEpoch);
+        }
+        for (NodeElement currentNode : orderedNodes) {
+            NodeElement existingNode = addNodeInternal(currentNode);
+            publishAddition(TopologyElementTypeEnum.NODE, currentNode.getNodeInstanceID(), currentNode, existingNode, batchEpoch);
+        }
+        for (LinkElement currentLink : validatedLinks) {
+            LinkElement existingLink = addLinkInternal(currentLink);
+            publishAddition(TopologyElementTypeEnum.LINK, currentLink.getLinkID(), currentLink, existingLink, batchEpoch);
+        }
+        topologyEpoch.incrementAndGet();
+    }
+
+    /**
+     * Rejects a batch that would make a Node (transitively) contain itself - whether the cycle is
+     * within the batch or runs through already registered Nodes - before any of it is applied. Each
+     * Node's containment chain is followed through the batch's containing Nodes (and the tree's,
+     * for Nodes outside the batch), and a chain already known to end is not walked again.
+     */
+    private void rejectContainmentCycles(List<NodeElement> orderedNodes) {
+        HashMap<String, String> batchContainingKeys = new HashMap<String, String>();
+        for (NodeElement currentNode : orderedNodes) {
+            String containingKey = null;
+            if (currentNode.getContainingElementID() != null) {
+                containingKey = canonicalKey(currentNode.getContainingElementID());
+            }
+            batchContainingKeys.put(canonicalKey(currentNode.getNodeInstanceID()), containingKey);
+        }
+        HashSet<String> acyclicKeys = new HashSet<String>();
+        HashSet<String> chainKeys = new HashSet<String>();
+        for (String currentKey : batchContainingKeys.keySet()) {
+            chainKeys.clear();
+            String chainKey = currentKey;
+            while (chainKey != null && !acyclicKeys.contains(chainKey)) {
+                if (!chainKeys.add(chainKey)) {
+                    throw (new IllegalArgumentException(".addTopology(): containment cycle within batch, at node --> " + chainKey));
+                }
+                if (batchContainingKeys.containsKey(chainKey)) {
+                    chainKey = batchContainingKeys.get(chainKey);
+                } else {
+                    chainKey = containmentTree.getContainingKey(chainKey);
+                }
+            }
+            acyclicKeys.addAll(chainKeys);
+        }
+    }
+
+    private <T> Collection<T> validateBatch(Collection<T> batch, String batchName) {
+        if (batch == null) {
+            return (Collections.emptyList());
+        }
+        for (T currentElement : batch) {
+            if (currentElement == null) {
+                throw (new IllegalArgumentException(".addTopology(): null element within " + batchName));
+            }
+        }
+        return (batch);
+    }
+
+    private List<NodeElement> orderNodesContainerFirst(Collection<NodeElement> nodes) {
+        HashMap<String, NodeElement> batchNodes = new HashMap<String, NodeElement>();
+        for (NodeElement currentNode : nodes) {
+            if (currentNode.getNodeInstanceID() != null) {
+                batchNodes.put(canonicalKey(currentNode.getNodeInstanceID()), currentNode);
+            }
+        }
+        ArrayList<NodeElement> orderedNodes = new ArrayList<NodeElement>(nodes.size());
+        HashSet<String> visitedNodes = new HashSet<String>();
+        ArrayDeque<NodeElement> containerChain = new ArrayDeque<NodeElement>();
+        for (NodeElement currentNode : nodes) {
+            if (currentNode.getNodeInstanceID() == null) {
+                orderedNodes.add(currentNode);
+                continue;
+            }
+            NodeElement chainNode = currentNode;
+            while (chainNode != null && visitedNodes.add(canonicalKey(chainNode.getNodeInstanceID()))) {
+                containerChain.push(chainNode);
+                if (chainNode.getContainingElementID() == null) {
+                    chainNode = null;
+                } else {
+                    chainNode = batchNodes.get(canonicalKey(chainNode.getContainingElementID()));
+                }
+            }
+            while (!containerChain.isEmpty()) {
+                orderedNodes.add(containerChain.pop());
+            }
+        }
+        return (orderedNodes);
+    }
+
+    public void setNodeInstanceInPlace(NodeElementIdentifier nodeID, boolean instantiationState) {
+        LOG.debug(".setNodeInstanceInPlace(): Entry, nodeID --> {}, instantiationState --> {}", nodeID, instantiationState);
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = registrationLocks.lock(canonicalKey(nodeID));
+            try {
+                NodeElement changedNode = setNodeInstanceInPlaceInternal(nodeID, instantiationState);
+                if (changedNode != null) {
+                    publishInstanceInPlaceChange(nodeID, changedNode, topologyEpoch.incrementAndGet());
+                    TopologyJournal currentJournal = this.journal;
+                    if (currentJournal != null) {
+                        currentJournal.logInstanceInPlaceChanged(nodeID, instantiationState);
+                    }
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The Node, if its instanceInPlace state was changed (null if it was already in that state)
+     */
+    private NodeElement setNodeInstanceInPlaceInternal(NodeElementIdentifier nodeID, boolean instantiationState) {
+        NodeElement retrievedNode = getNode(nodeID);
+        if (retrievedNode == null) {
+            throw (new IllegalArgumentException(".setNodeInstanceInPlace(): no node with that nodeID is in the map"));
+        }
+        if (retrievedNode.isInstanceInPlace() == instantiationState) {
+            return (null);
+        }
+        retrievedNode.setInstanceInPlace(instantiationState);
+        ParsedIdentifierCache.ParsedIdentifier parsedNodeID = parsedIdentifiers.get(canonicalKey(nodeID));
+        changedNodeKeys.add(parsedNodeID.getCanonicalKey());
+        merkleDigest.updateNode(parsedNodeID.getCanonicalKey(), retrievedNode);
+        nodeAttributes.updateNode(parsedNodeID.getHandle(), retrievedNode);
+        merkleDigest.invalidatePath(containmentTree.getAncestorPath(nodeID));
+        return (retrievedNode);
+    }
+
+    private void publishInstanceInPlaceChange(NodeElementIdentifier nodeID, NodeElement node, long epoch) {
+        if (changeFeed.hasSubscribers()) {
+            changeFeed.publish(TopologyChangeTypeEnum.INSTANCE_IN_PLACE_CHANGED, TopologyElementTypeEnum.NODE, canonicalKey(nodeID), nodeID, node, epoch);
+        }
+    }
+
+    /**
+     * Attaches (or, given null, detaches) the journal that every subsequent mutation is logged to.
+     * Each mutation appends its record from within its own critical section - after it has been
+     * applied, and before its registration stripes (or the write side of the snapshot lock) are
+     * released - so the journal holds the mutations of each element in the order they were applied.
+     * The records are only queued there: a caller that needs its mutations to be durable follows
+     * them with TopologyJournal.awaitCommit(), once the mutator has returned.
+     * <p>
+     * Neither a warm-start snapshot (as it is materialised) nor the replay of the journal itself
+     * is journaled, as long as the journal is attached after it has been replayed.
+     *
+     * @param journal The journal to log mutations to (null to stop journaling)
+     */
+    public void setJournal(TopologyJournal journal) {
+        this.journal = journal;
+    }
+
+    public TopologyJournal getJournal() {
+        return (journal);
+    }
+
+    public TopologyChangeFeed getChangeFeed() {
+        return (changeFeed);
+    }
+
+    private void publishAddition(TopologyElementTypeEnum elementType, FDNToken elementID, Object element, Object existingElement, long epoch) {
+        if (!changeFeed.hasSubscribers()) {
+            return;
+        }
+        TopologyChangeTypeEnum changeType = TopologyChangeTypeEnum.ADDED;
+        if (existingElement != null) {
+            changeType = TopologyChangeTypeEnum.UPDATED;
+        }
+        changeFeed.publish(changeType, elementType, canonicalKey(elementID), elementID, element, epoch);
+    }
+
+    private void publishRemoval(TopologyElementTypeEnum elementType, FDNToken elementID, long epoch) {
+        if (!changeFeed.hasSubscribers()) {
+            return;
+        }
+        changeFeed.publish(TopologyChangeTypeEnum.REMOVED, elementType, canonicalKey(elementID), elementID, null, epoch);
+    }
+
+    /**
+     * @return The current topology epoch, this is incremented every time a Node, Link or Endpoint is
+     * added, replaced or removed (or a Node's instance-in-place state changes)
+     */
+    public long getEpoch() {
+        return (topologyEpoch.get());
+    }
+
+    public boolean hasChangedSince(long epoch) {
+        return (topologyEpoch.get() != epoch);
+    }
+
+    /**
+     * Returns an immutable, consistent view of the current topology. Snapshots are built on demand
+     * and at most once per epoch: while the topology is unchanged every caller receives the same
+     * (already published) instance, without any copying or locking.
+     * <p>
+     * Each mutation records the keys of the elements it changed (including those it changed in
+     * place), and a new snapshot is derived from the previous one by copying just those elements
+     * into it - so the cost of a snapshot is proportional to what changed since the last one, not
+     * to the size of the topology. Building it briefly excludes writers (each mutation holds the
+     * shared side of the snapshot lock) so that the nodes, links and endpoints within it agree with
+     * each other.
+     * <p>
+     * Note that changes made directly to an element (through its setters, rather than through the
+     * TopologyDM) are only captured when the TopologyDM next changes that element.
+     *
+     * @return The TopologySnapshot for the current epoch
+     */
+    public TopologySnapshot getSnapshot() {
+        ensureMaterialised();
+        TopologySnapshot snapshot = this.currentSnapshot;
+        if (snapshot != null && snapshot.getEpoch() == topologyEpoch.get()) {
+            metrics.recordLookup(TopologyLookupEnum.SNAPSHOT, true);
+            return (snapshot);
+        }
+        snapshotLock.writeLock().lock();
+        try {
+            snapshot = this.currentSnapshot;
+            long epoch = topologyEpoch.get();
+            if (snapshot == null || snapshot.getEpoch() != epoch) {
+                LOG.trace(".getSnapshot(): Building snapshot for epoch --> {}", epoch);
+                int copiedCount = changedNodeKeys.size() + changedLinkKeys.size() + changedEndpointKeys.size();
+                this.snapshotNodes = copyChangedElements(snapshotNodes, changedNodeKeys, nodeSet, TopologyElementCodec::copyNode);
+                this.snapshotLinks = copyChangedElements(snapshotLinks, changedLinkKeys, linkSet, TopologyElementCodec::copyLink);
+                this.snapshotEndpoints = copyChangedElements(snapshotEndpoints, changedEndpointKeys, endpointSet, TopologyElementCodec::copyEndpoint);
+                snapshot = new TopologySnapshot(epoch, snapshotNodes, snapshotLinks, snapshotEndpoints);
+                this.currentSnapshot = snapshot;
+                metrics.recordLookup(TopologyLookupEnum.SNAPSHOT, false);
+                metrics.recordSnapshotBuild(copiedCount);
+            } else {
+                metrics.recordLookup(TopologyLookupEnum.SNAPSHOT, true);
+            }
+            return (snapshot);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Derives the next snapshot's elements from the previous snapshot's, copying in the current
+     * state of each changed element (or dropping it, if it has been removed). The caller must hold
+     * the write side of the snapshot lock.
+     */
+    private static <T> PersistentElementMap<T> copyChangedElements(PersistentElementMap<T> snapshotElements, Set<String> changedKeys, Map<String, T> liveElements, UnaryOperator<T> copier) {
+        PersistentElementMap<T> updatedElements = snapshotElements;
+        Iterator<String> changedKeyIterator = changedKeys.iterator();
+        while (changedKeyIterator.hasNext()) {
+            String changedKey = changedKeyIterator.next();
+            changedKeyIterator.remove();
+            T liveElement = liveElements.get(changedKey);
+            if (liveElement == null) {
+                updatedElements = updatedElements.remove(changedKey);
+            } else {
+                updatedElements = updatedElements.put(changedKey, copier.apply(liveElement));
+            }
+        }
+        return (updatedElements);
+    }
+
+    //
+    // Warm Start
+    //
+
+    /**
+     * Writes the current (consistent) topology to a binary snapshot file, for use by
+     * restoreSnapshot() on a later start.
+     *
+     * @param snapshotFile The file to write (it is replaced atomically)
+     * @throws IOException If the file can't be written
+     */
+    public void writeSnapshot(Path snapshotFile) throws IOException {
+        LOG.debug(".writeSnapshot(): Entry, snapshotFile --> {}", snapshotFile);
+        if (snapshotFile == null) {
+            throw (new IllegalArgumentException(".writeSnapshot(): snapshotFile is null"));
+        }
+        MappedTopologySnapshot.write(getSnapshot(), snapshotFile);
+        LOG.debug(".writeSnapshot(): Exit");
+    }
+
+    //
+    // JSON Export/Import
+    //
+
+    /**
+     * Streams the topology as JSON (see TopologyJsonCodec), element by element, without copying it.
+     * <p>
+     * A consistent export is written from the snapshot for the current epoch (which is shared with
+     * any other reader of that epoch). Otherwise the elements are written directly from the live
+     * maps, in constant memory - concurrent mutations may or may not be reflected in the output.
+     *
+     * @param output The stream to write to (it is flushed, but not closed)
+     * @param consistent True to export a single epoch of the topology
+     * @throws IOException If the stream can't be written
+     */
+    public void writeJson(OutputStream output, boolean consistent) throws IOException {
+        LOG.debug(".writeJson(): Entry, consistent --> {}", consistent);
+        if (output == null) {
+            throw (new IllegalArgumentException(".writeJson(): output is null"));
+        }
+        if (consistent) {
+            TopologySnapshot snapshot = getSnapshot();
+            TopologyJsonCodec.write(output, snapshot.getEpoch(), snapshot.getNodes(), snapshot.getLinks(), snapshot.getEndpoints());
+        } else {
+            ensureMaterialised();
+            TopologyJsonCodec.write(output, topologyEpoch.get(), this.nodeSet.values(), this.linkSet.values(), this.endpointSet.values());
+        }
+        LOG.debug(".writeJson(): Exit");
+    }
+
+    /**
+     * Streams a JSON topology (see TopologyJsonCodec) into the TopologyDM, registering it via
+     * addTopology() a batch at a time - so only one batch of elements is held in memory.
+     *
+     * @param input The stream to read from (it is not closed)
+     * @param batchSize The maximum number of elements per addTopology() batch
+     * @return The number of elements read
+     * @throws IOException If the stream can't be read, or doesn't hold a JSON topology
+     */
+    public int readJson(InputStream input, int batchSize) throws IOException {
+        LOG.debug(".readJson(): Entry, batchSize --> {}", batchSize);
+        if (input == null) {
+            throw (new IllegalArgumentException(".readJson(): input is null"));
+        }
+        int elementCount = TopologyJsonCodec.read(input, batchSize, this::addTopology);
+        LOG.debug(".readJson(): Exit, elements read --> {}", elementCount);
+        return (elementCount);
+    }
+
+    /**
+     * Warm-starts an empty TopologyDM from a mapped snapshot file. The snapshot's elements are not
+     * loaded up-front: a lookup of a single Node, Link or Endpoint by identifier is served directly
+     * from the mapped file (decoding just that element), and the whole snapshot is only
+     * materialised into the TopologyDM (as a single epoch) when it is first mutated or when a query
+     * needs the full topology or its indexes.
+     *
+     * @param snapshot The mapped snapshot (see MappedTopologySnapshot.open())
+     * @return True if the snapshot was attached, false if the TopologyDM already holds elements
+     */
+    public boolean restoreSnapshot(MappedTopologySnapshot snapshot) {
+        LOG.debug(".restoreSnapshot(): Entry");
+        if (snapshot == null) {
+            throw (new IllegalArgumentException(".restoreSnapshot(): snapshot is null"));
+        }
+        snapshotLock.writeLock().lock();
+        try {
+            if (this.warmStartSnapshot != null || !nodeSet.isEmpty() || !linkSet.isEmpty() || !endpointSet.isEmpty()) {
+                LOG.warn(".restoreSnapshot(): Exit, topology is already populated, snapshot not restored");
+                return (false);
+            }
+            this.warmStartSnapshot = snapshot;
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        LOG.debug(".restoreSnapshot(): Exit, attached snapshot, epoch --> {}, nodes --> {}", snapshot.getEpoch(), snapshot.getNodeCount());
+        return (true);
+    }
+
+    private void ensureMaterialised() {
+        if (this.warmStartSnapshot != null) {
+            materialiseWarmStartSnapshot();
+        }
+    }
+
+    private void materialiseWarmStartSnapshot() {
+        snapshotLock.writeLock().lock();
+        try {
+            MappedTopologySnapshot warmStart = this.warmStartSnapshot;
+            if (warmStart == null) {
+                return;
+            }
+            LOG.debug(".materialiseWarmStartSnapshot(): Materialising snapshot, nodes --> {}, links --> {}, endpoints --> {}", warmStart.getNodeCount(), warmStart.getLinkCount(), warmStart.getEndpointCount());
+            applyTopology(orderNodesContainerFirst(warmStart.getNodes()), warmStart.getLinks(), warmStart.getEndpoints());
+            this.warmStartSnapshot = null;
+        } finally {
+            snapshotLock.writeLock().unlock();
         }
-        LOG.debug(".removeNode(): Exit");
     }
 
     public Set<NodeElement> getNodeSet() {
         LOG.debug(".getElementSet(): Entry");
+        ensureMaterialised();
         LinkedHashSet<NodeElement> elementSet = new LinkedHashSet<NodeElement>();
         if (this.nodeSet.isEmpty()) {
             LOG.debug(".getElementSet(): Exit, The module map is empty, returning null");
@@ -191,28 +1002,34 @@ public class TopologyDM {
             LOG.debug(".getNode(): Exit, provided a null nodeID , so returning null");
             return (null);
         }
-        Enumeration<NodeElementIdentifier> list = this.nodeSet.keys();
-        while (list.hasMoreElements()) {
-            FDNToken currentNodeID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".getNode(): Cache Entry --> {}", currentNodeID.toFullString());
-            }
-            if (currentNodeID.equals(nodeID)) {
-                LOG.trace(".getNode(): Node found!!! WooHoo!");
-                NodeElement retrievedNode = this.nodeSet.get(currentNodeID);
-                LOG.debug(".getNode(): Exit, returning Endpoint --> {}", retrievedNode);
-                return (retrievedNode);
-            }
+        MappedTopologySnapshot warmStart = this.warmStartSnapshot;
+        NodeElement retrievedNode = this.nodeSet.get(canonicalKey(nodeID));
+        if (retrievedNode == null && warmStart != null) {
+            retrievedNode = warmStart.getNode(canonicalKey(nodeID));
         }
-        LOG.debug(".getNode(): Exit, returning null as an element with the specified ID was not in the map");
-        return (null);
+        metrics.recordLookup(TopologyLookupEnum.NODE_BY_ID, retrievedNode != null);
+        if (retrievedNode == null) {
+            LOG.debug(".getNode(): Exit, returning null as an element with the specified ID was not in the map");
+            return (null);
+        }
+        LOG.debug(".getNode(): Exit, returning Node --> {}", retrievedNode);
+        return (retrievedNode);
     }
     
     public NodeElement getNodeByKey(String nodeKey) {
     	LOG.debug(".getNodeByKey(): Entry, nodeKey --> {}", nodeKey);
+    	ensureMaterialised();
+    	if (nodeKey == null) {
+    	    return (null);
+    	}
     	FDNToken nodeID = this.nodeKeySet.get(nodeKey);
-    	NodeElementIdentifier nodeIdentifier = new NodeElementIdentifier(nodeID);
-    	NodeElement nodeElement = getNode(nodeIdentifier);
+    	if (nodeID == null) {
+    	    metrics.recordLookup(TopologyLookupEnum.NODE_BY_KEY, false);
+    	    LOG.debug(".getNodeByKey(): Exit, no node registered against the nodeKey");
+    	    return (null);
+    	}
+    	NodeElement nodeElement = this.nodeSet.get(canonicalKey(nodeID));
+    	metrics.recordLookup(TopologyLookupEnum.NODE_BY_KEY, nodeElement != null);
     	return(nodeElement);
     }
 
@@ -224,25 +1041,37 @@ public class TopologyDM {
         if (newLink.getLinkID() == null) {
             throw (new IllegalArgumentException(".addLink(): bad Route Token within newLink"));
         }
-        boolean elementFound = false;
-        Enumeration<LinkElementIdentifier> list = this.linkSet.keys();
-        LinkElementIdentifier currentLinkID = null;
-        while (list.hasMoreElements()) {
-            currentLinkID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".addLink(): Cache Entry --> {}", currentLinkID.toFullString());
-            }
-            if (currentLinkID.equals(newLink)) {
-                LOG.trace(".addLink(): Link already in Cache");
-                elementFound = true;
-                break;
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = registrationLocks.lock(canonicalKey(newLink.getLinkID()));
+            try {
+                LinkElement existingLink = addLinkInternal(newLink);
+                publishAddition(TopologyElementTypeEnum.LINK, newLink.getLinkID(), newLink, existingLink, topologyEpoch.incrementAndGet());
+                TopologyJournal currentJournal = this.journal;
+                if (currentJournal != null) {
+                    currentJournal.logLinkAdded(newLink);
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
             }
+        } finally {
+            snapshotLock.readLock().unlock();
         }
-        if (elementFound) {
-            this.linkSet.replace(currentLinkID, newLink);
-        } else {
-            this.linkSet.put(newLink.getLinkID(), newLink);
+    }
+
+    private LinkElement addLinkInternal(LinkElement newLink) {
+        String linkKey = parsedIdentifiers.register(newLink.getLinkID()).getCanonicalKey();
+        LinkElement existingLink = this.linkSet.put(linkKey, newLink);
+        changedLinkKeys.add(linkKey);
+        if (existingLink != null) {
+            LOG.trace(".addLink(): Link already in Cache, replaced it");
+            parsedIdentifiers.evict(newLink.getLinkID());
+            linkGraph.removeLink(existingLink, linkKey);
         }
+        linkGraph.addLink(newLink, linkKey);
+        merkleDigest.updateLink(linkKey, newLink);
+        return (existingLink);
     }
 
     public void removeLink(LinkElementIdentifier linkID) {
@@ -250,31 +1079,45 @@ public class TopologyDM {
         if (linkID == null) {
             throw (new IllegalArgumentException(".removeLink(): linkID is null"));
         }
-        boolean elementFound = false;
-        Enumeration<LinkElementIdentifier> list = this.linkSet.keys();
-        FDNToken currentLinkID = null;
-        while (list.hasMoreElements()) {
-            currentLinkID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".addLink(): Cache Entry --> {}", currentLinkID.toFullString());
-            }
-            if (currentLinkID.equals(linkID)) {
-                LOG.trace(".addLink(): Link already in Cache");
-                elementFound = true;
-                break;
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = registrationLocks.lock(canonicalKey(linkID));
+            try {
+                if (removeLinkInternal(linkID)) {
+                    publishRemoval(TopologyElementTypeEnum.LINK, linkID, topologyEpoch.incrementAndGet());
+                    TopologyJournal currentJournal = this.journal;
+                    if (currentJournal != null) {
+                        currentJournal.logLinkRemoved(linkID);
+                    }
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
             }
-        }
-        if (elementFound) {
-            LOG.trace(".removeLink(): Route found, now removing it...");
-            this.linkSet.remove(currentLinkID);
-        } else {
-            LOG.trace(".removeLink(): No route with that linkID is in the map");
+        } finally {
+            snapshotLock.readLock().unlock();
         }
         LOG.debug(".removeLink(): Exit");
     }
 
+    private boolean removeLinkInternal(LinkElementIdentifier linkID) {
+        String linkKey = canonicalKey(linkID);
+        LinkElement removedLink = this.linkSet.remove(linkKey);
+        if (removedLink != null) {
+            changedLinkKeys.add(linkKey);
+            linkGraph.removeLink(removedLink, linkKey);
+            merkleDigest.removeLink(linkKey);
+            parsedIdentifiers.evict(linkID);
+            LOG.trace(".removeLink(): Route found and removed");
+            return (true);
+        }
+        LOG.trace(".removeLink(): No route with that linkID is in the map");
+        return (false);
+    }
+
     public Set<LinkElement> getLinkSet() {
         LOG.debug(".getLinkSet(): Entry");
+        ensureMaterialised();
         LinkedHashSet<LinkElement> linkSet = new LinkedHashSet<LinkElement>();
         if (this.linkSet.isEmpty()) {
             LOG.debug(".getLinkSet(): Exit, The Link set is empty, returning null");
@@ -293,23 +1136,13 @@ public class TopologyDM {
             LOG.debug(".getLink(): Exit, provided a null linkID , so returning null");
             return (null);
         }
-        boolean elementFound = false;
-        Enumeration<LinkElementIdentifier> list = this.linkSet.keys();
-        FDNToken currentLinkID = null;
-        while (list.hasMoreElements()) {
-            currentLinkID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".addLink(): Cache Entry --> {}", currentLinkID.toFullString());
-            }
-            if (currentLinkID.equals(linkID)) {
-                LOG.trace(".addLink(): Link already in Cache");
-                elementFound = true;
-                break;
-            }
+        MappedTopologySnapshot warmStart = this.warmStartSnapshot;
+        LinkElement retrievedLink = this.linkSet.get(canonicalKey(linkID));
+        if (retrievedLink == null && warmStart != null) {
+            retrievedLink = warmStart.getLink(canonicalKey(linkID));
         }
-        if (elementFound) {
-            LOG.trace(".getLink(): Link found!!! WooHoo!");
-            LinkElement retrievedLink = this.linkSet.get(currentLinkID);
+        metrics.recordLookup(TopologyLookupEnum.LINK_BY_ID, retrievedLink != null);
+        if (retrievedLink != null) {
             LOG.debug(".getLink(): Exit, returning Link --> {}", retrievedLink);
             return (retrievedLink);
         } else {
@@ -327,27 +1160,38 @@ public class TopologyDM {
         if (newEndpoint.getEndpointInstanceID() == null) {
             throw (new IllegalArgumentException(".addLink(): bad Route Token within newEndpoint"));
         }
-        boolean elementFound = false;
-        Enumeration<EndpointElementIdentifier> list = this.endpointSet.keys();
-        EndpointElementIdentifier currentEndpointID = null;
-        while (list.hasMoreElements()) {
-            currentEndpointID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".addEndpoint(): Endpoint Cache Entry --> {}", currentEndpointID.toFullString());
-            }
-            if (currentEndpointID.equals(newEndpoint)) {
-                LOG.trace(".addEndpoint(): Endpoint already in Cache");
-                elementFound = true;
-                break;
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = registrationLocks.lock(canonicalKey(newEndpoint.getEndpointInstanceID()));
+            try {
+                EndpointElement existingEndpoint = addEndpointInternal(newEndpoint);
+                publishAddition(TopologyElementTypeEnum.ENDPOINT, newEndpoint.getEndpointInstanceID(), newEndpoint, existingEndpoint, topologyEpoch.incrementAndGet());
+                TopologyJournal currentJournal = this.journal;
+                if (currentJournal != null) {
+                    currentJournal.logEndpointAdded(newEndpoint);
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
             }
+        } finally {
+            snapshotLock.readLock().unlock();
         }
-        if (elementFound) {
-            LOG.trace(".addEndpoint(): Replacing Existing Endpoint in Cache");
-            this.endpointSet.replace(currentEndpointID, newEndpoint);
+    }
+
+    private EndpointElement addEndpointInternal(EndpointElement newEndpoint) {
+        String endpointKey = parsedIdentifiers.register(newEndpoint.getEndpointInstanceID()).getCanonicalKey();
+        EndpointElement existingEndpoint = this.endpointSet.put(endpointKey, newEndpoint);
+        changedEndpointKeys.add(endpointKey);
+        nodeEndpoints.invalidateEndpoint(endpointKey);
+        merkleDigest.updateEndpoint(endpointKey, newEndpoint);
+        if (existingEndpoint != null) {
+            LOG.trace(".addEndpoint(): Replaced Existing Endpoint in Cache");
+            parsedIdentifiers.evict(newEndpoint.getEndpointInstanceID());
         } else {
-            LOG.trace(".addEndpoint(): Adding Endpoint to Cache");
-            this.endpointSet.put(newEndpoint.getEndpointInstanceID(), newEndpoint);
+            LOG.trace(".addEndpoint(): Added Endpoint to Cache");
         }
+        return (existingEndpoint);
     }
 
     public void removeEndpoint(EndpointElementIdentifier endpointID) {
@@ -355,31 +1199,45 @@ public class TopologyDM {
         if (endpointID == null) {
             throw (new IllegalArgumentException(".removeEndpoint(): endpointID is null"));
         }
-        boolean elementFound = false;
-        Enumeration<EndpointElementIdentifier> list = this.endpointSet.keys();
-        EndpointElementIdentifier currentEndpointID = null;
-        while (list.hasMoreElements()) {
-            currentEndpointID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".removeEndpoint(): Cache Entry --> {}", currentEndpointID.toFullString());
-            }
-            if (currentEndpointID.equals(endpointID)) {
-                LOG.trace(".removeEndpoint(): Link already in Cache");
-                elementFound = true;
-                break;
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            int[] lockedStripes = registrationLocks.lock(canonicalKey(endpointID));
+            try {
+                if (removeEndpointInternal(endpointID)) {
+                    publishRemoval(TopologyElementTypeEnum.ENDPOINT, endpointID, topologyEpoch.incrementAndGet());
+                    TopologyJournal currentJournal = this.journal;
+                    if (currentJournal != null) {
+                        currentJournal.logEndpointRemoved(endpointID);
+                    }
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
             }
-        }
-        if (elementFound) {
-            LOG.trace(".removeEndpoint(): Route found, now removing it...");
-            this.endpointSet.remove(currentEndpointID);
-        } else {
-            LOG.trace(".removeEndpoint(): No route with that linkID is in the map");
+        } finally {
+            snapshotLock.readLock().unlock();
         }
         LOG.debug(".removeEndpoint(): Exit");
     }
 
+    private boolean removeEndpointInternal(EndpointElementIdentifier endpointID) {
+        String endpointKey = canonicalKey(endpointID);
+        EndpointElement removedEndpoint = this.endpointSet.remove(endpointKey);
+        if (removedEndpoint != null) {
+            changedEndpointKeys.add(endpointKey);
+            nodeEndpoints.invalidateEndpoint(endpointKey);
+            merkleDigest.removeEndpoint(endpointKey);
+            parsedIdentifiers.evict(endpointID);
+            LOG.trace(".removeEndpoint(): Endpoint found and removed");
+            return (true);
+        }
+        LOG.trace(".removeEndpoint(): No endpoint with that endpointID is in the map");
+        return (false);
+    }
+
     public Set<EndpointElement> getEndpointSet() {
         LOG.debug(".getEndpointSet(): Entry");
+        ensureMaterialised();
         LinkedHashSet<EndpointElement> endpoints = new LinkedHashSet<EndpointElement>();
         if (this.endpointSet.isEmpty()) {
             LOG.debug(".getEndpointSet(): Exit, The Endpoint set is empty, returning null");
@@ -399,18 +1257,15 @@ public class TopologyDM {
             return (null);
         }
         LOG.trace(".getEndpoint(): Searched For Endpoint ID --> {}", endpointID.toFullString());
-        Enumeration<EndpointElementIdentifier> list = this.endpointSet.keys();
-        while (list.hasMoreElements()) {
-            FDNToken currentEndpointID = list.nextElement();
-            if (LOG.isTraceEnabled()) {
-                LOG.trace(".getEndpoint(): Cache Entry --> {}", currentEndpointID.toFullString());
-            }
-            if (currentEndpointID.equals(endpointID)) {
-                LOG.trace(".getEndpoint(): Endpoint found!!! WooHoo!");
-                EndpointElement retrievedEndpoint = this.endpointSet.get(currentEndpointID);
-                LOG.debug(".getEndpoint(): Exit, returning Endpoint --> {}", retrievedEndpoint);
-                return (retrievedEndpoint);
-            }
+        MappedTopologySnapshot warmStart = this.warmStartSnapshot;
+        EndpointElement retrievedEndpoint = this.endpointSet.get(canonicalKey(endpointID));
+        if (retrievedEndpoint == null && warmStart != null) {
+            retrievedEndpoint = warmStart.getEndpoint(canonicalKey(endpointID));
+        }
+        metrics.recordLookup(TopologyLookupEnum.ENDPOINT_BY_ID, retrievedEndpoint != null);
+        if (retrievedEndpoint != null) {
+            LOG.debug(".getEndpoint(): Exit, returning Endpoint --> {}", retrievedEndpoint);
+            return (retrievedEndpoint);
         }
         LOG.debug(".getEndpoint(): Exit, returning null as an Endpoint with the specified ID was not in the map");
         return (null);
@@ -418,60 +1273,157 @@ public class TopologyDM {
 
     public Map<Integer, NodeElementIdentifier> findNodesWithMatchingUnqualifiedInstanceName(String unqualifiedRDNName) {
         LOG.debug(".findNodesWithMatchingUnqualifiedInstanceName(): Entry, unqualifiedRDNName --> {}", unqualifiedRDNName);
+        ensureMaterialised();
         HashMap<Integer, NodeElementIdentifier> matchingSet = new HashMap<Integer, NodeElementIdentifier>();
-        Enumeration<NodeElementIdentifier> elementIDEnumerator = nodeSet.keys();
-        LOG.trace(".findNodesWithMatchingUnqualifiedInstanceName(): nodeSet size --> {} ", nodeSet.size());
-        int entryCount = 0;
-        while (elementIDEnumerator.hasMoreElements()) {
-        	NodeElementIdentifier currentElementId = elementIDEnumerator.nextElement();
-            FDN currentElementFDN = new FDN(currentElementId);
-            RDN currentElementUnqualifiedRDN = currentElementFDN.getUnqualifiedRDN();
-            String currentElementRDNValue = currentElementUnqualifiedRDN.getValue();
-            if (currentElementRDNValue.contentEquals(unqualifiedRDNName)) {
-            	NodeElementIdentifier nodeInstance = new NodeElementIdentifier(currentElementId);
-                matchingSet.put(entryCount, nodeInstance);
+        if (unqualifiedRDNName == null) {
+            return (matchingSet);
+        }
+        NodeElementIdentifier[] matchingNodes = this.nodeNameIndex.get(unqualifiedRDNName);
+        if (matchingNodes != null) {
+            int entryCount = 0;
+            for (NodeElementIdentifier currentElementId : matchingNodes) {
+                matchingSet.put(entryCount, currentElementId);
                 entryCount++;
             }
         }
-        LOG.debug(".findMatchingNode(): Exit, matchingSet --> {}", matchingSet);
+        LOG.debug(".findNodesWithMatchingUnqualifiedInstanceName(): Exit, matchingSet --> {}", matchingSet);
         return (matchingSet);
     }
 
+    public List<NodeElementIdentifier> findNodesWithUnqualifiedInstanceNamePrefix(String unqualifiedRDNNamePrefix) {
+        LOG.debug(".findNodesWithUnqualifiedInstanceNamePrefix(): Entry, unqualifiedRDNNamePrefix --> {}", unqualifiedRDNNamePrefix);
+        ensureMaterialised();
+        ArrayList<NodeElementIdentifier> matchingList = new ArrayList<NodeElementIdentifier>();
+        if (unqualifiedRDNNamePrefix == null) {
+            return (matchingList);
+        }
+        for (NodeElementIdentifier[] matchingNodes : nodeNamesWithPrefix(unqualifiedRDNNamePrefix).values()) {
+            matchingList.addAll(Arrays.asList(matchingNodes));
+        }
+        LOG.debug(".findNodesWithUnqualifiedInstanceNamePrefix(): Exit, matchingList size --> {}", matchingList.size());
+        return (matchingList);
+    }
+
+    /**
+     * Finds the nodes whose unqualified instance name matches the supplied glob pattern, where '*'
+     * matches any (possibly empty) sequence of characters and '?' matches any single character. Only
+     * the portion of the (sorted) name index sharing the pattern's literal prefix is examined.
+     *
+     * @param unqualifiedRDNNamePattern The glob pattern to match the unqualified instance names against
+     * @return The identifiers of the matching nodes (empty if there are none)
+     */
+    public List<NodeElementIdentifier> findNodesWithUnqualifiedInstanceNamePattern(String unqualifiedRDNNamePattern) {
+        LOG.debug(".findNodesWithUnqualifiedInstanceNamePattern(): Entry, unqualifiedRDNNamePattern --> {}", unqualifiedRDNNamePattern);
+        ensureMaterialised();
+        ArrayList<NodeElementIdentifier> matchingList = new ArrayList<NodeElementIdentifier>();
+        if (unqualifiedRDNNamePattern == null) {
+            return (matchingList);
+        }
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        int literalPrefixLength = -1;
+        for (int index = 0; index < unqualifiedRDNNamePattern.length(); index++) {
+            char currentChar = unqualifiedRDNNamePattern.charAt(index);
+            if (currentChar == '*' || currentChar == '?') {
+                if (literalPrefixLength < 0) {
+                    literalPrefixLength = index;
+                }
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(currentChar == '*' ? ".*" : ".");
+            } else {
+                literal.append(currentChar);
+            }
+        }
+        if (literalPrefixLength < 0) {
+            NodeElementIdentifier[] matchingNodes = this.nodeNameIndex.get(unqualifiedRDNNamePattern);
+            if (matchingNodes != null) {
+                matchingList.addAll(Arrays.asList(matchingNodes));
+            }
+            return (matchingList);
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        Pattern namePattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        String literalPrefix = unqualifiedRDNNamePattern.substring(0, literalPrefixLength);
+        for (Map.Entry<String, NodeElementIdentifier[]> currentEntry : nodeNamesWithPrefix(literalPrefix).entrySet()) {
+            if (namePattern.matcher(currentEntry.getKey()).matches()) {
+                matchingList.addAll(Arrays.asList(currentEntry.getValue()));
+            }
+        }
+        LOG.debug(".findNodesWithUnqualifiedInstanceNamePattern(): Exit, matchingList size --> {}", matchingList.size());
+        return (matchingList);
+    }
+
+    private ConcurrentNavigableMap<String, NodeElementIdentifier[]> nodeNamesWithPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return (this.nodeNameIndex);
+        }
+        return (this.nodeNameIndex.subMap(prefix, true, prefix + Character.MAX_VALUE, false));
+    }
+
     public NodeElementIdentifier getSolutionID() {
-        Enumeration<NodeElementIdentifier> elementIDEnumerator = nodeSet.keys();
-        while (elementIDEnumerator.hasMoreElements()) {
-            NodeElementIdentifier currentElementId = elementIDEnumerator.nextElement();
-            FDN currentElementFDN = new FDN(currentElementId);
-            RDN currentElementUnqualifiedRDN = currentElementFDN.getUnqualifiedRDN();
-            if (currentElementUnqualifiedRDN.getQualifier().contentEquals(NodeElementTypeEnum.SOLUTION.getNodeElementType())) {
-                return (currentElementId);
+        ensureMaterialised();
+        for (Map.Entry<String, NodeElement> currentEntry : nodeSet.entrySet()) {
+            ParsedIdentifierCache.ParsedIdentifier currentElementParsedId = parsedIdentifiers.get(currentEntry.getKey());
+            if (currentElementParsedId == null) {
+                continue;
+            }
+            if (currentElementParsedId.getQualifier().contentEquals(NodeElementTypeEnum.SOLUTION.getNodeElementType())) {
+                return (currentEntry.getValue().getNodeInstanceID());
             }
         }
         return (null);
     }
 
+    /**
+     * Retrieves the effective ConcurrencyModeEnum of the Node - its own mode if it has one,
+     * otherwise the mode inherited from its containing nodes (or STANDALONE if none of them has
+     * one). The modes are precomputed, so this is a single (allocation-free) probe.
+     *
+     * @param nodeID The identifier of the Node
+     * @return The effective ConcurrencyModeEnum, or CONCURRENCY_MODE_STANDALONE if the Node isn't registered
+     */
+    public ConcurrencyModeEnum getEffectiveConcurrencyMode(NodeElementIdentifier nodeID) {
+        ensureMaterialised();
+        return (effectiveModes.getEffectiveModes(nodeID).getConcurrencyMode());
+    }
+
+    /**
+     * Retrieves the effective ResilienceModeEnum of the Node - its own mode if it has one,
+     * otherwise the mode inherited from its containing nodes (or STANDALONE if none of them has
+     * one). The modes are precomputed, so this is a single (allocation-free) probe.
+     *
+     * @param nodeID The identifier of the Node
+     * @return The effective ResilienceModeEnum, or RESILIENCE_MODE_STANDALONE if the Node isn't registered
+     */
+    public ResilienceModeEnum getEffectiveResilienceMode(NodeElementIdentifier nodeID) {
+        ensureMaterialised();
+        return (effectiveModes.getEffectiveModes(nodeID).getResilienceMode());
+    }
+
     public Map<Integer, NodeElement> getNodeContainmentHierarchy(NodeElementIdentifier nodeID) {
         LOG.debug(".getNodeContainmentHierarchy(): Entry, nodeID --> {}", nodeID);
+        ensureMaterialised();
         HashMap<Integer, NodeElement> nodeHierarchy = new HashMap<Integer, NodeElement>();
         if (nodeID == null) {
             return (nodeHierarchy);
         }
-        boolean hasContainer = true;
+        String[] ancestorPath = containmentTree.getAncestorPath(nodeID);
+        if (ancestorPath == null) {
+            return (nodeHierarchy);
+        }
         int counter = 0;
-        NodeElementIdentifier currentNode = nodeID;
-        while (hasContainer) {
-            NodeElement currentElement = nodeSet.get(currentNode);
+        for (int pathIndex = ancestorPath.length - 1; pathIndex >= 0; pathIndex--) {
+            NodeElement currentElement = nodeSet.get(ancestorPath[pathIndex]);
             if (currentElement == null) {
-                hasContainer = false;
-            } else {
-                nodeHierarchy.put(counter, currentElement);
-                counter++;
-                if (currentElement.getContainingElementID() == null) {
-                    hasContainer = false;
-                } else {
-                    currentNode = currentElement.getContainingElementID();
-                }
+                break;
             }
+            nodeHierarchy.put(counter, currentElement);
+            counter++;
         }
         if (LOG.isDebugEnabled()) {
             LOG.debug(".getNodeContainmentHierarchy(): Exit, retrieved Heirarchy, depth --> {}", nodeHierarchy.size());
@@ -479,39 +1431,929 @@ public class TopologyDM {
         return (nodeHierarchy);
     }
 
+    public boolean isAncestorOf(NodeElementIdentifier ancestorID, NodeElementIdentifier descendantID) {
+        ensureMaterialised();
+        return (containmentTree.isAncestorOf(ancestorID, descendantID));
+    }
+
+    public List<NodeElement> getContainedNodes(NodeElementIdentifier nodeID) {
+        LOG.debug(".getContainedNodes(): Entry, nodeID --> {}", nodeID);
+        ensureMaterialised();
+        List<NodeElementIdentifier> descendantIDs = containmentTree.getDescendants(nodeID);
+        ArrayList<NodeElement> containedNodes = new ArrayList<NodeElement>(descendantIDs.size());
+        for (NodeElementIdentifier currentID : descendantIDs) {
+            NodeElement currentElement = nodeSet.get(canonicalKey(currentID));
+            if (currentElement != null) {
+                containedNodes.add(currentElement);
+            }
+        }
+        LOG.debug(".getContainedNodes(): Exit, number of contained nodes --> {}", containedNodes.size());
+        return (containedNodes);
+    }
+
+    public int getContainedNodeCount(NodeElementIdentifier nodeID) {
+        ensureMaterialised();
+        if (nodeID == null) {
+            return (0);
+        }
+        int subtreeSize = containmentTree.getSubtreeSize(nodeID);
+        if (subtreeSize == 0) {
+            return (0);
+        }
+        return (subtreeSize - 1);
+    }
+
+    //
+    // Streaming Queries
+    //
+
+    /**
+     * Streams the Nodes matching the query, without copying the node set. A query with a containing
+     * Node only visits that Node's subtree (for a consistent stream, the subtree as of the snapshot);
+     * the remaining criteria are tested as each Node is reached. The (CONCURRENT) source spliterators split evenly, so a parallel stream spreads a
+     * large scan across the common fork-join pool.
+     *
+     * @param query The criteria to be met
+     * @param consistent True to stream the snapshot for the current epoch, false to stream the live
+     * (weakly consistent) topology
+     * @param parallel True for a parallel stream
+     * @return A lazy stream of the matching Nodes
+     */
+    public Stream<NodeElement> streamNodes(TopologyNodeQuery query, boolean consistent, boolean parallel) {
+        LOG.debug(".streamNodes(): Entry, query --> {}, consistent --> {}, parallel --> {}", query, consistent, parallel);
+        if (query == null) {
+            throw (new IllegalArgumentException(".streamNodes(): query is null"));
+        }
+        ensureMaterialised();
+        NodeElementIdentifier containingNodeID = query.getContainingNodeID();
+        Stream<NodeElement> candidateNodes;
+        if (consistent) {
+            TopologySnapshot snapshot = getSnapshot();
+            if (containingNodeID != null) {
+                candidateNodes = StreamSupport.stream(getSnapshotDescendants(snapshot, containingNodeID).spliterator(), parallel);
+            } else {
+                candidateNodes = StreamSupport.stream(snapshot.getNodes().spliterator(), parallel);
+            }
+        } else if (containingNodeID != null) {
+            candidateNodes = StreamSupport.stream(containmentTree.getDescendants(containingNodeID).spliterator(), parallel)
+                    .map(descendantID -> this.nodeSet.get(canonicalKey(descendantID)))
+                    .filter(Objects::nonNull);
+        } else {
+            candidateNodes = StreamSupport.stream(this.nodeSet.values().spliterator(), parallel);
+        }
+        return (candidateNodes.filter(query::matchesElement));
+    }
+
+    /**
+     * The live containment tree may have moved on since the snapshot was taken, so the snapshot's
+     * subtree is walked through the (snapshot) contained element sets - following only the Nodes
+     * that name the Node they were reached from as their containing Node.
+     */
+    private List<NodeElement> getSnapshotDescendants(TopologySnapshot snapshot, NodeElementIdentifier containingNodeID) {
+        ArrayList<NodeElement> descendants = new ArrayList<NodeElement>();
+        NodeElement containingNode = snapshot.getNode(containingNodeID);
+        if (containingNode == null) {
+            return (descendants);
+        }
+        ArrayDeque<NodeElement> workQueue = new ArrayDeque<NodeElement>();
+        workQueue.add(containingNode);
+        while (!workQueue.isEmpty() && descendants.size() < snapshot.getNodeCount()) {
+            NodeElement currentNode = workQueue.poll();
+            String currentNodeKey = canonicalKey(currentNode.getNodeInstanceID());
+            for (NodeElementIdentifier containedNodeID : currentNode.getContainedElements()) {
+                NodeElement containedNode = snapshot.getNode(containedNodeID);
+                if (containedNode != null && containedNode.getContainingElementID() != null && canonicalKey(containedNode.getContainingElementID()).contentEquals(currentNodeKey)) {
+                    descendants.add(containedNode);
+                    workQueue.add(containedNode);
+                }
+            }
+        }
+        return (descendants);
+    }
+
+    /**
+     * Retrieves one page of the Nodes matching the query, in canonical key order, from the live
+     * topology. The cursor is the canonical key of the last Node of the previous page, so each page
+     * resumes the walk of the (ordered) node keys just beyond it - visiting only as many Nodes as it
+     * takes to fill the page, rather than the whole node set per page. A Node added or removed
+     * between pages doesn't shift the Nodes beyond the cursor.
+     * <p>
+     * A query with a containing Node walks the ordered node keys testing each Node's ancestry when the
+     * subtree is a large part of the topology, but otherwise selects the page from the subtree (in a
+     * single pass, holding at most pageSize + 1 Nodes) - as most of the walk would be spent skipping
+     * Nodes outside a small subtree.
+     *
+     * @param query The criteria to be met
+     * @param cursor The cursor of the previous page (see TopologyPage), or null for the first page
+     * @param pageSize The maximum number of Nodes in the page
+     * @return The page
+     */
+    public TopologyPage<NodeElement> getNodePage(TopologyNodeQuery query, String cursor, int pageSize) {
+        LOG.debug(".getNodePage(): Entry, query --> {}, cursor --> {}, pageSize --> {}", query, cursor, pageSize);
+        if (query == null) {
+            throw (new IllegalArgumentException(".getNodePage(): query is null"));
+        }
+        if (pageSize < 1) {
+            throw (new IllegalArgumentException(".getNodePage(): pageSize must be positive"));
+        }
+        ensureMaterialised();
+        NodeElementIdentifier containingNodeID = query.getContainingNodeID();
+        TopologyPage<NodeElement> page;
+        if (containingNodeID != null && isSmallSubtree(containingNodeID, pageSize)) {
+            page = selectSubtreePage(query, cursor, pageSize);
+        } else {
+            page = walkOrderedNodeKeys(query, cursor, pageSize);
+        }
+        LOG.debug(".getNodePage(): Exit, page size --> {}, nextCursor --> {}", page.getElements().size(), page.getNextCursor());
+        return (page);
+    }
+
+    /**
+     * A walk of the ordered node keys visits about pageSize * (nodeCount / subtreeSize) Nodes to fill
+     * a page, a selection from the subtree visits subtreeSize Nodes.
+     */
+    private boolean isSmallSubtree(NodeElementIdentifier containingNodeID, int pageSize) {
+        long subtreeSize = containmentTree.getSubtreeSize(containingNodeID);
+        return (subtreeSize * subtreeSize <= (long) pageSize * this.nodeSet.size());
+    }
+
+    private TopologyPage<NodeElement> walkOrderedNodeKeys(TopologyNodeQuery query, String cursor, int pageSize) {
+        NodeElementIdentifier containingNodeID = query.getContainingNodeID();
+        ArrayList<NodeElement> pageNodes = new ArrayList<NodeElement>(pageSize);
+        Set<String> remainingKeys = cursor == null ? this.orderedNodeKeys : this.orderedNodeKeys.tailSet(cursor, false);
+        String lastKey = null;
+        for (String nodeKey : remainingKeys) {
+            NodeElement node = this.nodeSet.get(nodeKey);
+            if (node == null || !query.matchesElement(node)) {
+                continue;
+            }
+            if (containingNodeID != null && !containmentTree.isAncestorOf(containingNodeID, node.getNodeInstanceID())) {
+                continue;
+            }
+            if (pageNodes.size() == pageSize) {
+                return (new TopologyPage<NodeElement>(pageNodes, lastKey));
+            }
+            pageNodes.add(node);
+            lastKey = nodeKey;
+        }
+        return (new TopologyPage<NodeElement>(pageNodes, null));
+    }
+
+    private TopologyPage<NodeElement> selectSubtreePage(TopologyNodeQuery query, String cursor, int pageSize) {
+        TreeMap<String, NodeElement> pageNodes = new TreeMap<String, NodeElement>();
+        for (NodeElementIdentifier descendantID : containmentTree.getDescendants(query.getContainingNodeID())) {
+            String descendantKey = canonicalKey(descendantID);
+            offerToPage(pageNodes, pageSize, cursor, descendantKey, this.nodeSet.get(descendantKey), query);
+        }
+        String nextCursor = null;
+        if (pageNodes.size() > pageSize) {
+            pageNodes.pollLastEntry();
+            nextCursor = pageNodes.lastKey();
+        }
+        return (new TopologyPage<NodeElement>(new ArrayList<NodeElement>(pageNodes.values()), nextCursor));
+    }
+
+    /**
+     * Keeps the (pageSize + 1) lowest keyed matching Nodes beyond the cursor, the extra Node
+     * indicating that there is a further page.
+     */
+    private void offerToPage(TreeMap<String, NodeElement> pageNodes, int pageSize, String cursor, String nodeKey, NodeElement node, TopologyNodeQuery query) {
+        if (node == null || (cursor != null && nodeKey.compareTo(cursor) <= 0)) {
+            return;
+        }
+        if (pageNodes.size() > pageSize && nodeKey.compareTo(pageNodes.lastKey()) >= 0) {
+            return;
+        }
+        if (!query.matchesElement(node)) {
+            return;
+        }
+        pageNodes.put(nodeKey, node);
+        if (pageNodes.size() > pageSize + 1) {
+            pageNodes.pollLastEntry();
+        }
+    }
+
+    /**
+     * Streams the Links matching the predicate, without copying the link set.
+     *
+     * @param predicate The criterion to be met (or null for all Links)
+     * @param consistent True to stream the snapshot for the current epoch, false to stream the live topology
+     * @param parallel True for a parallel stream
+     * @return A lazy stream of the matching Links
+     */
+    public Stream<LinkElement> streamLinks(Predicate<LinkElement> predicate, boolean consistent, boolean parallel) {
+        ensureMaterialised();
+        Collection<LinkElement> links = consistent ? getSnapshot().getLinks() : this.linkSet.values();
+        Stream<LinkElement> linkStream = StreamSupport.stream(links.spliterator(), parallel);
+        return (predicate == null ? linkStream : linkStream.filter(predicate));
+    }
+
+    /**
+     * Streams the Endpoints matching the predicate, without copying the endpoint set.
+     *
+     * @param predicate The criterion to be met (or null for all Endpoints)
+     * @param consistent True to stream the snapshot for the current epoch, false to stream the live topology
+     * @param parallel True for a parallel stream
+     * @return A lazy stream of the matching Endpoints
+     */
+    public Stream<EndpointElement> streamEndpoints(Predicate<EndpointElement> predicate, boolean consistent, boolean parallel) {
+        ensureMaterialised();
+        Collection<EndpointElement> endpoints = consistent ? getSnapshot().getEndpoints() : this.endpointSet.values();
+        Stream<EndpointElement> endpointStream = StreamSupport.stream(endpoints.spliterator(), parallel);
+        return (predicate == null ? endpointStream : endpointStream.filter(predicate));
+    }
+
+    //
+    // Attribute Queries
+    //
+
+    private void indexEffectiveModes(String nodeKey, EffectiveModeTable.EffectiveModes nodeModes) {
+        int nodeHandle = parsedIdentifiers.handleOf(nodeKey);
+        if (nodeHandle != ParsedIdentifierCache.NO_HANDLE) {
+            nodeAttributes.updateModes(nodeHandle, nodeModes);
+        }
+    }
+
+    /**
+     * Counts the Nodes matching the query, from the attribute bitmaps alone (no Node is visited).
+     *
+     * @param query The attribute criteria to be met
+     * @return The number of matching Nodes
+     */
+    public int countNodes(NodeAttributeQuery query) {
+        LOG.debug(".countNodes(): Entry, query --> {}", query);
+        if (query == null) {
+            throw (new IllegalArgumentException(".countNodes(): query is null"));
+        }
+        ensureMaterialised();
+        int matchCount = nodeAttributes.count(query);
+        LOG.debug(".countNodes(): Exit, matchCount --> {}", matchCount);
+        return (matchCount);
+    }
+
+    /**
+     * Retrieves the Nodes matching the query. The matching Nodes are selected from the attribute
+     * bitmaps, and only those Nodes are then retrieved.
+     *
+     * @param query The attribute criteria to be met
+     * @return The matching Nodes (in no particular order)
+     */
+    public List<NodeElement> findNodes(NodeAttributeQuery query) {
+        LOG.debug(".findNodes(): Entry, query --> {}", query);
+        if (query == null) {
+            throw (new IllegalArgumentException(".findNodes(): query is null"));
+        }
+        ensureMaterialised();
+        ArrayList<String> matchingKeys = new ArrayList<String>();
+        nodeAttributes.forEachMatch(query, ordinal -> matchingKeys.add(parsedIdentifiers.keyOfHandle(ordinal)));
+        ArrayList<NodeElement> matchingNodes = new ArrayList<NodeElement>(matchingKeys.size());
+        for (String currentKey : matchingKeys) {
+            NodeElement currentNode = currentKey == null ? null : this.nodeSet.get(currentKey);
+            if (currentNode != null) {
+                matchingNodes.add(currentNode);
+            }
+        }
+        LOG.debug(".findNodes(): Exit, matching node count --> {}", matchingNodes.size());
+        return (matchingNodes);
+    }
+
+    /**
+     * Resolves one of the Node's Endpoints by (unqualified) name and version, via the per-Node
+     * Endpoint index. If the version is null, an Endpoint without a version is preferred, otherwise
+     * the latest version of the named Endpoint is returned.
+     *
+     * @param node The Node the Endpoint belongs to
+     * @param endpointName The (unqualified) name of the Endpoint
+     * @param endpointVersion The version of the Endpoint (may be null)
+     * @return The EndpointElement, or null if the Node has no such Endpoint
+     */
     public EndpointElement getEndpoint(NodeElement node, String endpointName, String endpointVersion){
         LOG.debug(".getEndpoint(): Entry, node --> {}, endpointName --> {}, endpointVersion --> {}", node,endpointName, endpointVersion );
-        Set<EndpointElementIdentifier> endpoints = node.getEndpoints();
-        LOG.trace(".getEndpoint(): Number of Endpoints on the Node --> {}", endpoints.size());
-        for(EndpointElementIdentifier endpointId: endpoints){
-            LOG.trace(".getEndpoint(): Retrieving the endpoint from the cache");
-            EndpointElement endpointNode = this.endpointSet.get(endpointId);
-            LOG.trace(".getEndpoint(): Retrieved endpoint --> {}", endpointNode);
-            FDN endpointFDN = new FDN(endpointId);
-            String name = endpointFDN.getUnqualifiedRDN().getValue();
-            LOG.trace(".getEndpoint(): unqualified name of endpoint --> {}", name);
-            boolean namesMatch = stringValuesMatch(name, endpointName);
-            LOG.trace(".getEndpoint(): namesMatch status --> {}", namesMatch);
-            boolean versionsMatch = stringValuesMatch(endpointNode.getVersion(), endpointVersion);
-            LOG.trace(".getEndpoint(): versionsMatch status --> {}", versionsMatch);
-            if( namesMatch && versionsMatch ){
-                LOG.debug(".getEndpoint(): Endpoint Found --> {}", endpointNode);
-                return(endpointNode);
-            }
-        }
-        LOG.debug(".getEndpoint(): no endpoints found!");
-        return(null);
+        ensureMaterialised();
+        if(node == null || node.getNodeInstanceID() == null){
+            LOG.debug(".getEndpoint(): Exit, node (or its nodeInstanceID) is null");
+            return(null);
+        }
+        EndpointElement endpoint = nodeEndpoints.resolve(node, canonicalKey(node.getNodeInstanceID()), endpointName, endpointVersion);
+        metrics.recordLookup(TopologyLookupEnum.NODE_ENDPOINT, endpoint != null);
+        LOG.debug(".getEndpoint(): Exit, endpoint --> {}", endpoint);
+        return(endpoint);
+    }
+
+    /**
+     * Adds an Endpoint to a Node's set of Endpoints (and keeps the Node's Endpoint index in step).
+     *
+     * @param nodeID The identifier of the Node
+     * @param endpointID The identifier of the Endpoint
+     */
+    public void addEndpointToNode(NodeElementIdentifier nodeID, EndpointElementIdentifier endpointID) {
+        LOG.debug(".addEndpointToNode(): Entry, nodeID --> {}, endpointID --> {}", nodeID, endpointID);
+        if (nodeID == null || endpointID == null) {
+            throw (new IllegalArgumentException(".addEndpointToNode(): nodeID or endpointID is null"));
+        }
+        ensureMaterialised();
+        snapshotLock.readLock().lock();
+        try {
+            String nodeKey = parsedIdentifiers.keyOf(nodeID);
+            int[] lockedStripes = registrationLocks.lock(nodeKey);
+            try {
+                NodeElement node = addEndpointToNodeInternal(nodeKey, endpointID);
+                publishNodeUpdate(nodeKey, nodeID, node, topologyEpoch.incrementAndGet());
+                TopologyJournal currentJournal = this.journal;
+                if (currentJournal != null) {
+                    currentJournal.logEndpointAddedToNode(nodeID, endpointID);
+                }
+            } finally {
+                registrationLocks.unlock(lockedStripes);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private NodeElement addEndpointToNodeInternal(String nodeKey, EndpointElementIdentifier endpointID) {
+        NodeElement node = this.nodeSet.get(nodeKey);
+        if (node == null) {
+            throw (new IllegalArgumentException(".addEndpointToNode(): no node with that nodeID is in the map"));
+        }
+        node.getEndpoints().add(endpointID);
+        changedNodeKeys.add(nodeKey);
+        nodeEndpoints.invalidateNode(nodeKey);
+        linkGraph.addNode(node, nodeKey);
+        merkleDigest.updateNode(nodeKey, node);
+        merkleDigest.invalidatePath(containmentTree.getAncestorPath(node.getNodeInstanceID()));
+        return (node);
+    }
+
+    private void publishNodeUpdate(String nodeKey, NodeElementIdentifier nodeID, NodeElement node, long epoch) {
+        if (changeFeed.hasSubscribers()) {
+            changeFeed.publish(TopologyChangeTypeEnum.UPDATED, TopologyElementTypeEnum.NODE, nodeKey, nodeID, node, epoch);
+        }
+    }
+
+    //
+    // Merkle digests and topology deltas (see TopologyDigestSource)
+    //
+
+    /**
+     * The subtree digests are computed lazily from the containment tree, so the digest queries
+     * exclude mutators (in the same way as a snapshot build) while they run.
+     */
+    @Override
+    public long getTopologyDigest() {
+        ensureMaterialised();
+        snapshotLock.writeLock().lock();
+        try {
+            return (merkleDigest.getTopologyDigest());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getRootNodeDigests() {
+        ensureMaterialised();
+        snapshotLock.writeLock().lock();
+        try {
+            return (merkleDigest.getRootNodeDigests());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getContainedNodeDigests(String nodeKey) {
+        ensureMaterialised();
+        snapshotLock.writeLock().lock();
+        try {
+            return (merkleDigest.getContainedNodeDigests(nodeKey));
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getNodeDigest(String nodeKey) {
+        ensureMaterialised();
+        return (merkleDigest.getNodeDigest(nodeKey));
+    }
+
+    @Override
+    public long[] getLinkBucketDigests() {
+        ensureMaterialised();
+        return (merkleDigest.getLinkBucketDigests());
+    }
+
+    @Override
+    public Map<String, Long> getLinkDigests(int bucket) {
+        ensureMaterialised();
+        return (merkleDigest.getLinkDigests(bucket));
+    }
+
+    @Override
+    public long[] getEndpointBucketDigests() {
+        ensureMaterialised();
+        return (merkleDigest.getEndpointBucketDigests());
+    }
+
+    @Override
+    public Map<String, Long> getEndpointDigests(int bucket) {
+        ensureMaterialised();
+        return (merkleDigest.getEndpointDigests(bucket));
+    }
+
+    @Override
+    public NodeElement getNodeElement(String nodeKey) {
+        ensureMaterialised();
+        return (this.nodeSet.get(nodeKey));
+    }
+
+    @Override
+    public LinkElement getLinkElement(String linkKey) {
+        ensureMaterialised();
+        return (this.linkSet.get(linkKey));
+    }
+
+    @Override
+    public EndpointElement getEndpointElement(String endpointKey) {
+        ensureMaterialised();
+        return (this.endpointSet.get(endpointKey));
+    }
+
+    /**
+     * Computes the changes that would bring this topology in line with another.
+     *
+     * @param source The topology to be copied
+     * @return The (possibly empty) delta
+     */
+    public TopologyDelta computeDeltaFrom(TopologyDigestSource source) {
+        LOG.debug(".computeDeltaFrom(): Entry");
+        if (source == null) {
+            throw (new IllegalArgumentException(".computeDeltaFrom(): source is null"));
+        }
+        return (TopologyDelta.compute(source, this));
+    }
+
+    /**
+     * Applies a TopologyDelta as a single mutation (and epoch) - the removals first, then the
+     * additions (containing-node first, as per addTopology()).
+     *
+     * @param delta The delta to be applied
+     * @return The epoch at which the delta became visible (the current epoch if the delta is empty)
+     */
+    public long applyDelta(TopologyDelta delta) {
+        LOG.debug(".applyDelta(): Entry");
+        if (delta == null) {
+            throw (new IllegalArgumentException(".applyDelta(): delta is null"));
+        }
+        if (delta.isEmpty()) {
+            LOG.debug(".applyDelta(): Exit, delta is empty");
+            return (topologyEpoch.get());
+        }
+        ensureMaterialised();
+        long batchEpoch;
+        snapshotLock.writeLock().lock();
+        try {
+            TopologyJournal currentJournal = this.journal;
+            batchEpoch = topologyEpoch.get() + 1;
+            for (LinkElementIdentifier currentLinkID : delta.getRemovedLinks()) {
+                if (removeLinkInternal(currentLinkID)) {
+                    publishRemoval(TopologyElementTypeEnum.LINK, currentLinkID, batchEpoch);
+                    if (currentJournal != null) {
+                        currentJournal.logLinkRemoved(currentLinkID);
+                    }
+                }
+            }
+            for (NodeElementIdentifier currentNodeID : delta.getRemovedNodes()) {
+                if (removeNodeInternal(currentNodeID)) {
+                    publishRemoval(TopologyElementTypeEnum.NODE, currentNodeID, batchEpoch);
+                    if (currentJournal != null) {
+                        currentJournal.logNodeRemoved(currentNodeID);
+                    }
+                }
+            }
+            for (EndpointElementIdentifier currentEndpointID : delta.getRemovedEndpoints()) {
+                if (removeEndpointInternal(currentEndpointID)) {
+                    publishRemoval(TopologyElementTypeEnum.ENDPOINT, currentEndpointID, batchEpoch);
+                    if (currentJournal != null) {
+                        currentJournal.logEndpointRemoved(currentEndpointID);
+                    }
+                }
+            }
+            applyTopology(orderNodesContainerFirst(delta.getAddedNodes()), delta.getAddedLinks(), delta.getAddedEndpoints());
+            if (currentJournal != null) {
+                currentJournal.logTopologyAdded(delta.getAddedNodes(), delta.getAddedLinks(), delta.getAddedEndpoints());
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        LOG.debug(".applyDelta(): Exit, applied delta size --> {}", delta.size());
+        return (batchEpoch);
     }
 
-    private boolean stringValuesMatch(String stringA, String stringB){
-        if(stringA == null && stringB == null){
-            return(true);
+    //
+    // Mutations
+    //
+
+    /**
+     * Applies a single mutation, via the corresponding (fine-grained) mutator.
+     *
+     * @param mutation The mutation to be applied
+     */
+    public void applyMutation(TopologyMutation mutation) {
+        if (mutation == null) {
+            throw (new IllegalArgumentException(".applyMutation(): mutation is null"));
         }
-        if(stringA == null || stringB == null){
-            return(false);
+        switch (mutation.getMutationType()) {
+            case ADD_NODE:
+                addNode(mutation.getNode());
+                break;
+            case REMOVE_NODE:
+                removeNode(mutation.getNodeID());
+                break;
+            case ADD_LINK:
+                addLink(mutation.getLink());
+                break;
+            case REMOVE_LINK:
+                removeLink(mutation.getLinkID());
+                break;
+            case ADD_ENDPOINT:
+                addEndpoint(mutation.getEndpoint());
+                break;
+            case REMOVE_ENDPOINT:
+                removeEndpoint(mutation.getEndpointID());
+                break;
+            case SET_INSTANCE_IN_PLACE:
+                setNodeInstanceInPlace(mutation.getNodeID(), mutation.isInstanceInPlace());
+                break;
+            case ADD_ENDPOINT_TO_NODE:
+                addEndpointToNode(mutation.getNodeID(), mutation.getEndpointID());
+                break;
+            case ADD_CONTAINED_NODE:
+                addContainedNode(mutation.getNodeID(), mutation.getContainedNodeID());
+                break;
         }
-        boolean stringsAreEqual = stringA.contentEquals(stringB);
-        return(stringsAreEqual);
     }
 
+    /**
+     * Applies a batch of mutations, in order, as a single epoch. The write side of the snapshot lock
+     * is taken once for the whole batch (rather than the read side and the registration stripes per
+     * mutation), and the epoch - and with it the shared snapshot - moves on once (and not at all if
+     * none of the mutations changed anything).
+     * <p>
+     * A mutation that fails (e.g. setting the instanceInPlace state of an unregistered Node) makes
+     * no change, and doesn't prevent the rest of the batch from being applied.
+     *
+     * @param mutations The mutations to be applied
+     * @return The failure of each mutation, indexed as per the batch (null for those that were applied)
+     */
+    public RuntimeException[] applyMutations(List<TopologyMutation> mutations) {
+        if (mutations == null) {
+            throw (new IllegalArgumentException(".applyMutations(): mutations is null"));
+        }
+        LOG.debug(".applyMutations(): Entry, batch size --> {}", mutations.size());
+        RuntimeException[] mutationFailures = new RuntimeException[mutations.size()];
+        if (mutations.isEmpty()) {
+            return (mutationFailures);
+        }
+        ensureMaterialised();
+        snapshotLock.writeLock().lock();
+        try {
+            TopologyJournal currentJournal = this.journal;
+            long batchEpoch = topologyEpoch.get() + 1;
+            boolean batchApplied = false;
+            for (int index = 0; index < mutationFailures.length; index++) {
+                try {
+                    if (applyMutationInternal(mutations.get(index), batchEpoch)) {
+                        if (currentJournal != null) {
+                            currentJournal.logMutation(mutations.get(index));
+                        }
+                        batchApplied = true;
+                    }
+                } catch (RuntimeException mutationException) {
+                    LOG.debug(".applyMutations(): Mutation --> {} failed, reason --> {}", mutations.get(index), mutationException.getMessage());
+                    mutationFailures[index] = mutationException;
+                }
+            }
+            if (batchApplied) {
+                topologyEpoch.incrementAndGet();
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        LOG.debug(".applyMutations(): Exit");
+        return (mutationFailures);
+    }
+
+    /**
+     * Applies a mutation within a batch, the caller must hold the write side of the snapshot lock.
+     *
+     * @return True if the mutation changed the topology (and so needs to be journaled)
+     */
+    private boolean applyMutationInternal(TopologyMutation mutation, long batchEpoch) {
+        switch (mutation.getMutationType()) {
+            case ADD_NODE: {
+                NodeElement existingNode = addNodeInternal(mutation.getNode());
+                publishAddition(TopologyElementTypeEnum.NODE, mutation.getNodeID(), mutation.getNode(), existingNode, batchEpoch);
+                return (true);
+            }
+            case REMOVE_NODE:
+                if (removeNodeInternal(mutation.getNodeID())) {
+                    publishRemoval(TopologyElementTypeEnum.NODE, mutation.getNodeID(), batchEpoch);
+                    return (true);
+                }
+                return (false);
+            case ADD_LINK: {
+                LinkElement existingLink = addLinkInternal(mutation.getLink());
+                publishAddition(TopologyElementTypeEnum.LINK, mutation.getLinkID(), mutation.getLink(), existingLink, batchEpoch);
+                return (true);
+            }
+            case REMOVE_LINK:
+                if (removeLinkInternal(mutation.getLinkID())) {
+                    publishRemoval(TopologyElementTypeEnum.LINK, mutation.getLinkID(), batchEpoch);
+                    return (true);
+                }
+                return (false);
+            case ADD_ENDPOINT: {
+                EndpointElement existingEndpoint = addEndpointInternal(mutation.getEndpoint());
+                publishAddition(TopologyElementTypeEnum.ENDPOINT, mutation.getEndpointID(), mutation.getEndpoint(), existingEndpoint, batchEpoch);
+                return (true);
+            }
+            case REMOVE_ENDPOINT:
+                if (removeEndpointInternal(mutation.getEndpointID())) {
+                    publishRemoval(TopologyElementTypeEnum.ENDPOINT, mutation.getEndpointID(), batchEpoch);
+                    return (true);
+                }
+                return (false);
+            case SET_INSTANCE_IN_PLACE: {
+                NodeElement changedNode = setNodeInstanceInPlaceInternal(mutation.getNodeID(), mutation.isInstanceInPlace());
+                if (changedNode != null) {
+                    publishInstanceInPlaceChange(mutation.getNodeID(), changedNode, batchEpoch);
+                    return (true);
+                }
+                return (false);
+            }
+            case ADD_ENDPOINT_TO_NODE: {
+                String nodeKey = parsedIdentifiers.keyOf(mutation.getNodeID());
+                NodeElement node = addEndpointToNodeInternal(nodeKey, mutation.getEndpointID());
+                publishNodeUpdate(nodeKey, mutation.getNodeID(), node, batchEpoch);
+                return (true);
+            }
+            case ADD_CONTAINED_NODE: {
+                String containingNodeKey = canonicalKey(mutation.getNodeID());
+                NodeElement containingNode = addContainedNodeInternal(containingNodeKey, mutation.getContainedNodeID(), canonicalKey(mutation.getContainedNodeID()));
+                if (containingNode != null) {
+                    publishNodeUpdate(containingNodeKey, mutation.getNodeID(), containingNode, batchEpoch);
+                    return (true);
+                }
+                return (false);
+            }
+            default:
+                return (false);
+        }
+    }
+
+    //
+    // Consistency
+    //
+
+    /**
+     * Checks the invariants that relate the TopologyDM's maps and indexes to one another (and the
+     * elements to one another), excluding mutators while it runs:
+     * <ul>
+     * <li>the node key set and the node set hold exactly the same Nodes (each Node under its
+     * identifier, and under its tag and version)</li>
+     * <li>a registered Node is in the contained element set of its (registered) containing Node, and
+     * vice versa - note that addContainedNode() allows a Node to be added to the contained element set
+     * of a Node other than its containing Node, which is reported here</li>
+     * <li>the containment tree, effective mode table, attribute index and name indexes each hold every
+     * Node once</li>
+     * <li>the source and target of each Link, and the Endpoints of each Node, are registered</li>
+     * </ul>
+     * Links (and the Endpoints of a Node) may legitimately be registered before the elements they
+     * reference, so whether the dangling references are a problem depends upon the caller.
+     *
+     * @return A description of each invariant violated (empty if the topology is consistent), up to
+     * MAXIMUM_REPORTED_VIOLATIONS
+     */
+    public List<String> verifyConsistency() {
+        LOG.debug(".verifyConsistency(): Entry");
+        ensureMaterialised();
+        ArrayList<String> violations = new ArrayList<String>();
+        snapshotLock.writeLock().lock();
+        try {
+            verifyNodeKeys(violations);
+            verifyContainment(violations);
+            verifyNodeIndexes(violations);
+            verifyReferences(violations);
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        LOG.debug(".verifyConsistency(): Exit, violation count --> {}", violations.size());
+        return (violations);
+    }
+
+    private static void reportViolation(List<String> violations, String violation) {
+        if (violations.size() < MAXIMUM_REPORTED_VIOLATIONS) {
+            violations.add(violation);
+        }
+    }
+
+    private void verifyNodeKeys(List<String> violations) {
+        if (nodeKeySet.size() != nodeSet.size()) {
+            reportViolation(violations, "nodeKeySet size " + nodeKeySet.size() + " differs from nodeSet size " + nodeSet.size());
+        }
+        for (Map.Entry<String, NodeElement> currentEntry : nodeSet.entrySet()) {
+            NodeElement currentNode = currentEntry.getValue();
+            if (!canonicalKey(currentNode.getNodeInstanceID()).contentEquals(currentEntry.getKey())) {
+                reportViolation(violations, "nodeSet holds " + currentNode + " under the key of another node --> " + currentEntry.getKey());
+            }
+            FDNToken keyedNodeID = nodeKeySet.get(nodeKeyOf(currentNode));
+            if (keyedNodeID == null || !canonicalKey(keyedNodeID).contentEquals(currentEntry.getKey())) {
+                reportViolation(violations, "nodeKeySet doesn't map the tag and version of " + currentNode + " to it");
+            }
+        }
+        for (Map.Entry<String, FDNToken> currentEntry : nodeKeySet.entrySet()) {
+            NodeElement keyedNode = nodeSet.get(canonicalKey(currentEntry.getValue()));
+            if (keyedNode == null || !nodeKeyOf(keyedNode).contentEquals(currentEntry.getKey())) {
+                reportViolation(violations, "nodeKeySet entry --> " + currentEntry.getKey() + " has no corresponding node in nodeSet");
+            }
+        }
+    }
+
+    private void verifyContainment(List<String> violations) {
+        for (Map.Entry<String, NodeElement> currentEntry : nodeSet.entrySet()) {
+            NodeElement currentNode = currentEntry.getValue();
+            if (currentNode.getContainingElementID() != null) {
+                String containingNodeKey = canonicalKey(currentNode.getContainingElementID());
+                NodeElement containingNode = nodeSet.get(containingNodeKey);
+                if (containingNode != null && !containsElement(containingNode, currentEntry.getKey())) {
+                    reportViolation(violations, currentNode + " is not in the contained element set of its containing node --> " + containingNode);
+                }
+                // A Node whose containing Node isn't registered is held as a root (pending adoption) by the containment tree
+                if (containingNode != null && !containmentTree.getChildKeys(containingNodeKey).contains(currentEntry.getKey())) {
+                    reportViolation(violations, currentNode + " is not a child of its containing node in the containment tree");
+                }
+            }
+            for (NodeElementIdentifier containedNodeID : currentNode.getContainedElements()) {
+                NodeElement containedNode = nodeSet.get(canonicalKey(containedNodeID));
+                if (containedNode == null) {
+                    reportViolation(violations, currentNode + " contains an unregistered node --> " + containedNodeID.toFullString());
+                } else if (containedNode.getContainingElementID() == null || !canonicalKey(containedNode.getContainingElementID()).contentEquals(currentEntry.getKey())) {
+                    reportViolation(violations, currentNode + " contains " + containedNode + ", which names a different containing node");
+                }
+            }
+        }
+    }
+
+    private void verifyNodeIndexes(List<String> violations) {
+        int nodeCount = nodeSet.size();
+        if (containmentTree.size() != nodeCount) {
+            reportViolation(violations, "containmentTree size " + containmentTree.size() + " differs from nodeSet size " + nodeCount);
+        }
+        if (orderedNodeKeys.size() != nodeCount) {
+            reportViolation(violations, "orderedNodeKeys size " + orderedNodeKeys.size() + " differs from nodeSet size " + nodeCount);
+        }
+        if (effectiveModes.size() != nodeCount) {
+            reportViolation(violations, "effectiveModes size " + effectiveModes.size() + " differs from nodeSet size " + nodeCount);
+        }
+        if (nodeAttributes.size() != nodeCount) {
+            reportViolation(violations, "nodeAttributes size " + nodeAttributes.size() + " differs from nodeSet size " + nodeCount);
+        }
+        int signatureIndexCount = 0;
+        for (NodeElement[] currentBucket : nodeSignatureIndex.values()) {
+            signatureIndexCount += currentBucket.length;
+        }
+        if (signatureIndexCount != nodeCount) {
+            reportViolation(violations, "nodeSignatureIndex holds " + signatureIndexCount + " nodes, nodeSet holds " + nodeCount);
+        }
+        int nameIndexCount = 0;
+        for (NodeElementIdentifier[] currentBucket : nodeNameIndex.values()) {
+            nameIndexCount += currentBucket.length;
+        }
+        if (nameIndexCount != nodeCount) {
+            reportViolation(violations, "nodeNameIndex holds " + nameIndexCount + " nodes, nodeSet holds " + nodeCount);
+        }
+    }
+
+    private void verifyReferences(List<String> violations) {
+        for (LinkElement currentLink : linkSet.values()) {
+            if (currentLink.getSource() != null && !isRegisteredNodeOrEndpoint(currentLink.getSource())) {
+                reportViolation(violations, "link --> " + currentLink.getLinkID().toFullString() + " has a dangling source --> " + currentLink.getSource().toFullString());
+            }
+            if (currentLink.getTarget() != null && !isRegisteredNodeOrEndpoint(currentLink.getTarget())) {
+                reportViolation(violations, "link --> " + currentLink.getLinkID().toFullString() + " has a dangling target --> " + currentLink.getTarget().toFullString());
+            }
+        }
+        for (NodeElement currentNode : nodeSet.values()) {
+            for (EndpointElementIdentifier currentEndpointID : currentNode.getEndpoints()) {
+                if (!endpointSet.containsKey(canonicalKey(currentEndpointID))) {
+                    reportViolation(violations, currentNode + " references an unregistered endpoint --> " + currentEndpointID.toFullString());
+                }
+            }
+        }
+    }
+
+    private boolean containsElement(NodeElement containingNode, String containedNodeKey) {
+        for (NodeElementIdentifier containedNodeID : containingNode.getContainedElements()) {
+            if (canonicalKey(containedNodeID).contentEquals(containedNodeKey)) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    private boolean isRegisteredNodeOrEndpoint(FDNToken elementID) {
+        String elementKey = canonicalKey(elementID);
+        return (nodeSet.containsKey(elementKey) || endpointSet.containsKey(elementKey));
+    }
+
+    public TopologyMetrics getMetrics() {
+        return (metrics);
+    }
+
+    @Override
+    public Map<String, Integer> getMapSizes() {
+        LinkedHashMap<String, Integer> mapSizes = new LinkedHashMap<String, Integer>();
+        mapSizes.put("nodeSet", nodeSet.size());
+        mapSizes.put("nodeKeySet", nodeKeySet.size());
+        mapSizes.put("linkSet", linkSet.size());
+        mapSizes.put("endpointSet", endpointSet.size());
+        mapSizes.put("nodeSignatureIndex", nodeSignatureIndex.size());
+        mapSizes.put("nodeNameIndex", nodeNameIndex.size());
+        mapSizes.put("parsedIdentifiers", parsedIdentifiers.size());
+        mapSizes.put("rdnSegments", parsedIdentifiers.getSegmentCount());
+        mapSizes.put("containmentTree", containmentTree.size());
+        mapSizes.put("effectiveModes", effectiveModes.size());
+        mapSizes.put("nodeAttributes", nodeAttributes.size());
+        return (mapSizes);
+    }
+
+    @Override
+    public long[] getHierarchyDepthDistribution() {
+        return (containmentTree.getDepthDistribution());
+    }
+
+    //
+    // Link Graph Queries
+    //
+
+    /**
+     * @param elementID The identifier of a Node or Endpoint
+     * @return The Links whose source is the element (or, for a Node, one of its Endpoints)
+     */
+    public List<LinkElement> getOutgoingLinks(FDNToken elementID) {
+        LOG.debug(".getOutgoingLinks(): Entry, elementID --> {}", elementID);
+        ensureMaterialised();
+        if (elementID == null) {
+            throw (new IllegalArgumentException(".getOutgoingLinks(): elementID is null"));
+        }
+        List<LinkElement> outgoingLinks = linkGraph.getOutgoingLinks(elementID);
+        LOG.debug(".getOutgoingLinks(): Exit, outgoingLinks.size() --> {}", outgoingLinks.size());
+        return (outgoingLinks);
+    }
+
+    /**
+     * @param elementID The identifier of a Node or Endpoint
+     * @return The Links whose target is the element (or, for a Node, one of its Endpoints)
+     */
+    public List<LinkElement> getIncomingLinks(FDNToken elementID) {
+        LOG.debug(".getIncomingLinks(): Entry, elementID --> {}", elementID);
+        ensureMaterialised();
+        if (elementID == null) {
+            throw (new IllegalArgumentException(".getIncomingLinks(): elementID is null"));
+        }
+        List<LinkElement> incomingLinks = linkGraph.getIncomingLinks(elementID);
+        LOG.debug(".getIncomingLinks(): Exit, incomingLinks.size() --> {}", incomingLinks.size());
+        return (incomingLinks);
+    }
+
+    public boolean isReachable(FDNToken fromElementID, FDNToken toElementID) {
+        LOG.debug(".isReachable(): Entry, fromElementID --> {}, toElementID --> {}", fromElementID, toElementID);
+        ensureMaterialised();
+        boolean reachable = linkGraph.isReachable(fromElementID, toElementID);
+        LOG.debug(".isReachable(): Exit, reachable --> {}", reachable);
+        return (reachable);
+    }
+
+    /**
+     * @param fromElementID The identifier of the Node (or Endpoint) at the start of the path
+     * @param toElementID The identifier of the Node (or Endpoint) at the end of the path
+     * @return The Links along a path with the fewest hops, or null if there is no such path
+     */
+    public List<LinkElement> getShortestPath(FDNToken fromElementID, FDNToken toElementID) {
+        LOG.debug(".getShortestPath(): Entry, fromElementID --> {}, toElementID --> {}", fromElementID, toElementID);
+        ensureMaterialised();
+        List<LinkElement> path = linkGraph.getShortestPath(fromElementID, toElementID);
+        LOG.debug(".getShortestPath(): Exit, path --> {}", path);
+        return (path);
+    }
+
+    public List<NodeElement> getDownstreamNodes(FDNToken fromElementID) {
+        LOG.debug(".getDownstreamNodes(): Entry, fromElementID --> {}", fromElementID);
+        ensureMaterialised();
+        List<NodeElement> downstreamNodes = linkGraph.getDownstreamNodes(fromElementID);
+        LOG.debug(".getDownstreamNodes(): Exit, downstreamNodes.size() --> {}", downstreamNodes.size());
+        return (downstreamNodes);
+    }
 }
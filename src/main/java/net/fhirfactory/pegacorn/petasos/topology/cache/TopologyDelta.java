@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The set of changes that brings one (target) topology in line with another (source) topology -
+ * the Nodes, Links and Endpoints to be added (or replaced), and those to be removed.
+ * <p>
+ * The delta is computed from the Merkle digests of the two topologies (see TopologyDigestSource),
+ * descending only into the containment subtrees, and the Link and Endpoint buckets, whose digests
+ * differ. The added elements are copies of the source elements, so applying the delta never shares
+ * element instances between the two topologies.
+ * <p>
+ * Each digest query is consistent in itself, but the source and target may change between queries
+ * - so a delta computed against a topology that is being mutated is best-effort, and the
+ * comparison should simply be repeated until the digests agree.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyDelta {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyDelta.class);
+
+    private final List<NodeElement> addedNodes;
+    private final List<NodeElementIdentifier> removedNodes;
+    private final List<LinkElement> addedLinks;
+    private final List<LinkElementIdentifier> removedLinks;
+    private final List<EndpointElement> addedEndpoints;
+    private final List<EndpointElementIdentifier> removedEndpoints;
+
+    public TopologyDelta(List<NodeElement> addedNodes, List<NodeElementIdentifier> removedNodes, List<LinkElement> addedLinks, List<LinkElementIdentifier> removedLinks, List<EndpointElement> addedEndpoints, List<EndpointElementIdentifier> removedEndpoints) {
+        this.addedNodes = Collections.unmodifiableList(new ArrayList<NodeElement>(addedNodes));
+        this.removedNodes = Collections.unmodifiableList(new ArrayList<NodeElementIdentifier>(removedNodes));
+        this.addedLinks = Collections.unmodifiableList(new ArrayList<LinkElement>(addedLinks));
+        this.removedLinks = Collections.unmodifiableList(new ArrayList<LinkElementIdentifier>(removedLinks));
+        this.addedEndpoints = Collections.unmodifiableList(new ArrayList<EndpointElement>(addedEndpoints));
+        this.removedEndpoints = Collections.unmodifiableList(new ArrayList<EndpointElementIdentifier>(removedEndpoints));
+    }
+
+    public List<NodeElement> getAddedNodes() {
+        return addedNodes;
+    }
+
+    public List<NodeElementIdentifier> getRemovedNodes() {
+        return removedNodes;
+    }
+
+    public List<LinkElement> getAddedLinks() {
+        return addedLinks;
+    }
+
+    public List<LinkElementIdentifier> getRemovedLinks() {
+        return removedLinks;
+    }
+
+    public List<EndpointElement> getAddedEndpoints() {
+        return addedEndpoints;
+    }
+
+    public List<EndpointElementIdentifier> getRemovedEndpoints() {
+        return removedEndpoints;
+    }
+
+    public boolean isEmpty() {
+        return (addedNodes.isEmpty() && removedNodes.isEmpty() && addedLinks.isEmpty() && removedLinks.isEmpty() && addedEndpoints.isEmpty() && removedEndpoints.isEmpty());
+    }
+
+    public int size() {
+        return (addedNodes.size() + removedNodes.size() + addedLinks.size() + removedLinks.size() + addedEndpoints.size() + removedEndpoints.size());
+    }
+
+    /**
+     * Encodes the delta (with the same element encoding as the snapshot file and the journal) for
+     * transmission to another Petasos instance.
+     *
+     * @return The encoded delta
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream deltaBytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(deltaBytes)) {
+            record.writeInt(addedNodes.size());
+            for (NodeElement currentNode : addedNodes) {
+                TopologyElementCodec.writeNode(record, currentNode);
+            }
+            record.writeInt(removedNodes.size());
+            for (NodeElementIdentifier currentNodeID : removedNodes) {
+                TopologyElementCodec.writeIdentifier(record, currentNodeID);
+            }
+            record.writeInt(addedLinks.size());
+            for (LinkElement currentLink : addedLinks) {
+                TopologyElementCodec.writeLink(record, currentLink);
+            }
+            record.writeInt(removedLinks.size());
+            for (LinkElementIdentifier currentLinkID : removedLinks) {
+                TopologyElementCodec.writeIdentifier(record, currentLinkID);
+            }
+            record.writeInt(addedEndpoints.size());
+            for (EndpointElement currentEndpoint : addedEndpoints) {
+                TopologyElementCodec.writeEndpoint(record, currentEndpoint);
+            }
+            record.writeInt(removedEndpoints.size());
+            for (EndpointElementIdentifier currentEndpointID : removedEndpoints) {
+                TopologyElementCodec.writeIdentifier(record, currentEndpointID);
+            }
+        } catch (IOException ioException) {
+            throw (new UncheckedIOException(ioException));
+        }
+        return (deltaBytes.toByteArray());
+    }
+
+    /**
+     * Decodes a delta produced by encode().
+     *
+     * @param record The encoded delta, positioned at its start
+     * @return The decoded delta
+     */
+    public static TopologyDelta decode(ByteBuffer record) {
+        if (record == null) {
+            throw (new IllegalArgumentException(".decode(): record is null"));
+        }
+        ArrayList<NodeElement> decodedAddedNodes = new ArrayList<NodeElement>();
+        for (int count = record.getInt(); count > 0; count--) {
+            decodedAddedNodes.add(TopologyElementCodec.readNode(record));
+        }
+        ArrayList<NodeElementIdentifier> decodedRemovedNodes = new ArrayList<NodeElementIdentifier>();
+        for (int count = record.getInt(); count > 0; count--) {
+            decodedRemovedNodes.add(TopologyElementCodec.readNodeIdentifier(record));
+        }
+        ArrayList<LinkElement> decodedAddedLinks = new ArrayList<LinkElement>();
+        for (int count = record.getInt(); count > 0; count--) {
+            decodedAddedLinks.add(TopologyElementCodec.readLink(record));
+        }
+        ArrayList<LinkElementIdentifier> decodedRemovedLinks = new ArrayList<LinkElementIdentifier>();
+        for (int count = record.getInt(); count > 0; count--) {
+            decodedRemovedLinks.add(TopologyElementCodec.readLinkIdentifier(record));
+        }
+        ArrayList<EndpointElement> decodedAddedEndpoints = new ArrayList<EndpointElement>();
+        for (int count = record.getInt(); count > 0; count--) {
+            decodedAddedEndpoints.add(TopologyElementCodec.readEndpoint(record));
+        }
+        ArrayList<EndpointElementIdentifier> decodedRemovedEndpoints = new ArrayList<EndpointElementIdentifier>();
+        for (int count = record.getInt(); count > 0; count--) {
+            decodedRemovedEndpoints.add(TopologyElementCodec.readEndpointIdentifier(record));
+        }
+        return (new TopologyDelta(decodedAddedNodes, decodedRemovedNodes, decodedAddedLinks, decodedRemovedLinks, decodedAddedEndpoints, decodedRemovedEndpoints));
+    }
+
+    /**
+     * Computes the changes that bring the target topology in line with the source topology.
+     *
+     * @param source The topology to be copied
+     * @param target The topology to be brought in line with the source
+     * @return The (possibly empty) delta
+     */
+    public static TopologyDelta compute(TopologyDigestSource source, TopologyDigestSource target) {
+        LOG.debug(".compute(): Entry");
+        if (source == null || target == null) {
+            throw (new IllegalArgumentException(".compute(): source or target is null"));
+        }
+        if (source.getTopologyDigest() == target.getTopologyDigest()) {
+            LOG.debug(".compute(): Exit, topology digests match, so the delta is empty");
+            return (new TopologyDelta(Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList()));
+        }
+        DeltaBuilder builder = new DeltaBuilder(source, target);
+        builder.compareNodes(source.getRootNodeDigests(), target.getRootNodeDigests());
+        builder.compareLinks();
+        builder.compareEndpoints();
+        TopologyDelta delta = builder.build();
+        LOG.debug(".compute(): Exit, delta size --> {}", delta.size());
+        return (delta);
+    }
+
+    private static class DeltaBuilder {
+        private final TopologyDigestSource source;
+        private final TopologyDigestSource target;
+        private final LinkedHashMap<String, NodeElement> addedNodes;
+        private final LinkedHashSet<String> removedNodeKeys;
+        private final List<LinkElement> addedLinks;
+        private final List<LinkElementIdentifier> removedLinks;
+        private final List<EndpointElement> addedEndpoints;
+        private final List<EndpointElementIdentifier> removedEndpoints;
+
+        DeltaBuilder(TopologyDigestSource source, TopologyDigestSource target) {
+            this.source = source;
+            this.target = target;
+            this.addedNodes = new LinkedHashMap<String, NodeElement>();
+            this.removedNodeKeys = new LinkedHashSet<String>();
+            this.addedLinks = new ArrayList<LinkElement>();
+            this.removedLinks = new ArrayList<LinkElementIdentifier>();
+            this.addedEndpoints = new ArrayList<EndpointElement>();
+            this.removedEndpoints = new ArrayList<EndpointElementIdentifier>();
+        }
+
+        void compareNodes(Map<String, Long> sourceDigests, Map<String, Long> targetDigests) {
+            for (Map.Entry<String, Long> sourceEntry : sourceDigests.entrySet()) {
+                String nodeKey = sourceEntry.getKey();
+                Long targetDigest = targetDigests.get(nodeKey);
+                if (targetDigest != null && targetDigest.longValue() == sourceEntry.getValue().longValue()) {
+                    continue;
+                }
+                if (source.getNodeDigest(nodeKey) != target.getNodeDigest(nodeKey)) {
+                    NodeElement sourceNode = source.getNodeElement(nodeKey);
+                    if (sourceNode != null) {
+                        addedNodes.put(nodeKey, copyNode(sourceNode));
+                    }
+                }
+                compareNodes(source.getContainedNodeDigests(nodeKey), target.getContainedNodeDigests(nodeKey));
+            }
+            for (String nodeKey : targetDigests.keySet()) {
+                if (!sourceDigests.containsKey(nodeKey)) {
+                    collectRemovedSubtree(nodeKey);
+                }
+            }
+        }
+
+        /**
+         * Every Node in a target subtree that's missing from the source is a candidate for removal
+         * - unless the Node has been moved elsewhere in the source (which is resolved in build()).
+         */
+        private void collectRemovedSubtree(String nodeKey) {
+            removedNodeKeys.add(nodeKey);
+            for (String childKey : target.getContainedNodeDigests(nodeKey).keySet()) {
+                collectRemovedSubtree(childKey);
+            }
+        }
+
+        void compareLinks() {
+            long[] sourceBuckets = source.getLinkBucketDigests();
+            long[] targetBuckets = target.getLinkBucketDigests();
+            for (int bucket = 0; bucket < sourceBuckets.length; bucket++) {
+                if (sourceBuckets[bucket] == targetBuckets[bucket]) {
+                    continue;
+                }
+                Map<String, Long> sourceDigests = source.getLinkDigests(bucket);
+                Map<String, Long> targetDigests = target.getLinkDigests(bucket);
+                for (Map.Entry<String, Long> sourceEntry : sourceDigests.entrySet()) {
+                    if (!sourceEntry.getValue().equals(targetDigests.get(sourceEntry.getKey()))) {
+                        LinkElement sourceLink = source.getLinkElement(sourceEntry.getKey());
+                        if (sourceLink != null) {
+                            addedLinks.add(copyLink(sourceLink));
+                        }
+                    }
+                }
+                for (String linkKey : targetDigests.keySet()) {
+                    if (!sourceDigests.containsKey(linkKey)) {
+                        LinkElement targetLink = target.getLinkElement(linkKey);
+                        if (targetLink != null) {
+                            removedLinks.add(targetLink.getLinkID());
+                        }
+                    }
+                }
+            }
+        }
+
+        void compareEndpoints() {
+            long[] sourceBuckets = source.getEndpointBucketDigests();
+            long[] targetBuckets = target.getEndpointBucketDigests();
+            for (int bucket = 0; bucket < sourceBuckets.length; bucket++) {
+                if (sourceBuckets[bucket] == targetBuckets[bucket]) {
+                    continue;
+                }
+                Map<String, Long> sourceDigests = source.getEndpointDigests(bucket);
+                Map<String, Long> targetDigests = target.getEndpointDigests(bucket);
+                for (Map.Entry<String, Long> sourceEntry : sourceDigests.entrySet()) {
+                    if (!sourceEntry.getValue().equals(targetDigests.get(sourceEntry.getKey()))) {
+                        EndpointElement sourceEndpoint = source.getEndpointElement(sourceEntry.getKey());
+                        if (sourceEndpoint != null) {
+                            addedEndpoints.add(copyEndpoint(sourceEndpoint));
+                        }
+                    }
+                }
+                for (String endpointKey : targetDigests.keySet()) {
+                    if (!sourceDigests.containsKey(endpointKey)) {
+                        EndpointElement targetEndpoint = target.getEndpointElement(endpointKey);
+                        if (targetEndpoint != null) {
+                            removedEndpoints.add(targetEndpoint.getEndpointInstanceID());
+                        }
+                    }
+                }
+            }
+        }
+
+        TopologyDelta build() {
+            ArrayList<NodeElementIdentifier> removedNodes = new ArrayList<NodeElementIdentifier>();
+            for (String nodeKey : removedNodeKeys) {
+                if (addedNodes.containsKey(nodeKey) || source.getNodeDigest(nodeKey) != 0L) {
+                    continue;
+                }
+                NodeElement targetNode = target.getNodeElement(nodeKey);
+                if (targetNode != null) {
+                    removedNodes.add(targetNode.getNodeInstanceID());
+                }
+            }
+            return (new TopologyDelta(new ArrayList<NodeElement>(addedNodes.values()), removedNodes, addedLinks, removedLinks, addedEndpoints, removedEndpoints));
+        }
+    }
+
+    //
+    // The added elements are copied (by way of the snapshot/journal encoding) so the delta never
+    // shares element instances with the source topology.
+    //
+
+    private static NodeElement copyNode(NodeElement node) {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(recordBytes)) {
+            TopologyElementCodec.writeNode(record, node);
+        } catch (IOException ioException) {
+            throw (new UncheckedIOException(ioException));
+        }
+        return (TopologyElementCodec.readNode(ByteBuffer.wrap(recordBytes.toByteArray())));
+    }
+
+    private static LinkElement copyLink(LinkElement link) {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(recordBytes)) {
+            TopologyElementCodec.writeLink(record, link);
+        } catch (IOException ioException) {
+            throw (new UncheckedIOException(ioException));
+        }
+        return (TopologyElementCodec.readLink(ByteBuffer.wrap(recordBytes.toByteArray())));
+    }
+
+    private static EndpointElement copyEndpoint(EndpointElement endpoint) {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(recordBytes)) {
+            TopologyElementCodec.writeEndpoint(record, endpoint);
+        } catch (IOException ioException) {
+            throw (new UncheckedIOException(ioException));
+        }
+        return (TopologyElementCodec.readEndpoint(ByteBuffer.wrap(recordBytes.toByteArray())));
+    }
+}
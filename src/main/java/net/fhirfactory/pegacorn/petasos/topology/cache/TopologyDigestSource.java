@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Map;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+
+/**
+ * The (Merkle) digests of a topology, as needed to compare it with another topology and compute
+ * the minimal TopologyDelta between them.
+ * <p>
+ * Nodes are digested along the containment tree: each Node has a digest of its own attributes,
+ * and a subtree digest that combines its own digest with the subtree digests of the Nodes it
+ * contains. Links and Endpoints (which aren't part of the tree) are digested individually and
+ * grouped into a fixed number of buckets, each with a combined digest. Every element is identified
+ * by its canonical key (see TopologyDM).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public interface TopologyDigestSource {
+
+    /**
+     * @return The digest of the whole topology (Nodes, Links and Endpoints)
+     */
+    long getTopologyDigest();
+
+    /**
+     * @return The subtree digests of the Nodes at the root of the containment tree, by canonical key
+     */
+    Map<String, Long> getRootNodeDigests();
+
+    /**
+     * @param nodeKey The canonical key of a Node
+     * @return The subtree digests of the Nodes directly contained within the Node, by canonical key
+     */
+    Map<String, Long> getContainedNodeDigests(String nodeKey);
+
+    /**
+     * @param nodeKey The canonical key of a Node
+     * @return The digest of the Node's own attributes, or 0 if the Node isn't in the topology
+     */
+    long getNodeDigest(String nodeKey);
+
+    long[] getLinkBucketDigests();
+
+    Map<String, Long> getLinkDigests(int bucket);
+
+    long[] getEndpointBucketDigests();
+
+    Map<String, Long> getEndpointDigests(int bucket);
+
+    NodeElement getNodeElement(String nodeKey);
+
+    LinkElement getLinkElement(String linkKey);
+
+    EndpointElement getEndpointElement(String endpointKey);
+}
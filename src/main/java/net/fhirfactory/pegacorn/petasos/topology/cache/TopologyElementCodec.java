@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+
+/**
+ * The binary encoding of Nodes, Links and Endpoints shared by the snapshot file
+ * (MappedTopologySnapshot) and the mutation journal (TopologyJournal). Strings are written as a
+ * length followed by their UTF-8 bytes (with a length of -1 for null), enumerations by name and
+ * identifiers by their FDNToken content.
+ * <p>
+ * The codec also makes the detached copies of elements held by the TopologySnapshots - a copy
+ * carries exactly the fields that are encoded (so a snapshot holds what a snapshot file would).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+class TopologyElementCodec {
+
+    private static final int NULL_STRING_LENGTH = -1;
+
+    private TopologyElementCodec() {
+    }
+
+    //
+    // Encoding
+    //
+
+    static void writeNode(DataOutputStream record, NodeElement node) throws IOException {
+        writeIdentifier(record, node.getNodeInstanceID());
+        writeString(record, node.getVersion());
+        writeString(record, node.getNodeArchetype() == null ? null : node.getNodeArchetype().name());
+        writeIdentifier(record, node.getContainingElementID());
+        writeString(record, node.getConcurrencyMode() == null ? null : node.getConcurrencyMode().name());
+        writeString(record, node.getResilienceMode() == null ? null : node.getResilienceMode().name());
+        record.writeBoolean(node.isInstanceInPlace());
+        writeIdentifiers(record, node.getContainedElements());
+        writeIdentifiers(record, node.getEndpoints());
+    }
+
+    static void writeLink(DataOutputStream record, LinkElement link) throws IOException {
+        writeIdentifier(record, link.getLinkID());
+        writeIdentifier(record, link.getSource());
+        writeIdentifier(record, link.getTarget());
+    }
+
+    static void writeEndpoint(DataOutputStream record, EndpointElement endpoint) throws IOException {
+        writeIdentifier(record, endpoint.getEndpointInstanceID());
+        writeString(record, endpoint.getVersion());
+    }
+
+    static void writeBytes(DataOutputStream record, byte[] value) throws IOException {
+        record.writeInt(value.length);
+        record.write(value);
+    }
+
+    static void writeString(DataOutputStream record, String value) throws IOException {
+        if (value == null) {
+            record.writeInt(NULL_STRING_LENGTH);
+        } else {
+            writeBytes(record, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static void writeIdentifier(DataOutputStream record, FDNToken identifier) throws IOException {
+        writeString(record, identifier == null ? null : identifier.getContent());
+    }
+
+    private static void writeIdentifiers(DataOutputStream record, Collection<? extends FDNToken> identifiers) throws IOException {
+        if (identifiers == null) {
+            record.writeInt(0);
+            return;
+        }
+        record.writeInt(identifiers.size());
+        for (FDNToken currentIdentifier : identifiers) {
+            writeIdentifier(record, currentIdentifier);
+        }
+    }
+
+    //
+    // Decoding
+    //
+
+    static NodeElement readNode(ByteBuffer record) {
+        NodeElement node = new NodeElement();
+        node.setNodeInstanceID(readNodeIdentifier(record));
+        node.setVersion(readString(record));
+        String archetype = readString(record);
+        if (archetype != null) {
+            node.setNodeArchetype(NodeElementTypeEnum.valueOf(archetype));
+        }
+        node.setContainingElementID(readNodeIdentifier(record));
+        String concurrencyMode = readString(record);
+        if (concurrencyMode != null) {
+            node.setConcurrencyMode(ConcurrencyModeEnum.valueOf(concurrencyMode));
+        }
+        String resilienceMode = readString(record);
+        if (resilienceMode != null) {
+            node.setResilienceMode(ResilienceModeEnum.valueOf(resilienceMode));
+        }
+        node.setInstanceInPlace(record.get() != 0);
+        int containedCount = record.getInt();
+        for (int containedIndex = 0; containedIndex < containedCount; containedIndex++) {
+            node.addContainedElement(readNodeIdentifier(record));
+        }
+        int endpointCount = record.getInt();
+        for (int endpointIndex = 0; endpointIndex < endpointCount; endpointIndex++) {
+            node.getEndpoints().add(readEndpointIdentifier(record));
+        }
+        return (node);
+    }
+
+    static LinkElement readLink(ByteBuffer record) {
+        LinkElement link = new LinkElement();
+        link.setLinkID(readLinkIdentifier(record));
+        link.setSource(readIdentifier(record));
+        link.setTarget(readIdentifier(record));
+        return (link);
+    }
+
+    static EndpointElement readEndpoint(ByteBuffer record) {
+        EndpointElement endpoint = new EndpointElement();
+        endpoint.setEndpointInstanceID(readEndpointIdentifier(record));
+        endpoint.setVersion(readString(record));
+        return (endpoint);
+    }
+
+    static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length == NULL_STRING_LENGTH) {
+            return (null);
+        }
+        byte[] value = new byte[length];
+        record.get(value);
+        return (new String(value, StandardCharsets.UTF_8));
+    }
+
+    static FDNToken readIdentifier(ByteBuffer record) {
+        String content = readString(record);
+        if (content == null) {
+            return (null);
+        }
+        return (new FDNToken(content));
+    }
+
+    static NodeElementIdentifier readNodeIdentifier(ByteBuffer record) {
+        FDNToken identifier = readIdentifier(record);
+        if (identifier == null) {
+            return (null);
+        }
+        return (new NodeElementIdentifier(identifier));
+    }
+
+    static LinkElementIdentifier readLinkIdentifier(ByteBuffer record) {
+        FDNToken identifier = readIdentifier(record);
+        if (identifier == null) {
+            return (null);
+        }
+        return (new LinkElementIdentifier(identifier));
+    }
+
+    static EndpointElementIdentifier readEndpointIdentifier(ByteBuffer record) {
+        FDNToken identifier = readIdentifier(record);
+        if (identifier == null) {
+            return (null);
+        }
+        return (new EndpointElementIdentifier(identifier));
+    }
+
+    //
+    // Copying
+    //
+
+    /**
+     * @return A copy of the Node that shares nothing mutable with it (the identifiers, which are
+     * never modified, are shared)
+     */
+    static NodeElement copyNode(NodeElement node) {
+        NodeElement nodeCopy = new NodeElement();
+        nodeCopy.setNodeInstanceID(node.getNodeInstanceID());
+        nodeCopy.setVersion(node.getVersion());
+        nodeCopy.setNodeArchetype(node.getNodeArchetype());
+        nodeCopy.setContainingElementID(node.getContainingElementID());
+        nodeCopy.setConcurrencyMode(node.getConcurrencyMode());
+        nodeCopy.setResilienceMode(node.getResilienceMode());
+        nodeCopy.setInstanceInPlace(node.isInstanceInPlace());
+        if (node.getContainedElements() != null) {
+            for (NodeElementIdentifier containedID : node.getContainedElements()) {
+                nodeCopy.addContainedElement(containedID);
+            }
+        }
+        if (node.getEndpoints() != null) {
+            nodeCopy.getEndpoints().addAll(node.getEndpoints());
+        }
+        return (nodeCopy);
+    }
+
+    static LinkElement copyLink(LinkElement link) {
+        LinkElement linkCopy = new LinkElement();
+        linkCopy.setLinkID(link.getLinkID());
+        linkCopy.setSource(link.getSource());
+        linkCopy.setTarget(link.getTarget());
+        return (linkCopy);
+    }
+
+    static EndpointElement copyEndpoint(EndpointElement endpoint) {
+        EndpointElement endpointCopy = new EndpointElement();
+        endpointCopy.setEndpointInstanceID(endpoint.getEndpointInstanceID());
+        endpointCopy.setVersion(endpoint.getVersion());
+        return (endpointCopy);
+    }
+}
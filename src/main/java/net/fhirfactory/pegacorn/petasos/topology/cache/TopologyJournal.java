@@ -0,0 +1,788 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of the mutations made to the topology since the last snapshot, so they
+ * survive a restart.
+ * <p>
+ * The TopologyDM appends the record of each mutation (see TopologyDM.setJournal()) from within the
+ * mutation's own critical section - while it still holds the registration stripes (or the write
+ * side of the snapshot lock) of the elements it changed - so the order of the records is the order
+ * in which the mutations were applied, even for concurrent mutations of the same element. Note that
+ * the record is appended once the mutation has been applied (a mutation that fails isn't journaled),
+ * so this is not a write-ahead log: a mutation is only known to have survived a crash once
+ * awaitCommit() has returned.
+ * <p>
+ * Each mutation is framed as (payload length, CRC32 of the payload, payload) and queued for the
+ * journal file. Commits are grouped: a writer either waits for the records it has queued to be made
+ * durable (synchronous commit, via awaitCommit() - which is called outside the TopologyDM's locks)
+ * or doesn't wait at all (asynchronous commit, where a background thread commits every commit
+ * interval). Whichever waiting writer finds no commit in progress becomes the leader, and writes
+ * and forces every queued record in one go - so concurrent writers share the cost of each fsync.
+ * <p>
+ * At startup, the journal is replayed (on top of the last snapshot) into the TopologyDM, streaming
+ * it a record at a time. A torn or corrupt tail (e.g. from a crash mid-write) ends the replay, and
+ * is truncated away before any new record is appended. Compaction notes the committed length of the
+ * journal, writes a fresh snapshot (which reflects every record up to that length) and then drops
+ * that prefix of the journal - keeping the records appended while the snapshot was being written.
+ * As every journaled mutation is idempotent, replaying records that the newer snapshot already
+ * reflects (e.g. after a crash between those two steps) gives the same result.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyJournal.class);
+
+    private static final int FRAME_HEADER_LENGTH = 8;
+    private static final byte NODE_ADDED = 1;
+    private static final byte NODE_REMOVED = 2;
+    private static final byte LINK_ADDED = 3;
+    private static final byte LINK_REMOVED = 4;
+    private static final byte ENDPOINT_ADDED = 5;
+    private static final byte ENDPOINT_REMOVED = 6;
+    private static final byte INSTANCE_IN_PLACE_CHANGED = 7;
+    private static final byte ENDPOINT_ADDED_TO_NODE = 8;
+    private static final byte TOPOLOGY_ADDED = 9;
+    private static final byte CONTAINED_NODE_ADDED = 10;
+
+    /**
+     * Writes a snapshot of the topology, as the first step of compacting the journal.
+     */
+    public interface SnapshotWriter {
+        void writeSnapshot() throws IOException;
+    }
+
+    private final Path journalFile;
+    private FileChannel channel;
+    private final boolean synchronousCommit;
+    private final ReentrantLock commitLock;
+    private final Condition commitComplete;
+    private final AtomicLong journalLength;
+    private final ScheduledExecutorService journalExecutor;
+    private final ThreadLocal<long[]> lastAppendedSequence;
+    private ArrayList<ByteBuffer> pendingRecords;
+    private long appendedSequence;
+    private long durableSequence;
+    private boolean commitInProgress;
+    private IOException commitFailure;
+    private volatile long compactionThresholdBytes;
+    private volatile SnapshotWriter compactionSnapshotWriter;
+
+    private TopologyJournal(Path journalFile, FileChannel channel, long validLength, boolean synchronousCommit, long commitIntervalMillis) {
+        this.journalFile = journalFile;
+        this.channel = channel;
+        this.synchronousCommit = synchronousCommit;
+        this.commitLock = new ReentrantLock();
+        this.commitComplete = commitLock.newCondition();
+        this.journalLength = new AtomicLong(validLength);
+        this.pendingRecords = new ArrayList<ByteBuffer>();
+        this.lastAppendedSequence = ThreadLocal.withInitial(() -> new long[1]);
+        this.appendedSequence = 0;
+        this.durableSequence = 0;
+        this.commitInProgress = false;
+        this.commitFailure = null;
+        this.compactionThresholdBytes = 0;
+        this.compactionSnapshotWriter = null;
+        this.journalExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread journalThread = new Thread(runnable, "TopologyJournal-" + journalFile.getFileName());
+            journalThread.setDaemon(true);
+            return (journalThread);
+        });
+        this.journalExecutor.scheduleWithFixedDelay(this::backgroundCommit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens (creating it if needed) a journal file for appending, truncating any torn or corrupt
+     * records from its tail.
+     *
+     * @param journalFile The journal file
+     * @param synchronousCommit If true, awaitCommit() waits for the caller's records to be durable
+     * @param commitIntervalMillis How often queued records are committed in the background
+     * @return The opened TopologyJournal
+     * @throws IOException If the journal file can't be opened
+     */
+    public static TopologyJournal open(Path journalFile, boolean synchronousCommit, long commitIntervalMillis) throws IOException {
+        LOG.debug(".open(): Entry, journalFile --> {}, synchronousCommit --> {}", journalFile, synchronousCommit);
+        if (journalFile == null) {
+            throw (new IllegalArgumentException(".open(): journalFile is null"));
+        }
+        if (commitIntervalMillis <= 0) {
+            throw (new IllegalArgumentException(".open(): commitIntervalMillis must be positive"));
+        }
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validLength = findValidLength(channel);
+        if (validLength < channel.size()) {
+            LOG.warn(".open(): Truncating torn/corrupt journal tail, validLength --> {}, fileLength --> {}", validLength, channel.size());
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+        LOG.debug(".open(): Exit, validLength --> {}", validLength);
+        return (new TopologyJournal(journalFile, channel, validLength, synchronousCommit, commitIntervalMillis));
+    }
+
+    /**
+     * Configures periodic compaction: once the journal has grown beyond the threshold, the next
+     * background commit cycle writes a snapshot (via the SnapshotWriter) and empties the journal.
+     *
+     * @param thresholdBytes The journal length that triggers compaction (0 to disable compaction)
+     * @param snapshotWriter The SnapshotWriter that writes the snapshot to replay the journal onto
+     */
+    public void setCompactionPolicy(long thresholdBytes, SnapshotWriter snapshotWriter) {
+        this.compactionSnapshotWriter = snapshotWriter;
+        this.compactionThresholdBytes = thresholdBytes;
+    }
+
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    public long getJournalLength() {
+        return (journalLength.get());
+    }
+
+    //
+    // Mutation Logging
+    //
+
+    public void logNodeAdded(NodeElement node) {
+        JournalRecord record = new JournalRecord(NODE_ADDED);
+        try {
+            TopologyElementCodec.writeNode(record.data, node);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    public void logNodeRemoved(NodeElementIdentifier nodeID) {
+        logIdentifierRecord(NODE_REMOVED, nodeID);
+    }
+
+    public void logLinkAdded(LinkElement link) {
+        JournalRecord record = new JournalRecord(LINK_ADDED);
+        try {
+            TopologyElementCodec.writeLink(record.data, link);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    public void logLinkRemoved(LinkElementIdentifier linkID) {
+        logIdentifierRecord(LINK_REMOVED, linkID);
+    }
+
+    public void logEndpointAdded(EndpointElement endpoint) {
+        JournalRecord record = new JournalRecord(ENDPOINT_ADDED);
+        try {
+            TopologyElementCodec.writeEndpoint(record.data, endpoint);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    public void logEndpointRemoved(EndpointElementIdentifier endpointID) {
+        logIdentifierRecord(ENDPOINT_REMOVED, endpointID);
+    }
+
+    public void logInstanceInPlaceChanged(NodeElementIdentifier nodeID, boolean instantiationState) {
+        JournalRecord record = new JournalRecord(INSTANCE_IN_PLACE_CHANGED);
+        try {
+            TopologyElementCodec.writeIdentifier(record.data, nodeID);
+            record.data.writeBoolean(instantiationState);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    public void logEndpointAddedToNode(NodeElementIdentifier nodeID, EndpointElementIdentifier endpointID) {
+        JournalRecord record = new JournalRecord(ENDPOINT_ADDED_TO_NODE);
+        try {
+            TopologyElementCodec.writeIdentifier(record.data, nodeID);
+            TopologyElementCodec.writeIdentifier(record.data, endpointID);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    public void logContainedNodeAdded(NodeElementIdentifier containingNodeID, NodeElementIdentifier containedNodeID) {
+        JournalRecord record = new JournalRecord(CONTAINED_NODE_ADDED);
+        try {
+            TopologyElementCodec.writeIdentifier(record.data, containingNodeID);
+            TopologyElementCodec.writeIdentifier(record.data, containedNodeID);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    /**
+     * Logs a TopologyMutation, as the record of its corresponding mutator.
+     */
+    public void logMutation(TopologyMutation mutation) {
+        switch (mutation.getMutationType()) {
+            case ADD_NODE:
+                logNodeAdded(mutation.getNode());
+                break;
+            case REMOVE_NODE:
+                logNodeRemoved(mutation.getNodeID());
+                break;
+            case ADD_LINK:
+                logLinkAdded(mutation.getLink());
+                break;
+            case REMOVE_LINK:
+                logLinkRemoved(mutation.getLinkID());
+                break;
+            case ADD_ENDPOINT:
+                logEndpointAdded(mutation.getEndpoint());
+                break;
+            case REMOVE_ENDPOINT:
+                logEndpointRemoved(mutation.getEndpointID());
+                break;
+            case SET_INSTANCE_IN_PLACE:
+                logInstanceInPlaceChanged(mutation.getNodeID(), mutation.isInstanceInPlace());
+                break;
+            case ADD_ENDPOINT_TO_NODE:
+                logEndpointAddedToNode(mutation.getNodeID(), mutation.getEndpointID());
+                break;
+            case ADD_CONTAINED_NODE:
+                logContainedNodeAdded(mutation.getNodeID(), mutation.getContainedNodeID());
+                break;
+        }
+    }
+
+    /**
+     * Logs a whole addTopology() batch as a single record, so it is replayed as a single batch.
+     */
+    public void logTopologyAdded(Collection<NodeElement> nodes, Collection<LinkElement> links, Collection<EndpointElement> endpoints) {
+        JournalRecord record = new JournalRecord(TOPOLOGY_ADDED);
+        try {
+            Collection<NodeElement> nodeBatch = nodes == null ? Collections.<NodeElement>emptyList() : nodes;
+            Collection<LinkElement> linkBatch = links == null ? Collections.<LinkElement>emptyList() : links;
+            Collection<EndpointElement> endpointBatch = endpoints == null ? Collections.<EndpointElement>emptyList() : endpoints;
+            record.data.writeInt(nodeBatch.size());
+            for (NodeElement currentNode : nodeBatch) {
+                TopologyElementCodec.writeNode(record.data, currentNode);
+            }
+            record.data.writeInt(linkBatch.size());
+            for (LinkElement currentLink : linkBatch) {
+                TopologyElementCodec.writeLink(record.data, currentLink);
+            }
+            record.data.writeInt(endpointBatch.size());
+            for (EndpointElement currentEndpoint : endpointBatch) {
+                TopologyElementCodec.writeEndpoint(record.data, currentEndpoint);
+            }
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    private void logIdentifierRecord(byte recordType, FDNToken identifier) {
+        JournalRecord record = new JournalRecord(recordType);
+        try {
+            TopologyElementCodec.writeIdentifier(record.data, identifier);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        append(record);
+    }
+
+    /**
+     * A record being encoded: space for the frame header, then the record type and its content.
+     */
+    private static class JournalRecord {
+        final ByteArrayOutputStream bytes;
+        final DataOutputStream data;
+
+        JournalRecord(byte recordType) {
+            this.bytes = new ByteArrayOutputStream(128);
+            this.data = new DataOutputStream(bytes);
+            try {
+                data.writeLong(0);
+                data.writeByte(recordType);
+            } catch (IOException ex) {
+                throw (new UncheckedIOException(ex));
+            }
+        }
+
+        ByteBuffer toFramedBuffer() {
+            ByteBuffer framedRecord = ByteBuffer.wrap(bytes.toByteArray());
+            int payloadLength = framedRecord.remaining() - FRAME_HEADER_LENGTH;
+            CRC32 checksum = new CRC32();
+            checksum.update(framedRecord.array(), FRAME_HEADER_LENGTH, payloadLength);
+            framedRecord.putInt(0, payloadLength);
+            framedRecord.putInt(4, (int) checksum.getValue());
+            return (framedRecord);
+        }
+    }
+
+    //
+    // Group Commit
+    //
+
+    /**
+     * Queues a record to be committed, without waiting for it to be durable (see awaitCommit()).
+     */
+    private void append(JournalRecord record) {
+        ByteBuffer framedRecord = record.toFramedBuffer();
+        commitLock.lock();
+        try {
+            failIfBroken();
+            pendingRecords.add(framedRecord);
+            appendedSequence++;
+            lastAppendedSequence.get()[0] = appendedSequence;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * With synchronous commit, waits until every record appended by the calling thread is durable
+     * (committing them, as the leader, if no commit is in progress); with asynchronous commit,
+     * returns immediately. This must not be called while holding any of the TopologyDM's locks.
+     */
+    public void awaitCommit() {
+        if (synchronousCommit) {
+            long sequence = lastAppendedSequence.get()[0];
+            if (sequence > 0) {
+                awaitDurable(sequence);
+            }
+        }
+    }
+
+    public boolean isSynchronousCommit() {
+        return (synchronousCommit);
+    }
+
+    private void awaitDurable(long sequence) {
+        commitLock.lock();
+        try {
+            while (durableSequence < sequence) {
+                failIfBroken();
+                if (commitInProgress) {
+                    commitComplete.awaitUninterruptibly();
+                } else {
+                    commitPending();
+                }
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces every queued record, as the commit leader. Called with the commit lock held,
+     * which is released while the records are written (so other writers can queue behind them).
+     */
+    private void commitPending() {
+        if (pendingRecords.isEmpty()) {
+            return;
+        }
+        ArrayList<ByteBuffer> batch = pendingRecords;
+        long batchSequence = appendedSequence;
+        pendingRecords = new ArrayList<ByteBuffer>();
+        commitInProgress = true;
+        IOException failure = null;
+        long batchLength = 0;
+        FileChannel journalChannel = this.channel;
+        commitLock.unlock();
+        try {
+            ByteBuffer[] batchBuffers = batch.toArray(new ByteBuffer[batch.size()]);
+            for (ByteBuffer currentBuffer : batchBuffers) {
+                batchLength += currentBuffer.remaining();
+            }
+            long written = 0;
+            while (written < batchLength) {
+                written += journalChannel.write(batchBuffers);
+            }
+            journalChannel.force(false);
+        } catch (IOException ex) {
+            failure = ex;
+        } finally {
+            commitLock.lock();
+            commitInProgress = false;
+            if (failure == null) {
+                durableSequence = batchSequence;
+                journalLength.addAndGet(batchLength);
+            } else {
+                LOG.error(".commitPending(): Journal commit failed, journal is no longer usable --> {}", failure.getMessage());
+                commitFailure = failure;
+            }
+            commitComplete.signalAll();
+        }
+        LOG.trace(".commitPending(): Committed records --> {}", batch.size());
+    }
+
+    private void failIfBroken() {
+        if (commitFailure != null) {
+            throw (new UncheckedIOException(".failIfBroken(): journal commit previously failed", commitFailure));
+        }
+        if (!channel.isOpen()) {
+            throw (new IllegalStateException(".failIfBroken(): journal is closed"));
+        }
+    }
+
+    /**
+     * Commits any queued records (and waits for them to be durable).
+     */
+    public void flush() {
+        long sequence;
+        commitLock.lock();
+        try {
+            sequence = appendedSequence;
+        } finally {
+            commitLock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    private void backgroundCommit() {
+        try {
+            commitLock.lock();
+            try {
+                if (!commitInProgress && channel.isOpen() && commitFailure == null) {
+                    commitPending();
+                }
+            } finally {
+                commitLock.unlock();
+            }
+            long thresholdBytes = this.compactionThresholdBytes;
+            SnapshotWriter snapshotWriter = this.compactionSnapshotWriter;
+            if (thresholdBytes > 0 && snapshotWriter != null && journalLength.get() > thresholdBytes) {
+                compact(snapshotWriter);
+            }
+        } catch (RuntimeException ex) {
+            LOG.error(".backgroundCommit(): Background journal commit/compaction failed --> {}", ex.getMessage());
+        }
+    }
+
+    //
+    // Compaction
+    //
+
+    /**
+     * Writes a snapshot of the topology (via the SnapshotWriter) and drops the records it reflects
+     * from the journal. Mutations (and appends) carry on while the snapshot is written; appends only
+     * wait for the (short) swap of the journal file at the end.
+     *
+     * @param snapshotWriter The SnapshotWriter that writes the snapshot to replay the journal onto
+     */
+    public void compact(SnapshotWriter snapshotWriter) {
+        LOG.debug(".compact(): Entry, journalLength --> {}", journalLength.get());
+        long compactedLength;
+        commitLock.lock();
+        try {
+            while (commitInProgress || !pendingRecords.isEmpty()) {
+                failIfBroken();
+                if (commitInProgress) {
+                    commitComplete.awaitUninterruptibly();
+                } else {
+                    commitPending();
+                }
+            }
+            failIfBroken();
+            compactedLength = journalLength.get();
+        } finally {
+            commitLock.unlock();
+        }
+        try {
+            // Every record up to compactedLength was appended from within its (completed) mutation's
+            // critical section, so the snapshot reflects each of them
+            snapshotWriter.writeSnapshot();
+            dropCompactedRecords(compactedLength);
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        LOG.debug(".compact(): Exit, journalLength --> {}", journalLength.get());
+    }
+
+    /**
+     * Replaces the journal file with a copy of its records beyond the compacted length, holding the
+     * commit lock (once no commit is in progress) so no record is written while the files are swapped.
+     */
+    private void dropCompactedRecords(long compactedLength) throws IOException {
+        Path compactedFile = journalFile.resolveSibling(journalFile.getFileName() + ".compacting");
+        commitLock.lock();
+        try {
+            while (commitInProgress) {
+                commitComplete.awaitUninterruptibly();
+            }
+            failIfBroken();
+            long retainedLength = journalLength.get() - compactedLength;
+            FileChannel compactedChannel = FileChannel.open(compactedFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long copied = 0;
+                while (copied < retainedLength) {
+                    copied += channel.transferTo(compactedLength + copied, retainedLength - copied, compactedChannel);
+                }
+                compactedChannel.position(retainedLength);
+                compactedChannel.force(true);
+                Files.move(compactedFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                compactedChannel.close();
+                Files.deleteIfExists(compactedFile);
+                throw (ex);
+            }
+            FileChannel compactedJournal = this.channel;
+            this.channel = compactedChannel;
+            journalLength.set(retainedLength);
+            try {
+                compactedJournal.close();
+            } catch (IOException ex) {
+                LOG.warn(".dropCompactedRecords(): Error closing the compacted journal --> {}", ex.getMessage());
+            }
+            LOG.debug(".dropCompactedRecords(): Dropped bytes --> {}, retained bytes --> {}", compactedLength, retainedLength);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    //
+    // Replay
+    //
+
+    private static long findValidLength(FileChannel channel) throws IOException {
+        long fileLength = channel.size();
+        long position = 0;
+        ByteBuffer frameBuffer = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        while (true) {
+            frameBuffer = readFrame(channel, position, fileLength, frameBuffer);
+            if (frameBuffer == null) {
+                return (position);
+            }
+            position += FRAME_HEADER_LENGTH + frameBuffer.remaining();
+        }
+    }
+
+    /**
+     * Reads (and checks) the frame at the given position, a positional read at a time (so the
+     * journal is never mapped or held in memory as a whole, and may exceed 2GB).
+     *
+     * @param frameBuffer A buffer to reuse, if it is large enough
+     * @return The frame's payload (positioned at its start), or null if there is no valid frame at
+     * the position
+     */
+    private static ByteBuffer readFrame(FileChannel channel, long position, long fileLength, ByteBuffer frameBuffer) throws IOException {
+        if (position + FRAME_HEADER_LENGTH > fileLength) {
+            return (null);
+        }
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        readFully(channel, header, position);
+        int payloadLength = header.getInt(0);
+        if (payloadLength <= 0 || position + FRAME_HEADER_LENGTH + (long) payloadLength > fileLength) {
+            return (null);
+        }
+        ByteBuffer payload = frameBuffer.capacity() >= payloadLength ? frameBuffer : ByteBuffer.allocate(Math.max(payloadLength, frameBuffer.capacity() * 2));
+        payload.clear();
+        payload.limit(payloadLength);
+        readFully(channel, payload, position + FRAME_HEADER_LENGTH);
+        payload.flip();
+        CRC32 checksum = new CRC32();
+        checksum.update(payload.array(), 0, payloadLength);
+        if ((int) checksum.getValue() != header.getInt(4)) {
+            return (null);
+        }
+        return (payload);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0) {
+                throw (new IOException(".readFully(): unexpected end of journal at position " + readPosition));
+            }
+            readPosition += read;
+        }
+    }
+
+    /**
+     * Replays every (valid) journaled mutation into the TopologyDM. This should be done once, at
+     * startup, after restoring the last snapshot and before the journal is attached to the TopologyDM
+     * (so the replayed mutations aren't journaled again).
+     *
+     * @param topologyDM The TopologyDM to replay the mutations into
+     * @return The number of mutations replayed
+     */
+    public int replay(TopologyDM topologyDM) {
+        LOG.debug(".replay(): Entry, journalLength --> {}", journalLength.get());
+        int replayedCount = 0;
+        try {
+            long validLength = journalLength.get();
+            long position = 0;
+            ByteBuffer frameBuffer = ByteBuffer.allocate(4096);
+            while (position < validLength) {
+                ByteBuffer payload = readFrame(channel, position, validLength, frameBuffer);
+                if (payload == null) {
+                    throw (new IOException(".replay(): invalid journal record at position " + position));
+                }
+                frameBuffer = payload;
+                position += FRAME_HEADER_LENGTH + payload.remaining();
+                replayRecord(topologyDM, payload);
+                replayedCount++;
+            }
+        } catch (IOException ex) {
+            throw (new UncheckedIOException(ex));
+        }
+        LOG.debug(".replay(): Exit, replayedCount --> {}", replayedCount);
+        return (replayedCount);
+    }
+
+    private void replayRecord(TopologyDM topologyDM, ByteBuffer record) {
+        byte recordType = record.get();
+        switch (recordType) {
+            case NODE_ADDED:
+                topologyDM.addNode(TopologyElementCodec.readNode(record));
+                break;
+            case NODE_REMOVED:
+                topologyDM.removeNode(TopologyElementCodec.readNodeIdentifier(record));
+                break;
+            case LINK_ADDED:
+                topologyDM.addLink(TopologyElementCodec.readLink(record));
+                break;
+            case LINK_REMOVED:
+                topologyDM.removeLink(TopologyElementCodec.readLinkIdentifier(record));
+                break;
+            case ENDPOINT_ADDED:
+                topologyDM.addEndpoint(TopologyElementCodec.readEndpoint(record));
+                break;
+            case ENDPOINT_REMOVED:
+                topologyDM.removeEndpoint(TopologyElementCodec.readEndpointIdentifier(record));
+                break;
+            case INSTANCE_IN_PLACE_CHANGED: {
+                NodeElementIdentifier nodeID = TopologyElementCodec.readNodeIdentifier(record);
+                boolean instantiationState = record.get() != 0;
+                if (topologyDM.getNode(nodeID) != null) {
+                    topologyDM.setNodeInstanceInPlace(nodeID, instantiationState);
+                } else {
+                    LOG.warn(".replayRecord(): Skipping instance-in-place change for absent node --> {}", nodeID);
+                }
+                break;
+            }
+            case ENDPOINT_ADDED_TO_NODE: {
+                NodeElementIdentifier nodeID = TopologyElementCodec.readNodeIdentifier(record);
+                EndpointElementIdentifier endpointID = TopologyElementCodec.readEndpointIdentifier(record);
+                if (topologyDM.getNode(nodeID) != null) {
+                    topologyDM.addEndpointToNode(nodeID, endpointID);
+                } else {
+                    LOG.warn(".replayRecord(): Skipping endpoint addition for absent node --> {}", nodeID);
+                }
+                break;
+            }
+            case CONTAINED_NODE_ADDED: {
+                NodeElementIdentifier containingNodeID = TopologyElementCodec.readNodeIdentifier(record);
+                NodeElementIdentifier containedNodeID = TopologyElementCodec.readNodeIdentifier(record);
+                if (!topologyDM.addContainedNode(containingNodeID, containedNodeID)) {
+                    LOG.warn(".replayRecord(): Skipping contained node addition for absent node --> {}", containingNodeID);
+                }
+                break;
+            }
+            case TOPOLOGY_ADDED: {
+                int nodeCount = record.getInt();
+                List<NodeElement> nodes = new ArrayList<NodeElement>(nodeCount);
+                for (int index = 0; index < nodeCount; index++) {
+                    nodes.add(TopologyElementCodec.readNode(record));
+                }
+                int linkCount = record.getInt();
+                List<LinkElement> links = new ArrayList<LinkElement>(linkCount);
+                for (int index = 0; index < linkCount; index++) {
+                    links.add(TopologyElementCodec.readLink(record));
+                }
+                int endpointCount = record.getInt();
+                List<EndpointElement> endpoints = new ArrayList<EndpointElement>(endpointCount);
+                for (int index = 0; index < endpointCount; index++) {
+                    endpoints.add(TopologyElementCodec.readEndpoint(record));
+                }
+                topologyDM.addTopology(nodes, links, endpoints);
+                break;
+            }
+            default:
+                LOG.warn(".replayRecord(): Skipping record of unknown type --> {}", recordType);
+        }
+    }
+
+    /**
+     * Commits any queued records, stops the background commit thread and closes the journal file.
+     */
+    public void close() {
+        LOG.debug(".close(): Entry");
+        journalExecutor.shutdown();
+        try {
+            if (commitFailure == null && channel.isOpen()) {
+                flush();
+            }
+        } finally {
+            commitLock.lock();
+            try {
+                while (commitInProgress) {
+                    commitComplete.awaitUninterruptibly();
+                }
+                channel.close();
+            } catch (IOException ex) {
+                LOG.warn(".close(): Error closing journal --> {}", ex.getMessage());
+            } finally {
+                commitLock.unlock();
+            }
+        }
+        LOG.debug(".close(): Exit");
+    }
+}
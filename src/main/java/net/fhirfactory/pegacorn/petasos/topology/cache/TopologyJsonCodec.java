@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The streaming JSON form of the topology, as used by the ops tooling to dump and load (large)
+ * topologies. Elements are written one at a time with a Jackson JsonGenerator and read one at a
+ * time with a JsonParser, so neither side builds a tree (or a copy) of the whole topology:
+ * <pre>
+ * {
+ *   "formatVersion": 1,
+ *   "epoch": 42,
+ *   "nodes": [ { "id": "...", "version": "...", "archetype": "...", "containingNode": "...",
+ *                "concurrencyMode": "...", "resilienceMode": "...", "instanceInPlace": false,
+ *                "containedNodes": [ "..." ], "endpoints": [ "..." ] } ],
+ *   "links": [ { "id": "...", "source": "...", "target": "..." } ],
+ *   "endpoints": [ { "id": "...", "version": "..." } ]
+ * }
+ * </pre>
+ * Identifiers are written as their FDNToken content, enumerations by name, and null values are
+ * omitted. On reading, the sections may appear in any order, and unknown fields are skipped.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyJsonCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyJsonCodec.class);
+
+    public static final int FORMAT_VERSION = 1;
+    public static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String FORMAT_VERSION_FIELD = "formatVersion";
+    private static final String EPOCH_FIELD = "epoch";
+    private static final String NODES_FIELD = "nodes";
+    private static final String LINKS_FIELD = "links";
+    private static final String ENDPOINTS_FIELD = "endpoints";
+    private static final String ID_FIELD = "id";
+    private static final String VERSION_FIELD = "version";
+    private static final String ARCHETYPE_FIELD = "archetype";
+    private static final String CONTAINING_NODE_FIELD = "containingNode";
+    private static final String CONCURRENCY_MODE_FIELD = "concurrencyMode";
+    private static final String RESILIENCE_MODE_FIELD = "resilienceMode";
+    private static final String INSTANCE_IN_PLACE_FIELD = "instanceInPlace";
+    private static final String CONTAINED_NODES_FIELD = "containedNodes";
+    private static final String SOURCE_FIELD = "source";
+    private static final String TARGET_FIELD = "target";
+
+    /**
+     * Receives the elements read from a JSON topology, a batch at a time (TopologyDM.addTopology()
+     * has this shape).
+     */
+    @FunctionalInterface
+    public interface TopologyBatchConsumer {
+        void accept(Collection<NodeElement> nodes, Collection<LinkElement> links, Collection<EndpointElement> endpoints);
+    }
+
+    private TopologyJsonCodec() {
+    }
+
+    //
+    // Writing
+    //
+
+    /**
+     * Streams the given elements as a JSON topology. The output stream is flushed, but not closed.
+     *
+     * @param output The stream to write to
+     * @param epoch The epoch of the topology being written
+     * @param nodes The Nodes to be written (iterated once)
+     * @param links The Links to be written (iterated once)
+     * @param endpoints The Endpoints to be written (iterated once)
+     * @throws IOException If the stream can't be written
+     */
+    public static void write(OutputStream output, long epoch, Iterable<NodeElement> nodes, Iterable<LinkElement> links, Iterable<EndpointElement> endpoints) throws IOException {
+        LOG.debug(".write(): Entry, epoch --> {}", epoch);
+        JsonGenerator generator = JSON_FACTORY.createGenerator(output, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField(FORMAT_VERSION_FIELD, FORMAT_VERSION);
+            generator.writeNumberField(EPOCH_FIELD, epoch);
+            generator.writeArrayFieldStart(NODES_FIELD);
+            for (NodeElement currentNode : nodes) {
+                writeNode(generator, currentNode);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart(LINKS_FIELD);
+            for (LinkElement currentLink : links) {
+                writeLink(generator, currentLink);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart(ENDPOINTS_FIELD);
+            for (EndpointElement currentEndpoint : endpoints) {
+                writeEndpoint(generator, currentEndpoint);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+        LOG.debug(".write(): Exit");
+    }
+
+    private static void writeNode(JsonGenerator generator, NodeElement node) throws IOException {
+        generator.writeStartObject();
+        writeIdentifierField(generator, ID_FIELD, node.getNodeInstanceID());
+        writeStringField(generator, VERSION_FIELD, node.getVersion());
+        writeStringField(generator, ARCHETYPE_FIELD, node.getNodeArchetype() == null ? null : node.getNodeArchetype().name());
+        writeIdentifierField(generator, CONTAINING_NODE_FIELD, node.getContainingElementID());
+        writeStringField(generator, CONCURRENCY_MODE_FIELD, node.getConcurrencyMode() == null ? null : node.getConcurrencyMode().name());
+        writeStringField(generator, RESILIENCE_MODE_FIELD, node.getResilienceMode() == null ? null : node.getResilienceMode().name());
+        generator.writeBooleanField(INSTANCE_IN_PLACE_FIELD, node.isInstanceInPlace());
+        writeIdentifiersField(generator, CONTAINED_NODES_FIELD, node.getContainedElements());
+        writeIdentifiersField(generator, ENDPOINTS_FIELD, node.getEndpoints());
+        generator.writeEndObject();
+    }
+
+    private static void writeLink(JsonGenerator generator, LinkElement link) throws IOException {
+        generator.writeStartObject();
+        writeIdentifierField(generator, ID_FIELD, link.getLinkID());
+        writeIdentifierField(generator, SOURCE_FIELD, link.getSource());
+        writeIdentifierField(generator, TARGET_FIELD, link.getTarget());
+        generator.writeEndObject();
+    }
+
+    private static void writeEndpoint(JsonGenerator generator, EndpointElement endpoint) throws IOException {
+        generator.writeStartObject();
+        writeIdentifierField(generator, ID_FIELD, endpoint.getEndpointInstanceID());
+        writeStringField(generator, VERSION_FIELD, endpoint.getVersion());
+        generator.writeEndObject();
+    }
+
+    private static void writeStringField(JsonGenerator generator, String fieldName, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(fieldName, value);
+        }
+    }
+
+    private static void writeIdentifierField(JsonGenerator generator, String fieldName, FDNToken identifier) throws IOException {
+        if (identifier != null) {
+            generator.writeStringField(fieldName, identifier.getContent());
+        }
+    }
+
+    private static void writeIdentifiersField(JsonGenerator generator, String fieldName, Collection<? extends FDNToken> identifiers) throws IOException {
+        if (identifiers == null || identifiers.isEmpty()) {
+            return;
+        }
+        generator.writeArrayFieldStart(fieldName);
+        for (FDNToken currentIdentifier : identifiers) {
+            generator.writeString(currentIdentifier.getContent());
+        }
+        generator.writeEndArray();
+    }
+
+    //
+    // Reading
+    //
+
+    /**
+     * Streams the elements of a JSON topology to the consumer, in batches of (at most) batchSize
+     * elements - so only one batch is held in memory at a time. The input stream is not closed.
+     *
+     * @param input The stream to read from
+     * @param batchSize The maximum number of elements (Nodes, Links and Endpoints) per batch
+     * @param consumer The receiver of each batch
+     * @return The number of elements read
+     * @throws IOException If the stream can't be read, or doesn't hold a JSON topology
+     */
+    public static int read(InputStream input, int batchSize, TopologyBatchConsumer consumer) throws IOException {
+        LOG.debug(".read(): Entry, batchSize --> {}", batchSize);
+        if (batchSize < 1) {
+            throw (new IllegalArgumentException(".read(): batchSize must be positive"));
+        }
+        if (consumer == null) {
+            throw (new IllegalArgumentException(".read(): consumer is null"));
+        }
+        JsonParser parser = JSON_FACTORY.createParser(input);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            ImportBatch batch = new ImportBatch(batchSize, consumer);
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                switch (fieldName) {
+                    case FORMAT_VERSION_FIELD:
+                        if (parser.getIntValue() > FORMAT_VERSION) {
+                            throw (new JsonParseException(parser, ".read(): unsupported formatVersion --> " + parser.getIntValue()));
+                        }
+                        break;
+                    case NODES_FIELD:
+                        expect(parser, valueToken, JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            batch.addNode(readNode(parser));
+                        }
+                        break;
+                    case LINKS_FIELD:
+                        expect(parser, valueToken, JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            batch.addLink(readLink(parser));
+                        }
+                        break;
+                    case ENDPOINTS_FIELD:
+                        expect(parser, valueToken, JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            batch.addEndpoint(readEndpoint(parser));
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            batch.flush();
+            LOG.debug(".read(): Exit, elements read --> {}", batch.getElementCount());
+            return (batch.getElementCount());
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static NodeElement readNode(JsonParser parser) throws IOException {
+        NodeElement node = new NodeElement();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            switch (fieldName) {
+                case ID_FIELD:
+                    node.setNodeInstanceID(new NodeElementIdentifier(new FDNToken(parser.getText())));
+                    break;
+                case VERSION_FIELD:
+                    node.setVersion(parser.getText());
+                    break;
+                case ARCHETYPE_FIELD:
+                    node.setNodeArchetype(NodeElementTypeEnum.valueOf(parser.getText()));
+                    break;
+                case CONTAINING_NODE_FIELD:
+                    node.setContainingElementID(new NodeElementIdentifier(new FDNToken(parser.getText())));
+                    break;
+                case CONCURRENCY_MODE_FIELD:
+                    node.setConcurrencyMode(ConcurrencyModeEnum.valueOf(parser.getText()));
+                    break;
+                case RESILIENCE_MODE_FIELD:
+                    node.setResilienceMode(ResilienceModeEnum.valueOf(parser.getText()));
+                    break;
+                case INSTANCE_IN_PLACE_FIELD:
+                    node.setInstanceInPlace(parser.getBooleanValue());
+                    break;
+                case CONTAINED_NODES_FIELD:
+                    expect(parser, valueToken, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        node.addContainedElement(new NodeElementIdentifier(new FDNToken(parser.getText())));
+                    }
+                    break;
+                case ENDPOINTS_FIELD:
+                    expect(parser, valueToken, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        node.getEndpoints().add(new EndpointElementIdentifier(new FDNToken(parser.getText())));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return (node);
+    }
+
+    private static LinkElement readLink(JsonParser parser) throws IOException {
+        LinkElement link = new LinkElement();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case ID_FIELD:
+                    link.setLinkID(new LinkElementIdentifier(new FDNToken(parser.getText())));
+                    break;
+                case SOURCE_FIELD:
+                    link.setSource(new FDNToken(parser.getText()));
+                    break;
+                case TARGET_FIELD:
+                    link.setTarget(new FDNToken(parser.getText()));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return (link);
+    }
+
+    private static EndpointElement readEndpoint(JsonParser parser) throws IOException {
+        EndpointElement endpoint = new EndpointElement();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case ID_FIELD:
+                    endpoint.setEndpointInstanceID(new EndpointElementIdentifier(new FDNToken(parser.getText())));
+                    break;
+                case VERSION_FIELD:
+                    endpoint.setVersion(parser.getText());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return (endpoint);
+    }
+
+    private static void expect(JsonParser parser, JsonToken actualToken, JsonToken expectedToken) throws IOException {
+        if (actualToken != expectedToken) {
+            throw (new JsonParseException(parser, ".read(): expected " + expectedToken + " but found " + actualToken));
+        }
+    }
+
+    /**
+     * The elements read since the last batch was handed to the consumer.
+     */
+    private static class ImportBatch {
+        private final int batchSize;
+        private final TopologyBatchConsumer consumer;
+        private List<NodeElement> nodes;
+        private List<LinkElement> links;
+        private List<EndpointElement> endpoints;
+        private int batchCount;
+        private int elementCount;
+
+        ImportBatch(int batchSize, TopologyBatchConsumer consumer) {
+            this.batchSize = batchSize;
+            this.consumer = consumer;
+            this.nodes = new ArrayList<NodeElement>();
+            this.links = new ArrayList<LinkElement>();
+            this.endpoints = new ArrayList<EndpointElement>();
+            this.batchCount = 0;
+            this.elementCount = 0;
+        }
+
+        void addNode(NodeElement node) {
+            nodes.add(node);
+            elementAdded();
+        }
+
+        void addLink(LinkElement link) {
+            links.add(link);
+            elementAdded();
+        }
+
+        void addEndpoint(EndpointElement endpoint) {
+            endpoints.add(endpoint);
+            elementAdded();
+        }
+
+        private void elementAdded() {
+            batchCount++;
+            elementCount++;
+            if (batchCount >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (batchCount == 0) {
+                return;
+            }
+            consumer.accept(Collections.unmodifiableList(nodes), Collections.unmodifiableList(links), Collections.unmodifiableList(endpoints));
+            this.nodes = new ArrayList<NodeElement>();
+            this.links = new ArrayList<LinkElement>();
+            this.endpoints = new ArrayList<EndpointElement>();
+            this.batchCount = 0;
+        }
+
+        int getElementCount() {
+            return (elementCount);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+
+/**
+ * A single (element level) change to the topology - the addition, replacement or removal of a
+ * Node, Link or Endpoint, a change to a Node's instanceInPlace state, or the addition of an
+ * Endpoint (or a contained Node) to a Node. Mutations are applied either one at a time (TopologyDM.applyMutation()) or as
+ * an ordered batch (TopologyDM.applyMutations()).
+ * <p>
+ * The arguments are validated when the mutation is created, so a mutation that is queued for later
+ * application is known to be well-formed.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyMutation {
+
+    private final TopologyMutationTypeEnum mutationType;
+    private final NodeElement node;
+    private final LinkElement link;
+    private final EndpointElement endpoint;
+    private final NodeElementIdentifier nodeID;
+    private final LinkElementIdentifier linkID;
+    private final EndpointElementIdentifier endpointID;
+    private final NodeElementIdentifier containedNodeID;
+    private final boolean instanceInPlace;
+
+    private TopologyMutation(TopologyMutationTypeEnum mutationType, NodeElement node, LinkElement link, EndpointElement endpoint, NodeElementIdentifier nodeID, LinkElementIdentifier linkID, EndpointElementIdentifier endpointID, boolean instanceInPlace) {
+        this(mutationType, node, link, endpoint, nodeID, linkID, endpointID, null, instanceInPlace);
+    }
+
+    private TopologyMutation(TopologyMutationTypeEnum mutationType, NodeElement node, LinkElement link, EndpointElement endpoint, NodeElementIdentifier nodeID, LinkElementIdentifier linkID, EndpointElementIdentifier endpointID, NodeElementIdentifier containedNodeID, boolean instanceInPlace) {
+        this.mutationType = mutationType;
+        this.node = node;
+        this.link = link;
+        this.endpoint = endpoint;
+        this.nodeID = nodeID;
+        this.linkID = linkID;
+        this.endpointID = endpointID;
+        this.containedNodeID = containedNodeID;
+        this.instanceInPlace = instanceInPlace;
+    }
+
+    public static TopologyMutation addNode(NodeElement newNode) {
+        if (newNode == null || newNode.getNodeInstanceID() == null) {
+            throw (new IllegalArgumentException(".addNode(): newNode is null or has no nodeInstanceID"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.ADD_NODE, newNode, null, null, newNode.getNodeInstanceID(), null, null, false));
+    }
+
+    public static TopologyMutation removeNode(NodeElementIdentifier nodeID) {
+        if (nodeID == null) {
+            throw (new IllegalArgumentException(".removeNode(): nodeID is null"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.REMOVE_NODE, null, null, null, nodeID, null, null, false));
+    }
+
+    public static TopologyMutation addLink(LinkElement newLink) {
+        if (newLink == null || newLink.getLinkID() == null) {
+            throw (new IllegalArgumentException(".addLink(): newLink is null or has no linkID"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.ADD_LINK, null, newLink, null, null, newLink.getLinkID(), null, false));
+    }
+
+    public static TopologyMutation removeLink(LinkElementIdentifier linkID) {
+        if (linkID == null) {
+            throw (new IllegalArgumentException(".removeLink(): linkID is null"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.REMOVE_LINK, null, null, null, null, linkID, null, false));
+    }
+
+    public static TopologyMutation addEndpoint(EndpointElement newEndpoint) {
+        if (newEndpoint == null || newEndpoint.getEndpointInstanceID() == null) {
+            throw (new IllegalArgumentException(".addEndpoint(): newEndpoint is null or has no endpointInstanceID"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.ADD_ENDPOINT, null, null, newEndpoint, null, null, newEndpoint.getEndpointInstanceID(), false));
+    }
+
+    public static TopologyMutation removeEndpoint(EndpointElementIdentifier endpointID) {
+        if (endpointID == null) {
+            throw (new IllegalArgumentException(".removeEndpoint(): endpointID is null"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.REMOVE_ENDPOINT, null, null, null, null, null, endpointID, false));
+    }
+
+    public static TopologyMutation setInstanceInPlace(NodeElementIdentifier nodeID, boolean instantiationState) {
+        if (nodeID == null) {
+            throw (new IllegalArgumentException(".setInstanceInPlace(): nodeID is null"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.SET_INSTANCE_IN_PLACE, null, null, null, nodeID, null, null, instantiationState));
+    }
+
+    public static TopologyMutation addEndpointToNode(NodeElementIdentifier nodeID, EndpointElementIdentifier endpointID) {
+        if (nodeID == null || endpointID == null) {
+            throw (new IllegalArgumentException(".addEndpointToNode(): nodeID or endpointID is null"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.ADD_ENDPOINT_TO_NODE, null, null, null, nodeID, null, endpointID, false));
+    }
+
+    public static TopologyMutation addContainedNode(NodeElementIdentifier containingNodeID, NodeElementIdentifier containedNodeID) {
+        if (containingNodeID == null || containedNodeID == null) {
+            throw (new IllegalArgumentException(".addContainedNode(): containingNodeID or containedNodeID is null"));
+        }
+        return (new TopologyMutation(TopologyMutationTypeEnum.ADD_CONTAINED_NODE, null, null, null, containingNodeID, null, null, containedNodeID, false));
+    }
+
+    public TopologyMutationTypeEnum getMutationType() {
+        return mutationType;
+    }
+
+    public NodeElement getNode() {
+        return node;
+    }
+
+    public LinkElement getLink() {
+        return link;
+    }
+
+    public EndpointElement getEndpoint() {
+        return endpoint;
+    }
+
+    public NodeElementIdentifier getNodeID() {
+        return nodeID;
+    }
+
+    public LinkElementIdentifier getLinkID() {
+        return linkID;
+    }
+
+    public EndpointElementIdentifier getEndpointID() {
+        return endpointID;
+    }
+
+    public NodeElementIdentifier getContainedNodeID() {
+        return containedNodeID;
+    }
+
+    public boolean isInstanceInPlace() {
+        return instanceInPlace;
+    }
+
+    /**
+     * @return The identifier of the element the mutation applies to (the Node, for the Node level
+     * mutations)
+     */
+    public FDNToken getElementID() {
+        switch (mutationType) {
+            case ADD_LINK:
+            case REMOVE_LINK:
+                return (linkID);
+            case ADD_ENDPOINT:
+            case REMOVE_ENDPOINT:
+                return (endpointID);
+            default:
+                return (nodeID);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ("TopologyMutation{" + mutationType.getMutationType() + ", elementID=" + getElementID() + "}");
+    }
+}
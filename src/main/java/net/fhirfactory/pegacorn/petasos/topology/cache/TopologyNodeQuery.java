@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.function.Predicate;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+
+/**
+ * An (immutable) query over the Nodes of the topology, built up from all() by the with...()
+ * methods - each of which returns a new, narrower, query. The criteria are pushed down into the
+ * TopologyDM's scan: a containment criterion restricts the scan to the subtree of the containing
+ * Node (see ContainmentTree), and the archetype and instance-in-place criteria are tested before any
+ * caller-supplied predicate.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyNodeQuery {
+
+    private static final TopologyNodeQuery ALL_NODES = new TopologyNodeQuery(null, null, null, null);
+
+    private final NodeElementTypeEnum archetype;
+    private final Boolean instanceInPlace;
+    private final NodeElementIdentifier containingNodeID;
+    private final Predicate<NodeElement> predicate;
+
+    private TopologyNodeQuery(NodeElementTypeEnum archetype, Boolean instanceInPlace, NodeElementIdentifier containingNodeID, Predicate<NodeElement> predicate) {
+        this.archetype = archetype;
+        this.instanceInPlace = instanceInPlace;
+        this.containingNodeID = containingNodeID;
+        this.predicate = predicate;
+    }
+
+    /**
+     * @return The query matching every Node
+     */
+    public static TopologyNodeQuery all() {
+        return (ALL_NODES);
+    }
+
+    public TopologyNodeQuery withArchetype(NodeElementTypeEnum archetype) {
+        return (new TopologyNodeQuery(archetype, this.instanceInPlace, this.containingNodeID, this.predicate));
+    }
+
+    public TopologyNodeQuery withInstanceInPlace(boolean instanceInPlace) {
+        return (new TopologyNodeQuery(this.archetype, instanceInPlace, this.containingNodeID, this.predicate));
+    }
+
+    /**
+     * @param containingNodeID The Node whose (transitively) contained Nodes are to be matched (the
+     * Node itself is not matched)
+     * @return The narrower query
+     */
+    public TopologyNodeQuery withContainingNode(NodeElementIdentifier containingNodeID) {
+        return (new TopologyNodeQuery(this.archetype, this.instanceInPlace, containingNodeID, this.predicate));
+    }
+
+    /**
+     * @param additionalPredicate A further criterion (it must be thread-safe if the query is used
+     * with a parallel stream)
+     * @return The narrower query
+     */
+    public TopologyNodeQuery withPredicate(Predicate<NodeElement> additionalPredicate) {
+        if (additionalPredicate == null) {
+            throw (new IllegalArgumentException(".withPredicate(): additionalPredicate is null"));
+        }
+        Predicate<NodeElement> combinedPredicate = this.predicate == null ? additionalPredicate : this.predicate.and(additionalPredicate);
+        return (new TopologyNodeQuery(this.archetype, this.instanceInPlace, this.containingNodeID, combinedPredicate));
+    }
+
+    public NodeElementTypeEnum getArchetype() {
+        return archetype;
+    }
+
+    public Boolean getInstanceInPlace() {
+        return instanceInPlace;
+    }
+
+    public NodeElementIdentifier getContainingNodeID() {
+        return containingNodeID;
+    }
+
+    /**
+     * Tests the Node against the archetype, instance-in-place and predicate criteria (the
+     * containment criterion is applied by the TopologyDM's choice of what to scan).
+     *
+     * @param node The Node to test
+     * @return True if the Node meets those criteria
+     */
+    boolean matchesElement(NodeElement node) {
+        if (archetype != null && node.getNodeArchetype() != archetype) {
+            return (false);
+        }
+        if (instanceInPlace != null && node.isInstanceInPlace() != instanceInPlace.booleanValue()) {
+            return (false);
+        }
+        return (predicate == null || predicate.test(node));
+    }
+
+    @Override
+    public String toString() {
+        return ("TopologyNodeQuery{archetype=" + archetype + ", instanceInPlace=" + instanceInPlace + ", containingNodeID=" + containingNodeID + ", predicate=" + (predicate != null) + "}");
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the results of a topology query. Pages are ordered by the canonical key of their
+ * elements, and the cursor of a page is the key of its last element - so paging through a query
+ * remains well defined while the topology changes (an element added or removed behind the cursor
+ * simply isn't seen, one ahead of it is).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyPage<T> {
+
+    private final List<T> elements;
+    private final String nextCursor;
+
+    TopologyPage(List<T> elements, String nextCursor) {
+        this.elements = Collections.unmodifiableList(elements);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return The cursor with which to request the following page, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNextPage() {
+        return (nextCursor != null);
+    }
+}
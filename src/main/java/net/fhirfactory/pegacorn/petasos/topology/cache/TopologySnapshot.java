@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+
+/**
+ * An immutable, consistent view of the Node, Link and Endpoint membership of the TopologyDM as
+ * at a given epoch. The TopologyDM increments its epoch on every mutation, and builds (at most) one
+ * snapshot per epoch - so every reader of an unchanged topology shares the same snapshot instance.
+ * <p>
+ * The snapshot holds its own (detached) copies of the elements, taken when the snapshot was built,
+ * so later changes to the TopologyDM's elements - including the in-place ones, such as a Node's
+ * instance-in-place state or its contained Nodes and Endpoints - are never visible through it. The
+ * copies are shared by every reader of the snapshot, and must not be modified.
+ * <p>
+ * Snapshots are persistent (see PersistentElementMap): each one shares the copies and the structure
+ * of its predecessor, other than for the elements that changed between the two epochs.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologySnapshot {
+
+    private final long epoch;
+    private final PersistentElementMap<NodeElement> nodeSet;
+    private final PersistentElementMap<LinkElement> linkSet;
+    private final PersistentElementMap<EndpointElement> endpointSet;
+
+    TopologySnapshot(long epoch, PersistentElementMap<NodeElement> nodeSet, PersistentElementMap<LinkElement> linkSet, PersistentElementMap<EndpointElement> endpointSet) {
+        this.epoch = epoch;
+        this.nodeSet = nodeSet;
+        this.linkSet = linkSet;
+        this.endpointSet = endpointSet;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public Collection<NodeElement> getNodes() {
+        return (Collections.unmodifiableCollection(nodeSet.values()));
+    }
+
+    public Collection<LinkElement> getLinks() {
+        return (Collections.unmodifiableCollection(linkSet.values()));
+    }
+
+    public Collection<EndpointElement> getEndpoints() {
+        return (Collections.unmodifiableCollection(endpointSet.values()));
+    }
+
+    public NodeElement getNode(NodeElementIdentifier nodeID) {
+        if (nodeID == null) {
+            return (null);
+        }
+        return (nodeSet.get(TopologyDM.canonicalKey(nodeID)));
+    }
+
+    public LinkElement getLink(LinkElementIdentifier linkID) {
+        if (linkID == null) {
+            return (null);
+        }
+        return (linkSet.get(TopologyDM.canonicalKey(linkID)));
+    }
+
+    public EndpointElement getEndpoint(EndpointElementIdentifier endpointID) {
+        if (endpointID == null) {
+            return (null);
+        }
+        return (endpointSet.get(TopologyDM.canonicalKey(endpointID)));
+    }
+
+    public int getNodeCount() {
+        return (nodeSet.size());
+    }
+
+    public int getLinkCount() {
+        return (linkSet.size());
+    }
+
+    public int getEndpointCount() {
+        return (endpointSet.size());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.events;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+
+/**
+ * A single (typed) change to the topology.
+ * <p>
+ * The epoch is the topology epoch (see TopologyDM) at which the change became visible, the
+ * sequence number orders all the events published by a change feed (several events can share an
+ * epoch when a batch of elements is registered at once).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyChangeEvent {
+
+    private final long sequenceNumber;
+    private final long epoch;
+    private final TopologyChangeTypeEnum changeType;
+    private final TopologyElementTypeEnum elementType;
+    private final FDNToken elementID;
+    private final Object element;
+
+    public TopologyChangeEvent(long sequenceNumber, long epoch, TopologyChangeTypeEnum changeType, TopologyElementTypeEnum elementType, FDNToken elementID, Object element) {
+        this.sequenceNumber = sequenceNumber;
+        this.epoch = epoch;
+        this.changeType = changeType;
+        this.elementType = elementType;
+        this.elementID = elementID;
+        this.element = element;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public TopologyChangeTypeEnum getChangeType() {
+        return changeType;
+    }
+
+    public TopologyElementTypeEnum getElementType() {
+        return elementType;
+    }
+
+    /**
+     * @return The identifier of the changed element (null for a RESYNC_REQUIRED event)
+     */
+    public FDNToken getElementID() {
+        return elementID;
+    }
+
+    /**
+     * @return The changed element (a NodeElement, LinkElement or EndpointElement) as at the time of
+     * the change, or null if the element was removed
+     */
+    public Object getElement() {
+        return element;
+    }
+
+    /**
+     * Merges a later change to the same element into this one: the later change wins, except that
+     * an element added (and then changed) since it was last delivered is still reported as ADDED.
+     *
+     * @param laterEvent The later change to the same element
+     * @return The coalesced change
+     */
+    public TopologyChangeEvent coalesce(TopologyChangeEvent laterEvent) {
+        boolean stillAdded = this.changeType == TopologyChangeTypeEnum.ADDED
+                && (laterEvent.getChangeType() == TopologyChangeTypeEnum.UPDATED || laterEvent.getChangeType() == TopologyChangeTypeEnum.INSTANCE_IN_PLACE_CHANGED);
+        if (stillAdded) {
+            return (new TopologyChangeEvent(laterEvent.getSequenceNumber(), laterEvent.getEpoch(), TopologyChangeTypeEnum.ADDED, laterEvent.getElementType(), laterEvent.getElementID(), laterEvent.getElement()));
+        }
+        return (laterEvent);
+    }
+
+    @Override
+    public String toString() {
+        return ("TopologyChangeEvent{sequenceNumber=" + sequenceNumber + ", epoch=" + epoch + ", changeType=" + changeType + ", elementType=" + elementType + ", elementID=" + elementID + "}");
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.events;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches topology change events to the registered subscribers.
+ * <p>
+ * Publishing never blocks (or waits on) a subscriber: each subscription holds the events not yet
+ * delivered to it, keyed by element, and a later change to an element that is still pending is
+ * coalesced into the pending event. So a slow subscriber simply receives fewer, coalesced, events
+ * rather than holding up the writers. The number of distinct elements pending for a subscription is
+ * bounded - if it is exceeded, the pending events are discarded and the subscriber is sent a single
+ * RESYNC_REQUIRED event (after which it should re-read the topology, e.g. via a snapshot).
+ * <p>
+ * Delivery happens on dispatcher (daemon) threads, with at most one thread delivering to a given
+ * subscriber at a time.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyChangeFeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyChangeFeed.class);
+
+    public static final int DEFAULT_SUBSCRIPTION_CAPACITY = 10000;
+
+    private CopyOnWriteArrayList<Subscription> subscriptionSet;
+    private AtomicLong sequenceNumber;
+    private ExecutorService dispatcher;
+
+    public TopologyChangeFeed() {
+        this.subscriptionSet = new CopyOnWriteArrayList<Subscription>();
+        this.sequenceNumber = new AtomicLong(0);
+        this.dispatcher = Executors.newCachedThreadPool(runnable -> {
+            Thread dispatcherThread = new Thread(runnable, "TopologyChangeFeed-Dispatcher");
+            dispatcherThread.setDaemon(true);
+            return (dispatcherThread);
+        });
+    }
+
+    public void subscribe(TopologyChangeSubscriber subscriber) {
+        subscribe(subscriber, DEFAULT_SUBSCRIPTION_CAPACITY);
+    }
+
+    /**
+     * @param subscriber The subscriber to be sent change events
+     * @param capacity The maximum number of distinct elements that may have events pending for the subscriber
+     */
+    public void subscribe(TopologyChangeSubscriber subscriber, int capacity) {
+        LOG.debug(".subscribe(): Entry, subscriber --> {}, capacity --> {}", subscriber, capacity);
+        if (subscriber == null) {
+            throw (new IllegalArgumentException(".subscribe(): subscriber is null"));
+        }
+        if (capacity < 1) {
+            throw (new IllegalArgumentException(".subscribe(): capacity must be at least 1"));
+        }
+        subscriptionSet.add(new Subscription(subscriber, capacity));
+    }
+
+    public void unsubscribe(TopologyChangeSubscriber subscriber) {
+        LOG.debug(".unsubscribe(): Entry, subscriber --> {}", subscriber);
+        for (Subscription currentSubscription : subscriptionSet) {
+            if (currentSubscription.subscriber == subscriber) {
+                currentSubscription.cancel();
+                subscriptionSet.remove(currentSubscription);
+            }
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return (!subscriptionSet.isEmpty());
+    }
+
+    /**
+     * Publishes a change to all the current subscribers. This returns immediately (the events are
+     * delivered asynchronously), and does nothing at all if there are no subscribers.
+     *
+     * @param changeType The type of change
+     * @param elementType The type of element changed
+     * @param elementKey The canonical key of the element's identifier (used to coalesce changes)
+     * @param elementID The identifier of the element
+     * @param element The element (null if it was removed)
+     * @param epoch The topology epoch at which the change became visible
+     */
+    public void publish(TopologyChangeTypeEnum changeType, TopologyElementTypeEnum elementType, String elementKey, FDNToken elementID, Object element, long epoch) {
+        if (subscriptionSet.isEmpty()) {
+            return;
+        }
+        TopologyChangeEvent changeEvent = new TopologyChangeEvent(sequenceNumber.incrementAndGet(), epoch, changeType, elementType, elementID, element);
+        String coalescingKey = elementType.getElementType() + ":" + elementKey;
+        for (Subscription currentSubscription : subscriptionSet) {
+            currentSubscription.offer(coalescingKey, changeEvent);
+        }
+    }
+
+    public void shutdown() {
+        LOG.debug(".shutdown(): Entry");
+        for (Subscription currentSubscription : subscriptionSet) {
+            currentSubscription.cancel();
+        }
+        subscriptionSet.clear();
+        dispatcher.shutdownNow();
+    }
+
+    private class Subscription {
+        final TopologyChangeSubscriber subscriber;
+        final int capacity;
+        final LinkedHashMap<String, TopologyChangeEvent> pendingEvents;
+        boolean overflowed;
+        long overflowEpoch;
+        boolean scheduled;
+        volatile boolean cancelled;
+
+        Subscription(TopologyChangeSubscriber subscriber, int capacity) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.pendingEvents = new LinkedHashMap<String, TopologyChangeEvent>();
+            this.overflowed = false;
+            this.overflowEpoch = 0;
+            this.scheduled = false;
+            this.cancelled = false;
+        }
+
+        synchronized void offer(String coalescingKey, TopologyChangeEvent changeEvent) {
+            if (cancelled) {
+                return;
+            }
+            if (overflowed) {
+                overflowEpoch = Math.max(overflowEpoch, changeEvent.getEpoch());
+                return;
+            }
+            TopologyChangeEvent pendingEvent = pendingEvents.remove(coalescingKey);
+            if (pendingEvent != null) {
+                pendingEvents.put(coalescingKey, pendingEvent.coalesce(changeEvent));
+            } else if (pendingEvents.size() >= capacity) {
+                LOG.warn(".offer(): Subscriber --> {} has fallen too far behind, it will be sent a RESYNC_REQUIRED event", subscriber);
+                pendingEvents.clear();
+                overflowed = true;
+                overflowEpoch = changeEvent.getEpoch();
+            } else {
+                pendingEvents.put(coalescingKey, changeEvent);
+            }
+            if (!scheduled) {
+                scheduled = true;
+                dispatcher.execute(this::drain);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            pendingEvents.clear();
+        }
+
+        private void drain() {
+            while (true) {
+                List<TopologyChangeEvent> deliveryBatch;
+                synchronized (this) {
+                    if (cancelled || (pendingEvents.isEmpty() && !overflowed)) {
+                        scheduled = false;
+                        return;
+                    }
+                    if (overflowed) {
+                        deliveryBatch = new ArrayList<TopologyChangeEvent>(1);
+                        deliveryBatch.add(new TopologyChangeEvent(sequenceNumber.get(), overflowEpoch, TopologyChangeTypeEnum.RESYNC_REQUIRED, null, null, null));
+                        overflowed = false;
+                    } else {
+                        deliveryBatch = new ArrayList<TopologyChangeEvent>(pendingEvents.values());
+                        pendingEvents.clear();
+                    }
+                }
+                for (TopologyChangeEvent currentEvent : deliveryBatch) {
+                    if (cancelled) {
+                        break;
+                    }
+                    try {
+                        subscriber.onTopologyChange(currentEvent);
+                    } catch (RuntimeException subscriberException) {
+                        LOG.warn(".drain(): Subscriber --> {} failed to process event --> {}", subscriber, currentEvent, subscriberException);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.liveness;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A hashed timer wheel (Varghese and Lauck) of NodeLeases. The wheel is a ring of buckets, one per
+ * tick, each holding a (doubly linked, intrusive) list of the leases due in that tick of some
+ * rotation of the wheel - so scheduling, cancelling and re-scheduling a lease are O(1), whatever the
+ * number of leases.
+ * <p>
+ * Heartbeats never touch the wheel: they refresh the lease's last-seen time, and a lease whose
+ * deadline has moved on by the time its bucket is processed is simply re-scheduled (once per lease
+ * period, rather than once per heartbeat). Only newly (re-)armed leases are handed to the wheel,
+ * via a lock-free queue. All other state is owned by the single thread that calls advance().
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+class HashedTimerWheel {
+
+    private final long tickMillis;
+    private final int wheelMask;
+    private final NodeLease[] buckets;
+    private final Queue<NodeLease> pendingLeases;
+    private long currentTick;
+    private long nextTickMillis;
+    private int scheduledCount;
+
+    /**
+     * @param tickMillis The duration of a tick (the resolution of the expiry times)
+     * @param wheelSize The number of buckets (rounded up to a power of 2)
+     * @param startMillis The time of the first tick
+     */
+    HashedTimerWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 1) {
+            throw (new IllegalArgumentException(".HashedTimerWheel(): tickMillis and wheelSize must be positive"));
+        }
+        int bucketCount = Integer.highestOneBit(wheelSize);
+        if (bucketCount < wheelSize) {
+            bucketCount = bucketCount << 1;
+        }
+        this.tickMillis = tickMillis;
+        this.wheelMask = bucketCount - 1;
+        this.buckets = new NodeLease[bucketCount];
+        this.pendingLeases = new ConcurrentLinkedQueue<NodeLease>();
+        this.currentTick = 0;
+        this.nextTickMillis = startMillis + tickMillis;
+        this.scheduledCount = 0;
+    }
+
+    /**
+     * Hands a (PENDING) lease to the wheel, it is scheduled on the next tick. May be called from any thread.
+     */
+    void submit(NodeLease lease) {
+        pendingLeases.add(lease);
+    }
+
+    /**
+     * Processes every tick that has fallen due by the given time, adding the leases that have
+     * expired to the expiredLeases list (their state is already EXPIRED).
+     *
+     * @param nowMillis The current time
+     * @param expiredLeases The list to which expired leases are added
+     * @return How late (in milliseconds) the earliest due tick was processed, or -1 if no tick was due
+     */
+    long advance(long nowMillis, List<NodeLease> expiredLeases) {
+        if (nextTickMillis > nowMillis) {
+            return (-1);
+        }
+        long lagMillis = nowMillis - nextTickMillis;
+        while (nextTickMillis <= nowMillis) {
+            long tickMillisNow = nextTickMillis;
+            currentTick++;
+            nextTickMillis += tickMillis;
+            schedulePendingLeases(tickMillisNow);
+            processBucket((int) (currentTick & wheelMask), tickMillisNow, expiredLeases);
+        }
+        return (lagMillis);
+    }
+
+    private void schedulePendingLeases(long tickTimeMillis) {
+        NodeLease pendingLease = pendingLeases.poll();
+        while (pendingLease != null) {
+            if (pendingLease.state.compareAndSet(NodeLease.PENDING, NodeLease.SCHEDULED)) {
+                schedule(pendingLease, tickTimeMillis);
+            }
+            pendingLease = pendingLeases.poll();
+        }
+    }
+
+    private void processBucket(int bucketIndex, long tickTimeMillis, List<NodeLease> expiredLeases) {
+        NodeLease currentLease = buckets[bucketIndex];
+        while (currentLease != null) {
+            NodeLease nextLease = currentLease.next;
+            if (currentLease.state.get() != NodeLease.SCHEDULED) {
+                unlink(currentLease);
+            } else if (currentLease.remainingRounds > 0) {
+                currentLease.remainingRounds--;
+            } else if (currentLease.getDeadlineMillis() > tickTimeMillis) {
+                unlink(currentLease);
+                schedule(currentLease, tickTimeMillis);
+            } else {
+                unlink(currentLease);
+                if (currentLease.state.compareAndSet(NodeLease.SCHEDULED, NodeLease.EXPIRED)) {
+                    expiredLeases.add(currentLease);
+                }
+            }
+            currentLease = nextLease;
+        }
+    }
+
+    /**
+     * Links the lease into the bucket of the tick in which its deadline falls (at least one tick
+     * ahead). New leases go to the head of a bucket, so a lease re-scheduled into the bucket being
+     * processed isn't revisited in the same tick.
+     */
+    private void schedule(NodeLease lease, long tickTimeMillis) {
+        long ticksAway = Math.max(1, (lease.getDeadlineMillis() - tickTimeMillis + tickMillis - 1) / tickMillis);
+        int bucketIndex = (int) ((currentTick + ticksAway) & wheelMask);
+        lease.remainingRounds = (ticksAway - 1) / buckets.length;
+        lease.bucketIndex = bucketIndex;
+        lease.previous = null;
+        lease.next = buckets[bucketIndex];
+        if (lease.next != null) {
+            lease.next.previous = lease;
+        }
+        buckets[bucketIndex] = lease;
+        scheduledCount++;
+    }
+
+    private void unlink(NodeLease lease) {
+        if (lease.previous != null) {
+            lease.previous.next = lease.next;
+        } else {
+            buckets[lease.bucketIndex] = lease.next;
+        }
+        if (lease.next != null) {
+            lease.next.previous = lease.previous;
+        }
+        lease.previous = null;
+        lease.next = null;
+        lease.bucketIndex = -1;
+        scheduledCount--;
+    }
+
+    /**
+     * @return The number of leases linked into the wheel (including cancelled leases not yet unlinked)
+     */
+    int getScheduledCount() {
+        return (scheduledCount);
+    }
+
+    int getWheelSize() {
+        return (buckets.length);
+    }
+
+    long getTickMillis() {
+        return (tickMillis);
+    }
+}
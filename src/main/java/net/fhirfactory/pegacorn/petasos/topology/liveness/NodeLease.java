@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.liveness;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+
+/**
+ * The lease of a single (heartbeating) Node. A heartbeat only refreshes the (volatile) last-seen
+ * time and lease; the lease's position within the HashedTimerWheel is owned by the wheel's thread,
+ * which re-checks the deadline when the lease's bucket comes round.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+class NodeLease {
+
+    static final int PENDING = 0;
+    static final int SCHEDULED = 1;
+    static final int EXPIRED = 2;
+    static final int CANCELLED = 3;
+
+    final String nodeKey;
+    final NodeElementIdentifier nodeID;
+    final AtomicInteger state;
+    volatile long lastSeenMillis;
+    volatile long leaseMillis;
+    // Set (under the transition lock) while the Node is out of place because its containing Node's lease expired
+    volatile boolean cascadedOutOfPlace;
+
+    // Owned by the timer wheel thread
+    long remainingRounds;
+    NodeLease previous;
+    NodeLease next;
+    int bucketIndex;
+
+    NodeLease(String nodeKey, NodeElementIdentifier nodeID, long lastSeenMillis, long leaseMillis) {
+        this.nodeKey = nodeKey;
+        this.nodeID = nodeID;
+        this.state = new AtomicInteger(PENDING);
+        this.lastSeenMillis = lastSeenMillis;
+        this.leaseMillis = leaseMillis;
+        this.cascadedOutOfPlace = false;
+        this.remainingRounds = 0;
+        this.previous = null;
+        this.next = null;
+        this.bucketIndex = -1;
+    }
+
+    long getDeadlineMillis() {
+        return (lastSeenMillis + leaseMillis);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.liveness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the liveness of heartbeating Nodes. Each heartbeat records the Node's last-seen time and
+ * (re)grants it a lease; a Node whose lease runs out without a further heartbeat is taken out of
+ * place (instanceInPlace = false) - along with, optionally, the Nodes it contains that don't hold a
+ * live lease of their own. The next heartbeat from an expired Node puts it back in place.
+ * <p>
+ * A heartbeat is a map probe and two volatile writes, and the leases are expired by a
+ * HashedTimerWheel, so neither the cost of a heartbeat nor that of a tick depends upon the number of
+ * Nodes being tracked. The number of expiries and the lag of the wheel's ticks are recorded in the
+ * TopologyMetrics.
+ * <p>
+ * The instanceInPlace transitions are serialised by the transition lock: the wheel's thread holds it
+ * while it takes the expired Nodes (and their contained Nodes) out of place, and a heartbeat takes it
+ * only to put a Node in place (when granting a new lease, re-arming an expired one, or restoring a
+ * Node taken out of place along with its containing Node) - so a Node put back in place by a
+ * heartbeat can't then be taken out of place by an expiry already in progress.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyLivenessTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyLivenessTracker.class);
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final TopologyDM topologyDM;
+    private final BiConsumer<NodeElementIdentifier, Boolean> instanceInPlaceUpdater;
+    private final boolean cascadeToContainedNodes;
+    private final ConcurrentHashMap<String, NodeLease> leaseSet;
+    private final HashedTimerWheel timerWheel;
+    private final ArrayList<NodeLease> expiredLeases;
+    private final Object transitionLock;
+    private ScheduledExecutorService ticker;
+
+    /**
+     * @param topologyDM The topology whose Nodes are tracked
+     * @param instanceInPlaceUpdater Sets the instanceInPlace state of a Node (e.g.
+     * TopologyIM.setInstanceInPlace(), so that the change is journaled)
+     * @param tickMillis The resolution of the lease expiry times
+     * @param wheelSize The number of ticks in a rotation of the timer wheel
+     * @param cascadeToContainedNodes If true, an expiry also takes the expired Node's contained
+     * Nodes (those without a live lease of their own) out of place
+     */
+    public TopologyLivenessTracker(TopologyDM topologyDM, BiConsumer<NodeElementIdentifier, Boolean> instanceInPlaceUpdater, long tickMillis, int wheelSize, boolean cascadeToContainedNodes) {
+        if (topologyDM == null || instanceInPlaceUpdater == null) {
+            throw (new IllegalArgumentException(".TopologyLivenessTracker(): topologyDM or instanceInPlaceUpdater is null"));
+        }
+        this.topologyDM = topologyDM;
+        this.instanceInPlaceUpdater = instanceInPlaceUpdater;
+        this.cascadeToContainedNodes = cascadeToContainedNodes;
+        this.leaseSet = new ConcurrentHashMap<String, NodeLease>();
+        this.timerWheel = new HashedTimerWheel(tickMillis, wheelSize, System.currentTimeMillis());
+        this.expiredLeases = new ArrayList<NodeLease>();
+        this.transitionLock = new Object();
+    }
+
+    public synchronized void start() {
+        LOG.debug(".start(): Entry");
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread tickerThread = new Thread(runnable, "TopologyLiveness-TimerWheel");
+            tickerThread.setDaemon(true);
+            return (tickerThread);
+        });
+        long tickMillis = timerWheel.getTickMillis();
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        LOG.debug(".start(): Exit");
+    }
+
+    public synchronized void stop() {
+        LOG.debug(".stop(): Entry");
+        if (ticker == null) {
+            return;
+        }
+        ticker.shutdownNow();
+        ticker = null;
+        LOG.debug(".stop(): Exit");
+    }
+
+    /**
+     * Records a heartbeat from a Node, (re)granting it a lease. If the Node has no lease (or its
+     * lease had expired) it is put in place.
+     *
+     * @param nodeID The identifier of the heartbeating Node
+     * @param leaseMillis How long the Node remains in place without a further heartbeat
+     * @return False if the Node isn't registered
+     */
+    public boolean recordHeartbeat(NodeElementIdentifier nodeID, long leaseMillis) {
+        if (nodeID == null) {
+            throw (new IllegalArgumentException(".recordHeartbeat(): nodeID is null"));
+        }
+        if (leaseMillis < 1) {
+            throw (new IllegalArgumentException(".recordHeartbeat(): leaseMillis must be positive"));
+        }
+        long nowMillis = System.currentTimeMillis();
+        String nodeKey = nodeID.toFullString();
+        NodeLease lease = leaseSet.get(nodeKey);
+        if (lease != null) {
+            lease.leaseMillis = leaseMillis;
+            lease.lastSeenMillis = nowMillis;
+            int leaseState = lease.state.get();
+            if (leaseState == NodeLease.SCHEDULED || leaseState == NodeLease.PENDING) {
+                if (lease.cascadedOutOfPlace) {
+                    return (restoreCascadedNode(lease));
+                }
+                return (true);
+            }
+            if (leaseState == NodeLease.EXPIRED) {
+                return (rearmLease(lease));
+            }
+            leaseSet.remove(nodeKey, lease);
+        }
+        NodeElement node = topologyDM.getNode(nodeID);
+        if (node == null) {
+            LOG.debug(".recordHeartbeat(): Heartbeat from an unregistered node, nodeID --> {}", nodeID);
+            return (false);
+        }
+        NodeLease newLease = new NodeLease(nodeKey, node.getNodeInstanceID(), nowMillis, leaseMillis);
+        NodeLease existingLease = leaseSet.putIfAbsent(nodeKey, newLease);
+        if (existingLease != null) {
+            existingLease.lastSeenMillis = nowMillis;
+            return (true);
+        }
+        LOG.debug(".recordHeartbeat(): Lease granted, nodeID --> {}, leaseMillis --> {}", nodeID, leaseMillis);
+        timerWheel.submit(newLease);
+        synchronized (transitionLock) {
+            NodeElement currentNode = topologyDM.getNode(nodeID);
+            if (currentNode != null && !currentNode.isInstanceInPlace()) {
+                return (putInPlace(newLease));
+            }
+        }
+        return (true);
+    }
+
+    /**
+     * Re-arms an expired lease and puts its Node back in place - after any expiry (of the lease, or
+     * of its containing Node's lease) that is in progress has finished.
+     */
+    private boolean rearmLease(NodeLease lease) {
+        synchronized (transitionLock) {
+            if (!lease.state.compareAndSet(NodeLease.EXPIRED, NodeLease.PENDING)) {
+                LOG.trace(".rearmLease(): Lease already re-armed, nodeID --> {}", lease.nodeID);
+                return (true);
+            }
+            LOG.debug(".rearmLease(): Lease re-armed, nodeID --> {}", lease.nodeID);
+            lease.cascadedOutOfPlace = false;
+            timerWheel.submit(lease);
+            return (putInPlace(lease));
+        }
+    }
+
+    /**
+     * Puts a Node that was taken out of place by its containing Node's expiry (while its own lease
+     * was overdue, but not yet expired by the wheel) back in place.
+     */
+    private boolean restoreCascadedNode(NodeLease lease) {
+        synchronized (transitionLock) {
+            if (!lease.cascadedOutOfPlace) {
+                return (true);
+            }
+            LOG.debug(".restoreCascadedNode(): Heartbeat from a node taken out of place by its containing node, nodeID --> {}", lease.nodeID);
+            lease.cascadedOutOfPlace = false;
+            return (putInPlace(lease));
+        }
+    }
+
+    private boolean putInPlace(NodeLease lease) {
+        try {
+            instanceInPlaceUpdater.accept(lease.nodeID, Boolean.TRUE);
+            return (true);
+        } catch (IllegalArgumentException unregisteredNode) {
+            cancelLease(lease);
+            return (false);
+        }
+    }
+
+    /**
+     * Stops tracking a Node (e.g. when it is unregistered or shut down cleanly), without changing
+     * its instanceInPlace state.
+     *
+     * @param nodeID The identifier of the Node
+     */
+    public void cancelLease(NodeElementIdentifier nodeID) {
+        if (nodeID == null) {
+            return;
+        }
+        NodeLease lease = leaseSet.get(nodeID.toFullString());
+        if (lease != null) {
+            cancelLease(lease);
+        }
+    }
+
+    private void cancelLease(NodeLease lease) {
+        lease.state.set(NodeLease.CANCELLED);
+        leaseSet.remove(lease.nodeKey, lease);
+    }
+
+    /**
+     * @param nodeID The identifier of the Node
+     * @return The time of the Node's last heartbeat, or 0 if the Node isn't tracked
+     */
+    public long getLastSeen(NodeElementIdentifier nodeID) {
+        NodeLease lease = nodeID == null ? null : leaseSet.get(nodeID.toFullString());
+        return (lease == null ? 0 : lease.lastSeenMillis);
+    }
+
+    /**
+     * @param nodeID The identifier of the Node
+     * @return The time at which the Node's lease expires (or expired), or 0 if the Node isn't tracked
+     */
+    public long getLeaseExpiry(NodeElementIdentifier nodeID) {
+        NodeLease lease = nodeID == null ? null : leaseSet.get(nodeID.toFullString());
+        return (lease == null ? 0 : lease.getDeadlineMillis());
+    }
+
+    public int getTrackedNodeCount() {
+        return (leaseSet.size());
+    }
+
+    //
+    // Timer Wheel
+    //
+
+    void tick() {
+        try {
+            long lagMillis = timerWheel.advance(System.currentTimeMillis(), expiredLeases);
+            if (lagMillis >= 0) {
+                topologyDM.getMetrics().recordTimerWheelLag(lagMillis);
+            }
+            if (!expiredLeases.isEmpty()) {
+                expireLeases();
+            }
+        } catch (RuntimeException tickException) {
+            LOG.warn(".tick(): Unable to process the liveness timer wheel", tickException);
+        } finally {
+            expiredLeases.clear();
+        }
+    }
+
+    private void expireLeases() {
+        int expiredCount = 0;
+        synchronized (transitionLock) {
+            long nowMillis = System.currentTimeMillis();
+            for (NodeLease expiredLease : expiredLeases) {
+                if (expiredLease.getDeadlineMillis() > nowMillis) {
+                    // A heartbeat arrived after the wheel's check
+                    if (expiredLease.state.compareAndSet(NodeLease.EXPIRED, NodeLease.PENDING)) {
+                        timerWheel.submit(expiredLease);
+                    }
+                    continue;
+                }
+                if (expiredLease.state.get() != NodeLease.EXPIRED) {
+                    // Re-armed by a heartbeat (or cancelled) since the wheel's check
+                    continue;
+                }
+                LOG.info(".expireLeases(): Lease expired, nodeID --> {}, last seen --> {}", expiredLease.nodeID, expiredLease.lastSeenMillis);
+                expiredCount++;
+                if (!takeOutOfPlace(expiredLease.nodeID)) {
+                    cancelLease(expiredLease);
+                    continue;
+                }
+                if (cascadeToContainedNodes) {
+                    for (NodeElement containedNode : topologyDM.getContainedNodes(expiredLease.nodeID)) {
+                        if (containedNode.isInstanceInPlace()) {
+                            cascadeOutOfPlace(containedNode.getNodeInstanceID(), nowMillis);
+                        }
+                    }
+                }
+            }
+        }
+        topologyDM.getMetrics().recordLeaseExpiries(expiredCount);
+    }
+
+    private boolean takeOutOfPlace(NodeElementIdentifier nodeID) {
+        try {
+            instanceInPlaceUpdater.accept(nodeID, Boolean.FALSE);
+            return (true);
+        } catch (IllegalArgumentException unregisteredNode) {
+            LOG.debug(".takeOutOfPlace(): Node is no longer registered, nodeID --> {}", nodeID);
+            return (false);
+        }
+    }
+
+    /**
+     * Takes a contained Node out of place, unless it holds a live lease. The lease (if any) is
+     * flagged before its deadline is checked, and a heartbeat refreshes the deadline before checking
+     * the flag - so either the deadline check sees the heartbeat, or the heartbeat sees the flag (and
+     * puts the Node back in place once the expiry has finished).
+     */
+    private void cascadeOutOfPlace(NodeElementIdentifier containedNodeID, long nowMillis) {
+        NodeLease containedLease = leaseSet.get(containedNodeID.toFullString());
+        if (containedLease != null) {
+            containedLease.cascadedOutOfPlace = true;
+        }
+        if (hasLiveLease(containedNodeID, nowMillis)) {
+            if (containedLease != null) {
+                containedLease.cascadedOutOfPlace = false;
+            }
+            return;
+        }
+        takeOutOfPlace(containedNodeID);
+    }
+
+    private boolean hasLiveLease(NodeElementIdentifier nodeID, long nowMillis) {
+        NodeLease lease = leaseSet.get(nodeID.toFullString());
+        return (lease != null && lease.state.get() != NodeLease.EXPIRED && lease.getDeadlineMillis() > nowMillis);
+    }
+}
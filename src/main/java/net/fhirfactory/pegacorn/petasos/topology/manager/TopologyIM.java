@@ -21,11 +21,26 @@
  */
 package net.fhirfactory.pegacorn.petasos.topology.manager;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
 
 import net.fhirfactory.pegacorn.petasos.model.topology.*;
 import org.slf4j.Logger;
@@ -34,7 +49,27 @@ import org.slf4j.LoggerFactory;
 import net.fhirfactory.pegacorn.common.model.FDNToken;
 import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
 import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.cache.MappedTopologySnapshot;
+import net.fhirfactory.pegacorn.petasos.topology.cache.NodeAttributeQuery;
 import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDelta;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDigestSource;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyJournal;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyJsonCodec;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyMutation;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyMutationTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyNodeQuery;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyPage;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologySnapshot;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyChangeSubscriber;
+import net.fhirfactory.pegacorn.petasos.topology.liveness.TopologyLivenessTracker;
+import net.fhirfactory.pegacorn.petasos.topology.metrics.TopologyMetrics;
+import net.fhirfactory.pegacorn.petasos.topology.metrics.TopologyOperationEnum;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyBackPressurePolicyEnum;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyMutationPipeline;
+import net.fhirfactory.pegacorn.petasos.topology.replication.JmsTopologyReplicationTransport;
+import net.fhirfactory.pegacorn.petasos.topology.replication.TopologyReplicationTransport;
+import net.fhirfactory.pegacorn.petasos.topology.replication.TopologyReplicator;
 
 /**
  * This class WILL do more in the future, but it is for now just a proxy to the
@@ -44,108 +79,835 @@ import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
 public class TopologyIM {
 
     private static final Logger LOG = LoggerFactory.getLogger(TopologyIM.class);
+    private static final String JOURNAL_SNAPSHOT_FILE_NAME = "topology.snapshot";
+    private static final String JOURNAL_FILE_NAME = "topology.journal";
 
     @Inject
     TopologyDM topologyDataManager;
 
+    private volatile TopologyJournal topologyJournal;
+    private volatile TopologyReplicator topologyReplicator;
+    private volatile TopologyLivenessTracker livenessTracker;
+    private volatile TopologyMutationPipeline mutationPipeline;
 
-    public void registerNode(NodeElement newNodeElement) {
-        LOG.debug(".registerNode(): Entry, newElement --> {}", newNodeElement);
-        topologyDataManager.addNode(newNodeElement);
-        if (newNodeElement.getContainingElementID() != null) {
-            addContainedNodeToNode(newNodeElement.getContainingElementID(), newNodeElement);
+    public TopologyIM() {
+    }
+
+    /**
+     * For use outside of a CDI container (e.g. by tools and load harnesses).
+     *
+     * @param topologyDataManager The topology to be managed
+     */
+    public TopologyIM(TopologyDM topologyDataManager) {
+        this.topologyDataManager = topologyDataManager;
+    }
+
+    @PostConstruct
+    public void initialise() {
+        LOG.debug(".initialise(): Registering topology metrics MBean");
+        topologyDataManager.getMetrics().registerMBean(TopologyMetrics.DEFAULT_OBJECT_NAME);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        disableLivenessTracking();
+        disableAsyncMutations();
+        disableReplication();
+        disableJournal();
+        LOG.debug(".shutdown(): Unregistering topology metrics MBean");
+        topologyDataManager.getMetrics().unregisterMBean();
+    }
+
+    /**
+     * An operation whose latency is recorded by timed(), which may throw a checked exception.
+     */
+    @FunctionalInterface
+    private interface TimedOperation<T, E extends Exception> {
+        T perform() throws E;
+    }
+
+    /**
+     * As per TimedOperation, for an operation that returns nothing.
+     */
+    @FunctionalInterface
+    private interface TimedAction<E extends Exception> {
+        void perform() throws E;
+    }
+
+    /**
+     * Performs an operation, recording its latency against the TopologyOperationEnum. The lookups,
+     * mutations, queries, snapshots and import/export are timed - the enable/disable administration
+     * methods aren't worth the overhead.
+     */
+    private <T, E extends Exception> T timed(TopologyOperationEnum operation, TimedOperation<T, E> timedOperation) throws E {
+        long startTime = System.nanoTime();
+        try {
+            return (timedOperation.perform());
+        } finally {
+            topologyDataManager.getMetrics().recordOperation(operation, startTime);
         }
     }
 
-    public void addContainedNodeToNode(NodeElementIdentifier nodeID, NodeElement containedNode) {
-        LOG.debug(".addContainedNodeToNode(), nodeID --> {}, containedNode --> {}", nodeID, containedNode);
-        NodeElement containingElement = getNode(nodeID);
-        if (containingElement != null) {
-            LOG.trace(".addContainedNodeToNode(): Containing Node exists, so add contained node!");
-            containingElement.addContainedElement(containedNode.getNodeInstanceID());
-        } else {
-            LOG.trace(".addContainedNodeToNode(): Containing Node doesn't exist, so the containedNode is actually the Top node!");
+    private <E extends Exception> void timed(TopologyOperationEnum operation, TimedAction<E> timedAction) throws E {
+        long startTime = System.nanoTime();
+        try {
+            timedAction.perform();
+        } finally {
+            topologyDataManager.getMetrics().recordOperation(operation, startTime);
         }
     }
 
+    /**
+     * @return The topology metrics (operation latencies, lookup hit rates, snapshot sizes, map sizes
+     * and hierarchy depth distribution), which are also available via JMX
+     */
+    public TopologyMetrics getMetrics() {
+        return (topologyDataManager.getMetrics());
+    }
+
+    /**
+     * Checks the internal consistency of the topology (see TopologyDM.verifyConsistency()). Mutators
+     * are excluded while the check runs, so it is intended for diagnostics and soak testing rather
+     * than routine use.
+     *
+     * @return A description of each invariant violated (empty if the topology is consistent)
+     */
+    public List<String> verifyTopologyConsistency() {
+        return (timed(TopologyOperationEnum.VERIFY_TOPOLOGY_CONSISTENCY, () -> {
+            LOG.debug(".verifyTopologyConsistency(): Entry");
+            List<String> violations = topologyDataManager.verifyConsistency();
+            for (String currentViolation : violations) {
+                LOG.warn(".verifyTopologyConsistency(): Invariant violated --> {}", currentViolation);
+            }
+            LOG.debug(".verifyTopologyConsistency(): Exit, violation count --> {}", violations.size());
+            return (violations);
+        }));
+    }
+
+    public void registerNode(NodeElement newNodeElement) {
+        timed(TopologyOperationEnum.REGISTER_NODE, () -> {
+            LOG.debug(".registerNode(): Entry, newElement --> {}", newNodeElement);
+            performMutation(TopologyMutation.addNode(newNodeElement));
+        });
+    }
+
+    /**
+     * Registers a whole topology (or a large part of one) in a single operation. The batch is
+     * validated before any of it is applied, each Node is added to its containing Node, and the
+     * whole batch becomes visible (to snapshot readers) at once. If asynchronous mutation is
+     * enabled, the registration is run by the pipeline's writer, in order with the queued mutations.
+     *
+     * @param nodes The NodeElements to be registered (may be null or empty)
+     * @param links The LinkElements to be registered (may be null or empty)
+     * @param endpoints The EndpointElements to be registered (may be null or empty)
+     */
+    public void registerTopology(Collection<NodeElement> nodes, Collection<LinkElement> links, Collection<EndpointElement> endpoints) {
+        timed(TopologyOperationEnum.REGISTER_TOPOLOGY, () -> {
+            LOG.debug(".registerTopology(): Entry");
+            performOperation(() -> topologyDataManager.addTopology(nodes, links, endpoints));
+            LOG.debug(".registerTopology(): Exit");
+        });
+    }
+
+    public void addContainedNodeToNode(NodeElementIdentifier nodeID, NodeElement containedNode) {
+        timed(TopologyOperationEnum.ADD_CONTAINED_NODE_TO_NODE, () -> {
+            LOG.debug(".addContainedNodeToNode(): Entry, nodeID --> {}, containedNode --> {}", nodeID, containedNode);
+            performMutation(TopologyMutation.addContainedNode(nodeID, containedNode.getNodeInstanceID()));
+        });
+    }
+
+    public void addEndpointToNode(NodeElementIdentifier nodeID, EndpointElementIdentifier endpointID) {
+        timed(TopologyOperationEnum.ADD_ENDPOINT_TO_NODE, () -> {
+            LOG.debug(".addEndpointToNode(): Entry, nodeID --> {}, endpointID --> {}", nodeID, endpointID);
+            performMutation(TopologyMutation.addEndpointToNode(nodeID, endpointID));
+        });
+    }
+
     public void unregisterNode(NodeElementIdentifier elementID) {
-        LOG.debug(".unregisterNode(): Entry, elementID --> {}", elementID);
-        topologyDataManager.removeNode(elementID);
+        timed(TopologyOperationEnum.UNREGISTER_NODE, () -> {
+            LOG.debug(".unregisterNode(): Entry, elementID --> {}", elementID);
+            performMutation(TopologyMutation.removeNode(elementID));
+        });
     }
 
     public Set<NodeElement> getNodeSet() {
-        LOG.debug(".getNodeSet(): Entry");
-        return (topologyDataManager.getNodeSet());
+        return (timed(TopologyOperationEnum.GET_NODE_SET, () -> {
+            LOG.debug(".getNodeSet(): Entry");
+            return (topologyDataManager.getNodeSet());
+        }));
     }
 
     public NodeElement getNode(NodeElementIdentifier nodeID) {
-        LOG.debug(".getNode(): Entry, nodeID --> {}", nodeID);
-        NodeElement retrievedNode = topologyDataManager.getNode(nodeID);
-        LOG.debug(".getNode(): Exit, retrievedNode --> {}", retrievedNode);
-        return (retrievedNode);
+        return (timed(TopologyOperationEnum.GET_NODE, () -> {
+            LOG.debug(".getNode(): Entry, nodeID --> {}", nodeID);
+            NodeElement retrievedNode = topologyDataManager.getNode(nodeID);
+            LOG.debug(".getNode(): Exit, retrievedNode --> {}", retrievedNode);
+            return (retrievedNode);
+        }));
     }
 
     public NodeElement getNode(String nodeName, NodeElementTypeEnum nodeType, String nodeVersion){
-        LOG.debug(".getNode(): Entry, nodeName (String) --> {}, nodeType (NodeElementTypeEnum) --> {}, nodeVersion (String) --> {}", nodeName, nodeType, nodeVersion);
-        NodeElement retrievedNode = topologyDataManager.getNode(nodeName, nodeType, nodeVersion);
-        LOG.debug(".getNode(): Exit, retrievedNode (NodeElement) --> {}", retrievedNode);
-        return(retrievedNode);
+        return (timed(TopologyOperationEnum.GET_NODE_BY_SIGNATURE, () -> {
+            LOG.debug(".getNode(): Entry, nodeName (String) --> {}, nodeType (NodeElementTypeEnum) --> {}, nodeVersion (String) --> {}", nodeName, nodeType, nodeVersion);
+            NodeElement retrievedNode = topologyDataManager.getNode(nodeName, nodeType, nodeVersion);
+            LOG.debug(".getNode(): Exit, retrievedNode (NodeElement) --> {}", retrievedNode);
+            return(retrievedNode);
+        }));
     }
     
     public NodeElement getNodeByKey(String nodeKey) {
-        LOG.debug(".getNodeByKey(): Entry, nodeKey --> {}", nodeKey);
-        NodeElement retrievedNode = topologyDataManager.getNodeByKey(nodeKey);
-        LOG.debug(".getNodeByKey(): Exit, retrievedNode --> {}", retrievedNode);
-        return (retrievedNode);   	
+        return (timed(TopologyOperationEnum.GET_NODE_BY_KEY, () -> {
+            LOG.debug(".getNodeByKey(): Entry, nodeKey --> {}", nodeKey);
+            NodeElement retrievedNode = topologyDataManager.getNodeByKey(nodeKey);
+            LOG.debug(".getNodeByKey(): Exit, retrievedNode --> {}", retrievedNode);
+            return (retrievedNode);
+        }));
     }
 
     public void registerLink(LinkElement newLink) {
-        LOG.debug(".registerLink(): Entry, newLink --> {}", newLink);
-        topologyDataManager.addLink(newLink);
+        timed(TopologyOperationEnum.REGISTER_LINK, () -> {
+            LOG.debug(".registerLink(): Entry, newLink --> {}", newLink);
+            performMutation(TopologyMutation.addLink(newLink));
+        });
     }
 
     public void unregisterLink(LinkElementIdentifier linkID) {
-        LOG.debug(".unregisterLink(): Entry, linkID --> {}", linkID);
-        topologyDataManager.removeLink(linkID);
+        timed(TopologyOperationEnum.UNREGISTER_LINK, () -> {
+            LOG.debug(".unregisterLink(): Entry, linkID --> {}", linkID);
+            performMutation(TopologyMutation.removeLink(linkID));
+        });
     }
 
     public Set<LinkElement> getLinkSet() {
-        LOG.debug(".getLinkSet(): Entry");
-        return (topologyDataManager.getLinkSet());
+        return (timed(TopologyOperationEnum.GET_LINK_SET, () -> {
+            LOG.debug(".getLinkSet(): Entry");
+            return (topologyDataManager.getLinkSet());
+        }));
     }
 
     public LinkElement getLink(LinkElementIdentifier linkID) {
-        LOG.debug(".getLink(): Entry, linkID --> {}", linkID);
-        return (topologyDataManager.getLink(linkID));
+        return (timed(TopologyOperationEnum.GET_LINK, () -> {
+            LOG.debug(".getLink(): Entry, linkID --> {}", linkID);
+            return (topologyDataManager.getLink(linkID));
+        }));
     }
 
     public void registerEndpoint(EndpointElement newEndpoint) {
-        LOG.debug(".registerLink(): Entry, newEndpoint --> {}", newEndpoint);
-        topologyDataManager.addEndpoint(newEndpoint);
+        timed(TopologyOperationEnum.REGISTER_ENDPOINT, () -> {
+            LOG.debug(".registerLink(): Entry, newEndpoint --> {}", newEndpoint);
+            performMutation(TopologyMutation.addEndpoint(newEndpoint));
+        });
     }
 
     public void unregisterEndpoint(EndpointElementIdentifier endpointID) {
-        LOG.debug(".unregisterLink(): Entry, endpointID --> {}", endpointID);
-        topologyDataManager.removeEndpoint(endpointID);
+        timed(TopologyOperationEnum.UNREGISTER_ENDPOINT, () -> {
+            LOG.debug(".unregisterLink(): Entry, endpointID --> {}", endpointID);
+            performMutation(TopologyMutation.removeEndpoint(endpointID));
+        });
     }
 
     public Set<EndpointElement> getEndpointSet() {
-        LOG.debug(".getEndpointSet(): Entry");
-        return (topologyDataManager.getEndpointSet());
+        return (timed(TopologyOperationEnum.GET_ENDPOINT_SET, () -> {
+            LOG.debug(".getEndpointSet(): Entry");
+            return (topologyDataManager.getEndpointSet());
+        }));
     }
 
     public EndpointElement getEndpoint(EndpointElementIdentifier endpointID) {
-        LOG.debug(".getEndpoint(): Entry, endpointID --> {}", endpointID);
-        EndpointElement element = topologyDataManager.getEndpoint(endpointID);
-        LOG.info(".getEndpoint(): Exit, EndpointElement --> {}", element);
-        return (topologyDataManager.getEndpoint(endpointID));
+        return (timed(TopologyOperationEnum.GET_ENDPOINT, () -> {
+            LOG.debug(".getEndpoint(): Entry, endpointID --> {}", endpointID);
+            EndpointElement element = topologyDataManager.getEndpoint(endpointID);
+            LOG.info(".getEndpoint(): Exit, EndpointElement --> {}", element);
+            return (topologyDataManager.getEndpoint(endpointID));
+        }));
     }
 
     public void setInstanceInPlace(NodeElementIdentifier nodeID, boolean instantionState) {
-        LOG.debug(".setInstanceInPlace(): Entry, nodeID --> {}, instantiationState --> {}", nodeID, instantionState);
-        NodeElement retrievedNode = topologyDataManager.getNode(nodeID);
-        retrievedNode.setInstanceInPlace(instantionState);
-        LOG.debug(".setInstanceInPlace(): Exit");
+        timed(TopologyOperationEnum.SET_INSTANCE_IN_PLACE, () -> {
+            LOG.debug(".setInstanceInPlace(): Entry, nodeID --> {}, instantiationState --> {}", nodeID, instantionState);
+            performMutation(TopologyMutation.setInstanceInPlace(nodeID, instantionState));
+            LOG.debug(".setInstanceInPlace(): Exit");
+        });
+    }
+
+    /**
+     * Enables liveness tracking: Nodes report heartbeats via recordHeartbeat(), and a Node whose
+     * lease runs out is taken out of place (see TopologyLivenessTracker).
+     *
+     * @param tickMillis The resolution of the lease expiry times
+     * @param cascadeToContainedNodes If true, an expiry also takes the expired Node's contained
+     * Nodes (those without a live lease of their own) out of place
+     */
+    public void enableLivenessTracking(long tickMillis, boolean cascadeToContainedNodes) {
+        LOG.debug(".enableLivenessTracking(): Entry, tickMillis --> {}, cascadeToContainedNodes --> {}", tickMillis, cascadeToContainedNodes);
+        synchronized (this) {
+            if (this.livenessTracker != null) {
+                throw (new IllegalStateException(".enableLivenessTracking(): liveness tracking is already enabled"));
+            }
+            TopologyLivenessTracker tracker = new TopologyLivenessTracker(topologyDataManager, this::setInstanceInPlace, tickMillis, TopologyLivenessTracker.DEFAULT_WHEEL_SIZE, cascadeToContainedNodes);
+            tracker.start();
+            this.livenessTracker = tracker;
+        }
+        LOG.debug(".enableLivenessTracking(): Exit");
+    }
+
+    public void disableLivenessTracking() {
+        LOG.debug(".disableLivenessTracking(): Entry");
+        TopologyLivenessTracker tracker;
+        synchronized (this) {
+            tracker = this.livenessTracker;
+            this.livenessTracker = null;
+        }
+        if (tracker != null) {
+            tracker.stop();
+        }
+        LOG.debug(".disableLivenessTracking(): Exit");
+    }
+
+    /**
+     * Records a heartbeat from a Node, which remains in place until leaseMillis after its latest heartbeat.
+     *
+     * @param nodeID The identifier of the heartbeating Node
+     * @param leaseMillis The lease granted by the heartbeat
+     * @return False if the Node isn't registered
+     */
+    public boolean recordHeartbeat(NodeElementIdentifier nodeID, long leaseMillis) {
+        return (timed(TopologyOperationEnum.RECORD_HEARTBEAT, () -> {
+            TopologyLivenessTracker tracker = this.livenessTracker;
+            if (tracker == null) {
+                throw (new IllegalStateException(".recordHeartbeat(): liveness tracking is not enabled"));
+            }
+            return (tracker.recordHeartbeat(nodeID, leaseMillis));
+        }));
+    }
+
+    /**
+     * @return The liveness tracker (last-seen times and lease expiries), or null if liveness
+     * tracking isn't enabled
+     */
+    public TopologyLivenessTracker getLivenessTracker() {
+        return (this.livenessTracker);
+    }
+
+    /**
+     * Enables asynchronous mutation: from now on the mutators (registerNode(), unregisterNode(),
+     * registerLink(), setInstanceInPlace() etc.) are applied, in batches, by the single writer of a
+     * TopologyMutationPipeline. The *Async() variants return as soon as the mutation is queued; the
+     * plain mutators queue the mutation and then wait for it to be applied, so their behaviour is
+     * unchanged (other than no longer contending with one another). The batch operations
+     * (registerTopology(), importTopology() and applyTopologyDelta()) are queued on the pipeline too,
+     * so they are serialised with (and ordered among) the mutations. Each batch's journal records are
+     * committed once, before any of its mutations complete.
+     *
+     * @param queueCapacity The maximum number of mutations waiting to be applied
+     * @param maximumBatchSize The maximum number of mutations applied as a single batch
+     * @param backPressurePolicy What to do with a mutation submitted while the queue is full
+     * @param offerTimeoutMillis How long a submitter waits for space in the queue (BLOCK policy only,
+     * 0 to wait indefinitely)
+     */
+    public void enableAsyncMutations(int queueCapacity, int maximumBatchSize, TopologyBackPressurePolicyEnum backPressurePolicy, long offerTimeoutMillis) {
+        LOG.debug(".enableAsyncMutations(): Entry, queueCapacity --> {}, maximumBatchSize --> {}, backPressurePolicy --> {}", queueCapacity, maximumBatchSize, backPressurePolicy);
+        synchronized (this) {
+            if (this.mutationPipeline != null) {
+                throw (new IllegalStateException(".enableAsyncMutations(): asynchronous mutation is already enabled"));
+            }
+            TopologyMutationPipeline pipeline = new TopologyMutationPipeline(topologyDataManager, queueCapacity, maximumBatchSize, backPressurePolicy, offerTimeoutMillis, this::awaitJournalCommit, this::onMutationApplied);
+            pipeline.start();
+            this.mutationPipeline = pipeline;
+        }
+        LOG.debug(".enableAsyncMutations(): Exit");
+    }
+
+    /**
+     * Disables asynchronous mutation, once the mutations already queued have been applied.
+     */
+    public void disableAsyncMutations() {
+        LOG.debug(".disableAsyncMutations(): Entry");
+        TopologyMutationPipeline pipeline;
+        synchronized (this) {
+            pipeline = this.mutationPipeline;
+            this.mutationPipeline = null;
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        LOG.debug(".disableAsyncMutations(): Exit");
+    }
+
+    /**
+     * @return The mutation pipeline (queue depth, applied and failed counts), or null if asynchronous
+     * mutation isn't enabled
+     */
+    public TopologyMutationPipeline getMutationPipeline() {
+        return (this.mutationPipeline);
+    }
+
+    /**
+     * Submits a mutation. If asynchronous mutation is enabled this returns once the mutation is
+     * queued, otherwise the mutation is applied before this returns.
+     *
+     * @param mutation The mutation to be applied
+     * @return A future that completes once the mutation has been applied (and journaled), or
+     * exceptionally if it failed or was rejected
+     */
+    public CompletableFuture<Void> submitMutation(TopologyMutation mutation) {
+        return (timed(TopologyOperationEnum.SUBMIT_MUTATION, () -> {
+            LOG.debug(".submitMutation(): Entry, mutation --> {}", mutation);
+            if (mutation == null) {
+                throw (new IllegalArgumentException(".submitMutation(): mutation is null"));
+            }
+            TopologyMutationPipeline pipeline = this.mutationPipeline;
+            if (pipeline != null) {
+                return (pipeline.submit(mutation));
+            }
+            CompletableFuture<Void> completion = new CompletableFuture<Void>();
+            try {
+                applyMutationDirectly(mutation);
+                completion.complete(null);
+            } catch (RuntimeException mutationException) {
+                completion.completeExceptionally(mutationException);
+            }
+            return (completion);
+        }));
+    }
+
+    public CompletableFuture<Void> registerNodeAsync(NodeElement newNodeElement) {
+        return (submitMutation(TopologyMutation.addNode(newNodeElement)));
+    }
+
+    public CompletableFuture<Void> unregisterNodeAsync(NodeElementIdentifier elementID) {
+        return (submitMutation(TopologyMutation.removeNode(elementID)));
+    }
+
+    public CompletableFuture<Void> registerLinkAsync(LinkElement newLink) {
+        return (submitMutation(TopologyMutation.addLink(newLink)));
+    }
+
+    public CompletableFuture<Void> unregisterLinkAsync(LinkElementIdentifier linkID) {
+        return (submitMutation(TopologyMutation.removeLink(linkID)));
+    }
+
+    public CompletableFuture<Void> registerEndpointAsync(EndpointElement newEndpoint) {
+        return (submitMutation(TopologyMutation.addEndpoint(newEndpoint)));
+    }
+
+    public CompletableFuture<Void> unregisterEndpointAsync(EndpointElementIdentifier endpointID) {
+        return (submitMutation(TopologyMutation.removeEndpoint(endpointID)));
+    }
+
+    public CompletableFuture<Void> setInstanceInPlaceAsync(NodeElementIdentifier nodeID, boolean instantiationState) {
+        return (submitMutation(TopologyMutation.setInstanceInPlace(nodeID, instantiationState)));
+    }
+
+    public CompletableFuture<Void> addEndpointToNodeAsync(NodeElementIdentifier nodeID, EndpointElementIdentifier endpointID) {
+        return (submitMutation(TopologyMutation.addEndpointToNode(nodeID, endpointID)));
+    }
+
+    /**
+     * Applies a mutation - via the pipeline (waiting for it to be applied) if asynchronous mutation
+     * is enabled, otherwise directly on the caller's thread. Either way, a failure is rethrown as-is.
+     */
+    private void performMutation(TopologyMutation mutation) {
+        TopologyMutationPipeline pipeline = this.mutationPipeline;
+        if (pipeline == null) {
+            applyMutationDirectly(mutation);
+            return;
+        }
+        awaitCompletion(pipeline.submit(mutation));
+    }
+
+    /**
+     * Runs a batch operation on the topology - via the pipeline (waiting for it to run) if
+     * asynchronous mutation is enabled, so it is serialised with the queued mutations, otherwise
+     * directly on the caller's thread. Either way, it returns once the operation's journal records
+     * are committed, and a failure is rethrown as-is.
+     */
+    private void performOperation(Runnable operation) {
+        TopologyMutationPipeline pipeline = this.mutationPipeline;
+        if (pipeline == null) {
+            operation.run();
+            awaitJournalCommit();
+            return;
+        }
+        awaitCompletion(pipeline.submitOperation(operation));
+    }
+
+    private static void awaitCompletion(CompletableFuture<Void> completion) {
+        try {
+            completion.join();
+        } catch (CompletionException completionException) {
+            if (completionException.getCause() instanceof RuntimeException) {
+                throw ((RuntimeException) completionException.getCause());
+            }
+            throw (completionException);
+        }
+    }
+
+    private void applyMutationDirectly(TopologyMutation mutation) {
+        topologyDataManager.applyMutation(mutation);
+        awaitJournalCommit();
+        onMutationApplied(mutation);
+    }
+
+    /**
+     * With a synchronously committed journal, waits until the journal records appended by the calling
+     * thread's mutations are durable. This is only ever called once the TopologyDM's mutator has
+     * returned, so the (group) commit doesn't hold up other mutators.
+     */
+    private void awaitJournalCommit() {
+        TopologyJournal journal = this.topologyJournal;
+        if (journal != null) {
+            journal.awaitCommit();
+        }
+    }
+
+    /**
+     * Stops tracking the liveness of an unregistered Node. Called once the mutation's journal record
+     * (appended by the TopologyDM as it applied the mutation) has been committed - by the pipeline's
+     * writer, once per batch, or by applyMutationDirectly().
+     */
+    private void onMutationApplied(TopologyMutation mutation) {
+        if (mutation.getMutationType() == TopologyMutationTypeEnum.REMOVE_NODE) {
+            TopologyLivenessTracker tracker = this.livenessTracker;
+            if (tracker != null) {
+                tracker.cancelLease(mutation.getNodeID());
+            }
+        }
+    }
+
+    public TopologySnapshot getTopologySnapshot() {
+        return (timed(TopologyOperationEnum.GET_TOPOLOGY_SNAPSHOT, () -> {
+            LOG.debug(".getTopologySnapshot(): Entry");
+            TopologySnapshot snapshot = topologyDataManager.getSnapshot();
+            LOG.debug(".getTopologySnapshot(): Exit, snapshot epoch --> {}", snapshot.getEpoch());
+            return (snapshot);
+        }));
+    }
+
+    public long getTopologyEpoch() {
+        return (topologyDataManager.getEpoch());
+    }
+
+    public boolean hasTopologyChangedSince(long epoch) {
+        return (topologyDataManager.hasChangedSince(epoch));
+    }
+
+    /**
+     * @return The Merkle digest of the whole topology - two topologies with the same digest hold
+     * the same Nodes, Links and Endpoints
+     */
+    public long getTopologyDigest() {
+        return (timed(TopologyOperationEnum.GET_TOPOLOGY_DIGEST, () -> {
+            return (topologyDataManager.getTopologyDigest());
+        }));
+    }
+
+    /**
+     * @return The digests of this topology, for comparison against another topology's (see
+     * computeTopologyDelta())
+     */
+    public TopologyDigestSource getTopologyDigestSource() {
+        return (topologyDataManager);
+    }
+
+    /**
+     * Computes the (minimal) changes that would bring this topology in line with another,
+     * descending only into the parts of the topologies whose digests differ.
+     *
+     * @param source The digests (and elements) of the topology to be copied
+     * @return The (possibly empty) delta
+     */
+    public TopologyDelta computeTopologyDelta(TopologyDigestSource source) {
+        return (timed(TopologyOperationEnum.COMPUTE_TOPOLOGY_DELTA, () -> {
+            LOG.debug(".computeTopologyDelta(): Entry");
+            TopologyDelta delta = topologyDataManager.computeDeltaFrom(source);
+            LOG.debug(".computeTopologyDelta(): Exit, delta size --> {}", delta.size());
+            return (delta);
+        }));
+    }
+
+    public void applyTopologyDelta(TopologyDelta delta) {
+        timed(TopologyOperationEnum.APPLY_TOPOLOGY_DELTA, () -> {
+            LOG.debug(".applyTopologyDelta(): Entry");
+            performOperation(() -> topologyDataManager.applyDelta(delta));
+            LOG.debug(".applyTopologyDelta(): Exit");
+        });
+    }
+
+    /**
+     * Saves the current topology to a binary snapshot file, so that a subsequent start can be
+     * warm-started via restoreTopologySnapshot().
+     *
+     * @param snapshotFile The file to write
+     * @return True if the snapshot was written
+     */
+    public boolean saveTopologySnapshot(Path snapshotFile) {
+        return (timed(TopologyOperationEnum.SAVE_TOPOLOGY_SNAPSHOT, () -> {
+            LOG.debug(".saveTopologySnapshot(): Entry, snapshotFile --> {}", snapshotFile);
+            try {
+                topologyDataManager.writeSnapshot(snapshotFile);
+            } catch (IOException ex) {
+                LOG.error(".saveTopologySnapshot(): Unable to write topology snapshot --> {}", ex.getMessage());
+                return (false);
+            }
+            LOG.debug(".saveTopologySnapshot(): Exit, snapshot written");
+            return (true);
+        }));
+    }
+
+    /**
+     * Warm-starts the (empty) topology from a binary snapshot file.
+     *
+     * @param snapshotFile The file to restore from
+     * @param maximumAgeMillis The maximum age of a usable snapshot (or 0 if any age is acceptable)
+     * @return True if the topology was restored, false if the file is absent, corrupt or stale (in
+     * which case the topology should be registered in the normal way)
+     */
+    public boolean restoreTopologySnapshot(Path snapshotFile, long maximumAgeMillis) {
+        return (timed(TopologyOperationEnum.RESTORE_TOPOLOGY_SNAPSHOT, () -> {
+            LOG.debug(".restoreTopologySnapshot(): Entry, snapshotFile --> {}", snapshotFile);
+            MappedTopologySnapshot snapshot = MappedTopologySnapshot.open(snapshotFile, maximumAgeMillis);
+            if (snapshot == null) {
+                LOG.debug(".restoreTopologySnapshot(): Exit, no usable snapshot");
+                return (false);
+            }
+            boolean restored = topologyDataManager.restoreSnapshot(snapshot);
+            LOG.debug(".restoreTopologySnapshot(): Exit, restored --> {}", restored);
+            return (restored);
+        }));
+    }
+
+    /**
+     * Streams the topology as JSON (see TopologyJsonCodec) without building copies of the node, link
+     * and endpoint sets.
+     *
+     * @param output The stream to write to (it is flushed, but not closed)
+     * @param consistent True to export a single epoch (via the shared snapshot), false to stream the
+     * live topology in constant memory
+     * @throws IOException If the stream can't be written
+     */
+    public void exportTopology(OutputStream output, boolean consistent) throws IOException {
+        timed(TopologyOperationEnum.EXPORT_TOPOLOGY, () -> {
+            LOG.debug(".exportTopology(): Entry, consistent --> {}", consistent);
+            topologyDataManager.writeJson(output, consistent);
+            LOG.debug(".exportTopology(): Exit");
+        });
+    }
+
+    /**
+     * Streams a JSON topology (see TopologyJsonCodec) into the topology, registering (and journaling)
+     * it a batch at a time - each batch as per registerTopology().
+     *
+     * @param input The stream to read from (it is not closed)
+     * @param batchSize The maximum number of elements per registration batch
+     * @return The number of elements read
+     * @throws IOException If the stream can't be read, or doesn't hold a JSON topology
+     */
+    public int importTopology(InputStream input, int batchSize) throws IOException {
+        return (timed(TopologyOperationEnum.IMPORT_TOPOLOGY, () -> {
+            LOG.debug(".importTopology(): Entry, batchSize --> {}", batchSize);
+            if (input == null) {
+                throw (new IllegalArgumentException(".importTopology(): input is null"));
+            }
+            int elementCount = TopologyJsonCodec.read(input, batchSize, (nodes, links, endpoints) -> performOperation(() -> topologyDataManager.addTopology(nodes, links, endpoints)));
+            LOG.debug(".importTopology(): Exit, elements read --> {}", elementCount);
+            return (elementCount);
+        }));
+    }
+
+    /**
+     * Enables the mutation journal: the topology is restored from the last snapshot (if any) in
+     * the journal directory, the journal is replayed on top of it, and then the journal is attached
+     * to the TopologyDM - which journals every subsequent mutation, in the order it applies them (see
+     * TopologyDM.setJournal()). Once the journal grows beyond the compaction threshold, a new
+     * snapshot is written and the journaled mutations it reflects are dropped.
+     *
+     * @param journalDirectory The directory holding the snapshot and journal files
+     * @param synchronousCommit If true, each mutation made through the TopologyIM waits for its
+     * journal record to be durable
+     * @param commitIntervalMillis How often queued journal records are committed in the background
+     * @param compactionThresholdBytes The journal length that triggers compaction (0 to disable)
+     * @return The number of journaled mutations replayed
+     * @throws IOException If the journal can't be opened
+     */
+    public synchronized int enableJournal(Path journalDirectory, boolean synchronousCommit, long commitIntervalMillis, long compactionThresholdBytes) throws IOException {
+        LOG.debug(".enableJournal(): Entry, journalDirectory --> {}, synchronousCommit --> {}", journalDirectory, synchronousCommit);
+        if (journalDirectory == null) {
+            throw (new IllegalArgumentException(".enableJournal(): journalDirectory is null"));
+        }
+        if (this.topologyJournal != null) {
+            throw (new IllegalStateException(".enableJournal(): journal is already enabled"));
+        }
+        Path snapshotFile = journalDirectory.resolve(JOURNAL_SNAPSHOT_FILE_NAME);
+        restoreTopologySnapshot(snapshotFile, 0);
+        TopologyJournal journal = TopologyJournal.open(journalDirectory.resolve(JOURNAL_FILE_NAME), synchronousCommit, commitIntervalMillis);
+        int replayedCount = journal.replay(topologyDataManager);
+        journal.setCompactionPolicy(compactionThresholdBytes, () -> topologyDataManager.writeSnapshot(snapshotFile));
+        this.topologyJournal = journal;
+        topologyDataManager.setJournal(journal);
+        LOG.debug(".enableJournal(): Exit, replayedCount --> {}", replayedCount);
+        return (replayedCount);
+    }
+
+    public synchronized void disableJournal() {
+        LOG.debug(".disableJournal(): Entry");
+        TopologyJournal journal = this.topologyJournal;
+        if (journal != null) {
+            topologyDataManager.setJournal(null);
+            this.topologyJournal = null;
+            journal.close();
+        }
+        LOG.debug(".disableJournal(): Exit");
+    }
+
+    /**
+     * Enables replication of the topology across the Petasos instances sharing the given JMS
+     * destination (which should be a topic): local changes are batched and published as deltas,
+     * and the deltas published by the other instances are applied (and journaled) locally.
+     *
+     * @param connectionFactory The JMS connection factory
+     * @param topologyDestination The (topic) destination shared by the replicating instances
+     * @param instanceID The (deployment-wide unique) identity of this instance
+     * @param batchWindowMillis How long local changes are collected before being published
+     */
+    public void enableReplication(ConnectionFactory connectionFactory, Destination topologyDestination, String instanceID, long batchWindowMillis) {
+        enableReplication(new JmsTopologyReplicationTransport(connectionFactory, topologyDestination), instanceID, batchWindowMillis);
+    }
+
+    public void enableReplication(TopologyReplicationTransport transport, String instanceID, long batchWindowMillis) {
+        LOG.debug(".enableReplication(): Entry, instanceID --> {}, batchWindowMillis --> {}", instanceID, batchWindowMillis);
+        synchronized (this) {
+            if (this.topologyReplicator != null) {
+                throw (new IllegalStateException(".enableReplication(): replication is already enabled"));
+            }
+            TopologyReplicator replicator = new TopologyReplicator(topologyDataManager, transport, instanceID, batchWindowMillis, TopologyReplicator.DEFAULT_HEARTBEAT_INTERVAL_MILLIS, delta -> awaitJournalCommit());
+            replicator.start();
+            this.topologyReplicator = replicator;
+        }
+        LOG.debug(".enableReplication(): Exit");
+    }
+
+    public void disableReplication() {
+        LOG.debug(".disableReplication(): Entry");
+        TopologyReplicator replicator;
+        synchronized (this) {
+            replicator = this.topologyReplicator;
+            this.topologyReplicator = null;
+        }
+        if (replicator != null) {
+            replicator.stop();
+        }
+        LOG.debug(".disableReplication(): Exit");
+    }
+
+    /**
+     * @return The replicator (sequence numbers and gap, snapshot and delta counts), or null if
+     * replication isn't enabled
+     */
+    public TopologyReplicator getReplicator() {
+        return (this.topologyReplicator);
+    }
+
+    /**
+     * Subscribes to the stream of changes (additions, updates, removals and instance-in-place
+     * changes) to the topology. Events are delivered asynchronously and, for a slow subscriber, are
+     * coalesced per element (see TopologyChangeFeed).
+     *
+     * @param subscriber The subscriber to be sent change events
+     */
+    public void subscribeToTopologyChanges(TopologyChangeSubscriber subscriber) {
+        LOG.debug(".subscribeToTopologyChanges(): Entry, subscriber --> {}", subscriber);
+        topologyDataManager.getChangeFeed().subscribe(subscriber);
+    }
+
+    public void subscribeToTopologyChanges(TopologyChangeSubscriber subscriber, int capacity) {
+        LOG.debug(".subscribeToTopologyChanges(): Entry, subscriber --> {}, capacity --> {}", subscriber, capacity);
+        topologyDataManager.getChangeFeed().subscribe(subscriber, capacity);
+    }
+
+    public void unsubscribeFromTopologyChanges(TopologyChangeSubscriber subscriber) {
+        LOG.debug(".unsubscribeFromTopologyChanges(): Entry, subscriber --> {}", subscriber);
+        topologyDataManager.getChangeFeed().unsubscribe(subscriber);
+    }
+
+    /**
+     * Streams the (live) Nodes matching the query - e.g. TopologyNodeQuery.all().withArchetype(...)
+     * - without copying the node set.
+     *
+     * @param query The criteria to be met
+     * @return A lazy, sequential stream of the matching Nodes
+     */
+    public Stream<NodeElement> queryNodes(TopologyNodeQuery query) {
+        return (queryNodes(query, false, false));
+    }
+
+    /**
+     * @param query The criteria to be met
+     * @param consistent True to stream a single epoch (the shared snapshot), false to stream the
+     * live (weakly consistent) topology
+     * @param parallel True for a parallel stream
+     * @return A lazy stream of the matching Nodes
+     */
+    public Stream<NodeElement> queryNodes(TopologyNodeQuery query, boolean consistent, boolean parallel) {
+        return (timed(TopologyOperationEnum.QUERY_NODES, () -> {
+            return (topologyDataManager.streamNodes(query, consistent, parallel));
+        }));
+    }
+
+    /**
+     * @param query The criteria to be met
+     * @param consistent True to traverse a single epoch, false to traverse the live topology
+     * @return A Spliterator over the matching Nodes, which (unlike that of a sequential stream)
+     * supports trySplit()
+     */
+    public Spliterator<NodeElement> nodeSpliterator(TopologyNodeQuery query, boolean consistent) {
+        return (queryNodes(query, consistent, true).spliterator());
+    }
+
+    /**
+     * Pages through the Nodes matching the query, in canonical key order.
+     *
+     * @param query The criteria to be met
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param pageSize The maximum number of Nodes in the page
+     * @return The page, and the cursor for the next one
+     */
+    public TopologyPage<NodeElement> getNodePage(TopologyNodeQuery query, String cursor, int pageSize) {
+        return (timed(TopologyOperationEnum.GET_NODE_PAGE, () -> {
+            return (topologyDataManager.getNodePage(query, cursor, pageSize));
+        }));
+    }
+
+    public Stream<LinkElement> queryLinks(Predicate<LinkElement> predicate, boolean consistent, boolean parallel) {
+        return (timed(TopologyOperationEnum.QUERY_LINKS, () -> {
+            return (topologyDataManager.streamLinks(predicate, consistent, parallel));
+        }));
+    }
+
+    public Stream<EndpointElement> queryEndpoints(Predicate<EndpointElement> predicate, boolean consistent, boolean parallel) {
+        return (timed(TopologyOperationEnum.QUERY_ENDPOINTS, () -> {
+            return (topologyDataManager.streamEndpoints(predicate, consistent, parallel));
+        }));
+    }
+
+    /**
+     * Retrieves the Nodes matching a combination of attribute criteria - e.g.
+     * NodeAttributeQuery.archetype(...).and(NodeAttributeQuery.concurrencyMode(...)) - resolved
+     * from the attribute bitmaps rather than by scanning the node set.
+     *
+     * @param query The attribute criteria to be met
+     * @return The matching Nodes
+     */
+    public List<NodeElement> queryNodesByAttributes(NodeAttributeQuery query) {
+        return (timed(TopologyOperationEnum.QUERY_NODES_BY_ATTRIBUTES, () -> {
+            return (topologyDataManager.findNodes(query));
+        }));
+    }
+
+    public int countNodesByAttributes(NodeAttributeQuery query) {
+        return (timed(TopologyOperationEnum.COUNT_NODES_BY_ATTRIBUTES, () -> {
+            return (topologyDataManager.countNodes(query));
+        }));
     }
 
     // Business Methods
@@ -156,44 +918,116 @@ public class TopologyIM {
         return (matchingIDs);
     }
 
+    public List<NodeElementIdentifier> getNodesWithUnqualifiedInstanceNamePrefix(String serviceModuleInstanceNamePrefix) {
+        return (timed(TopologyOperationEnum.GET_NODES_WITH_UNQUALIFIED_INSTANCE_NAME_PREFIX, () -> {
+            LOG.debug(".getNodesWithUnqualifiedInstanceNamePrefix(): Entry, serviceModuleInstanceNamePrefix --> {} ", serviceModuleInstanceNamePrefix);
+            List<NodeElementIdentifier> matchingIDs = topologyDataManager.findNodesWithUnqualifiedInstanceNamePrefix(serviceModuleInstanceNamePrefix);
+            LOG.debug(".getNodesWithUnqualifiedInstanceNamePrefix(): Exit, matchingIDs count --> {}", matchingIDs.size());
+            return (matchingIDs);
+        }));
+    }
+
+    public List<NodeElementIdentifier> getNodesWithUnqualifiedInstanceNamePattern(String serviceModuleInstanceNamePattern) {
+        return (timed(TopologyOperationEnum.GET_NODES_WITH_UNQUALIFIED_INSTANCE_NAME_PATTERN, () -> {
+            LOG.debug(".getNodesWithUnqualifiedInstanceNamePattern(): Entry, serviceModuleInstanceNamePattern --> {} ", serviceModuleInstanceNamePattern);
+            List<NodeElementIdentifier> matchingIDs = topologyDataManager.findNodesWithUnqualifiedInstanceNamePattern(serviceModuleInstanceNamePattern);
+            LOG.debug(".getNodesWithUnqualifiedInstanceNamePattern(): Exit, matchingIDs count --> {}", matchingIDs.size());
+            return (matchingIDs);
+        }));
+    }
+
+    public boolean isNodeContainedWithin(NodeElementIdentifier containingNodeID, NodeElementIdentifier nodeID) {
+        LOG.debug(".isNodeContainedWithin(): Entry, containingNodeID --> {}, nodeID --> {}", containingNodeID, nodeID);
+        return (topologyDataManager.isAncestorOf(containingNodeID, nodeID));
+    }
+
+    public List<NodeElement> getContainedNodes(NodeElementIdentifier nodeID) {
+        return (timed(TopologyOperationEnum.GET_CONTAINED_NODES, () -> {
+            LOG.debug(".getContainedNodes(): Entry, nodeID --> {}", nodeID);
+            return (topologyDataManager.getContainedNodes(nodeID));
+        }));
+    }
+
+    public int getContainedNodeCount(NodeElementIdentifier nodeID) {
+        LOG.debug(".getContainedNodeCount(): Entry, nodeID --> {}", nodeID);
+        return (topologyDataManager.getContainedNodeCount(nodeID));
+    }
+
+    public List<LinkElement> getOutgoingLinks(FDNToken elementID) {
+        LOG.debug(".getOutgoingLinks(): Entry, elementID --> {}", elementID);
+        return (topologyDataManager.getOutgoingLinks(elementID));
+    }
+
+    public List<LinkElement> getIncomingLinks(FDNToken elementID) {
+        LOG.debug(".getIncomingLinks(): Entry, elementID --> {}", elementID);
+        return (topologyDataManager.getIncomingLinks(elementID));
+    }
+
+    public boolean isNodeReachableFrom(FDNToken fromElementID, FDNToken toElementID) {
+        return (timed(TopologyOperationEnum.IS_NODE_REACHABLE_FROM, () -> {
+            LOG.debug(".isNodeReachableFrom(): Entry, fromElementID --> {}, toElementID --> {}", fromElementID, toElementID);
+            return (topologyDataManager.isReachable(fromElementID, toElementID));
+        }));
+    }
+
+    public List<LinkElement> getShortestPath(FDNToken fromElementID, FDNToken toElementID) {
+        return (timed(TopologyOperationEnum.GET_SHORTEST_PATH, () -> {
+            LOG.debug(".getShortestPath(): Entry, fromElementID --> {}, toElementID --> {}", fromElementID, toElementID);
+            return (topologyDataManager.getShortestPath(fromElementID, toElementID));
+        }));
+    }
+
+    public List<NodeElement> getDownstreamNodes(FDNToken fromElementID) {
+        return (timed(TopologyOperationEnum.GET_DOWNSTREAM_NODES, () -> {
+            LOG.debug(".getDownstreamNodes(): Entry, fromElementID --> {}", fromElementID);
+            return (topologyDataManager.getDownstreamNodes(fromElementID));
+        }));
+    }
+
     public FDNToken getSolutionID() {
         FDNToken solutionID = topologyDataManager.getSolutionID();
         return (solutionID);
     }
 
+    /**
+     * Retrieves the ConcurrencyModeEnum in effect for the Node - its own mode if it has one,
+     * otherwise the mode inherited from its containing nodes (or STANDALONE if none of them has one).
+     *
+     * @param nodeID The identifier of the Node
+     * @return The effective ConcurrencyModeEnum, or CONCURRENCY_MODE_STANDALONE if the Node isn't registered
+     */
     public ConcurrencyModeEnum getConcurrencyMode(NodeElementIdentifier nodeID) {
-        LOG.debug(".getConcurrencyMode(): Entry, nodeID --> {}", nodeID);
-        NodeElement node = topologyDataManager.getNode(nodeID);
-        if(node == null){
-            LOG.debug(".getConcurrencyMode(): Exit, couldn't find anything - so returning default");
-            return(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE );
-        }
-        if(node.getConcurrencyMode()== null){
-            return(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE );
-        }
-        LOG.debug(".getConcurrencyMode(): Found Node and it has a ConcurrenceMode parameter, returing");
-        return (node.getConcurrencyMode());
+        return (timed(TopologyOperationEnum.GET_CONCURRENCY_MODE, () -> {
+            LOG.debug(".getConcurrencyMode(): Entry, nodeID --> {}", nodeID);
+            ConcurrencyModeEnum concurrencyMode = topologyDataManager.getEffectiveConcurrencyMode(nodeID);
+            LOG.debug(".getConcurrencyMode(): Exit, concurrencyMode --> {}", concurrencyMode);
+            return (concurrencyMode);
+        }));
     }
 
+    /**
+     * Retrieves the ResilienceModeEnum in effect for the Node - its own mode if it has one,
+     * otherwise the mode inherited from its containing nodes (or STANDALONE if none of them has one).
+     *
+     * @param nodeID The identifier of the Node
+     * @return The effective ResilienceModeEnum, or RESILIENCE_MODE_STANDALONE if the Node isn't registered
+     */
     public ResilienceModeEnum getDeploymentResilienceMode(NodeElementIdentifier nodeID) {
-        LOG.debug(".getDeploymentResilienceMode(): Entry, nodeID --> {}", nodeID);
-        NodeElement node = topologyDataManager.getNode(nodeID);
-        if(node == null){
-            LOG.debug(".getDeploymentResilienceMode(): Exit, couldn't find anything - so returning default");
-            return(ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
-        }
-        if(node.getResilienceMode() == null){
-            return(ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
-        }
-        LOG.debug(".getDeploymentResilienceMode(): Found Node and it has a ResilienceMode parameter, returing");
-        return (node.getResilienceMode());
+        return (timed(TopologyOperationEnum.GET_DEPLOYMENT_RESILIENCE_MODE, () -> {
+            LOG.debug(".getDeploymentResilienceMode(): Entry, nodeID --> {}", nodeID);
+            ResilienceModeEnum resilienceMode = topologyDataManager.getEffectiveResilienceMode(nodeID);
+            LOG.debug(".getDeploymentResilienceMode(): Exit, resilienceMode --> {}", resilienceMode);
+            return (resilienceMode);
+        }));
     }
 
     public EndpointElement getEndpoint(NodeElement node, String endpointName, String endpointVersion){
-        LOG.debug(".getEndpoint(): Entry");
-        EndpointElement extractedEndpoint = topologyDataManager.getEndpoint(node, endpointName, endpointVersion);
-        LOG.debug(".getEndpoint(): Exit");
-        return(extractedEndpoint);
+        return (timed(TopologyOperationEnum.GET_NODE_ENDPOINT, () -> {
+            LOG.debug(".getEndpoint(): Entry");
+            EndpointElement extractedEndpoint = topologyDataManager.getEndpoint(node, endpointName, endpointVersion);
+            LOG.debug(".getEndpoint(): Exit");
+            return(extractedEndpoint);
+        }));
     }
 
 }
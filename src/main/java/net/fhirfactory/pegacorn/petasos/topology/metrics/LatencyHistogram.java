@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, log-linear histogram of (non-negative) long values, in the style of HdrHistogram.
+ * <p>
+ * Values below 128 each have their own bucket; above that, every power-of-two range is split into
+ * 64 equal buckets, so any recorded value is reported to within about 1.6% of its true value.
+ * Values larger than the highest trackable value are recorded in the highest bucket.
+ * <p>
+ * Recording is a handful of atomic increments on pre-allocated counters, so it is safe to use from
+ * any number of threads concurrently and doesn't allocate (beyond the one-off growth of the
+ * LongAdder cells under contention). Reads are not atomic with respect to concurrent recording,
+ * which is fine for monitoring.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int HIGHEST_TRACKABLE_MAGNITUDE = 40;
+
+    private final AtomicLongArray bucketCounts;
+    private final LongAdder totalCount;
+    private final LongAdder totalValue;
+    private final AtomicLong maximumValue;
+
+    public LatencyHistogram() {
+        this.bucketCounts = new AtomicLongArray(bucketIndex((1L << HIGHEST_TRACKABLE_MAGNITUDE) - 1) + 1);
+        this.totalCount = new LongAdder();
+        this.totalValue = new LongAdder();
+        this.maximumValue = new AtomicLong(0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return ((int) value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return ((exponent * SUB_BUCKET_HALF_COUNT) + (int) (value >>> exponent));
+    }
+
+    private static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return (index);
+        }
+        int exponent = (index / SUB_BUCKET_HALF_COUNT) - 1;
+        long mantissa = (index % SUB_BUCKET_HALF_COUNT) + SUB_BUCKET_HALF_COUNT;
+        return (mantissa << exponent);
+    }
+
+    private static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return (index);
+        }
+        int exponent = (index / SUB_BUCKET_HALF_COUNT) - 1;
+        return (bucketLowerBound(index) + ((1L << exponent) >>> 1));
+    }
+
+    /**
+     * Records a single value (negative values are recorded as 0).
+     *
+     * @param value The value to be recorded
+     */
+    public void recordValue(long value) {
+        long boundedValue = Math.max(value, 0);
+        int index = Math.min(bucketIndex(boundedValue), bucketCounts.length() - 1);
+        bucketCounts.incrementAndGet(index);
+        totalCount.increment();
+        totalValue.add(boundedValue);
+        long currentMaximum = maximumValue.get();
+        while (boundedValue > currentMaximum && !maximumValue.compareAndSet(currentMaximum, boundedValue)) {
+            currentMaximum = maximumValue.get();
+        }
+    }
+
+    public long getCount() {
+        return (totalCount.sum());
+    }
+
+    public long getMaximum() {
+        return (maximumValue.get());
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return (0.0);
+        }
+        return ((double) totalValue.sum() / count);
+    }
+
+    /**
+     * @param percentile The percentile (0 to 100)
+     * @return The (approximate) value at the given percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        for (int index = 0; index < bucketCounts.length(); index++) {
+            count += bucketCounts.get(index);
+        }
+        if (count == 0) {
+            return (0);
+        }
+        long targetCount = Math.max(1, (long) Math.ceil((Math.min(Math.max(percentile, 0.0), 100.0) / 100.0) * count));
+        long cumulativeCount = 0;
+        for (int index = 0; index < bucketCounts.length(); index++) {
+            cumulativeCount += bucketCounts.get(index);
+            if (cumulativeCount >= targetCount) {
+                return (Math.min(bucketMidpoint(index), maximumValue.get()));
+            }
+        }
+        return (maximumValue.get());
+    }
+
+    public void reset() {
+        for (int index = 0; index < bucketCounts.length(); index++) {
+            bucketCounts.set(index, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        maximumValue.set(0);
+    }
+}
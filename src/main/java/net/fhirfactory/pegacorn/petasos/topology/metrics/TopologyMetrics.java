@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The metrics of the topology: a latency histogram per TopologyIM operation, hit and miss counts
+ * per TopologyDM lookup, the sizes of the snapshots built, and (measured on demand, via the
+ * TopologyMetricsSource) the sizes of the TopologyDM's maps and the depth distribution of the
+ * containment hierarchy. When liveness tracking is enabled, the number of expired node leases and
+ * the lag of the liveness timer wheel (how late each tick ran) are recorded too, as are the sizes
+ * of the batches applied by the mutation pipeline and the number of mutations it rejected.
+ * <p>
+ * All of the recording methods are lock-free and allocation-free, so they can be left enabled at
+ * full load. The metrics are available through this (plain Java) API and, once registered, as a JMX
+ * MXBean.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyMetrics implements TopologyMetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyMetrics.class);
+
+    public static final String DEFAULT_OBJECT_NAME = "net.fhirfactory.pegacorn.petasos:type=TopologyMetrics";
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final LatencyHistogram[] operationLatencies;
+    private final AtomicLongArray lookupHits;
+    private final AtomicLongArray lookupMisses;
+    private final LatencyHistogram snapshotSizes;
+    private final AtomicLong leaseExpiries;
+    private final LatencyHistogram timerWheelLag;
+    private final LatencyHistogram mutationBatchSizes;
+    private final AtomicLong mutationRejections;
+    private volatile TopologyMetricsSource metricsSource;
+    private ObjectName registeredName;
+
+    public TopologyMetrics() {
+        this.operationLatencies = new LatencyHistogram[TopologyOperationEnum.values().length];
+        for (int index = 0; index < operationLatencies.length; index++) {
+            operationLatencies[index] = new LatencyHistogram();
+        }
+        this.lookupHits = new AtomicLongArray(TopologyLookupEnum.values().length);
+        this.lookupMisses = new AtomicLongArray(TopologyLookupEnum.values().length);
+        this.snapshotSizes = new LatencyHistogram();
+        this.leaseExpiries = new AtomicLong(0);
+        this.timerWheelLag = new LatencyHistogram();
+        this.mutationBatchSizes = new LatencyHistogram();
+        this.mutationRejections = new AtomicLong(0);
+        this.metricsSource = null;
+        this.registeredName = null;
+    }
+
+    public void setMetricsSource(TopologyMetricsSource metricsSource) {
+        this.metricsSource = metricsSource;
+    }
+
+    //
+    // Recording
+    //
+
+    /**
+     * Records the latency of an operation that started at the given (System.nanoTime()) time.
+     *
+     * @param operation The operation
+     * @param startNanos The System.nanoTime() at which the operation started
+     */
+    public void recordOperation(TopologyOperationEnum operation, long startNanos) {
+        operationLatencies[operation.ordinal()].recordValue(System.nanoTime() - startNanos);
+    }
+
+    public void recordLookup(TopologyLookupEnum lookup, boolean hit) {
+        if (hit) {
+            lookupHits.incrementAndGet(lookup.ordinal());
+        } else {
+            lookupMisses.incrementAndGet(lookup.ordinal());
+        }
+    }
+
+    /**
+     * @param elementCount The number of elements (Nodes, Links and Endpoints) copied into a newly
+     * built snapshot
+     */
+    public void recordSnapshotBuild(int elementCount) {
+        snapshotSizes.recordValue(elementCount);
+    }
+
+    public void recordLeaseExpiries(int expiredCount) {
+        leaseExpiries.addAndGet(expiredCount);
+    }
+
+    /**
+     * @param lagMillis How long after its due time a liveness timer wheel tick was processed
+     */
+    public void recordTimerWheelLag(long lagMillis) {
+        timerWheelLag.recordValue(lagMillis);
+    }
+
+    /**
+     * @param batchSize The number of mutations in a batch applied by the mutation pipeline
+     */
+    public void recordMutationBatch(int batchSize) {
+        mutationBatchSizes.recordValue(batchSize);
+    }
+
+    public void recordMutationRejection() {
+        mutationRejections.incrementAndGet();
+    }
+
+    //
+    // Plain Java API
+    //
+
+    public LatencyHistogram getOperationLatency(TopologyOperationEnum operation) {
+        return (operationLatencies[operation.ordinal()]);
+    }
+
+    public long getLookupHitCount(TopologyLookupEnum lookup) {
+        return (lookupHits.get(lookup.ordinal()));
+    }
+
+    public long getLookupMissCount(TopologyLookupEnum lookup) {
+        return (lookupMisses.get(lookup.ordinal()));
+    }
+
+    public double getLookupHitRate(TopologyLookupEnum lookup) {
+        long hits = lookupHits.get(lookup.ordinal());
+        long total = hits + lookupMisses.get(lookup.ordinal());
+        if (total == 0) {
+            return (0.0);
+        }
+        return ((double) hits / total);
+    }
+
+    public LatencyHistogram getSnapshotSizes() {
+        return (snapshotSizes);
+    }
+
+    public LatencyHistogram getTimerWheelLag() {
+        return (timerWheelLag);
+    }
+
+    public LatencyHistogram getMutationBatchSizes() {
+        return (mutationBatchSizes);
+    }
+
+    //
+    // JMX (MXBean) API
+    //
+
+    @Override
+    public Map<String, Integer> getMapSizes() {
+        TopologyMetricsSource source = this.metricsSource;
+        if (source == null) {
+            return (Collections.emptyMap());
+        }
+        return (source.getMapSizes());
+    }
+
+    @Override
+    public long[] getHierarchyDepthDistribution() {
+        TopologyMetricsSource source = this.metricsSource;
+        if (source == null) {
+            return (new long[0]);
+        }
+        return (source.getHierarchyDepthDistribution());
+    }
+
+    @Override
+    public String[] getOperationNames() {
+        TopologyOperationEnum[] operations = TopologyOperationEnum.values();
+        String[] operationNames = new String[operations.length];
+        for (int index = 0; index < operations.length; index++) {
+            operationNames[index] = operations[index].getOperationName();
+        }
+        return (operationNames);
+    }
+
+    private LatencyHistogram operationLatency(String operationName) {
+        for (TopologyOperationEnum currentOperation : TopologyOperationEnum.values()) {
+            if (currentOperation.getOperationName().equals(operationName)) {
+                return (operationLatencies[currentOperation.ordinal()]);
+            }
+        }
+        throw (new IllegalArgumentException(".operationLatency(): unknown operation --> " + operationName));
+    }
+
+    @Override
+    public long getOperationCount(String operationName) {
+        return (operationLatency(operationName).getCount());
+    }
+
+    @Override
+    public double getOperationMeanLatencyMicros(String operationName) {
+        return (operationLatency(operationName).getMean() / NANOS_PER_MICRO);
+    }
+
+    @Override
+    public double getOperationLatencyPercentileMicros(String operationName, double percentile) {
+        return (operationLatency(operationName).getValueAtPercentile(percentile) / NANOS_PER_MICRO);
+    }
+
+    @Override
+    public double getOperationMaximumLatencyMicros(String operationName) {
+        return (operationLatency(operationName).getMaximum() / NANOS_PER_MICRO);
+    }
+
+    @Override
+    public String[] getOperationLatencySummary() {
+        ArrayList<String> summary = new ArrayList<String>();
+        for (TopologyOperationEnum currentOperation : TopologyOperationEnum.values()) {
+            LatencyHistogram latency = operationLatencies[currentOperation.ordinal()];
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            summary.add(String.format("%s: count=%d, mean=%.2fus, p50=%.2fus, p99=%.2fus, p99.9=%.2fus, max=%.2fus",
+                    currentOperation.getOperationName(), latency.getCount(), latency.getMean() / NANOS_PER_MICRO,
+                    latency.getValueAtPercentile(50.0) / NANOS_PER_MICRO, latency.getValueAtPercentile(99.0) / NANOS_PER_MICRO,
+                    latency.getValueAtPercentile(99.9) / NANOS_PER_MICRO, latency.getMaximum() / NANOS_PER_MICRO));
+        }
+        return (summary.toArray(new String[summary.size()]));
+    }
+
+    @Override
+    public Map<String, Long> getLookupHitCounts() {
+        LinkedHashMap<String, Long> hitCounts = new LinkedHashMap<String, Long>();
+        for (TopologyLookupEnum currentLookup : TopologyLookupEnum.values()) {
+            hitCounts.put(currentLookup.getLookupName(), lookupHits.get(currentLookup.ordinal()));
+        }
+        return (hitCounts);
+    }
+
+    @Override
+    public Map<String, Long> getLookupMissCounts() {
+        LinkedHashMap<String, Long> missCounts = new LinkedHashMap<String, Long>();
+        for (TopologyLookupEnum currentLookup : TopologyLookupEnum.values()) {
+            missCounts.put(currentLookup.getLookupName(), lookupMisses.get(currentLookup.ordinal()));
+        }
+        return (missCounts);
+    }
+
+    @Override
+    public double getLookupHitRate(String lookupName) {
+        for (TopologyLookupEnum currentLookup : TopologyLookupEnum.values()) {
+            if (currentLookup.getLookupName().equals(lookupName)) {
+                return (getLookupHitRate(currentLookup));
+            }
+        }
+        throw (new IllegalArgumentException(".getLookupHitRate(): unknown lookup --> " + lookupName));
+    }
+
+    @Override
+    public long getSnapshotBuildCount() {
+        return (snapshotSizes.getCount());
+    }
+
+    @Override
+    public double getMeanSnapshotSize() {
+        return (snapshotSizes.getMean());
+    }
+
+    @Override
+    public long getMaximumSnapshotSize() {
+        return (snapshotSizes.getMaximum());
+    }
+
+    @Override
+    public long getLeaseExpiryCount() {
+        return (leaseExpiries.get());
+    }
+
+    @Override
+    public double getMeanTimerWheelLagMillis() {
+        return (timerWheelLag.getMean());
+    }
+
+    @Override
+    public long getMaximumTimerWheelLagMillis() {
+        return (timerWheelLag.getMaximum());
+    }
+
+    @Override
+    public long getMutationBatchCount() {
+        return (mutationBatchSizes.getCount());
+    }
+
+    @Override
+    public double getMeanMutationBatchSize() {
+        return (mutationBatchSizes.getMean());
+    }
+
+    @Override
+    public long getMaximumMutationBatchSize() {
+        return (mutationBatchSizes.getMaximum());
+    }
+
+    @Override
+    public long getMutationRejectionCount() {
+        return (mutationRejections.get());
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram currentLatency : operationLatencies) {
+            currentLatency.reset();
+        }
+        for (int index = 0; index < lookupHits.length(); index++) {
+            lookupHits.set(index, 0);
+            lookupMisses.set(index, 0);
+        }
+        snapshotSizes.reset();
+        leaseExpiries.set(0);
+        timerWheelLag.reset();
+        mutationBatchSizes.reset();
+        mutationRejections.set(0);
+    }
+
+    //
+    // Registration
+    //
+
+    /**
+     * Registers the metrics with the platform MBeanServer (replacing any metrics already registered
+     * under the same name).
+     *
+     * @param objectName The JMX ObjectName to register under (e.g. DEFAULT_OBJECT_NAME)
+     */
+    public synchronized void registerMBean(String objectName) {
+        LOG.debug(".registerMBean(): Entry, objectName --> {}", objectName);
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(this, name);
+            this.registeredName = name;
+        } catch (JMException ex) {
+            LOG.warn(".registerMBean(): Unable to register topology metrics MBean --> {}", ex.getMessage());
+        }
+        LOG.debug(".registerMBean(): Exit");
+    }
+
+    public synchronized void unregisterMBean() {
+        LOG.debug(".unregisterMBean(): Entry");
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException ex) {
+            LOG.warn(".unregisterMBean(): Unable to unregister topology metrics MBean --> {}", ex.getMessage());
+        }
+        registeredName = null;
+        LOG.debug(".unregisterMBean(): Exit");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the TopologyMetrics. Latencies are reported in microseconds.
+ */
+public interface TopologyMetricsMXBean {
+
+    Map<String, Integer> getMapSizes();
+
+    long[] getHierarchyDepthDistribution();
+
+    String[] getOperationNames();
+
+    long getOperationCount(String operationName);
+
+    double getOperationMeanLatencyMicros(String operationName);
+
+    double getOperationLatencyPercentileMicros(String operationName, double percentile);
+
+    double getOperationMaximumLatencyMicros(String operationName);
+
+    /**
+     * @return A line per (invoked) operation: name, count, mean, 50th, 99th, 99.9th percentile and
+     * maximum latency
+     */
+    String[] getOperationLatencySummary();
+
+    Map<String, Long> getLookupHitCounts();
+
+    Map<String, Long> getLookupMissCounts();
+
+    double getLookupHitRate(String lookupName);
+
+    long getSnapshotBuildCount();
+
+    double getMeanSnapshotSize();
+
+    long getMaximumSnapshotSize();
+
+    long getLeaseExpiryCount();
+
+    double getMeanTimerWheelLagMillis();
+
+    long getMaximumTimerWheelLagMillis();
+
+    long getMutationBatchCount();
+
+    double getMeanMutationBatchSize();
+
+    long getMaximumMutationBatchSize();
+
+    long getMutationRejectionCount();
+
+    void reset();
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.metrics;
+
+/**
+ * The operations of the TopologyIM for which latency is recorded (those that do real work - the
+ * O(1) lookups and the enable/disable administration methods are not timed).
+ */
+public enum TopologyOperationEnum {
+    REGISTER_NODE("registerNode"),
+    REGISTER_TOPOLOGY("registerTopology"),
+    ADD_CONTAINED_NODE_TO_NODE("addContainedNodeToNode"),
+    ADD_ENDPOINT_TO_NODE("addEndpointToNode"),
+    UNREGISTER_NODE("unregisterNode"),
+    GET_NODE_SET("getNodeSet"),
+    GET_NODE("getNode"),
+    GET_NODE_BY_SIGNATURE("getNodeBySignature"),
+    GET_NODE_BY_KEY("getNodeByKey"),
+    REGISTER_LINK("registerLink"),
+    UNREGISTER_LINK("unregisterLink"),
+    GET_LINK_SET("getLinkSet"),
+    GET_LINK("getLink"),
+    REGISTER_ENDPOINT("registerEndpoint"),
+    UNREGISTER_ENDPOINT("unregisterEndpoint"),
+    GET_ENDPOINT_SET("getEndpointSet"),
+    GET_ENDPOINT("getEndpoint"),
+    SET_INSTANCE_IN_PLACE("setInstanceInPlace"),
+    RECORD_HEARTBEAT("recordHeartbeat"),
+    GET_TOPOLOGY_SNAPSHOT("getTopologySnapshot"),
+    GET_TOPOLOGY_DIGEST("getTopologyDigest"),
+    COMPUTE_TOPOLOGY_DELTA("computeTopologyDelta"),
+    APPLY_TOPOLOGY_DELTA("applyTopologyDelta"),
+    SAVE_TOPOLOGY_SNAPSHOT("saveTopologySnapshot"),
+    RESTORE_TOPOLOGY_SNAPSHOT("restoreTopologySnapshot"),
+    EXPORT_TOPOLOGY("exportTopology"),
+    IMPORT_TOPOLOGY("importTopology"),
+    QUERY_NODES("queryNodes"),
+    GET_NODE_PAGE("getNodePage"),
+    QUERY_LINKS("queryLinks"),
+    QUERY_ENDPOINTS("queryEndpoints"),
+    QUERY_NODES_BY_ATTRIBUTES("queryNodesByAttributes"),
+    COUNT_NODES_BY_ATTRIBUTES("countNodesByAttributes"),
+    SUBMIT_MUTATION("submitMutation"),
+    VERIFY_TOPOLOGY_CONSISTENCY("verifyTopologyConsistency"),
+    GET_NODES_WITH_UNQUALIFIED_INSTANCE_NAME_PREFIX("getNodesWithUnqualifiedInstanceNamePrefix"),
+    GET_NODES_WITH_UNQUALIFIED_INSTANCE_NAME_PATTERN("getNodesWithUnqualifiedInstanceNamePattern"),
+    GET_CONTAINED_NODES("getContainedNodes"),
+    IS_NODE_REACHABLE_FROM("isNodeReachableFrom"),
+    GET_SHORTEST_PATH("getShortestPath"),
+    GET_DOWNSTREAM_NODES("getDownstreamNodes"),
+    GET_NODE_ENDPOINT("getNodeEndpoint"),
+    GET_CONCURRENCY_MODE("getConcurrencyMode"),
+    GET_DEPLOYMENT_RESILIENCE_MODE("getDeploymentResilienceMode");
+
+    private String operationName;
+
+    private TopologyOperationEnum(String operationName) {
+        this.operationName = operationName;
+    }
+
+    public String getOperationName() {
+        return operationName;
+    }
+}
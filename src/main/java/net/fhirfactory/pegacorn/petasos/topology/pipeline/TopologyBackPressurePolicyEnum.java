@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.pipeline;
+
+/**
+ * What the TopologyMutationPipeline does with a mutation submitted while its queue is full.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public enum TopologyBackPressurePolicyEnum {
+    /**
+     * The submitter waits (up to the pipeline's offer timeout) for space in the queue, and the
+     * mutation is rejected if none becomes available.
+     */
+    BLOCK("Block"),
+    /**
+     * The mutation is rejected immediately.
+     */
+    REJECT("Reject");
+
+    private String backPressurePolicy;
+
+    private TopologyBackPressurePolicyEnum(String backPressurePolicy) {
+        this.backPressurePolicy = backPressurePolicy;
+    }
+
+    public String getBackPressurePolicy() {
+        return backPressurePolicy;
+    }
+}
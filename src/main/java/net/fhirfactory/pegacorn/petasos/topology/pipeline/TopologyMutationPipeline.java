@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyMutation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies topology mutations asynchronously, on a single writer thread.
+ * <p>
+ * Submitters (any number of threads) enqueue mutations on a bounded queue and are handed a
+ * CompletableFuture per mutation. The writer drains the queue in batches (of up to the maximum
+ * batch size, so a burst - such as a large redeployment - is applied in a few batches rather than
+ * mutation by mutation), applies each batch as a single TopologyDM epoch (see
+ * TopologyDM.applyMutations()), and then completes the batch's futures: normally once the mutation
+ * has been applied and the batch (and then the mutation) passed to the applied listeners, or
+ * exceptionally with the reason the mutation failed. Mutations are applied in the order they were
+ * queued, and as there is only one writer, they never contend with one another for the
+ * TopologyDM's locks.
+ * <p>
+ * The applied batch listener is invoked once per batch, so per-batch work (such as waiting for the
+ * journal records the TopologyDM appended as it applied the batch to be durable - a single group
+ * commit rather than one per mutation) isn't repeated for each of its mutations.
+ * <p>
+ * Coarser operations on the topology (e.g. registering or importing a whole topology, or applying
+ * a TopologyDelta) can be queued too, via submitOperation(). An operation runs on the writer
+ * thread, in its place in the queue (after the mutations queued ahead of it have been applied, and
+ * before any queued behind it), so it is serialised with the pipeline's mutations.
+ * <p>
+ * When the queue is full, a submission is handled as per the back-pressure policy (see
+ * TopologyBackPressurePolicyEnum); a rejected mutation's future completes exceptionally with a
+ * RejectedExecutionException.
+ * <p>
+ * The futures are completed on the writer thread, so any (non-async) dependent stages also run
+ * there - and hold up the pipeline while they do. Work of any size should be chained with the
+ * *Async() variants.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyMutationPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyMutationPipeline.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_MAXIMUM_BATCH_SIZE = 500;
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 5000;
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    private static final long STOP_TIMEOUT_MILLIS = 10000;
+
+    private final TopologyDM topologyDM;
+    private final int maximumBatchSize;
+    private final TopologyBackPressurePolicyEnum backPressurePolicy;
+    private final long offerTimeoutMillis;
+    private final Consumer<TopologyMutation> appliedMutationListener;
+    private final Runnable appliedBatchListener;
+    private final LinkedBlockingQueue<PendingMutation> mutationQueue;
+    private final AtomicLong mutationsApplied;
+    private final AtomicLong mutationsFailed;
+    private ExecutorService writer;
+    private volatile boolean running;
+
+    /**
+     * @param topologyDM The topology to be mutated
+     * @param queueCapacity The maximum number of mutations waiting to be applied
+     * @param maximumBatchSize The maximum number of mutations applied as a single batch
+     * @param backPressurePolicy What to do with a mutation submitted while the queue is full
+     * @param offerTimeoutMillis How long a submitter waits for space in the queue (BLOCK policy only,
+     * 0 to wait for as long as the pipeline is running)
+     * @param appliedMutationListener Invoked (on the writer thread) with each mutation once it has
+     * been applied, before its future is completed (may be null)
+     */
+    public TopologyMutationPipeline(TopologyDM topologyDM, int queueCapacity, int maximumBatchSize, TopologyBackPressurePolicyEnum backPressurePolicy, long offerTimeoutMillis, Consumer<TopologyMutation> appliedMutationListener) {
+        this(topologyDM, queueCapacity, maximumBatchSize, backPressurePolicy, offerTimeoutMillis, null, appliedMutationListener);
+    }
+
+    /**
+     * @param topologyDM The topology to be mutated
+     * @param queueCapacity The maximum number of mutations waiting to be applied
+     * @param maximumBatchSize The maximum number of mutations applied as a single batch
+     * @param backPressurePolicy What to do with a mutation submitted while the queue is full
+     * @param offerTimeoutMillis How long a submitter waits for space in the queue (BLOCK policy only,
+     * 0 to wait for as long as the pipeline is running)
+     * @param appliedBatchListener Invoked (on the writer thread) once each batch has been applied -
+     * and once each operation has been run - before the mutation listener and the futures (may be
+     * null)
+     * @param appliedMutationListener Invoked (on the writer thread) with each mutation once it has
+     * been applied, before its future is completed (may be null)
+     */
+    public TopologyMutationPipeline(TopologyDM topologyDM, int queueCapacity, int maximumBatchSize, TopologyBackPressurePolicyEnum backPressurePolicy, long offerTimeoutMillis, Runnable appliedBatchListener, Consumer<TopologyMutation> appliedMutationListener) {
+        if (topologyDM == null || backPressurePolicy == null) {
+            throw (new IllegalArgumentException(".TopologyMutationPipeline(): topologyDM or backPressurePolicy is null"));
+        }
+        if (queueCapacity < 1 || maximumBatchSize < 1) {
+            throw (new IllegalArgumentException(".TopologyMutationPipeline(): queueCapacity and maximumBatchSize must be positive"));
+        }
+        if (offerTimeoutMillis < 0) {
+            throw (new IllegalArgumentException(".TopologyMutationPipeline(): offerTimeoutMillis must not be negative"));
+        }
+        this.topologyDM = topologyDM;
+        this.maximumBatchSize = maximumBatchSize;
+        this.backPressurePolicy = backPressurePolicy;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.appliedMutationListener = appliedMutationListener;
+        this.appliedBatchListener = appliedBatchListener;
+        this.mutationQueue = new LinkedBlockingQueue<PendingMutation>(queueCapacity);
+        this.mutationsApplied = new AtomicLong(0);
+        this.mutationsFailed = new AtomicLong(0);
+        this.running = false;
+    }
+
+    /**
+     * A queued mutation - or a queued operation (see submitOperation()), in which case mutation is
+     * null.
+     */
+    private static class PendingMutation {
+        final TopologyMutation mutation;
+        final Runnable operation;
+        final CompletableFuture<Void> completion;
+
+        PendingMutation(TopologyMutation mutation, Runnable operation) {
+            this.mutation = mutation;
+            this.operation = operation;
+            this.completion = new CompletableFuture<Void>();
+        }
+
+        @Override
+        public String toString() {
+            if (mutation == null) {
+                return ("PendingOperation{" + operation + "}");
+            }
+            return (mutation.toString());
+        }
+    }
+
+    public synchronized void start() {
+        LOG.debug(".start(): Entry");
+        if (running) {
+            return;
+        }
+        running = true;
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread writerThread = new Thread(runnable, "TopologyMutationPipeline-Writer");
+            writerThread.setDaemon(true);
+            return (writerThread);
+        });
+        writer.execute(this::drainMutations);
+        LOG.debug(".start(): Exit");
+    }
+
+    /**
+     * Stops accepting mutations, and waits for those already queued to be applied.
+     */
+    public synchronized void stop() {
+        LOG.debug(".stop(): Entry");
+        if (!running) {
+            return;
+        }
+        running = false;
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn(".stop(): Writer did not finish within {}ms, rejecting the remaining mutations", STOP_TIMEOUT_MILLIS);
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        ArrayList<PendingMutation> remainingMutations = new ArrayList<PendingMutation>();
+        mutationQueue.drainTo(remainingMutations);
+        for (PendingMutation currentMutation : remainingMutations) {
+            reject(currentMutation, "the pipeline was stopped");
+        }
+        LOG.debug(".stop(): Exit");
+    }
+
+    public boolean isRunning() {
+        return (running);
+    }
+
+    //
+    // Submission
+    //
+
+    /**
+     * @param mutation The mutation to be applied
+     * @return A future that completes once the mutation has been applied, or exceptionally if it
+     * failed or was rejected
+     */
+    public CompletableFuture<Void> submit(TopologyMutation mutation) {
+        if (mutation == null) {
+            throw (new IllegalArgumentException(".submit(): mutation is null"));
+        }
+        return (queue(new PendingMutation(mutation, null)));
+    }
+
+    /**
+     * Queues an operation on the topology, to be run on the writer thread once the mutations queued
+     * ahead of it have been applied. The operation is subject to the back-pressure policy, like a
+     * mutation.
+     *
+     * @param operation The operation (e.g. TopologyDM.addTopology() or applyDelta())
+     * @return A future that completes once the operation has run (and the applied batch listener
+     * has been invoked), or exceptionally if it threw or was rejected
+     */
+    public CompletableFuture<Void> submitOperation(Runnable operation) {
+        if (operation == null) {
+            throw (new IllegalArgumentException(".submitOperation(): operation is null"));
+        }
+        return (queue(new PendingMutation(null, operation)));
+    }
+
+    private CompletableFuture<Void> queue(PendingMutation pendingMutation) {
+        if (!running) {
+            reject(pendingMutation, "the pipeline is not running");
+            return (pendingMutation.completion);
+        }
+        if (enqueue(pendingMutation) && !running && mutationQueue.remove(pendingMutation)) {
+            // The pipeline was stopped (and may already have drained its queue) as the mutation was queued
+            reject(pendingMutation, "the pipeline was stopped");
+        }
+        return (pendingMutation.completion);
+    }
+
+    /**
+     * @return True if the mutation was queued (false if it was rejected)
+     */
+    private boolean enqueue(PendingMutation pendingMutation) {
+        if (mutationQueue.offer(pendingMutation)) {
+            return (true);
+        }
+        switch (backPressurePolicy) {
+            case BLOCK:
+                return (enqueueWhenSpaceAvailable(pendingMutation));
+            default:
+                reject(pendingMutation, "the queue is full");
+                return (false);
+        }
+    }
+
+    private boolean enqueueWhenSpaceAvailable(PendingMutation pendingMutation) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        try {
+            while (running) {
+                long waitNanos = TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+                if (offerTimeoutMillis > 0) {
+                    long remainingNanos = deadlineNanos - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        reject(pendingMutation, "the queue remained full for " + offerTimeoutMillis + "ms");
+                        return (false);
+                    }
+                    waitNanos = Math.min(waitNanos, remainingNanos);
+                }
+                if (mutationQueue.offer(pendingMutation, waitNanos, TimeUnit.NANOSECONDS)) {
+                    return (true);
+                }
+            }
+            reject(pendingMutation, "the pipeline was stopped");
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            reject(pendingMutation, "interrupted while waiting for space in the queue");
+        }
+        return (false);
+    }
+
+    private void reject(PendingMutation pendingMutation, String reason) {
+        LOG.debug(".reject(): Mutation --> {} rejected, reason --> {}", pendingMutation, reason);
+        topologyDM.getMetrics().recordMutationRejection();
+        pendingMutation.completion.completeExceptionally(new RejectedExecutionException(".submit(): mutation rejected, " + reason));
+    }
+
+    //
+    // Writer
+    //
+
+    private void drainMutations() {
+        LOG.debug(".drainMutations(): Entry");
+        ArrayList<PendingMutation> mutationBatch = new ArrayList<PendingMutation>(maximumBatchSize);
+        while (true) {
+            PendingMutation firstMutation;
+            try {
+                firstMutation = mutationQueue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException interruptedException) {
+                LOG.debug(".drainMutations(): Exit, interrupted");
+                return;
+            }
+            if (firstMutation == null) {
+                if (!running) {
+                    LOG.debug(".drainMutations(): Exit, queue drained");
+                    return;
+                }
+                continue;
+            }
+            mutationBatch.add(firstMutation);
+            mutationQueue.drainTo(mutationBatch, maximumBatchSize - 1);
+            try {
+                applyQueued(mutationBatch);
+            } finally {
+                mutationBatch.clear();
+            }
+        }
+    }
+
+    /**
+     * Applies the drained mutations in queue order: each run of mutations as a batch, and each
+     * operation (between them) on its own.
+     */
+    private void applyQueued(List<PendingMutation> drainedMutations) {
+        int batchStart = 0;
+        for (int index = 0; index < drainedMutations.size(); index++) {
+            PendingMutation currentMutation = drainedMutations.get(index);
+            if (currentMutation.operation != null) {
+                if (index > batchStart) {
+                    applyBatch(drainedMutations.subList(batchStart, index));
+                }
+                runOperation(currentMutation);
+                batchStart = index + 1;
+            }
+        }
+        if (drainedMutations.size() > batchStart) {
+            applyBatch(drainedMutations.subList(batchStart, drainedMutations.size()));
+        }
+    }
+
+    private void runOperation(PendingMutation pendingOperation) {
+        try {
+            pendingOperation.operation.run();
+            if (appliedBatchListener != null) {
+                appliedBatchListener.run();
+            }
+            pendingOperation.completion.complete(null);
+        } catch (RuntimeException operationException) {
+            LOG.warn(".runOperation(): Operation --> {} failed", pendingOperation, operationException);
+            pendingOperation.completion.completeExceptionally(operationException);
+        }
+    }
+
+    private void applyBatch(List<PendingMutation> mutationBatch) {
+        ArrayList<TopologyMutation> batchMutations = new ArrayList<TopologyMutation>(mutationBatch.size());
+        for (PendingMutation currentMutation : mutationBatch) {
+            batchMutations.add(currentMutation.mutation);
+        }
+        RuntimeException[] mutationFailures;
+        try {
+            mutationFailures = topologyDM.applyMutations(batchMutations);
+        } catch (RuntimeException batchException) {
+            LOG.warn(".applyBatch(): Unable to apply a batch of {} mutations", mutationBatch.size(), batchException);
+            mutationsFailed.addAndGet(mutationBatch.size());
+            for (PendingMutation currentMutation : mutationBatch) {
+                currentMutation.completion.completeExceptionally(batchException);
+            }
+            return;
+        }
+        topologyDM.getMetrics().recordMutationBatch(mutationBatch.size());
+        RuntimeException batchListenerException = null;
+        if (appliedBatchListener != null) {
+            try {
+                appliedBatchListener.run();
+            } catch (RuntimeException listenerException) {
+                LOG.warn(".applyBatch(): A batch of {} mutations was applied, but the batch listener failed", mutationBatch.size(), listenerException);
+                batchListenerException = listenerException;
+            }
+        }
+        for (int index = 0; index < mutationFailures.length; index++) {
+            PendingMutation currentMutation = mutationBatch.get(index);
+            if (mutationFailures[index] != null) {
+                mutationsFailed.incrementAndGet();
+                currentMutation.completion.completeExceptionally(mutationFailures[index]);
+                continue;
+            }
+            if (batchListenerException != null) {
+                mutationsFailed.incrementAndGet();
+                currentMutation.completion.completeExceptionally(batchListenerException);
+                continue;
+            }
+            try {
+                if (appliedMutationListener != null) {
+                    appliedMutationListener.accept(currentMutation.mutation);
+                }
+                mutationsApplied.incrementAndGet();
+                currentMutation.completion.complete(null);
+            } catch (RuntimeException listenerException) {
+                LOG.warn(".applyBatch(): Mutation --> {} was applied, but the listener failed", currentMutation.mutation, listenerException);
+                mutationsFailed.incrementAndGet();
+                currentMutation.completion.completeExceptionally(listenerException);
+            }
+        }
+    }
+
+    //
+    // Status
+    //
+
+    public int getQueueDepth() {
+        return (mutationQueue.size());
+    }
+
+    public long getMutationsApplied() {
+        return (mutationsApplied.get());
+    }
+
+    public long getMutationsFailed() {
+        return (mutationsFailed.get());
+    }
+
+    public TopologyBackPressurePolicyEnum getBackPressurePolicy() {
+        return (backPressurePolicy);
+    }
+}
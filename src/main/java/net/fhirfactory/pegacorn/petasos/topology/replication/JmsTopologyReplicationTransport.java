@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.replication;
+
+import java.util.function.Consumer;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TopologyReplicationTransport over a JMS (2.0) topic. Each message is sent as a BytesMessage
+ * holding the encoded TopologyReplicationMessage, with the message type and source instance also
+ * set as properties (so they are visible to broker-side tooling and message selectors).
+ * <p>
+ * The publishing and consuming sides use separate JMSContexts (a JMSContext must not be used
+ * concurrently), and publish() is serialised on the transport.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class JmsTopologyReplicationTransport implements TopologyReplicationTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmsTopologyReplicationTransport.class);
+
+    public static final String MESSAGE_TYPE_PROPERTY = "PetasosTopologyMessageType";
+    public static final String SOURCE_INSTANCE_PROPERTY = "PetasosTopologySourceInstance";
+
+    private ConnectionFactory connectionFactory;
+    private Destination replicationTopic;
+    private JMSContext publishingContext;
+    private JMSProducer producer;
+    private JMSContext consumingContext;
+    private JMSConsumer consumer;
+
+    public JmsTopologyReplicationTransport(ConnectionFactory connectionFactory, Destination replicationTopic) {
+        if (connectionFactory == null || replicationTopic == null) {
+            throw (new IllegalArgumentException(".JmsTopologyReplicationTransport(): connectionFactory or replicationTopic is null"));
+        }
+        this.connectionFactory = connectionFactory;
+        this.replicationTopic = replicationTopic;
+    }
+
+    @Override
+    public synchronized void start(Consumer<TopologyReplicationMessage> messageListener) {
+        LOG.debug(".start(): Entry, replicationTopic --> {}", replicationTopic);
+        if (messageListener == null) {
+            throw (new IllegalArgumentException(".start(): messageListener is null"));
+        }
+        this.publishingContext = connectionFactory.createContext(JMSContext.AUTO_ACKNOWLEDGE);
+        this.producer = publishingContext.createProducer();
+        this.consumingContext = publishingContext.createContext(JMSContext.AUTO_ACKNOWLEDGE);
+        this.consumer = consumingContext.createConsumer(replicationTopic);
+        this.consumer.setMessageListener(jmsMessage -> deliver(jmsMessage, messageListener));
+        LOG.debug(".start(): Exit");
+    }
+
+    private void deliver(Message jmsMessage, Consumer<TopologyReplicationMessage> messageListener) {
+        try {
+            if (!(jmsMessage instanceof BytesMessage)) {
+                LOG.warn(".deliver(): Ignoring a non-BytesMessage on the replication topic --> {}", jmsMessage);
+                return;
+            }
+            BytesMessage bytesMessage = (BytesMessage) jmsMessage;
+            byte[] encodedMessage = new byte[(int) bytesMessage.getBodyLength()];
+            bytesMessage.readBytes(encodedMessage);
+            messageListener.accept(TopologyReplicationMessage.decode(encodedMessage));
+        } catch (JMSException | RuntimeException deliveryException) {
+            LOG.warn(".deliver(): Could not process replication message --> {}", jmsMessage, deliveryException);
+        }
+    }
+
+    @Override
+    public synchronized void publish(TopologyReplicationMessage message) {
+        if (publishingContext == null) {
+            throw (new IllegalStateException(".publish(): transport has not been started"));
+        }
+        try {
+            BytesMessage bytesMessage = publishingContext.createBytesMessage();
+            bytesMessage.writeBytes(message.encode());
+            bytesMessage.setStringProperty(MESSAGE_TYPE_PROPERTY, message.getMessageType().getMessageType());
+            bytesMessage.setStringProperty(SOURCE_INSTANCE_PROPERTY, message.getSourceInstanceID());
+            producer.send(replicationTopic, bytesMessage);
+        } catch (JMSException jmsException) {
+            throw (new JMSRuntimeException(jmsException.getMessage(), jmsException.getErrorCode(), jmsException));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        LOG.debug(".close(): Entry");
+        if (consumer != null) {
+            consumer.close();
+            consumer = null;
+        }
+        if (consumingContext != null) {
+            consumingContext.close();
+            consumingContext = null;
+        }
+        if (publishingContext != null) {
+            publishingContext.close();
+            publishingContext = null;
+            producer = null;
+        }
+    }
+}
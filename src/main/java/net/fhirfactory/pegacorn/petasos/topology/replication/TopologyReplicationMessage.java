@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.replication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDelta;
+
+/**
+ * A single topology replication message, as exchanged between the Petasos instances of a
+ * deployment.
+ * <p>
+ * Each instance numbers the DELTA messages it publishes (1, 2, 3, ...), so a receiver can detect a
+ * lost message as a gap in the sequence. A SNAPSHOT carries the whole of the sender's topology (as
+ * an all-additions delta): it is either a catch-up reply to a SNAPSHOT_REQUEST (addressed to the
+ * requesting instance, and carrying the sequence number of the sender's last DELTA) or a broadcast
+ * that takes the place of a DELTA (and so has a sequence number of its own). An idle instance
+ * periodically publishes a HEARTBEAT carrying the sequence number of its last DELTA, so that a
+ * lost final DELTA (or a newly started receiver) is detected without waiting for the next change.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyReplicationMessage {
+
+    private static final int MESSAGE_MAGIC = 0x50545250;
+    private static final int NULL_STRING_LENGTH = -1;
+
+    private final TopologyReplicationMessageTypeEnum messageType;
+    private final String sourceInstanceID;
+    private final String targetInstanceID;
+    private final long sequenceNumber;
+    private final TopologyDelta delta;
+
+    public TopologyReplicationMessage(TopologyReplicationMessageTypeEnum messageType, String sourceInstanceID, String targetInstanceID, long sequenceNumber, TopologyDelta delta) {
+        if (messageType == null || sourceInstanceID == null) {
+            throw (new IllegalArgumentException(".TopologyReplicationMessage(): messageType or sourceInstanceID is null"));
+        }
+        this.messageType = messageType;
+        this.sourceInstanceID = sourceInstanceID;
+        this.targetInstanceID = targetInstanceID;
+        this.sequenceNumber = sequenceNumber;
+        this.delta = delta;
+    }
+
+    public TopologyReplicationMessageTypeEnum getMessageType() {
+        return messageType;
+    }
+
+    public String getSourceInstanceID() {
+        return sourceInstanceID;
+    }
+
+    /**
+     * @return The instance the message is addressed to, or null if it's for every instance
+     */
+    public String getTargetInstanceID() {
+        return targetInstanceID;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return The delta (or, for a SNAPSHOT, the whole topology), or null for a SNAPSHOT_REQUEST
+     * or a HEARTBEAT
+     */
+    public TopologyDelta getDelta() {
+        return delta;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream messageBytes = new ByteArrayOutputStream();
+        try (DataOutputStream message = new DataOutputStream(messageBytes)) {
+            message.writeInt(MESSAGE_MAGIC);
+            message.writeByte(messageType.ordinal());
+            writeString(message, sourceInstanceID);
+            writeString(message, targetInstanceID);
+            message.writeLong(sequenceNumber);
+            message.writeBoolean(delta != null);
+            if (delta != null) {
+                message.write(delta.encode());
+            }
+        } catch (IOException ioException) {
+            throw (new UncheckedIOException(ioException));
+        }
+        return (messageBytes.toByteArray());
+    }
+
+    public static TopologyReplicationMessage decode(byte[] encodedMessage) {
+        if (encodedMessage == null) {
+            throw (new IllegalArgumentException(".decode(): encodedMessage is null"));
+        }
+        ByteBuffer message = ByteBuffer.wrap(encodedMessage);
+        if (message.remaining() < 4 || message.getInt() != MESSAGE_MAGIC) {
+            throw (new IllegalArgumentException(".decode(): not a topology replication message"));
+        }
+        TopologyReplicationMessageTypeEnum messageType = TopologyReplicationMessageTypeEnum.values()[message.get()];
+        String sourceInstanceID = readString(message);
+        String targetInstanceID = readString(message);
+        long sequenceNumber = message.getLong();
+        TopologyDelta delta = null;
+        if (message.get() != 0) {
+            delta = TopologyDelta.decode(message);
+        }
+        return (new TopologyReplicationMessage(messageType, sourceInstanceID, targetInstanceID, sequenceNumber, delta));
+    }
+
+    private static void writeString(DataOutputStream message, String value) throws IOException {
+        if (value == null) {
+            message.writeInt(NULL_STRING_LENGTH);
+            return;
+        }
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        message.writeInt(valueBytes.length);
+        message.write(valueBytes);
+    }
+
+    private static String readString(ByteBuffer message) {
+        int valueLength = message.getInt();
+        if (valueLength == NULL_STRING_LENGTH) {
+            return (null);
+        }
+        byte[] valueBytes = new byte[valueLength];
+        message.get(valueBytes);
+        return (new String(valueBytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return ("TopologyReplicationMessage{messageType=" + messageType + ", sourceInstanceID=" + sourceInstanceID + ", targetInstanceID=" + targetInstanceID + ", sequenceNumber=" + sequenceNumber + "}");
+    }
+}
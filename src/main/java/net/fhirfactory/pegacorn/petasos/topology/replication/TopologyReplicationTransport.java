@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.replication;
+
+import java.util.function.Consumer;
+
+/**
+ * The publish/subscribe channel over which the Petasos instances of a deployment exchange topology
+ * replication messages. Every message published by any instance (including the publisher itself)
+ * is delivered to every started instance.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public interface TopologyReplicationTransport {
+
+    /**
+     * Starts delivering the messages published on the channel.
+     *
+     * @param messageListener Invoked (one message at a time) for each message received
+     */
+    public void start(Consumer<TopologyReplicationMessage> messageListener);
+
+    public void publish(TopologyReplicationMessage message);
+
+    public void close();
+}
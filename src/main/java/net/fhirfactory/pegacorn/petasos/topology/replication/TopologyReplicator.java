@@ -0,0 +1,665 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.replication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDelta;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologySnapshot;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyChangeEvent;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyChangeSubscriber;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyChangeTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.events.TopologyElementTypeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicates the topology held by a TopologyDM across the Petasos instances of a deployment.
+ * <p>
+ * Local mutations are picked up from the TopologyDM's change feed and collected for a short
+ * batching window, coalesced per element (so an element changed several times within the window
+ * is sent once, in its latest state), then published as a single sequence-numbered DELTA. Remote
+ * DELTAs are applied in sequence through the TopologyDM's own (atomic, single epoch) applyDelta(),
+ * and the resulting change events are not re-published.
+ * <p>
+ * A receiver tracks the last sequence number applied from each instance. A message that arrives
+ * ahead of sequence (i.e. after a lost message), or a HEARTBEAT announcing a sequence number that
+ * hasn't been seen, is treated as a gap: the out-of-order messages are held, and a SNAPSHOT of the
+ * sender's topology is requested. Should the local change feed overflow, the instance broadcasts a
+ * SNAPSHOT in place of its next DELTA.
+ * <p>
+ * A snapshot is the sender's view of the whole topology, which may not yet include changes made
+ * on other instances (or on this one), so it is only applied where the sender is the authority:
+ * each instance records which instance an element was last changed by (its source), and of the
+ * (Merkle) delta between the snapshot and the local topology, only the removals of elements whose
+ * source is the sender, and the additions and replacements of elements whose source is the sender
+ * or unknown (and which haven't been removed locally), are applied. The held messages that follow
+ * the snapshot are then applied. An element last changed by another instance (or by this one) is
+ * left to that instance's own messages.
+ * <p>
+ * Otherwise replication is last-writer-wins: concurrent changes to the same element on different
+ * instances converge on whichever is applied last.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyReplicator implements TopologyChangeSubscriber {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyReplicator.class);
+
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 50;
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 5000;
+
+    private static final int CHANGE_FEED_CAPACITY = 100000;
+    private static final int MAXIMUM_REMOTE_EPOCHS = 10000;
+    private static final int MAXIMUM_HELD_MESSAGES = 10000;
+    private static final int MAXIMUM_LOCAL_REMOVALS = 10000;
+
+    private final TopologyDM topologyDM;
+    private final TopologyReplicationTransport transport;
+    private final String instanceID;
+    private final long batchWindowMillis;
+    private final long heartbeatIntervalMillis;
+    private final Consumer<TopologyDelta> remoteDeltaListener;
+    private final ReentrantLock publishLock;
+    private final Object batchLock;
+    private final LinkedHashMap<String, TopologyChangeEvent> pendingChanges;
+    private final LinkedHashSet<Long> remoteEpochs;
+    private final HashMap<String, String> elementSources;
+    private final LinkedHashSet<String> localRemovals;
+    private final ConcurrentHashMap<String, PeerState> peerSet;
+    private final AtomicLong deltasPublished;
+    private final AtomicLong deltasApplied;
+    private final AtomicLong snapshotsApplied;
+    private final AtomicLong gapsDetected;
+    private final AtomicLong duplicatesIgnored;
+    private boolean broadcastSnapshotRequired;
+    private long publishedSequenceNumber;
+    private long lastPublishedAt;
+    private ScheduledExecutorService batcher;
+    private volatile boolean running;
+
+    /**
+     * @param topologyDM The (local) topology to be replicated
+     * @param transport The channel shared by the replicating instances
+     * @param instanceID The (deployment-wide unique) identity of this instance
+     * @param batchWindowMillis How long local changes are collected before being published
+     * @param heartbeatIntervalMillis How long an idle instance waits before publishing a HEARTBEAT
+     * (this is also how long a receiver waits for a requested snapshot before requesting it again)
+     * @param remoteDeltaListener Invoked with each remote delta once it has been applied (may be null)
+     */
+    public TopologyReplicator(TopologyDM topologyDM, TopologyReplicationTransport transport, String instanceID, long batchWindowMillis, long heartbeatIntervalMillis, Consumer<TopologyDelta> remoteDeltaListener) {
+        if (topologyDM == null || transport == null || instanceID == null) {
+            throw (new IllegalArgumentException(".TopologyReplicator(): topologyDM, transport or instanceID is null"));
+        }
+        if (batchWindowMillis < 1 || heartbeatIntervalMillis < 1) {
+            throw (new IllegalArgumentException(".TopologyReplicator(): batchWindowMillis and heartbeatIntervalMillis must be positive"));
+        }
+        this.topologyDM = topologyDM;
+        this.transport = transport;
+        this.instanceID = instanceID;
+        this.batchWindowMillis = batchWindowMillis;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.remoteDeltaListener = remoteDeltaListener;
+        this.publishLock = new ReentrantLock();
+        this.batchLock = new Object();
+        this.pendingChanges = new LinkedHashMap<String, TopologyChangeEvent>();
+        this.remoteEpochs = new LinkedHashSet<Long>();
+        this.elementSources = new HashMap<String, String>();
+        this.localRemovals = new LinkedHashSet<String>();
+        this.peerSet = new ConcurrentHashMap<String, PeerState>();
+        this.deltasPublished = new AtomicLong(0);
+        this.deltasApplied = new AtomicLong(0);
+        this.snapshotsApplied = new AtomicLong(0);
+        this.gapsDetected = new AtomicLong(0);
+        this.duplicatesIgnored = new AtomicLong(0);
+        this.broadcastSnapshotRequired = false;
+        this.publishedSequenceNumber = 0;
+        this.lastPublishedAt = 0;
+        this.running = false;
+    }
+
+    private static class PeerState {
+        final TreeMap<Long, TopologyReplicationMessage> heldMessages;
+        long lastAppliedSequenceNumber;
+        long catchUpRequestedAt;
+
+        PeerState() {
+            this.heldMessages = new TreeMap<Long, TopologyReplicationMessage>();
+            this.lastAppliedSequenceNumber = 0;
+            this.catchUpRequestedAt = 0;
+        }
+    }
+
+    public synchronized void start() {
+        LOG.debug(".start(): Entry, instanceID --> {}", instanceID);
+        if (running) {
+            return;
+        }
+        running = true;
+        transport.start(this::onMessage);
+        topologyDM.getChangeFeed().subscribe(this, CHANGE_FEED_CAPACITY);
+        batcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread batcherThread = new Thread(runnable, "TopologyReplicator-Batcher");
+            batcherThread.setDaemon(true);
+            return (batcherThread);
+        });
+        batcher.scheduleWithFixedDelay(this::publishPendingChanges, batchWindowMillis, batchWindowMillis, TimeUnit.MILLISECONDS);
+        LOG.debug(".start(): Exit");
+    }
+
+    public synchronized void stop() {
+        LOG.debug(".stop(): Entry, instanceID --> {}", instanceID);
+        if (!running) {
+            return;
+        }
+        topologyDM.getChangeFeed().unsubscribe(this);
+        batcher.shutdown();
+        try {
+            batcher.awaitTermination(batchWindowMillis * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        publishPendingChanges();
+        running = false;
+        transport.close();
+        LOG.debug(".stop(): Exit");
+    }
+
+    //
+    // Outbound
+    //
+
+    @Override
+    public void onTopologyChange(TopologyChangeEvent changeEvent) {
+        synchronized (batchLock) {
+            if (changeEvent.getChangeType() == TopologyChangeTypeEnum.RESYNC_REQUIRED) {
+                LOG.warn(".onTopologyChange(): Local change feed overflowed, a snapshot will be broadcast");
+                pendingChanges.clear();
+                broadcastSnapshotRequired = true;
+                return;
+            }
+            if (remoteEpochs.contains(changeEvent.getEpoch())) {
+                return;
+            }
+            String coalescingKey = elementKey(changeEvent.getElementType(), changeEvent.getElementID());
+            recordLocalChange(coalescingKey, changeEvent.getChangeType() == TopologyChangeTypeEnum.REMOVED);
+            if (broadcastSnapshotRequired) {
+                return;
+            }
+            TopologyChangeEvent pendingEvent = pendingChanges.remove(coalescingKey);
+            if (pendingEvent != null) {
+                pendingChanges.put(coalescingKey, pendingEvent.coalesce(changeEvent));
+            } else {
+                pendingChanges.put(coalescingKey, changeEvent);
+            }
+        }
+    }
+
+    /**
+     * Publishes the changes collected within the current batching window (if any), or a HEARTBEAT
+     * if this instance has been idle for the heartbeat interval.
+     */
+    void publishPendingChanges() {
+        publishLock.lock();
+        try {
+            TopologyReplicationMessage message = null;
+            synchronized (batchLock) {
+                long now = System.currentTimeMillis();
+                if (broadcastSnapshotRequired) {
+                    broadcastSnapshotRequired = false;
+                    pendingChanges.clear();
+                    publishedSequenceNumber++;
+                    message = new TopologyReplicationMessage(TopologyReplicationMessageTypeEnum.SNAPSHOT, instanceID, null, publishedSequenceNumber, buildSnapshotDelta());
+                } else if (!pendingChanges.isEmpty()) {
+                    TopologyDelta delta = buildDelta(pendingChanges.values());
+                    pendingChanges.clear();
+                    publishedSequenceNumber++;
+                    message = new TopologyReplicationMessage(TopologyReplicationMessageTypeEnum.DELTA, instanceID, null, publishedSequenceNumber, delta);
+                } else if (now - lastPublishedAt >= heartbeatIntervalMillis) {
+                    message = new TopologyReplicationMessage(TopologyReplicationMessageTypeEnum.HEARTBEAT, instanceID, null, publishedSequenceNumber, null);
+                }
+                if (message != null) {
+                    lastPublishedAt = now;
+                }
+            }
+            if (message != null) {
+                publish(message);
+                if (message.getMessageType() != TopologyReplicationMessageTypeEnum.HEARTBEAT) {
+                    deltasPublished.incrementAndGet();
+                }
+            }
+        } catch (RuntimeException publishException) {
+            LOG.warn(".publishPendingChanges(): Could not publish topology changes", publishException);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    private void publish(TopologyReplicationMessage message) {
+        try {
+            transport.publish(message);
+            LOG.trace(".publish(): Published --> {}", message);
+        } catch (RuntimeException transportException) {
+            LOG.warn(".publish(): Could not publish --> {}, receivers will detect the gap and catch up", message, transportException);
+        }
+    }
+
+    private TopologyDelta buildDelta(Collection<TopologyChangeEvent> changeEvents) {
+        ArrayList<NodeElement> addedNodes = new ArrayList<NodeElement>();
+        ArrayList<NodeElementIdentifier> removedNodes = new ArrayList<NodeElementIdentifier>();
+        ArrayList<LinkElement> addedLinks = new ArrayList<LinkElement>();
+        ArrayList<LinkElementIdentifier> removedLinks = new ArrayList<LinkElementIdentifier>();
+        ArrayList<EndpointElement> addedEndpoints = new ArrayList<EndpointElement>();
+        ArrayList<EndpointElementIdentifier> removedEndpoints = new ArrayList<EndpointElementIdentifier>();
+        for (TopologyChangeEvent currentEvent : changeEvents) {
+            boolean removed = currentEvent.getChangeType() == TopologyChangeTypeEnum.REMOVED;
+            FDNToken elementID = currentEvent.getElementID();
+            switch (currentEvent.getElementType()) {
+                case NODE:
+                    if (removed) {
+                        removedNodes.add(elementID instanceof NodeElementIdentifier ? (NodeElementIdentifier) elementID : new NodeElementIdentifier(elementID));
+                    } else {
+                        addedNodes.add((NodeElement) currentEvent.getElement());
+                    }
+                    break;
+                case LINK:
+                    if (removed) {
+                        removedLinks.add(elementID instanceof LinkElementIdentifier ? (LinkElementIdentifier) elementID : new LinkElementIdentifier(elementID));
+                    } else {
+                        addedLinks.add((LinkElement) currentEvent.getElement());
+                    }
+                    break;
+                case ENDPOINT:
+                    if (removed) {
+                        removedEndpoints.add(elementID instanceof EndpointElementIdentifier ? (EndpointElementIdentifier) elementID : new EndpointElementIdentifier(elementID));
+                    } else {
+                        addedEndpoints.add((EndpointElement) currentEvent.getElement());
+                    }
+                    break;
+            }
+        }
+        return (new TopologyDelta(addedNodes, removedNodes, addedLinks, removedLinks, addedEndpoints, removedEndpoints));
+    }
+
+    private TopologyDelta buildSnapshotDelta() {
+        TopologySnapshot snapshot = topologyDM.getSnapshot();
+        List<NodeElementIdentifier> noNodes = Collections.emptyList();
+        List<LinkElementIdentifier> noLinks = Collections.emptyList();
+        List<EndpointElementIdentifier> noEndpoints = Collections.emptyList();
+        return (new TopologyDelta(new ArrayList<NodeElement>(snapshot.getNodes()), noNodes, new ArrayList<LinkElement>(snapshot.getLinks()), noLinks, new ArrayList<EndpointElement>(snapshot.getEndpoints()), noEndpoints));
+    }
+
+    /**
+     * Replies to a catch-up request: any pending changes are published first (so they have a
+     * sequence number), then the snapshot is published carrying the last sequence number.
+     */
+    private void publishCatchUpSnapshot(String requestingInstanceID) {
+        LOG.debug(".publishCatchUpSnapshot(): Entry, requestingInstanceID --> {}", requestingInstanceID);
+        publishPendingChanges();
+        publishLock.lock();
+        try {
+            TopologyReplicationMessage message;
+            synchronized (batchLock) {
+                message = new TopologyReplicationMessage(TopologyReplicationMessageTypeEnum.SNAPSHOT, instanceID, requestingInstanceID, publishedSequenceNumber, buildSnapshotDelta());
+            }
+            publish(message);
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    //
+    // Inbound
+    //
+
+    void onMessage(TopologyReplicationMessage message) {
+        if (!running || instanceID.equals(message.getSourceInstanceID())) {
+            return;
+        }
+        LOG.trace(".onMessage(): Received --> {}", message);
+        try {
+            switch (message.getMessageType()) {
+                case DELTA:
+                    receiveSequenced(message);
+                    break;
+                case SNAPSHOT:
+                    if (message.getTargetInstanceID() == null) {
+                        receiveSequenced(message);
+                    } else if (instanceID.equals(message.getTargetInstanceID())) {
+                        receiveCatchUp(message);
+                    }
+                    break;
+                case SNAPSHOT_REQUEST:
+                    if (instanceID.equals(message.getTargetInstanceID())) {
+                        publishCatchUpSnapshot(message.getSourceInstanceID());
+                    }
+                    break;
+                case HEARTBEAT:
+                    receiveHeartbeat(message);
+                    break;
+            }
+        } catch (RuntimeException applyException) {
+            LOG.warn(".onMessage(): Could not process --> {}", message, applyException);
+        }
+    }
+
+    private void receiveSequenced(TopologyReplicationMessage message) {
+        PeerState peer = peerSet.computeIfAbsent(message.getSourceInstanceID(), key -> new PeerState());
+        synchronized (peer) {
+            long sequenceNumber = message.getSequenceNumber();
+            if (sequenceNumber <= peer.lastAppliedSequenceNumber) {
+                duplicatesIgnored.incrementAndGet();
+                return;
+            }
+            boolean broadcastSnapshot = message.getMessageType() == TopologyReplicationMessageTypeEnum.SNAPSHOT;
+            if (broadcastSnapshot || sequenceNumber == peer.lastAppliedSequenceNumber + 1) {
+                apply(message);
+                peer.lastAppliedSequenceNumber = sequenceNumber;
+                applyHeldMessages(peer, message.getSourceInstanceID());
+                return;
+            }
+            if (peer.heldMessages.size() >= MAXIMUM_HELD_MESSAGES) {
+                peer.heldMessages.clear();
+            }
+            peer.heldMessages.put(sequenceNumber, message);
+            requestCatchUp(peer, message.getSourceInstanceID());
+        }
+    }
+
+    private void receiveCatchUp(TopologyReplicationMessage message) {
+        PeerState peer = peerSet.computeIfAbsent(message.getSourceInstanceID(), key -> new PeerState());
+        synchronized (peer) {
+            if (peer.catchUpRequestedAt == 0 && message.getSequenceNumber() <= peer.lastAppliedSequenceNumber) {
+                LOG.debug(".receiveCatchUp(): Ignoring an unrequested (stale) snapshot from --> {}", message.getSourceInstanceID());
+                return;
+            }
+            apply(message);
+            peer.lastAppliedSequenceNumber = message.getSequenceNumber();
+            peer.catchUpRequestedAt = 0;
+            applyHeldMessages(peer, message.getSourceInstanceID());
+        }
+    }
+
+    private void receiveHeartbeat(TopologyReplicationMessage message) {
+        PeerState peer = peerSet.computeIfAbsent(message.getSourceInstanceID(), key -> new PeerState());
+        synchronized (peer) {
+            if (message.getSequenceNumber() > peer.lastAppliedSequenceNumber) {
+                requestCatchUp(peer, message.getSourceInstanceID());
+            }
+        }
+    }
+
+    private void applyHeldMessages(PeerState peer, String peerInstanceID) {
+        peer.heldMessages.headMap(peer.lastAppliedSequenceNumber, true).clear();
+        while (!peer.heldMessages.isEmpty() && peer.heldMessages.firstKey() == peer.lastAppliedSequenceNumber + 1) {
+            TopologyReplicationMessage heldMessage = peer.heldMessages.pollFirstEntry().getValue();
+            apply(heldMessage);
+            peer.lastAppliedSequenceNumber = heldMessage.getSequenceNumber();
+        }
+        if (!peer.heldMessages.isEmpty()) {
+            requestCatchUp(peer, peerInstanceID);
+        }
+    }
+
+    private void requestCatchUp(PeerState peer, String peerInstanceID) {
+        long now = System.currentTimeMillis();
+        if (peer.catchUpRequestedAt != 0 && now - peer.catchUpRequestedAt < heartbeatIntervalMillis) {
+            return;
+        }
+        LOG.info(".requestCatchUp(): Gap detected in the messages from --> {} after sequence number --> {}, requesting a snapshot", peerInstanceID, peer.lastAppliedSequenceNumber);
+        peer.catchUpRequestedAt = now;
+        gapsDetected.incrementAndGet();
+        publish(new TopologyReplicationMessage(TopologyReplicationMessageTypeEnum.SNAPSHOT_REQUEST, instanceID, peerInstanceID, 0, null));
+    }
+
+    /**
+     * Applies a remote DELTA or SNAPSHOT through the TopologyDM, recording the epoch of the
+     * resulting change so that it isn't published back out again.
+     */
+    private void apply(TopologyReplicationMessage message) {
+        TopologyDelta delta = message.getDelta();
+        if (delta == null) {
+            return;
+        }
+        String peerInstanceID = message.getSourceInstanceID();
+        boolean snapshot = message.getMessageType() == TopologyReplicationMessageTypeEnum.SNAPSHOT;
+        TopologyDelta snapshotDelta = null;
+        if (snapshot) {
+            TopologyDM snapshotDM = new TopologyDM();
+            snapshotDM.addTopology(delta.getAddedNodes(), delta.getAddedLinks(), delta.getAddedEndpoints());
+            snapshotDelta = topologyDM.computeDeltaFrom(snapshotDM);
+        }
+        synchronized (batchLock) {
+            if (snapshot) {
+                delta = filterSnapshotDelta(snapshotDelta, peerInstanceID);
+            }
+            if (!delta.isEmpty()) {
+                long epoch = topologyDM.applyDelta(delta);
+                remoteEpochs.add(epoch);
+                if (remoteEpochs.size() > MAXIMUM_REMOTE_EPOCHS) {
+                    Iterator<Long> oldestEpochs = remoteEpochs.iterator();
+                    oldestEpochs.next();
+                    oldestEpochs.remove();
+                }
+                recordRemoteChanges(delta, peerInstanceID);
+            }
+        }
+        if (!delta.isEmpty() && remoteDeltaListener != null) {
+            remoteDeltaListener.accept(delta);
+        }
+        if (snapshot) {
+            snapshotsApplied.incrementAndGet();
+        } else {
+            deltasApplied.incrementAndGet();
+        }
+        LOG.debug(".apply(): Applied --> {}, changed element count --> {}", message, delta.size());
+    }
+
+    //
+    // Element Sources
+    //
+
+    private static String elementKey(TopologyElementTypeEnum elementType, FDNToken elementID) {
+        return (elementType.getElementType() + ":" + elementID.getContent());
+    }
+
+    /**
+     * Records that an element was changed by this instance (so a snapshot from another instance
+     * neither replaces it nor, if it was removed, brings it back). Called with the batch lock held.
+     */
+    private void recordLocalChange(String elementKey, boolean removed) {
+        if (removed) {
+            elementSources.remove(elementKey);
+            localRemovals.add(elementKey);
+            if (localRemovals.size() > MAXIMUM_LOCAL_REMOVALS) {
+                Iterator<String> oldestRemovals = localRemovals.iterator();
+                oldestRemovals.next();
+                oldestRemovals.remove();
+            }
+        } else {
+            elementSources.put(elementKey, instanceID);
+            localRemovals.remove(elementKey);
+        }
+    }
+
+    /**
+     * Records the peer as the source of the elements added (or replaced) by an applied remote delta,
+     * and forgets the source of those it removed. Called with the batch lock held.
+     */
+    private void recordRemoteChanges(TopologyDelta delta, String peerInstanceID) {
+        for (NodeElement currentNode : delta.getAddedNodes()) {
+            recordRemoteAddition(elementKey(TopologyElementTypeEnum.NODE, currentNode.getNodeInstanceID()), peerInstanceID);
+        }
+        for (LinkElement currentLink : delta.getAddedLinks()) {
+            recordRemoteAddition(elementKey(TopologyElementTypeEnum.LINK, currentLink.getLinkID()), peerInstanceID);
+        }
+        for (EndpointElement currentEndpoint : delta.getAddedEndpoints()) {
+            recordRemoteAddition(elementKey(TopologyElementTypeEnum.ENDPOINT, currentEndpoint.getEndpointInstanceID()), peerInstanceID);
+        }
+        for (NodeElementIdentifier currentNodeID : delta.getRemovedNodes()) {
+            elementSources.remove(elementKey(TopologyElementTypeEnum.NODE, currentNodeID));
+        }
+        for (LinkElementIdentifier currentLinkID : delta.getRemovedLinks()) {
+            elementSources.remove(elementKey(TopologyElementTypeEnum.LINK, currentLinkID));
+        }
+        for (EndpointElementIdentifier currentEndpointID : delta.getRemovedEndpoints()) {
+            elementSources.remove(elementKey(TopologyElementTypeEnum.ENDPOINT, currentEndpointID));
+        }
+    }
+
+    private void recordRemoteAddition(String elementKey, String peerInstanceID) {
+        elementSources.put(elementKey, peerInstanceID);
+        localRemovals.remove(elementKey);
+    }
+
+    /**
+     * Limits the delta between a peer's snapshot and the local topology to the changes the peer is
+     * the authority for: the removal of elements whose source is the peer, and the addition (or
+     * replacement) of elements whose source is the peer or unknown and which haven't been removed
+     * locally. Called with the batch lock held.
+     */
+    private TopologyDelta filterSnapshotDelta(TopologyDelta snapshotDelta, String peerInstanceID) {
+        ArrayList<NodeElement> addedNodes = new ArrayList<NodeElement>();
+        for (NodeElement currentNode : snapshotDelta.getAddedNodes()) {
+            if (acceptsSnapshotElement(elementKey(TopologyElementTypeEnum.NODE, currentNode.getNodeInstanceID()), peerInstanceID)) {
+                addedNodes.add(currentNode);
+            }
+        }
+        ArrayList<NodeElementIdentifier> removedNodes = new ArrayList<NodeElementIdentifier>();
+        for (NodeElementIdentifier currentNodeID : snapshotDelta.getRemovedNodes()) {
+            if (peerInstanceID.equals(elementSources.get(elementKey(TopologyElementTypeEnum.NODE, currentNodeID)))) {
+                removedNodes.add(currentNodeID);
+            }
+        }
+        ArrayList<LinkElement> addedLinks = new ArrayList<LinkElement>();
+        for (LinkElement currentLink : snapshotDelta.getAddedLinks()) {
+            if (acceptsSnapshotElement(elementKey(TopologyElementTypeEnum.LINK, currentLink.getLinkID()), peerInstanceID)) {
+                addedLinks.add(currentLink);
+            }
+        }
+        ArrayList<LinkElementIdentifier> removedLinks = new ArrayList<LinkElementIdentifier>();
+        for (LinkElementIdentifier currentLinkID : snapshotDelta.getRemovedLinks()) {
+            if (peerInstanceID.equals(elementSources.get(elementKey(TopologyElementTypeEnum.LINK, currentLinkID)))) {
+                removedLinks.add(currentLinkID);
+            }
+        }
+        ArrayList<EndpointElement> addedEndpoints = new ArrayList<EndpointElement>();
+        for (EndpointElement currentEndpoint : snapshotDelta.getAddedEndpoints()) {
+            if (acceptsSnapshotElement(elementKey(TopologyElementTypeEnum.ENDPOINT, currentEndpoint.getEndpointInstanceID()), peerInstanceID)) {
+                addedEndpoints.add(currentEndpoint);
+            }
+        }
+        ArrayList<EndpointElementIdentifier> removedEndpoints = new ArrayList<EndpointElementIdentifier>();
+        for (EndpointElementIdentifier currentEndpointID : snapshotDelta.getRemovedEndpoints()) {
+            if (peerInstanceID.equals(elementSources.get(elementKey(TopologyElementTypeEnum.ENDPOINT, currentEndpointID)))) {
+                removedEndpoints.add(currentEndpointID);
+            }
+        }
+        TopologyDelta filteredDelta = new TopologyDelta(addedNodes, removedNodes, addedLinks, removedLinks, addedEndpoints, removedEndpoints);
+        LOG.debug(".filterSnapshotDelta(): Exit, peerInstanceID --> {}, snapshot delta size --> {}, applied size --> {}", peerInstanceID, snapshotDelta.size(), filteredDelta.size());
+        return (filteredDelta);
+    }
+
+    private boolean acceptsSnapshotElement(String elementKey, String peerInstanceID) {
+        if (localRemovals.contains(elementKey)) {
+            return (false);
+        }
+        String elementSource = elementSources.get(elementKey);
+        return (elementSource == null || elementSource.equals(peerInstanceID));
+    }
+
+    //
+    // Status
+    //
+
+    public String getInstanceID() {
+        return instanceID;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getPublishedSequenceNumber() {
+        synchronized (batchLock) {
+            return (publishedSequenceNumber);
+        }
+    }
+
+    /**
+     * @return The last sequence number applied from each of the other instances
+     */
+    public Map<String, Long> getAppliedSequenceNumbers() {
+        LinkedHashMap<String, Long> appliedSequenceNumbers = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, PeerState> peerEntry : peerSet.entrySet()) {
+            synchronized (peerEntry.getValue()) {
+                appliedSequenceNumbers.put(peerEntry.getKey(), peerEntry.getValue().lastAppliedSequenceNumber);
+            }
+        }
+        return (appliedSequenceNumbers);
+    }
+
+    public long getDeltasPublished() {
+        return (deltasPublished.get());
+    }
+
+    public long getDeltasApplied() {
+        return (deltasApplied.get());
+    }
+
+    public long getSnapshotsApplied() {
+        return (snapshotsApplied.get());
+    }
+
+    public long getGapsDetected() {
+        return (gapsDetected.get());
+    }
+
+    public long getDuplicatesIgnored() {
+        return (duplicatesIgnored.get());
+    }
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.soak;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.manager.TopologyIM;
+import net.fhirfactory.pegacorn.petasos.topology.metrics.LatencyHistogram;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyBackPressurePolicyEnum;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyMutationPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A concurrent soak (and consistency) harness for the topology.
+ * <p>
+ * A stable base topology (Solution, Sites, Platforms and WUPs, each WUP with an Endpoint, and the
+ * WUPs' Endpoints chained by Links) is registered first and never changed. Worker threads then run
+ * a weighted mix of operations (see TopologySoakOperationEnum) against the TopologyIM for the
+ * configured duration: registering and unregistering transient WUPs (each with an Endpoint and a
+ * Link to a base Endpoint), looking up Nodes by identifier and by name, type and version, walking
+ * the containment hierarchy, and enumerating the element sets. Each worker owns its own transient
+ * WUPs, and registers an Endpoint before the Node that references it and the Node before its Link
+ * (and unregisters them in the reverse order), so there is never a dangling reference.
+ * <p>
+ * The latency of every operation is recorded (per operation type), and the results of the reads
+ * are checked as they are made - e.g. a base Node must always be found, and a worker must always
+ * see its own registrations. TopologyIM.verifyTopologyConsistency() is run periodically during the
+ * soak (briefly excluding the writers) and once more at the end.
+ * <p>
+ * Run it with (e.g.) -threads 16 -durationSeconds 3600 -checkIntervalSeconds 30 -baseNodes 20000
+ * -mix register=10,unregister=10,getById=30,getByNameTypeVersion=20,containmentWalk=25,setEnumeration=5
+ * -async. It exits with status 1 if an operation failed or an invariant was violated.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologySoakHarness {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologySoakHarness.class);
+
+    public static final int DEFAULT_THREAD_COUNT = 8;
+    public static final long DEFAULT_DURATION_MILLIS = 5000;
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_BASE_NODE_COUNT = 2000;
+    public static final int DEFAULT_SLOTS_PER_THREAD = 64;
+    public static final String DEFAULT_OPERATION_MIX = "register=10,unregister=10,getById=30,getByNameTypeVersion=20,containmentWalk=25,setEnumeration=5";
+
+    private static final String VERSION = "1.0.0";
+    private static final int MAXIMUM_RECORDED_FAILURES = 100;
+    private static final int MAXIMUM_CONTAINMENT_DEPTH = 16;
+
+    private final TopologyIM topologyIM;
+    private final int threadCount;
+    private final long durationMillis;
+    private final long checkIntervalMillis;
+    private final int slotsPerThread;
+    private final TopologySoakOperationEnum[] operationChoices;
+    private final int[] cumulativeWeights;
+    private final LatencyHistogram[] operationLatencies;
+    private final AtomicLongArray operationFailures;
+    private final List<String> failures;
+    private final AtomicInteger consistencyCheckCount;
+    private final List<NodeElement> baseNodes;
+    private final List<String> baseNodeNames;
+    private final List<List<RDN>> basePlatformPaths;
+    private final List<NodeElement> basePlatforms;
+    private final List<EndpointElement> baseEndpoints;
+    private final List<LinkElement> baseLinks;
+
+    /**
+     * @param topologyIM The topology to be soaked
+     * @param threadCount The number of worker threads
+     * @param durationMillis How long the workers run for
+     * @param checkIntervalMillis The interval between consistency checks (0 for a final check only)
+     * @param operationMix The relative weight of each operation
+     */
+    public TopologySoakHarness(TopologyIM topologyIM, int threadCount, long durationMillis, long checkIntervalMillis, Map<TopologySoakOperationEnum, Integer> operationMix) {
+        if (topologyIM == null || operationMix == null) {
+            throw (new IllegalArgumentException(".TopologySoakHarness(): topologyIM or operationMix is null"));
+        }
+        if (threadCount < 1 || durationMillis < 1 || checkIntervalMillis < 0) {
+            throw (new IllegalArgumentException(".TopologySoakHarness(): threadCount and durationMillis must be positive, checkIntervalMillis must not be negative"));
+        }
+        this.topologyIM = topologyIM;
+        this.threadCount = threadCount;
+        this.durationMillis = durationMillis;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.slotsPerThread = DEFAULT_SLOTS_PER_THREAD;
+        ArrayList<TopologySoakOperationEnum> choices = new ArrayList<TopologySoakOperationEnum>();
+        ArrayList<Integer> weights = new ArrayList<Integer>();
+        int totalWeight = 0;
+        for (Map.Entry<TopologySoakOperationEnum, Integer> currentEntry : operationMix.entrySet()) {
+            if (currentEntry.getValue() < 0) {
+                throw (new IllegalArgumentException(".TopologySoakHarness(): negative weight for operation --> " + currentEntry.getKey()));
+            }
+            if (currentEntry.getValue() > 0) {
+                totalWeight += currentEntry.getValue();
+                choices.add(currentEntry.getKey());
+                weights.add(totalWeight);
+            }
+        }
+        if (totalWeight == 0) {
+            throw (new IllegalArgumentException(".TopologySoakHarness(): operationMix has no (positively) weighted operation"));
+        }
+        this.operationChoices = choices.toArray(new TopologySoakOperationEnum[0]);
+        this.cumulativeWeights = new int[weights.size()];
+        for (int index = 0; index < cumulativeWeights.length; index++) {
+            cumulativeWeights[index] = weights.get(index);
+        }
+        this.operationLatencies = new LatencyHistogram[TopologySoakOperationEnum.values().length];
+        for (int index = 0; index < operationLatencies.length; index++) {
+            operationLatencies[index] = new LatencyHistogram();
+        }
+        this.operationFailures = new AtomicLongArray(TopologySoakOperationEnum.values().length);
+        this.failures = Collections.synchronizedList(new ArrayList<String>());
+        this.consistencyCheckCount = new AtomicInteger(0);
+        this.baseNodes = new ArrayList<NodeElement>();
+        this.baseNodeNames = new ArrayList<String>();
+        this.basePlatformPaths = new ArrayList<List<RDN>>();
+        this.basePlatforms = new ArrayList<NodeElement>();
+        this.baseEndpoints = new ArrayList<EndpointElement>();
+        this.baseLinks = new ArrayList<LinkElement>();
+    }
+
+    /**
+     * Parses an operation mix of the form "register=10,unregister=10,getById=30,...".
+     *
+     * @param operationMix The operation mix
+     * @return The relative weight of each operation (operations not named are given no weight)
+     */
+    public static Map<TopologySoakOperationEnum, Integer> parseOperationMix(String operationMix) {
+        EnumMap<TopologySoakOperationEnum, Integer> weights = new EnumMap<TopologySoakOperationEnum, Integer>(TopologySoakOperationEnum.class);
+        for (String currentTerm : operationMix.split(",")) {
+            String[] nameAndWeight = currentTerm.trim().split("=");
+            if (nameAndWeight.length != 2) {
+                throw (new IllegalArgumentException(".parseOperationMix(): bad term --> " + currentTerm));
+            }
+            weights.put(TopologySoakOperationEnum.fromOperationName(nameAndWeight[0].trim()), Integer.valueOf(nameAndWeight[1].trim()));
+        }
+        return (weights);
+    }
+
+    //
+    // Base Topology
+    //
+
+    /**
+     * Registers the (stable) base topology, in a single batch.
+     *
+     * @param baseNodeCount The (approximate) number of Nodes in the base topology
+     */
+    public void populate(int baseNodeCount) {
+        LOG.debug(".populate(): Entry, baseNodeCount --> {}", baseNodeCount);
+        int fanOut = Math.max(2, (int) Math.ceil(Math.cbrt(Math.max(baseNodeCount, 4))));
+        List<RDN> solutionPath = new ArrayList<RDN>();
+        solutionPath.add(new RDN(NodeElementTypeEnum.SOLUTION.getNodeElementType(), "Soak"));
+        NodeElement solution = newNode(solutionPath, NodeElementTypeEnum.SOLUTION, null);
+        EndpointElementIdentifier previousEndpointID = null;
+        for (int siteIndex = 0; siteIndex < fanOut && baseNodes.size() < baseNodeCount; siteIndex++) {
+            List<RDN> sitePath = childPath(solutionPath, NodeElementTypeEnum.SITE, "Site-" + siteIndex);
+            NodeElement site = newNode(sitePath, NodeElementTypeEnum.SITE, solution.getNodeInstanceID());
+            for (int platformIndex = 0; platformIndex < fanOut && baseNodes.size() < baseNodeCount; platformIndex++) {
+                List<RDN> platformPath = childPath(sitePath, NodeElementTypeEnum.PLATFORM, "Platform-" + siteIndex + "-" + platformIndex);
+                NodeElement platform = newNode(platformPath, NodeElementTypeEnum.PLATFORM, site.getNodeInstanceID());
+                basePlatforms.add(platform);
+                basePlatformPaths.add(platformPath);
+                for (int wupIndex = 0; wupIndex < fanOut && baseNodes.size() < baseNodeCount; wupIndex++) {
+                    List<RDN> wupPath = childPath(platformPath, NodeElementTypeEnum.WUP, "WUP-" + siteIndex + "-" + platformIndex + "-" + wupIndex);
+                    NodeElement wup = newNode(wupPath, NodeElementTypeEnum.WUP, platform.getNodeInstanceID());
+                    EndpointElement endpoint = newEndpoint(wupPath);
+                    wup.getEndpoints().add(endpoint.getEndpointInstanceID());
+                    baseEndpoints.add(endpoint);
+                    if (previousEndpointID != null) {
+                        baseLinks.add(newLink(wupPath, previousEndpointID, endpoint.getEndpointInstanceID()));
+                    }
+                    previousEndpointID = endpoint.getEndpointInstanceID();
+                }
+            }
+        }
+        topologyIM.registerTopology(baseNodes, baseLinks, baseEndpoints);
+        LOG.debug(".populate(): Exit, nodes --> {}, links --> {}, endpoints --> {}", baseNodes.size(), baseLinks.size(), baseEndpoints.size());
+    }
+
+    private static List<RDN> childPath(List<RDN> parentPath, NodeElementTypeEnum childType, String childName) {
+        List<RDN> path = new ArrayList<RDN>(parentPath);
+        path.add(new RDN(childType.getNodeElementType(), childName));
+        return (path);
+    }
+
+    private static FDN toFDN(List<RDN> path) {
+        FDN fdn = new FDN();
+        for (RDN currentRDN : path) {
+            fdn.appendRDN(currentRDN);
+        }
+        return (fdn);
+    }
+
+    private NodeElement newNode(List<RDN> path, NodeElementTypeEnum nodeType, NodeElementIdentifier containingNodeID) {
+        NodeElement node = newElementNode(path, nodeType, containingNodeID);
+        baseNodes.add(node);
+        baseNodeNames.add(path.get(path.size() - 1).getValue());
+        return (node);
+    }
+
+    private static NodeElement newElementNode(List<RDN> path, NodeElementTypeEnum nodeType, NodeElementIdentifier containingNodeID) {
+        NodeElement node = new NodeElement();
+        node.setNodeInstanceID(new NodeElementIdentifier(toFDN(path).getToken()));
+        node.setNodeArchetype(nodeType);
+        node.setVersion(VERSION);
+        node.setContainingElementID(containingNodeID);
+        node.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE);
+        node.setResilienceMode(ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
+        node.setInstanceInPlace(true);
+        return (node);
+    }
+
+    private static EndpointElement newEndpoint(List<RDN> nodePath) {
+        EndpointElement endpoint = new EndpointElement();
+        endpoint.setEndpointInstanceID(new EndpointElementIdentifier(toFDN(childPathOf(nodePath, "Endpoint", "ingress")).getToken()));
+        endpoint.setVersion(VERSION);
+        return (endpoint);
+    }
+
+    private static LinkElement newLink(List<RDN> nodePath, EndpointElementIdentifier sourceID, EndpointElementIdentifier targetID) {
+        LinkElement link = new LinkElement();
+        link.setLinkID(new LinkElementIdentifier(toFDN(childPathOf(nodePath, "Link", "egress")).getToken()));
+        link.setSource(sourceID);
+        link.setTarget(targetID);
+        return (link);
+    }
+
+    private static List<RDN> childPathOf(List<RDN> parentPath, String qualifier, String value) {
+        List<RDN> path = new ArrayList<RDN>(parentPath);
+        path.add(new RDN(qualifier, value));
+        return (path);
+    }
+
+    //
+    // Soak
+    //
+
+    /**
+     * Runs the workers (and the periodic consistency checks) for the configured duration, then
+     * unregisters the remaining transient elements and runs a final consistency check.
+     *
+     * @return True if no operation failed and no invariant was violated
+     */
+    public boolean run() throws InterruptedException {
+        LOG.info(".run(): Entry, threadCount --> {}, durationMillis --> {}, checkIntervalMillis --> {}", threadCount, durationMillis, checkIntervalMillis);
+        if (basePlatforms.isEmpty()) {
+            throw (new IllegalStateException(".run(): the base topology has not been populated"));
+        }
+        ScheduledExecutorService checker = null;
+        if (checkIntervalMillis > 0) {
+            checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread checkerThread = new Thread(runnable, "TopologySoak-Checker");
+                checkerThread.setDaemon(true);
+                return (checkerThread);
+            });
+            checker.scheduleWithFixedDelay(this::checkConsistency, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread workerThread = new Thread(runnable, "TopologySoak-Worker");
+            workerThread.setDaemon(true);
+            return (workerThread);
+        });
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        ArrayList<Future<?>> workerResults = new ArrayList<Future<?>>();
+        for (int workerIndex = 0; workerIndex < threadCount; workerIndex++) {
+            SoakWorker worker = new SoakWorker(workerIndex);
+            workerResults.add(workers.submit(() -> worker.run(deadlineNanos)));
+        }
+        for (Future<?> currentResult : workerResults) {
+            try {
+                currentResult.get();
+            } catch (java.util.concurrent.ExecutionException workerException) {
+                recordFailure("worker failed --> " + workerException.getCause());
+            }
+        }
+        workers.shutdown();
+        if (checker != null) {
+            checker.shutdown();
+            checker.awaitTermination(durationMillis, TimeUnit.MILLISECONDS);
+        }
+        checkConsistency();
+        boolean passed = failures.isEmpty();
+        LOG.info(".run(): Exit, passed --> {}", passed);
+        return (passed);
+    }
+
+    private void checkConsistency() {
+        int checkNumber = consistencyCheckCount.incrementAndGet();
+        try {
+            List<String> violations = topologyIM.verifyTopologyConsistency();
+            for (String currentViolation : violations) {
+                recordFailure("consistency check " + checkNumber + ": " + currentViolation);
+            }
+        } catch (RuntimeException checkException) {
+            recordFailure("consistency check " + checkNumber + " failed --> " + checkException);
+        }
+    }
+
+    private void recordFailure(String failure) {
+        LOG.warn(".recordFailure(): {}", failure);
+        synchronized (failures) {
+            if (failures.size() < MAXIMUM_RECORDED_FAILURES) {
+                failures.add(failure);
+            }
+        }
+    }
+
+    /**
+     * A worker owns a fixed set of transient WUP "slots", each contained by one of the base
+     * Platforms, so no two workers ever register or unregister the same element.
+     */
+    private class SoakWorker {
+        final int workerIndex;
+        final NodeElement[] slotNodes;
+        final EndpointElement[] slotEndpoints;
+        final LinkElement[] slotLinks;
+        final boolean[] slotRegistered;
+        int registeredCount;
+
+        SoakWorker(int workerIndex) {
+            this.workerIndex = workerIndex;
+            this.slotNodes = new NodeElement[slotsPerThread];
+            this.slotEndpoints = new EndpointElement[slotsPerThread];
+            this.slotLinks = new LinkElement[slotsPerThread];
+            this.slotRegistered = new boolean[slotsPerThread];
+            this.registeredCount = 0;
+            for (int slot = 0; slot < slotsPerThread; slot++) {
+                int platformIndex = (workerIndex * slotsPerThread + slot) % basePlatforms.size();
+                List<RDN> wupPath = childPath(basePlatformPaths.get(platformIndex), NodeElementTypeEnum.WUP, "Soak-" + workerIndex + "-" + slot);
+                slotNodes[slot] = newElementNode(wupPath, NodeElementTypeEnum.WUP, basePlatforms.get(platformIndex).getNodeInstanceID());
+                slotEndpoints[slot] = newEndpoint(wupPath);
+                slotNodes[slot].getEndpoints().add(slotEndpoints[slot].getEndpointInstanceID());
+                EndpointElement linkTarget = baseEndpoints.get((workerIndex + slot) % baseEndpoints.size());
+                slotLinks[slot] = newLink(wupPath, slotEndpoints[slot].getEndpointInstanceID(), linkTarget.getEndpointInstanceID());
+            }
+        }
+
+        void run(long deadlineNanos) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadlineNanos) {
+                TopologySoakOperationEnum operation = chooseOperation(random);
+                long startNanos = System.nanoTime();
+                try {
+                    perform(operation, random);
+                } catch (RuntimeException operationException) {
+                    operationFailures.incrementAndGet(operation.ordinal());
+                    recordFailure("worker " + workerIndex + ": " + operation.getOperationName() + " threw --> " + operationException);
+                } finally {
+                    operationLatencies[operation.ordinal()].recordValue(System.nanoTime() - startNanos);
+                }
+            }
+            for (int slot = 0; slot < slotsPerThread; slot++) {
+                if (slotRegistered[slot]) {
+                    unregister(slot);
+                }
+            }
+        }
+
+        TopologySoakOperationEnum chooseOperation(ThreadLocalRandom random) {
+            int choice = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int index = 0; index < cumulativeWeights.length; index++) {
+                if (choice < cumulativeWeights[index]) {
+                    return (operationChoices[index]);
+                }
+            }
+            return (operationChoices[operationChoices.length - 1]);
+        }
+
+        void perform(TopologySoakOperationEnum operation, ThreadLocalRandom random) {
+            switch (operation) {
+                case REGISTER:
+                    register(random.nextInt(slotsPerThread));
+                    break;
+                case UNREGISTER:
+                    if (registeredCount > 0) {
+                        int slot = random.nextInt(slotsPerThread);
+                        while (!slotRegistered[slot]) {
+                            slot = (slot + 1) % slotsPerThread;
+                        }
+                        unregister(slot);
+                    }
+                    break;
+                case GET_BY_ID:
+                    getById(random);
+                    break;
+                case GET_BY_NAME_TYPE_VERSION:
+                    getByNameTypeVersion(random);
+                    break;
+                case CONTAINMENT_WALK:
+                    containmentWalk(random);
+                    break;
+                case SET_ENUMERATION:
+                    enumerateSets();
+                    break;
+            }
+        }
+
+        /**
+         * Registers (or, if already registered, re-registers) a slot - Endpoint first, then the Node,
+         * then its Link.
+         */
+        void register(int slot) {
+            topologyIM.registerEndpoint(slotEndpoints[slot]);
+            topologyIM.registerNode(slotNodes[slot]);
+            topologyIM.registerLink(slotLinks[slot]);
+            if (!slotRegistered[slot]) {
+                slotRegistered[slot] = true;
+                registeredCount++;
+            }
+        }
+
+        void unregister(int slot) {
+            topologyIM.unregisterLink(slotLinks[slot].getLinkID());
+            topologyIM.unregisterNode(slotNodes[slot].getNodeInstanceID());
+            topologyIM.unregisterEndpoint(slotEndpoints[slot].getEndpointInstanceID());
+            slotRegistered[slot] = false;
+            registeredCount--;
+        }
+
+        void getById(ThreadLocalRandom random) {
+            NodeElement baseNode = baseNodes.get(random.nextInt(baseNodes.size()));
+            if (topologyIM.getNode(baseNode.getNodeInstanceID()) != baseNode) {
+                recordFailure("worker " + workerIndex + ": base node not found by identifier --> " + baseNode);
+            }
+            int slot = random.nextInt(slotsPerThread);
+            NodeElement slotNode = topologyIM.getNode(slotNodes[slot].getNodeInstanceID());
+            if ((slotNode != null) != slotRegistered[slot]) {
+                recordFailure("worker " + workerIndex + ": transient node " + slotNodes[slot] + " registered --> " + slotRegistered[slot] + ", but found --> " + (slotNode != null));
+            }
+        }
+
+        void getByNameTypeVersion(ThreadLocalRandom random) {
+            int nodeIndex = random.nextInt(baseNodes.size());
+            NodeElement baseNode = baseNodes.get(nodeIndex);
+            NodeElement foundNode = topologyIM.getNode(baseNodeNames.get(nodeIndex), baseNode.getNodeArchetype(), baseNode.getVersion());
+            if (foundNode != baseNode) {
+                recordFailure("worker " + workerIndex + ": base node not found by name, type and version --> " + baseNode + ", found --> " + foundNode);
+            }
+        }
+
+        /**
+         * Walks from a Node up to the Solution, then lists the contained Nodes of its Platform.
+         */
+        void containmentWalk(ThreadLocalRandom random) {
+            NodeElement currentNode = baseNodes.get(random.nextInt(baseNodes.size()));
+            int depth = 0;
+            while (currentNode.getContainingElementID() != null) {
+                NodeElement containingNode = topologyIM.getNode(currentNode.getContainingElementID());
+                if (containingNode == null || ++depth > MAXIMUM_CONTAINMENT_DEPTH) {
+                    recordFailure("worker " + workerIndex + ": broken containment chain above --> " + currentNode);
+                    return;
+                }
+                currentNode = containingNode;
+            }
+            if (currentNode.getNodeArchetype() != NodeElementTypeEnum.SOLUTION) {
+                recordFailure("worker " + workerIndex + ": containment chain ends at a non-solution node --> " + currentNode);
+            }
+            NodeElement platform = basePlatforms.get(random.nextInt(basePlatforms.size()));
+            String platformKey = platform.getNodeInstanceID().toFullString();
+            for (NodeElement containedNode : topologyIM.getContainedNodes(platform.getNodeInstanceID())) {
+                if (containedNode.getContainingElementID() == null || !containedNode.getContainingElementID().toFullString().contentEquals(platformKey)) {
+                    recordFailure("worker " + workerIndex + ": " + platform + " lists " + containedNode + " as contained, but it names another containing node");
+                }
+            }
+        }
+
+        void enumerateSets() {
+            int nodeCount = topologyIM.getNodeSet().size();
+            int endpointCount = topologyIM.getEndpointSet().size();
+            int linkCount = topologyIM.getLinkSet().size();
+            if (nodeCount < baseNodes.size() || endpointCount < baseEndpoints.size() || linkCount < baseLinks.size()) {
+                recordFailure("worker " + workerIndex + ": element sets smaller than the base topology --> nodes " + nodeCount + ", endpoints " + endpointCount + ", links " + linkCount);
+            }
+        }
+    }
+
+    //
+    // Reporting
+    //
+
+    public LatencyHistogram getOperationLatency(TopologySoakOperationEnum operation) {
+        return (operationLatencies[operation.ordinal()]);
+    }
+
+    public List<String> getFailures() {
+        synchronized (failures) {
+            return (new ArrayList<String>(failures));
+        }
+    }
+
+    /**
+     * @return The number of consistency checks run so far (including the final one)
+     */
+    public int getConsistencyCheckCount() {
+        return (consistencyCheckCount.get());
+    }
+
+    public void printReport(PrintStream output) {
+        output.println("Topology soak: threads=" + threadCount + ", durationMillis=" + durationMillis + ", consistency checks=" + consistencyCheckCount.get());
+        for (TopologySoakOperationEnum currentOperation : TopologySoakOperationEnum.values()) {
+            LatencyHistogram latency = operationLatencies[currentOperation.ordinal()];
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            output.printf("  %s: count=%d, failures=%d, mean=%.2fus, p50=%.2fus, p99=%.2fus, p99.9=%.2fus, max=%.2fus%n",
+                    currentOperation.getOperationName(), latency.getCount(), operationFailures.get(currentOperation.ordinal()),
+                    latency.getMean() / 1000.0, latency.getValueAtPercentile(50.0) / 1000.0, latency.getValueAtPercentile(99.0) / 1000.0,
+                    latency.getValueAtPercentile(99.9) / 1000.0, latency.getMaximum() / 1000.0);
+        }
+        output.println("TopologyIM operations:");
+        for (String currentLine : topologyIM.getMetrics().getOperationLatencySummary()) {
+            output.println("  " + currentLine);
+        }
+        List<String> recordedFailures = getFailures();
+        output.println("Failures: " + recordedFailures.size());
+        for (String currentFailure : recordedFailures) {
+            output.println("  " + currentFailure);
+        }
+    }
+
+    //
+    // Command Line
+    //
+
+    public static void main(String[] args) throws InterruptedException {
+        int threadCount = DEFAULT_THREAD_COUNT;
+        long durationMillis = DEFAULT_DURATION_MILLIS;
+        long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+        int baseNodeCount = DEFAULT_BASE_NODE_COUNT;
+        String operationMix = DEFAULT_OPERATION_MIX;
+        boolean asyncMutations = false;
+        for (int index = 0; index < args.length; index++) {
+            switch (args[index]) {
+                case "-threads":
+                    threadCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-durationSeconds":
+                    durationMillis = Long.parseLong(args[++index]) * 1000;
+                    break;
+                case "-checkIntervalSeconds":
+                    checkIntervalMillis = Long.parseLong(args[++index]) * 1000;
+                    break;
+                case "-baseNodes":
+                    baseNodeCount = Integer.parseInt(args[++index]);
+                    break;
+                case "-mix":
+                    operationMix = args[++index];
+                    break;
+                case "-async":
+                    asyncMutations = true;
+                    break;
+                default:
+                    throw (new IllegalArgumentException(".main(): unknown argument --> " + args[index]));
+            }
+        }
+        TopologyIM topologyIM = new TopologyIM(new TopologyDM());
+        if (asyncMutations) {
+            topologyIM.enableAsyncMutations(TopologyMutationPipeline.DEFAULT_QUEUE_CAPACITY, TopologyMutationPipeline.DEFAULT_MAXIMUM_BATCH_SIZE, TopologyBackPressurePolicyEnum.BLOCK, 0);
+        }
+        TopologySoakHarness harness = new TopologySoakHarness(topologyIM, threadCount, durationMillis, checkIntervalMillis, parseOperationMix(operationMix));
+        harness.populate(baseNodeCount);
+        boolean passed = harness.run();
+        topologyIM.disableAsyncMutations();
+        harness.printReport(System.out);
+        System.exit(passed ? 0 : 1);
+    }
+}
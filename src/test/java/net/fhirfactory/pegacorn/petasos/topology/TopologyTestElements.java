@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+
+/**
+ * Builds (unregistered) topology elements for the tests, with identifiers built from RDNs in the
+ * same way as a deployed topology's: a Node's identifier extends its containing Node's, and an
+ * Endpoint's (or Link's) identifier extends its Node's.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public final class TopologyTestElements {
+
+    public static final String VERSION = "1.0.0";
+    public static final String ENDPOINT_QUALIFIER = "Endpoint";
+    public static final String LINK_QUALIFIER = "Link";
+
+    private TopologyTestElements() {
+    }
+
+    /**
+     * @param containingNode The containing Node (or null for a top-level Node)
+     * @param nodeType The type of the Node
+     * @param name The unqualified name of the Node
+     * @return A new Node, in place, with explicit STANDALONE modes
+     */
+    public static NodeElement newNode(NodeElement containingNode, NodeElementTypeEnum nodeType, String name) {
+        NodeElement node = newNodeWithoutModes(containingNode, nodeType, name);
+        node.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE);
+        node.setResilienceMode(ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
+        return (node);
+    }
+
+    /**
+     * @return A new Node, in place, without modes of its own (so inheriting its containing Node's)
+     */
+    public static NodeElement newNodeWithoutModes(NodeElement containingNode, NodeElementTypeEnum nodeType, String name) {
+        NodeElement node = new NodeElement();
+        if (containingNode == null) {
+            node.setNodeInstanceID(new NodeElementIdentifier(extend(null, nodeType.getNodeElementType(), name).getToken()));
+        } else {
+            node.setNodeInstanceID(new NodeElementIdentifier(extend(new FDN(containingNode.getNodeInstanceID()), nodeType.getNodeElementType(), name).getToken()));
+            node.setContainingElementID(containingNode.getNodeInstanceID());
+        }
+        node.setNodeArchetype(nodeType);
+        node.setVersion(VERSION);
+        node.setInstanceInPlace(true);
+        return (node);
+    }
+
+    /**
+     * @param node The Node the Endpoint belongs to (the Endpoint is added to the Node's Endpoints)
+     * @param name The unqualified name of the Endpoint
+     * @return A new Endpoint
+     */
+    public static EndpointElement newEndpoint(NodeElement node, String name) {
+        EndpointElement endpoint = newEndpoint(node.getNodeInstanceID(), name);
+        node.getEndpoints().add(endpoint.getEndpointInstanceID());
+        return (endpoint);
+    }
+
+    /**
+     * @param nodeID The identifier of the Node the Endpoint belongs to (the Node is not changed)
+     * @param name The unqualified name of the Endpoint
+     * @return A new Endpoint
+     */
+    public static EndpointElement newEndpoint(NodeElementIdentifier nodeID, String name) {
+        EndpointElement endpoint = new EndpointElement();
+        endpoint.setEndpointInstanceID(new EndpointElementIdentifier(extend(new FDN(nodeID), ENDPOINT_QUALIFIER, name).getToken()));
+        endpoint.setVersion(VERSION);
+        return (endpoint);
+    }
+
+    /**
+     * @param source The Endpoint the Link leaves (its identifier is extended for the Link's)
+     * @param target The Endpoint the Link enters
+     * @param name The unqualified name of the Link
+     * @return A new Link
+     */
+    public static LinkElement newLink(EndpointElement source, EndpointElement target, String name) {
+        LinkElement link = new LinkElement();
+        link.setLinkID(new LinkElementIdentifier(extend(new FDN(source.getEndpointInstanceID()), LINK_QUALIFIER, name).getToken()));
+        link.setSource(source.getEndpointInstanceID());
+        link.setTarget(target.getEndpointInstanceID());
+        return (link);
+    }
+
+    private static FDN extend(FDN fdn, String qualifier, String value) {
+        FDN extendedFDN = fdn == null ? new FDN() : fdn;
+        extendedFDN.appendRDN(new RDN(qualifier, value));
+        return (extendedFDN);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of the CompressedBitmap - membership across chunk boundaries, and that an emptied chunk is
+ * released.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class CompressedBitmapTest {
+
+    @Test
+    public void membershipSpansChunks() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        int[] ordinals = {0, 63, 64, CompressedBitmap.CHUNK_SIZE - 1, CompressedBitmap.CHUNK_SIZE, 10 * CompressedBitmap.CHUNK_SIZE + 7};
+
+        for (int ordinal : ordinals) {
+            assertThat(bitmap.add(ordinal)).isTrue();
+        }
+        assertThat(bitmap.add(64)).isFalse();
+
+        assertThat(bitmap.getCardinality()).isEqualTo(ordinals.length);
+        for (int ordinal : ordinals) {
+            assertThat(bitmap.contains(ordinal)).isTrue();
+        }
+        assertThat(bitmap.contains(65)).isFalse();
+        assertThat(bitmap.contains(20 * CompressedBitmap.CHUNK_SIZE)).isFalse();
+        assertThat(bitmap.getChunkCount()).isGreaterThanOrEqualTo(11);
+        assertThat(bitmap.getChunk(5)).isNull();
+        assertThat(bitmap.getChunk(1)[0]).isEqualTo(1L);
+    }
+
+    @Test
+    public void emptiedChunkIsReleased() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        bitmap.add(CompressedBitmap.CHUNK_SIZE + 1);
+        bitmap.add(CompressedBitmap.CHUNK_SIZE + 2);
+
+        assertThat(bitmap.remove(CompressedBitmap.CHUNK_SIZE + 1)).isTrue();
+        assertThat(bitmap.getChunk(1)).isNotNull();
+        assertThat(bitmap.remove(CompressedBitmap.CHUNK_SIZE + 2)).isTrue();
+        assertThat(bitmap.remove(CompressedBitmap.CHUNK_SIZE + 2)).isFalse();
+
+        assertThat(bitmap.getChunk(1)).isNull();
+        assertThat(bitmap.getCardinality()).isZero();
+        assertThat(bitmap.remove(100 * CompressedBitmap.CHUNK_SIZE)).isFalse();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests of the ContainmentTree - in particular that a containing node which would make a node
+ * (transitively) contain itself is rejected, leaving the tree (and the TopologyDM) unchanged.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class ContainmentTreeTest {
+
+    private NodeElement solution;
+    private NodeElement site;
+    private NodeElement platform;
+    private NodeElement wup;
+    private ContainmentTree containmentTree;
+
+    @BeforeEach
+    public void buildNodes() {
+        solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        site = TopologyTestElements.newNode(solution, NodeElementTypeEnum.SITE, "Site");
+        platform = TopologyTestElements.newNode(site, NodeElementTypeEnum.PLATFORM, "Platform");
+        wup = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-0");
+        containmentTree = new ContainmentTree(new ParsedIdentifierCache());
+        containmentTree.addNode(solution.getNodeInstanceID(), null);
+        containmentTree.addNode(site.getNodeInstanceID(), solution.getNodeInstanceID());
+        containmentTree.addNode(platform.getNodeInstanceID(), site.getNodeInstanceID());
+    }
+
+    @Test
+    public void ancestorPathsFollowContainment() {
+        containmentTree.addNode(wup.getNodeInstanceID(), platform.getNodeInstanceID());
+
+        assertThat(containmentTree.isAncestorOf(solution.getNodeInstanceID(), wup.getNodeInstanceID())).isTrue();
+        assertThat(containmentTree.isAncestorOf(wup.getNodeInstanceID(), solution.getNodeInstanceID())).isFalse();
+        assertThat(containmentTree.getDepth(wup.getNodeInstanceID())).isEqualTo(3);
+        assertThat(containmentTree.getSubtreeSize(solution.getNodeInstanceID())).isEqualTo(4);
+    }
+
+    @Test
+    public void nodeCannotContainItself() {
+        assertThatThrownBy(() -> containmentTree.addNode(site.getNodeInstanceID(), site.getNodeInstanceID()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(containmentTree.getDepth(site.getNodeInstanceID())).isEqualTo(1);
+    }
+
+    @Test
+    public void nodeCannotBeMovedBeneathItsOwnDescendant() {
+        assertThatThrownBy(() -> containmentTree.addNode(solution.getNodeInstanceID(), platform.getNodeInstanceID()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(containmentTree.getRootKeys()).containsExactly(TopologyDM.canonicalKey(solution.getNodeInstanceID()));
+        assertThat(containmentTree.getDepth(platform.getNodeInstanceID())).isEqualTo(2);
+        assertThat(containmentTree.getSubtreeSize(solution.getNodeInstanceID())).isEqualTo(3);
+    }
+
+    @Test
+    public void newNodeCannotAdoptItsOwnContainer() {
+        // the solution is held as a root, waiting for the wup (which isn't yet registered) to contain it
+        containmentTree.addNode(solution.getNodeInstanceID(), wup.getNodeInstanceID());
+
+        assertThatThrownBy(() -> containmentTree.addNode(wup.getNodeInstanceID(), platform.getNodeInstanceID()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(containmentTree.contains(wup.getNodeInstanceID())).isFalse();
+        assertThat(containmentTree.getSubtreeSize(solution.getNodeInstanceID())).isEqualTo(3);
+    }
+
+    @Test
+    public void topologyDMRejectsCycleWithoutChange() {
+        TopologyDM topologyDM = new TopologyDM();
+        topologyDM.addTopology(Arrays.asList(solution, site, platform), Collections.emptyList(), Collections.emptyList());
+        long epoch = topologyDM.getEpoch();
+        NodeElement movedSolution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        movedSolution.setContainingElementID(platform.getNodeInstanceID());
+
+        assertThatThrownBy(() -> topologyDM.addNode(movedSolution)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> topologyDM.addTopology(Arrays.asList(wup, movedSolution), Collections.emptyList(), Collections.emptyList()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(topologyDM.getEpoch()).isEqualTo(epoch);
+        assertThat(topologyDM.getNode(wup.getNodeInstanceID())).isNull();
+        assertThat(topologyDM.getNode(solution.getNodeInstanceID())).isSameAs(solution);
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the inheritance of effective modes down the containment hierarchy (via the TopologyDM), and
+ * that a mode set directly on a registered NodeElement is seen by the next query.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class EffectiveModeTableTest {
+
+    private TopologyDM topologyDM;
+    private NodeElement platform;
+    private NodeElement service;
+    private NodeElement wup;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        platform.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+        service = TopologyTestElements.newNodeWithoutModes(platform, NodeElementTypeEnum.SERVICE, "Service");
+        wup = TopologyTestElements.newNodeWithoutModes(service, NodeElementTypeEnum.WUP, "wup-0");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        topologyDM.addNode(service);
+        topologyDM.addNode(wup);
+    }
+
+    @Test
+    public void modesAreInheritedFromTheNearestContainingNode() {
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+        assertThat(topologyDM.getEffectiveResilienceMode(wup.getNodeInstanceID())).isEqualTo(ResilienceModeEnum.RESILIENCE_MODE_STANDALONE);
+        assertThat(topologyDM.countNodes(NodeAttributeQuery.concurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT))).isEqualTo(3);
+    }
+
+    @Test
+    public void equalIdentifierInstancesFindTheSameModes() {
+        NodeElementIdentifier equalID = new NodeElementIdentifier(wup.getNodeInstanceID().getContent());
+
+        assertThat(topologyDM.getEffectiveConcurrencyMode(equalID)).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+    }
+
+    @Test
+    public void modeSetDirectlyOnTheNodeIsSeen() {
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+
+        wup.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND);
+
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND);
+        assertThat(topologyDM.countNodes(NodeAttributeQuery.concurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND))).isEqualTo(1);
+    }
+
+    @Test
+    public void modeSetDirectlyOnAContainingNodeIsSeenByTheNodesInheritingIt() {
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+
+        platform.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND);
+        service.setResilienceMode(ResilienceModeEnum.RESILIENCE_MODE_MULTISITE);
+
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND);
+        assertThat(topologyDM.getEffectiveResilienceMode(wup.getNodeInstanceID())).isEqualTo(ResilienceModeEnum.RESILIENCE_MODE_MULTISITE);
+        assertThat(topologyDM.getEffectiveConcurrencyMode(service.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND);
+    }
+
+    @Test
+    public void removedNodeFallsBackToTheDefaultModes() {
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+
+        topologyDM.removeNode(service.getNodeInstanceID());
+        topologyDM.removeNode(wup.getNodeInstanceID());
+
+        assertThat(topologyDM.getEffectiveConcurrencyMode(wup.getNodeInstanceID())).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_STANDALONE);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of the LinkGraph path queries (via the TopologyDM) - the paths themselves, and that their
+ * results are memoised while the topology epoch is unchanged and recomputed once it moves on.
+ * <p>
+ * The topology is a chain of WUPs, each linked (egress Endpoint to ingress Endpoint) to the next.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class LinkGraphTest {
+
+    private static final int CHAIN_LENGTH = 4;
+
+    private TopologyDM topologyDM;
+    private List<NodeElement> wups;
+    private List<LinkElement> links;
+
+    @BeforeEach
+    public void buildChain() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        NodeElement platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        wups = new ArrayList<NodeElement>();
+        links = new ArrayList<LinkElement>();
+        EndpointElement previousEgress = null;
+        for (int index = 0; index < CHAIN_LENGTH; index++) {
+            NodeElement wup = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-" + index);
+            EndpointElement ingress = TopologyTestElements.newEndpoint(wup, "ingress");
+            EndpointElement egress = TopologyTestElements.newEndpoint(wup, "egress");
+            topologyDM.addEndpoint(ingress);
+            topologyDM.addEndpoint(egress);
+            topologyDM.addNode(wup);
+            wups.add(wup);
+            if (previousEgress != null) {
+                LinkElement link = TopologyTestElements.newLink(previousEgress, ingress, "link-" + index);
+                topologyDM.addLink(link);
+                links.add(link);
+            }
+            previousEgress = egress;
+        }
+    }
+
+    @Test
+    public void shortestPathFollowsTheChain() {
+        List<LinkElement> path = topologyDM.getShortestPath(wups.get(0).getNodeInstanceID(), wups.get(CHAIN_LENGTH - 1).getNodeInstanceID());
+
+        assertThat(path).containsExactlyElementsOf(links);
+        assertThat(topologyDM.getShortestPath(wups.get(1).getNodeInstanceID(), wups.get(1).getNodeInstanceID())).isEmpty();
+        assertThat(topologyDM.getShortestPath(wups.get(CHAIN_LENGTH - 1).getNodeInstanceID(), wups.get(0).getNodeInstanceID())).isNull();
+    }
+
+    @Test
+    public void endpointStandsForItsNode() {
+        assertThat(topologyDM.isReachable(links.get(0).getSource(), wups.get(CHAIN_LENGTH - 1).getNodeInstanceID())).isTrue();
+        assertThat(topologyDM.getOutgoingLinks(wups.get(0).getNodeInstanceID())).containsExactly(links.get(0));
+        assertThat(topologyDM.getIncomingLinks(links.get(0).getTarget())).containsExactly(links.get(0));
+        assertThat(topologyDM.getDownstreamNodes(wups.get(1).getNodeInstanceID())).containsExactlyInAnyOrderElementsOf(wups.subList(2, CHAIN_LENGTH));
+    }
+
+    @Test
+    public void resultsAreMemoisedUntilTheEpochMovesOn() {
+        List<LinkElement> firstPath = topologyDM.getShortestPath(wups.get(0).getNodeInstanceID(), wups.get(CHAIN_LENGTH - 1).getNodeInstanceID());
+        List<NodeElement> firstDownstream = topologyDM.getDownstreamNodes(wups.get(0).getNodeInstanceID());
+
+        assertThat(topologyDM.getShortestPath(wups.get(0).getNodeInstanceID(), wups.get(CHAIN_LENGTH - 1).getNodeInstanceID())).isSameAs(firstPath);
+        assertThat(topologyDM.getDownstreamNodes(wups.get(0).getNodeInstanceID())).isSameAs(firstDownstream);
+
+        topologyDM.removeLink(links.get(1).getLinkID());
+
+        assertThat(topologyDM.getShortestPath(wups.get(0).getNodeInstanceID(), wups.get(CHAIN_LENGTH - 1).getNodeInstanceID())).isNull();
+        assertThat(topologyDM.isReachable(wups.get(0).getNodeInstanceID(), wups.get(CHAIN_LENGTH - 1).getNodeInstanceID())).isFalse();
+        assertThat(topologyDM.getDownstreamNodes(wups.get(0).getNodeInstanceID())).containsExactly(wups.get(1));
+    }
+
+    @Test
+    public void unrelatedChangeInvalidatesMemoisedResult() {
+        List<LinkElement> firstPath = topologyDM.getShortestPath(wups.get(0).getNodeInstanceID(), wups.get(2).getNodeInstanceID());
+
+        topologyDM.setNodeInstanceInPlace(wups.get(CHAIN_LENGTH - 1).getNodeInstanceID(), false);
+        List<LinkElement> secondPath = topologyDM.getShortestPath(wups.get(0).getNodeInstanceID(), wups.get(2).getNodeInstanceID());
+
+        assertThat(secondPath).isNotSameAs(firstPath);
+        assertThat(secondPath).isEqualTo(firstPath);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the validation of a mapped topology snapshot file (an absent, corrupt, truncated, stale or
+ * differently versioned file is ignored), and the TopologyDM's warm-start from one - single element
+ * lookups are served from the mapped file, and the snapshot is only materialised when needed.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class MappedTopologySnapshotTest {
+
+    private static final long ONE_HOUR_MILLIS = 60L * 60L * 1000L;
+
+    @TempDir
+    Path snapshotDirectory;
+
+    private Path snapshotFile;
+    private NodeElement platform;
+    private NodeElement wup;
+    private EndpointElement endpoint;
+    private LinkElement link;
+    private long writtenEpoch;
+
+    @BeforeEach
+    public void writeSnapshot() throws IOException {
+        TopologyDM topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        wup = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-0");
+        endpoint = TopologyTestElements.newEndpoint(wup, "ingress");
+        EndpointElement platformEndpoint = TopologyTestElements.newEndpoint(platform, "egress");
+        link = TopologyTestElements.newLink(endpoint, platformEndpoint, "link-0");
+        topologyDM.addTopology(Arrays.asList(solution, platform, wup), Arrays.asList(link), Arrays.asList(endpoint, platformEndpoint));
+        for (int count = 1; count < 20; count++) {
+            topologyDM.addNode(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-" + count));
+        }
+        writtenEpoch = topologyDM.getEpoch();
+        snapshotFile = snapshotDirectory.resolve("topology.snapshot");
+        topologyDM.writeSnapshot(snapshotFile);
+    }
+
+    @Test
+    public void validSnapshotIsOpened() {
+        MappedTopologySnapshot snapshot = MappedTopologySnapshot.open(snapshotFile, ONE_HOUR_MILLIS);
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.getEpoch()).isEqualTo(writtenEpoch);
+        assertThat(snapshot.getNodeCount()).isEqualTo(22);
+        assertThat(snapshot.getLinkCount()).isEqualTo(1);
+        assertThat(snapshot.getEndpointCount()).isEqualTo(2);
+        assertThat(snapshot.getNode(TopologyDM.canonicalKey(wup.getNodeInstanceID())).getVersion()).isEqualTo(TopologyTestElements.VERSION);
+        assertThat(snapshot.getNode(TopologyDM.canonicalKey(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-99").getNodeInstanceID()))).isNull();
+    }
+
+    @Test
+    public void absentFileIsIgnored() {
+        assertThat(MappedTopologySnapshot.open(snapshotDirectory.resolve("absent.snapshot"), 0)).isNull();
+        assertThat(MappedTopologySnapshot.open(null, 0)).isNull();
+    }
+
+    @Test
+    public void fileWithABadMagicNumberIsIgnored() throws IOException {
+        rewriteHeader(header -> header.putInt(0, header.getInt(0) ^ 0xFFFF));
+
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 0)).isNull();
+    }
+
+    @Test
+    public void fileOfADifferentFormatVersionIsIgnored() throws IOException {
+        rewriteHeader(header -> header.putInt(4, MappedTopologySnapshot.FORMAT_VERSION + 1));
+
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 0)).isNull();
+    }
+
+    @Test
+    public void truncatedFileIsIgnored() throws IOException {
+        byte[] content = Files.readAllBytes(snapshotFile);
+        Files.write(snapshotFile, Arrays.copyOf(content, content.length - 10));
+
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 0)).isNull();
+
+        Files.write(snapshotFile, Arrays.copyOf(content, 20));
+
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 0)).isNull();
+    }
+
+    @Test
+    public void fileWithACorruptBodyIsIgnored() throws IOException {
+        byte[] content = Files.readAllBytes(snapshotFile);
+        content[content.length - 1] ^= 0x01;
+        Files.write(snapshotFile, content);
+
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 0)).isNull();
+    }
+
+    @Test
+    public void staleFileIsIgnoredUnlessAnyAgeIsAcceptable() throws IOException {
+        rewriteHeader(header -> header.putLong(16, System.currentTimeMillis() - 2 * ONE_HOUR_MILLIS));
+
+        assertThat(MappedTopologySnapshot.open(snapshotFile, ONE_HOUR_MILLIS)).isNull();
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 3 * ONE_HOUR_MILLIS)).isNotNull();
+        assertThat(MappedTopologySnapshot.open(snapshotFile, 0)).isNotNull();
+    }
+
+    @Test
+    public void singleElementLookupsAreServedBeforeMaterialisation() {
+        TopologyDM restoredDM = new TopologyDM();
+        assertThat(restoredDM.restoreSnapshot(MappedTopologySnapshot.open(snapshotFile, 0))).isTrue();
+
+        NodeElement restoredWUP = restoredDM.getNode(wup.getNodeInstanceID());
+        assertThat(restoredWUP).isNotNull();
+        assertThat(restoredWUP.getNodeInstanceID().getContent()).isEqualTo(wup.getNodeInstanceID().getContent());
+        assertThat(restoredDM.getNode(wup.getNodeInstanceID())).isSameAs(restoredWUP);
+        assertThat(restoredDM.getEndpoint(endpoint.getEndpointInstanceID())).isNotNull();
+        assertThat(restoredDM.getLink(link.getLinkID())).isNotNull();
+        assertThat(restoredDM.getNode(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-99").getNodeInstanceID())).isNull();
+        // nothing has been materialised (which would publish the snapshot as a new epoch)
+        assertThat(restoredDM.getEpoch()).isZero();
+
+        assertThat(restoredDM.getNodeSet()).hasSize(22);
+        assertThat(restoredDM.getEpoch()).isEqualTo(1);
+        assertThat(restoredDM.getNode(wup.getNodeInstanceID())).isSameAs(restoredWUP);
+        assertThat(restoredDM.getContainedNodes(platform.getNodeInstanceID())).hasSize(20);
+        assertThat(restoredDM.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void mutationMaterialisesTheSnapshot() {
+        TopologyDM restoredDM = new TopologyDM();
+        restoredDM.restoreSnapshot(MappedTopologySnapshot.open(snapshotFile, 0));
+
+        restoredDM.addNode(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-20"));
+
+        assertThat(restoredDM.getEpoch()).isEqualTo(2);
+        assertThat(restoredDM.getNodeSet()).hasSize(23);
+        assertThat(restoredDM.restoreSnapshot(MappedTopologySnapshot.open(snapshotFile, 0))).isFalse();
+        assertThat(restoredDM.verifyConsistency()).isEmpty();
+    }
+
+    /**
+     * Rewrites (just) the header of the snapshot file - the checksum only covers the body.
+     */
+    private void rewriteHeader(Consumer<ByteBuffer> headerChange) throws IOException {
+        byte[] content = Files.readAllBytes(snapshotFile);
+        headerChange.accept(ByteBuffer.wrap(content));
+        Files.write(snapshotFile, content);
+    }
+}
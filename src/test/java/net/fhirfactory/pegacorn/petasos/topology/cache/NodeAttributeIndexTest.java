@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of the NodeAttributeIndex queries - against a brute-force evaluation over ordinals spread
+ * across several bitmap chunks, and (through the TopologyDM) against the Nodes' effective modes and
+ * instance-in-place states as they change.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeAttributeIndexTest {
+
+    private static final int ORDINAL_COUNT = 3 * CompressedBitmap.CHUNK_SIZE + 100;
+
+    @Test
+    public void queriesMatchBruteForceEvaluation() {
+        Random random = new Random(20200701L);
+        NodeElementTypeEnum[] archetypes = new NodeElementTypeEnum[ORDINAL_COUNT];
+        ConcurrencyModeEnum[] concurrencyModes = new ConcurrencyModeEnum[ORDINAL_COUNT];
+        boolean[] inPlace = new boolean[ORDINAL_COUNT];
+        boolean[] present = new boolean[ORDINAL_COUNT];
+        NodeAttributeIndex index = new NodeAttributeIndex();
+        for (int ordinal = 0; ordinal < ORDINAL_COUNT; ordinal++) {
+            if (random.nextInt(4) == 0) {
+                continue;
+            }
+            NodeElement node = new NodeElement();
+            node.setNodeArchetype(NodeElementTypeEnum.values()[random.nextInt(NodeElementTypeEnum.values().length)]);
+            node.setInstanceInPlace(random.nextBoolean());
+            ConcurrencyModeEnum concurrencyMode = ConcurrencyModeEnum.values()[random.nextInt(ConcurrencyModeEnum.values().length)];
+            index.updateNode(ordinal, node);
+            index.updateModes(ordinal, EffectiveModeTable.EffectiveModes.of(concurrencyMode, ResilienceModeEnum.RESILIENCE_MODE_STANDALONE));
+            archetypes[ordinal] = node.getNodeArchetype();
+            concurrencyModes[ordinal] = concurrencyMode;
+            inPlace[ordinal] = node.isInstanceInPlace();
+            present[ordinal] = true;
+        }
+        for (int ordinal = 0; ordinal < ORDINAL_COUNT; ordinal += 7) {
+            index.removeNode(ordinal);
+            present[ordinal] = false;
+        }
+
+        assertMatches(index, NodeAttributeQuery.allNodes(), ordinal -> present[ordinal]);
+        assertMatches(index, NodeAttributeQuery.archetype(NodeElementTypeEnum.WUP),
+                ordinal -> present[ordinal] && archetypes[ordinal] == NodeElementTypeEnum.WUP);
+        assertMatches(index, NodeAttributeQuery.archetype(NodeElementTypeEnum.WUP).and(NodeAttributeQuery.instanceInPlace(false)),
+                ordinal -> present[ordinal] && archetypes[ordinal] == NodeElementTypeEnum.WUP && !inPlace[ordinal]);
+        assertMatches(index, NodeAttributeQuery.anyOf(NodeAttributeQuery.archetype(NodeElementTypeEnum.SITE), NodeAttributeQuery.concurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND)),
+                ordinal -> present[ordinal] && (archetypes[ordinal] == NodeElementTypeEnum.SITE || concurrencyModes[ordinal] == ConcurrencyModeEnum.CONCURRENCY_MODE_ONDEMAND));
+        assertMatches(index, NodeAttributeQuery.allOf(
+                NodeAttributeQuery.instanceInPlace(true),
+                NodeAttributeQuery.archetype(NodeElementTypeEnum.PROCESS_AREA).or(NodeAttributeQuery.archetype(NodeElementTypeEnum.SERVICE)),
+                NodeAttributeQuery.concurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT)),
+                ordinal -> present[ordinal] && inPlace[ordinal]
+                        && (archetypes[ordinal] == NodeElementTypeEnum.PROCESS_AREA || archetypes[ordinal] == NodeElementTypeEnum.SERVICE)
+                        && concurrencyModes[ordinal] == ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+    }
+
+    private static void assertMatches(NodeAttributeIndex index, NodeAttributeQuery query, IntPredicate expectedMatch) {
+        List<Integer> expectedOrdinals = new ArrayList<Integer>();
+        for (int ordinal = 0; ordinal < ORDINAL_COUNT; ordinal++) {
+            if (expectedMatch.test(ordinal)) {
+                expectedOrdinals.add(ordinal);
+            }
+        }
+        List<Integer> matchedOrdinals = new ArrayList<Integer>();
+        index.forEachMatch(query, matchedOrdinals::add);
+
+        assertThat(matchedOrdinals).as(query.toString()).containsExactlyElementsOf(expectedOrdinals);
+        assertThat(index.count(query)).as(query.toString()).isEqualTo(expectedOrdinals.size());
+    }
+
+    @Test
+    public void topologyQueriesFollowInheritedModesAndInPlaceChanges() {
+        TopologyDM topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        NodeElement platform = TopologyTestElements.newNodeWithoutModes(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        List<NodeElement> wups = new ArrayList<NodeElement>();
+        for (int count = 0; count < 10; count++) {
+            NodeElement wup = TopologyTestElements.newNodeWithoutModes(platform, NodeElementTypeEnum.WUP, "wup-" + count);
+            topologyDM.addNode(wup);
+            wups.add(wup);
+        }
+        NodeAttributeQuery clusteredWUPs = NodeAttributeQuery.archetype(NodeElementTypeEnum.WUP).and(NodeAttributeQuery.resilienceMode(ResilienceModeEnum.RESILIENCE_MODE_CLUSTERED));
+        assertThat(topologyDM.countNodes(clusteredWUPs)).isZero();
+
+        NodeElement clusteredPlatform = TopologyTestElements.newNodeWithoutModes(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        clusteredPlatform.setResilienceMode(ResilienceModeEnum.RESILIENCE_MODE_CLUSTERED);
+        topologyDM.addNode(clusteredPlatform);
+        topologyDM.setNodeInstanceInPlace(wups.get(3).getNodeInstanceID(), false);
+
+        assertThat(topologyDM.countNodes(clusteredWUPs)).isEqualTo(10);
+        assertThat(topologyDM.findNodes(clusteredWUPs.and(NodeAttributeQuery.instanceInPlace(false)))).containsExactly(wups.get(3));
+        assertThat(topologyDM.countNodes(NodeAttributeQuery.resilienceMode(ResilienceModeEnum.RESILIENCE_MODE_CLUSTERED))).isEqualTo(11);
+
+        topologyDM.removeNode(wups.get(3).getNodeInstanceID());
+        assertThat(topologyDM.findNodes(clusteredWUPs.and(NodeAttributeQuery.instanceInPlace(false)))).isEmpty();
+        assertThat(topologyDM.countNodes(NodeAttributeQuery.allNodes())).isEqualTo(11);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the per-Node Endpoint index - resolution by name and version (including the version
+ * ordering and the null version fallback), invalidation when a referenced Endpoint is
+ * re-registered, and the pruning of the Endpoint referrers as indexes are discarded or rebuilt.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeEndpointIndexTest {
+
+    private static final String ENDPOINT_NAME = "http-server";
+
+    private TopologyDM topologyDM;
+    private NodeElement wup;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement service = TopologyTestElements.newNode(null, NodeElementTypeEnum.SERVICE, "Service");
+        wup = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-0");
+        topologyDM.addNode(service);
+    }
+
+    @Test
+    public void versionsAreOrderedNumericallyBySegment() {
+        assertThat(NodeEndpointIndex.compareVersions("1.10", "1.9")).isPositive();
+        assertThat(NodeEndpointIndex.compareVersions("1.9", "1.10")).isNegative();
+        assertThat(NodeEndpointIndex.compareVersions("1.10", "1.10")).isZero();
+        assertThat(NodeEndpointIndex.compareVersions("1.0", "1.0.1")).isNegative();
+        assertThat(NodeEndpointIndex.compareVersions("2", "1.99")).isPositive();
+        assertThat(NodeEndpointIndex.compareVersions("1.0-beta", "1.0-alpha")).isPositive();
+        assertThat(NodeEndpointIndex.compareVersions(null, "0.1")).isNegative();
+        assertThat(NodeEndpointIndex.compareVersions("0.1", null)).isPositive();
+        assertThat(NodeEndpointIndex.compareVersions(null, null)).isZero();
+    }
+
+    @Test
+    public void nullVersionResolvesToTheLatestVersion() {
+        EndpointElement version19 = addEndpoint("a", "1.9");
+        EndpointElement version110 = addEndpoint("b", "1.10");
+        EndpointElement version12 = addEndpoint("c", "1.2");
+        topologyDM.addNode(wup);
+
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, null)).isSameAs(version110);
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, "1.9")).isSameAs(version19);
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, "1.2")).isSameAs(version12);
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, "2.0")).isNull();
+        assertThat(topologyDM.getEndpoint(wup, "other-endpoint", null)).isNull();
+    }
+
+    @Test
+    public void nullVersionPrefersAnEndpointWithoutAVersion() {
+        EndpointElement unversioned = addEndpoint("a", null);
+        EndpointElement versioned = addEndpoint("b", "1.10");
+        topologyDM.addNode(wup);
+
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, null)).isSameAs(unversioned);
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, "1.10")).isSameAs(versioned);
+    }
+
+    @Test
+    public void reRegisteredEndpointInvalidatesTheNodesIndex() {
+        EndpointElement original = addEndpoint("a", "1.0");
+        topologyDM.addNode(wup);
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, null)).isSameAs(original);
+
+        EndpointElement replacement = newEndpoint("a", "1.1");
+        topologyDM.addEndpoint(replacement);
+
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, null)).isSameAs(replacement);
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, "1.0")).isNull();
+
+        topologyDM.removeEndpoint(replacement.getEndpointInstanceID());
+
+        assertThat(topologyDM.getEndpoint(wup, ENDPOINT_NAME, null)).isNull();
+    }
+
+    @Test
+    public void referrersArePrunedWhenTheIndexIsDiscardedOrRebuilt() {
+        HashMap<String, EndpointElement> endpointSet = new HashMap<String, EndpointElement>();
+        ParsedIdentifierCache parsedIdentifiers = new ParsedIdentifierCache();
+        NodeEndpointIndex endpointIndex = new NodeEndpointIndex(endpointSet::get, parsedIdentifiers);
+        EndpointElement endpointA = newEndpoint("a", "1.0");
+        EndpointElement endpointB = newEndpoint("b", "2.0");
+        String endpointKeyA = TopologyDM.canonicalKey(endpointA.getEndpointInstanceID());
+        String endpointKeyB = TopologyDM.canonicalKey(endpointB.getEndpointInstanceID());
+        for (EndpointElement currentEndpoint : new EndpointElement[]{endpointA, endpointB}) {
+            parsedIdentifiers.register(currentEndpoint.getEndpointInstanceID());
+            endpointSet.put(TopologyDM.canonicalKey(currentEndpoint.getEndpointInstanceID()), currentEndpoint);
+        }
+        String nodeKey = TopologyDM.canonicalKey(wup.getNodeInstanceID());
+        wup.getEndpoints().add(endpointA.getEndpointInstanceID());
+
+        assertThat(endpointIndex.resolve(wup, nodeKey, ENDPOINT_NAME, null)).isSameAs(endpointA);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyA)).isEqualTo(1);
+
+        // a replacement Node, with a different Endpoint, is registered
+        NodeElement replacementWUP = TopologyTestElements.newNode(null, NodeElementTypeEnum.WUP, "wup-0");
+        replacementWUP.setNodeInstanceID(wup.getNodeInstanceID());
+        replacementWUP.getEndpoints().add(endpointB.getEndpointInstanceID());
+        endpointIndex.invalidateNode(nodeKey);
+        assertThat(endpointIndex.resolve(replacementWUP, nodeKey, ENDPOINT_NAME, null)).isSameAs(endpointB);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyA)).isZero();
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyB)).isEqualTo(1);
+
+        // the Node's Endpoint set is changed in place, so the index is rebuilt when next used
+        replacementWUP.getEndpoints().add(endpointA.getEndpointInstanceID());
+        assertThat(endpointIndex.resolve(replacementWUP, nodeKey, ENDPOINT_NAME, null)).isSameAs(endpointB);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyA)).isEqualTo(1);
+        replacementWUP.getEndpoints().remove(endpointB.getEndpointInstanceID());
+        assertThat(endpointIndex.resolve(replacementWUP, nodeKey, ENDPOINT_NAME, null)).isSameAs(endpointA);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyA)).isEqualTo(1);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyB)).isZero();
+
+        endpointIndex.invalidateEndpoint(endpointKeyA);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyA)).isZero();
+        assertThat(endpointIndex.resolve(replacementWUP, nodeKey, ENDPOINT_NAME, null)).isSameAs(endpointA);
+
+        endpointIndex.removeNode(nodeKey);
+        assertThat(endpointIndex.getReferringNodeCount(endpointKeyA)).isZero();
+    }
+
+    /**
+     * Adds a version of the named Endpoint to the (not yet registered) WUP, distinguished from the
+     * other versions by an interface segment within its identifier.
+     */
+    private EndpointElement addEndpoint(String interfaceName, String version) {
+        EndpointElement endpoint = newEndpoint(interfaceName, version);
+        topologyDM.addEndpoint(endpoint);
+        wup.getEndpoints().add(endpoint.getEndpointInstanceID());
+        return (endpoint);
+    }
+
+    private EndpointElement newEndpoint(String interfaceName, String version) {
+        FDN endpointFDN = new FDN(wup.getNodeInstanceID());
+        endpointFDN.appendRDN(new RDN("Interface", interfaceName));
+        endpointFDN.appendRDN(new RDN(TopologyTestElements.ENDPOINT_QUALIFIER, ENDPOINT_NAME));
+        EndpointElement endpoint = new EndpointElement();
+        endpoint.setEndpointInstanceID(new EndpointElementIdentifier(endpointFDN.getToken()));
+        endpoint.setVersion(version);
+        return (endpoint);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the TopologyDM's sorted unqualified instance name index - i.e. the exact, prefix and (glob)
+ * pattern queries - including after Nodes are removed or re-registered.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeNameIndexTest {
+
+    private static final String[] NODE_NAMES = {"alpha-1", "alpha-2", "alpha-10", "alphabet", "beta", "a.b", "axb", "a+b", "a*b"};
+
+    private TopologyDM topologyDM;
+    private NodeElement service;
+    private HashMap<String, NodeElement> nodesByName;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        nodesByName = new HashMap<String, NodeElement>();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        service = TopologyTestElements.newNode(solution, NodeElementTypeEnum.SERVICE, "Service");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(service);
+        for (String nodeName : NODE_NAMES) {
+            NodeElement node = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, nodeName);
+            topologyDM.addNode(node);
+            nodesByName.put(nodeName, node);
+        }
+    }
+
+    @Test
+    public void prefixQueryReturnsOnlyNamesStartingWithThePrefix() {
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("alpha-1")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-10"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("alpha")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-2", "alpha-10", "alphabet"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("gamma")).isEmpty();
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix(null)).isEmpty();
+    }
+
+    @Test
+    public void emptyPrefixReturnsEveryNode() {
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("")).hasSize(NODE_NAMES.length + 2);
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("*")).hasSize(NODE_NAMES.length + 2);
+    }
+
+    @Test
+    public void starMatchesAnySequenceOfCharacters() {
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha-*")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-2", "alpha-10"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha*")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-2", "alpha-10", "alphabet"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("*-1*")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-10"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("*et")).containsExactlyInAnyOrderElementsOf(idsOf("alphabet"));
+    }
+
+    @Test
+    public void questionMarkMatchesExactlyOneCharacter() {
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha-?")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-2"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha-??")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-10"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("?eta")).containsExactlyInAnyOrderElementsOf(idsOf("beta"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("a?b")).containsExactlyInAnyOrderElementsOf(idsOf("a.b", "axb", "a+b", "a*b"));
+    }
+
+    @Test
+    public void patternWithoutWildcardsIsAnExactMatch() {
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha-1")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha")).isEmpty();
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern(null)).isEmpty();
+        assertThat(topologyDM.findNodesWithMatchingUnqualifiedInstanceName("alpha-2").values()).containsExactlyInAnyOrderElementsOf(idsOf("alpha-2"));
+    }
+
+    @Test
+    public void regexMetacharactersInThePatternAreLiterals() {
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("a.b")).containsExactlyInAnyOrderElementsOf(idsOf("a.b"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("a.?")).containsExactlyInAnyOrderElementsOf(idsOf("a.b"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("?.b")).containsExactlyInAnyOrderElementsOf(idsOf("a.b"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("a+*")).containsExactlyInAnyOrderElementsOf(idsOf("a+b"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("a.")).containsExactlyInAnyOrderElementsOf(idsOf("a.b"));
+    }
+
+    @Test
+    public void removedNodeIsNoLongerMatched() {
+        topologyDM.removeNode(nodesByName.get("alpha-10").getNodeInstanceID());
+
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("alpha-1")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1"));
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha-??")).isEmpty();
+        assertThat(topologyDM.findNodesWithMatchingUnqualifiedInstanceName("alpha-10")).isEmpty();
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void reRegisteredNodeIsMatchedOnce() {
+        NodeElement replacementNode = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "alpha-2");
+        replacementNode.setVersion("2.0.0");
+        topologyDM.addNode(replacementNode);
+        nodesByName.put("alpha-2", replacementNode);
+
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePrefix("alpha-2")).hasSize(1);
+        assertThat(topologyDM.findNodesWithUnqualifiedInstanceNamePattern("alpha-?")).containsExactlyInAnyOrderElementsOf(idsOf("alpha-1", "alpha-2"));
+        assertThat(topologyDM.findNodesWithMatchingUnqualifiedInstanceName("alpha-2")).hasSize(1);
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+    }
+
+    private List<NodeElementIdentifier> idsOf(String... nodeNames) {
+        ArrayList<NodeElementIdentifier> nodeIDs = new ArrayList<NodeElementIdentifier>();
+        for (String nodeName : nodeNames) {
+            nodeIDs.add(nodesByName.get(nodeName).getNodeInstanceID());
+        }
+        return (nodeIDs);
+    }
+}
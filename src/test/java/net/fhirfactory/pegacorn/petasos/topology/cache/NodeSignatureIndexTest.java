@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the TopologyDM's (unqualified name, NodeElementTypeEnum, version) signature index - i.e.
+ * getNode(String, NodeElementTypeEnum, String) - as Nodes are added, replaced and removed.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class NodeSignatureIndexTest {
+
+    private static final String NEW_VERSION = "2.0.0";
+
+    private TopologyDM topologyDM;
+    private NodeElement platform;
+    private NodeElement sharedService;
+    private NodeElement sharedWUP;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        sharedService = TopologyTestElements.newNode(platform, NodeElementTypeEnum.SERVICE, "shared");
+        sharedWUP = TopologyTestElements.newNode(sharedService, NodeElementTypeEnum.WUP, "shared");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        topologyDM.addNode(sharedService);
+        topologyDM.addNode(sharedWUP);
+        for (int count = 0; count < 10; count++) {
+            topologyDM.addNode(TopologyTestElements.newNode(sharedService, NodeElementTypeEnum.WUP, "wup-" + count));
+        }
+    }
+
+    @Test
+    public void nodeIsFoundByItsNameTypeAndVersion() {
+        assertThat(topologyDM.getNode("Platform", NodeElementTypeEnum.PLATFORM, TopologyTestElements.VERSION)).isSameAs(platform);
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.SERVICE, TopologyTestElements.VERSION)).isSameAs(sharedService);
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION)).isSameAs(sharedWUP);
+        assertThat(topologyDM.getNode("wup-7", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION).getNodeInstanceID().getContent()).endsWith("wup-7");
+    }
+
+    @Test
+    public void nodeIsNotFoundByADifferentTypeVersionOrName() {
+        assertThat(topologyDM.getNode("Platform", NodeElementTypeEnum.SITE, TopologyTestElements.VERSION)).isNull();
+        assertThat(topologyDM.getNode("Platform", NodeElementTypeEnum.PLATFORM, NEW_VERSION)).isNull();
+        assertThat(topologyDM.getNode("platform", NodeElementTypeEnum.PLATFORM, TopologyTestElements.VERSION)).isNull();
+        assertThat(topologyDM.getNode(null, NodeElementTypeEnum.PLATFORM, TopologyTestElements.VERSION)).isNull();
+        assertThat(topologyDM.getNode("Platform", null, TopologyTestElements.VERSION)).isNull();
+        assertThat(topologyDM.getNode("Platform", NodeElementTypeEnum.PLATFORM, null)).isNull();
+    }
+
+    @Test
+    public void replacedNodeIsFoundByItsNewVersionOnly() {
+        NodeElement replacementWUP = TopologyTestElements.newNode(sharedService, NodeElementTypeEnum.WUP, "shared");
+        replacementWUP.setVersion(NEW_VERSION);
+
+        topologyDM.addNode(replacementWUP);
+
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.WUP, NEW_VERSION)).isSameAs(replacementWUP);
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION)).isNull();
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.SERVICE, TopologyTestElements.VERSION)).isSameAs(sharedService);
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void removedNodeIsNoLongerFound() {
+        topologyDM.removeNode(sharedWUP.getNodeInstanceID());
+
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION)).isNull();
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.SERVICE, TopologyTestElements.VERSION)).isSameAs(sharedService);
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+
+        topologyDM.addNode(sharedWUP);
+        assertThat(topologyDM.getNode("shared", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION)).isSameAs(sharedWUP);
+    }
+}
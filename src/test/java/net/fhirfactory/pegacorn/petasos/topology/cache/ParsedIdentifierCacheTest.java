@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of the ParsedIdentifierCache - its registration and eviction (and the reclamation of the
+ * segments of evicted identifiers), and the allocation profile of
+ * the TopologyDM lookups it backs (which should never need to re-parse an identifier).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class ParsedIdentifierCacheTest {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int MEASURED_ITERATIONS = 10000;
+
+    private TopologyDM topologyDM;
+    private NodeElement solution;
+    private NodeElement wup;
+    private EndpointElement endpoint;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        NodeElement site = TopologyTestElements.newNode(solution, NodeElementTypeEnum.SITE, "Site");
+        NodeElement platform = TopologyTestElements.newNode(site, NodeElementTypeEnum.PLATFORM, "Platform");
+        wup = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-0");
+        endpoint = TopologyTestElements.newEndpoint(wup, "ingress");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(site);
+        topologyDM.addNode(platform);
+        topologyDM.addNode(wup);
+        topologyDM.addEndpoint(endpoint);
+        for (int count = 1; count < 100; count++) {
+            topologyDM.addNode(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-" + count));
+        }
+    }
+
+    @Test
+    public void registeredIdentifierIsParsedOnceAndSharesItsCanonicalKey() {
+        ParsedIdentifierCache cache = new ParsedIdentifierCache();
+        ParsedIdentifierCache.ParsedIdentifier first = cache.register(wup.getNodeInstanceID());
+        ParsedIdentifierCache.ParsedIdentifier second = cache.register(wup.getNodeInstanceID());
+
+        assertThat(second).isSameAs(first);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.keyOf(wup.getNodeInstanceID())).isSameAs(first.getCanonicalKey());
+        assertThat(cache.getOrParse(wup.getNodeInstanceID())).isSameAs(first);
+        assertThat(first.getQualifier()).isEqualTo(NodeElementTypeEnum.WUP.getNodeElementType());
+        assertThat(first.getUnqualifiedValue()).isEqualTo("wup-0");
+    }
+
+    @Test
+    public void identifierFDNIsParsedOnceAndRetained() {
+        ParsedIdentifierCache cache = new ParsedIdentifierCache();
+        ParsedIdentifierCache.ParsedIdentifier parsedIdentifier = cache.register(wup.getNodeInstanceID());
+
+        FDN identifierFDN = parsedIdentifier.getIdentifierFDN();
+
+        assertThat(parsedIdentifier.getIdentifierFDN()).isSameAs(identifierFDN);
+        assertThat(identifierFDN.getToken()).isEqualTo(wup.getNodeInstanceID());
+    }
+
+    @Test
+    public void handleIsReleasedWithTheLastReferenceAndRecycled() {
+        ParsedIdentifierCache cache = new ParsedIdentifierCache();
+        int handle = cache.register(wup.getNodeInstanceID()).getHandle();
+        cache.register(wup.getNodeInstanceID());
+
+        cache.evict(wup.getNodeInstanceID());
+        assertThat(cache.handleOf(TopologyDM.canonicalKey(wup.getNodeInstanceID()))).isEqualTo(handle);
+
+        cache.evict(wup.getNodeInstanceID());
+        assertThat(cache.size()).isZero();
+        assertThat(cache.handleOf(TopologyDM.canonicalKey(wup.getNodeInstanceID()))).isEqualTo(ParsedIdentifierCache.NO_HANDLE);
+        assertThat(cache.keyOfHandle(handle)).isNull();
+
+        assertThat(cache.register(endpoint.getEndpointInstanceID()).getHandle()).isEqualTo(handle);
+        assertThat(cache.getHandleLimit()).isEqualTo(handle + 1);
+    }
+
+    @Test
+    public void unregisteredIdentifierIsParsedWithoutBeingRegistered() {
+        ParsedIdentifierCache cache = new ParsedIdentifierCache();
+
+        ParsedIdentifierCache.ParsedIdentifier parsedIdentifier = cache.getOrParse(wup.getNodeInstanceID());
+
+        assertThat(parsedIdentifier.getHandle()).isEqualTo(ParsedIdentifierCache.NO_HANDLE);
+        assertThat(parsedIdentifier.getUnqualifiedValue()).isEqualTo("wup-0");
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void segmentsOfEvictedIdentifiersAreReclaimed() {
+        ParsedIdentifierCache cache = new ParsedIdentifierCache();
+        ParsedIdentifierCache.ParsedIdentifier retained = cache.register(wup.getNodeInstanceID());
+        int liveSegmentCount = cache.getLiveSegmentCount();
+        ParsedIdentifierCache.ParsedIdentifier heldAcrossRebuilds = null;
+        int maximumSegmentCount = 0;
+
+        for (int count = 0; count < 20000; count++) {
+            NodeElement churnedNode = TopologyTestElements.newNode(solution, NodeElementTypeEnum.WUP, "churned-" + count);
+            ParsedIdentifierCache.ParsedIdentifier churned = cache.register(churnedNode.getNodeInstanceID());
+            if (count == 0) {
+                heldAcrossRebuilds = churned;
+            }
+            cache.evict(churnedNode.getNodeInstanceID());
+            maximumSegmentCount = Math.max(maximumSegmentCount, cache.getSegmentCount());
+        }
+
+        assertThat(maximumSegmentCount).isLessThan(4000);
+        assertThat(cache.getLiveSegmentCount()).isEqualTo(liveSegmentCount);
+        assertThat(heldAcrossRebuilds.getUnqualifiedValue()).isEqualTo("churned-0");
+        ParsedIdentifierCache.ParsedIdentifier rebuilt = cache.get(retained.getCanonicalKey());
+        assertThat(rebuilt.getHandle()).isEqualTo(retained.getHandle());
+        assertThat(rebuilt.getCanonicalKey()).isSameAs(retained.getCanonicalKey());
+        assertThat(rebuilt.getQualifier()).isEqualTo(retained.getQualifier());
+        assertThat(rebuilt.getValue()).isEqualTo(retained.getValue());
+        assertThat(rebuilt.getUnqualifiedValue()).isEqualTo("wup-0");
+
+        cache.evict(wup.getNodeInstanceID());
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getLiveSegmentCount()).isZero();
+    }
+
+    @Test
+    public void segmentsOfUnregisteredIdentifiersAreReclaimed() {
+        ParsedIdentifierCache cache = new ParsedIdentifierCache();
+        cache.register(wup.getNodeInstanceID());
+
+        for (int count = 0; count < 20000; count++) {
+            NodeElement unregisteredNode = TopologyTestElements.newNode(solution, NodeElementTypeEnum.WUP, "unregistered-" + count);
+            assertThat(cache.getOrParse(unregisteredNode.getNodeInstanceID()).getUnqualifiedValue()).isEqualTo("unregistered-" + count);
+        }
+
+        assertThat(cache.getSegmentCount()).isLessThan(4000);
+        assertThat(cache.getOrParse(wup.getNodeInstanceID()).getUnqualifiedValue()).isEqualTo("wup-0");
+    }
+
+    @Test
+    public void lookupsAllocateLessThanOneIdentifierParse() {
+        long parseBytes = allocatedBytesPerCall(() -> new FDN(wup.getNodeInstanceID()));
+        Assumptions.assumeTrue(parseBytes > 0, "thread allocation accounting is not supported by this JVM");
+
+        long nodeBySignatureBytes = allocatedBytesPerCall(() -> topologyDM.getNode("wup-0", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION));
+        long nodesByNameBytes = allocatedBytesPerCall(() -> topologyDM.findNodesWithMatchingUnqualifiedInstanceName("wup-0"));
+        long nodeEndpointBytes = allocatedBytesPerCall(() -> topologyDM.getEndpoint(wup, "ingress", TopologyTestElements.VERSION));
+        long nodeByIDBytes = allocatedBytesPerCall(() -> topologyDM.getNode(wup.getNodeInstanceID()));
+
+        assertThat(nodeBySignatureBytes).isLessThan(parseBytes);
+        assertThat(nodesByNameBytes).isLessThan(parseBytes);
+        assertThat(nodeEndpointBytes).isLessThan(parseBytes);
+        assertThat(nodeByIDBytes).isLessThan(parseBytes);
+    }
+
+    private static long allocatedBytesPerCall(Supplier<?> lookup) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported() || !threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return (0);
+        }
+        long threadID = Thread.currentThread().getId();
+        Object result = null;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            result = lookup.get();
+        }
+        assertThat(result).isNotNull();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadID);
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            lookup.get();
+        }
+        long allocatedAfter = threadMXBean.getThreadAllocatedBytes(threadID);
+        return ((allocatedAfter - allocatedBefore) / MEASURED_ITERATIONS);
+    }
+}
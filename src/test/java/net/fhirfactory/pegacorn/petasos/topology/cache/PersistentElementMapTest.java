@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of the PersistentElementMap - that it behaves as a map, and that the maps it was derived
+ * from are left unchanged.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class PersistentElementMapTest {
+
+    @Test
+    public void randomPutsAndRemovesMatchHashMap() {
+        Random random = new Random(20200701L);
+        HashMap<String, Integer> expected = new HashMap<String, Integer>();
+        PersistentElementMap<Integer> actual = PersistentElementMap.empty();
+        for (int operation = 0; operation < 200000; operation++) {
+            String key = "key-" + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.remove(key);
+            } else {
+                expected.put(key, operation);
+                actual = actual.put(key, operation);
+            }
+        }
+
+        assertThat(actual.size()).isEqualTo(expected.size());
+        assertThat(actual.values()).containsExactlyInAnyOrderElementsOf(expected.values());
+        for (String key : expected.keySet()) {
+            assertThat(actual.get(key)).isEqualTo(expected.get(key));
+        }
+        assertThat(actual.get("key-absent")).isNull();
+    }
+
+    @Test
+    public void keysWithEqualHashesShareALeaf() {
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+        PersistentElementMap<String> map = PersistentElementMap.<String>empty().put("Aa", "first").put("BB", "second");
+
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("Aa")).isEqualTo("first");
+        assertThat(map.get("BB")).isEqualTo("second");
+
+        PersistentElementMap<String> removed = map.remove("Aa");
+        assertThat(removed.size()).isEqualTo(1);
+        assertThat(removed.get("Aa")).isNull();
+        assertThat(removed.get("BB")).isEqualTo("second");
+        assertThat(removed.remove("BB").size()).isZero();
+    }
+
+    @Test
+    public void earlierVersionsAreUnchanged() {
+        List<PersistentElementMap<Integer>> versions = new ArrayList<PersistentElementMap<Integer>>();
+        PersistentElementMap<Integer> map = PersistentElementMap.empty();
+        for (int count = 0; count < 1000; count++) {
+            versions.add(map);
+            map = map.put("key-" + count, count);
+        }
+        for (int count = 0; count < 1000; count += 2) {
+            map = map.remove("key-" + count);
+        }
+
+        assertThat(map.size()).isEqualTo(500);
+        for (int version = 0; version < versions.size(); version++) {
+            PersistentElementMap<Integer> earlierMap = versions.get(version);
+            assertThat(earlierMap.size()).isEqualTo(version);
+            assertThat(earlierMap.values()).hasSize(version);
+            if (version > 0) {
+                assertThat(earlierMap.get("key-" + (version - 1))).isEqualTo(version - 1);
+                assertThat(earlierMap.get("key-" + version)).isNull();
+            }
+        }
+    }
+
+    @Test
+    public void removingAnAbsentKeyReturnsTheSameMap() {
+        PersistentElementMap<Integer> map = PersistentElementMap.<Integer>empty().put("key", 1);
+
+        assertThat(map.remove("other")).isSameAs(map);
+        assertThat(PersistentElementMap.<Integer>empty().remove("key").size()).isZero();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import net.fhirfactory.pegacorn.petasos.topology.manager.TopologyIM;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyBackPressurePolicyEnum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the registration of a whole batch of topology (TopologyDM.addTopology() and
+ * TopologyIM.registerTopology()) - an invalid batch makes no change at all, and a valid batch is
+ * published as a single epoch whatever order its Nodes arrive in.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyBatchRegistrationTest {
+
+    private TopologyDM topologyDM;
+    private TopologyIM topologyIM;
+    private NodeElement solution;
+    private NodeElement site;
+    private NodeElement platform;
+    private NodeElement wup;
+    private EndpointElement wupEndpoint;
+    private EndpointElement platformEndpoint;
+    private LinkElement link;
+
+    @BeforeEach
+    public void buildElements() {
+        topologyDM = new TopologyDM();
+        topologyIM = new TopologyIM(topologyDM);
+        solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        site = TopologyTestElements.newNode(solution, NodeElementTypeEnum.SITE, "Site");
+        platform = TopologyTestElements.newNode(site, NodeElementTypeEnum.PLATFORM, "Platform");
+        wup = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-0");
+        wupEndpoint = TopologyTestElements.newEndpoint(wup, "wup-endpoint");
+        platformEndpoint = TopologyTestElements.newEndpoint(platform, "platform-endpoint");
+        link = TopologyTestElements.newLink(wupEndpoint, platformEndpoint, "link-0");
+    }
+
+    @AfterEach
+    public void shutdown() {
+        topologyIM.shutdown();
+    }
+
+    @Test
+    public void childBeforeContainerBatchIsASingleEpoch() {
+        long epoch = topologyDM.getEpoch();
+
+        topologyDM.addTopology(Arrays.asList(wup, platform, site, solution), Collections.singletonList(link), Arrays.asList(wupEndpoint, platformEndpoint));
+
+        assertBatchRegistered(epoch);
+    }
+
+    @Test
+    public void registerTopologyIsASingleEpoch() {
+        long epoch = topologyIM.getTopologyEpoch();
+
+        topologyIM.registerTopology(Arrays.asList(wup, platform, site, solution), Collections.singletonList(link), Arrays.asList(wupEndpoint, platformEndpoint));
+
+        assertBatchRegistered(epoch);
+    }
+
+    @Test
+    public void registerTopologyThroughThePipelineIsASingleEpoch() {
+        topologyIM.enableAsyncMutations(16, 4, TopologyBackPressurePolicyEnum.BLOCK, 1000L);
+        long epoch = topologyIM.getTopologyEpoch();
+
+        topologyIM.registerTopology(Arrays.asList(wup, platform, site, solution), Collections.singletonList(link), Arrays.asList(wupEndpoint, platformEndpoint));
+
+        assertBatchRegistered(epoch);
+    }
+
+    @Test
+    public void batchWithANullElementMakesNoChange() {
+        topologyDM.addNode(solution);
+        long epoch = topologyDM.getEpoch();
+
+        assertThatThrownBy(() -> topologyDM.addTopology(Arrays.asList(site, null, platform), null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> topologyDM.addTopology(Arrays.asList(site, platform), null, Arrays.asList(platformEndpoint, null)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertNothingAddedSince(epoch);
+    }
+
+    @Test
+    public void batchWithAnElementWithoutAnIdentifierMakesNoChange() {
+        topologyDM.addNode(solution);
+        long epoch = topologyDM.getEpoch();
+        NodeElement unidentifiedNode = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-1");
+        unidentifiedNode.setNodeInstanceID(null);
+        LinkElement unidentifiedLink = TopologyTestElements.newLink(wupEndpoint, platformEndpoint, "link-1");
+        unidentifiedLink.setLinkID(null);
+
+        assertThatThrownBy(() -> topologyDM.addTopology(Arrays.asList(site, platform, unidentifiedNode), null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> topologyDM.addTopology(Arrays.asList(site, platform, wup), Collections.singletonList(unidentifiedLink), Arrays.asList(wupEndpoint, platformEndpoint)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertNothingAddedSince(epoch);
+    }
+
+    @Test
+    public void batchWithAContainmentCycleMakesNoChange() {
+        topologyDM.addNode(solution);
+        long epoch = topologyDM.getEpoch();
+        site.setContainingElementID(platform.getNodeInstanceID());
+
+        assertThatThrownBy(() -> topologyDM.addTopology(Arrays.asList(site, platform, wup), null, Arrays.asList(wupEndpoint, platformEndpoint)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertNothingAddedSince(epoch);
+    }
+
+    @Test
+    public void invalidRegisterTopologyMakesNoChange() {
+        topologyIM.registerNode(solution);
+        long epoch = topologyIM.getTopologyEpoch();
+        site.setContainingElementID(platform.getNodeInstanceID());
+
+        assertThatThrownBy(() -> topologyIM.registerTopology(Arrays.asList(site, platform, wup), null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        topologyIM.enableAsyncMutations(16, 4, TopologyBackPressurePolicyEnum.BLOCK, 1000L);
+        assertThatThrownBy(() -> topologyIM.registerTopology(Arrays.asList(site, platform, wup), null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertNothingAddedSince(epoch);
+    }
+
+    private void assertBatchRegistered(long epochBeforeBatch) {
+        assertThat(topologyDM.getEpoch()).isEqualTo(epochBeforeBatch + 1);
+        assertThat(topologyDM.getNodeSet()).containsExactlyInAnyOrder(solution, site, platform, wup);
+        assertThat(topologyDM.getEndpointSet()).containsExactlyInAnyOrder(wupEndpoint, platformEndpoint);
+        assertThat(topologyDM.getLinkSet()).containsExactly(link);
+        assertThat(topologyDM.getContainedNodes(solution.getNodeInstanceID())).containsExactlyInAnyOrder(site, platform, wup);
+        assertThat(solution.getContainedElements()).containsExactly(site.getNodeInstanceID());
+        assertThat(platform.getContainedElements()).containsExactly(wup.getNodeInstanceID());
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+    }
+
+    private void assertNothingAddedSince(long epoch) {
+        assertThat(topologyDM.getEpoch()).isEqualTo(epoch);
+        assertThat(topologyDM.getNodeSet()).containsExactly(solution);
+        assertThat(topologyDM.getEndpointSet()).isNull();
+        assertThat(topologyDM.getLinkSet()).isNull();
+        assertThat(solution.getContainedElements()).isEmpty();
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+    }
+}
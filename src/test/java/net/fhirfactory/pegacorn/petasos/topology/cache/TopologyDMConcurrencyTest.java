@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives a TopologyDM from many writer threads at once - re-registering the same Nodes (and so
+ * racing on the containment of their Services), flipping their instanceInPlace state, adding
+ * Endpoints, Links and contained Nodes, and applying mutation batches - while a checker thread
+ * repeatedly runs TopologyDM.verifyConsistency(). No invariant may be violated, either while the
+ * writers run or once they are done.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyDMConcurrencyTest {
+
+    private static final int WRITER_COUNT = 8;
+    private static final int OPERATIONS_PER_WRITER = 2000;
+    private static final int SERVICE_COUNT = 8;
+    private static final int WUPS_PER_SERVICE = 4;
+
+    private TopologyDM topologyDM;
+    private NodeElement platform;
+    private List<NodeElement> services;
+    private List<NodeElement> wups;
+    private List<EndpointElement> endpoints;
+    private List<LinkElement> links;
+    private AtomicInteger elementCounter;
+
+    @BeforeEach
+    public void registerTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        services = new ArrayList<NodeElement>();
+        wups = new ArrayList<NodeElement>();
+        List<NodeElement> nodes = new ArrayList<NodeElement>(Arrays.asList(solution, platform));
+        for (int serviceIndex = 0; serviceIndex < SERVICE_COUNT; serviceIndex++) {
+            NodeElement service = TopologyTestElements.newNode(platform, NodeElementTypeEnum.SERVICE, "service-" + serviceIndex);
+            services.add(service);
+            nodes.add(service);
+            for (int wupIndex = 0; wupIndex < WUPS_PER_SERVICE; wupIndex++) {
+                NodeElement wup = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-" + wupIndex);
+                wups.add(wup);
+                nodes.add(wup);
+            }
+        }
+        topologyDM.addTopology(nodes, null, null);
+        endpoints = new CopyOnWriteArrayList<EndpointElement>();
+        links = new CopyOnWriteArrayList<LinkElement>();
+        elementCounter = new AtomicInteger();
+    }
+
+    @Test
+    public void manyWritersLeaveTheTopologyConsistent() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(WRITER_COUNT + 1);
+        List<String> violationsWhileWriting = new CopyOnWriteArrayList<String>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> checker = threads.submit(() -> {
+                start.await();
+                while (writing.get() && violationsWhileWriting.isEmpty()) {
+                    violationsWhileWriting.addAll(topologyDM.verifyConsistency());
+                    Thread.sleep(1);
+                }
+                return (null);
+            });
+            List<Future<?>> writers = new ArrayList<Future<?>>();
+            for (int writer = 0; writer < WRITER_COUNT; writer++) {
+                writers.add(threads.submit(() -> {
+                    start.await();
+                    for (int operation = 0; operation < OPERATIONS_PER_WRITER; operation++) {
+                        performRandomOperation();
+                    }
+                    return (null);
+                }));
+            }
+            start.countDown();
+            for (Future<?> currentWriter : writers) {
+                currentWriter.get();
+            }
+            writing.set(false);
+            checker.get();
+        } finally {
+            threads.shutdown();
+        }
+
+        assertThat(violationsWhileWriting).isEmpty();
+        assertThat(topologyDM.verifyConsistency()).isEmpty();
+        for (NodeElement currentService : services) {
+            NodeElement registeredService = topologyDM.getNode(currentService.getNodeInstanceID());
+            if (registeredService != null) {
+                assertThat(registeredService.getContainedElements()).allSatisfy(containedID -> assertThat(topologyDM.getNode(containedID)).isNotNull());
+            }
+        }
+    }
+
+    private void performRandomOperation() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        NodeElement wup = wups.get(random.nextInt(wups.size()));
+        NodeElement service = services.get(random.nextInt(services.size()));
+        try {
+            switch (random.nextInt(6)) {
+                case 0:
+                    topologyDM.removeNode(wup.getNodeInstanceID());
+                    topologyDM.addNode(reregistered(wup));
+                    topologyDM.addContainedNode(wup.getContainingElementID(), wup.getNodeInstanceID());
+                    break;
+                case 1:
+                    topologyDM.removeNode(service.getNodeInstanceID());
+                    topologyDM.addNode(reregistered(service));
+                    break;
+                case 2:
+                    topologyDM.setNodeInstanceInPlace(wup.getNodeInstanceID(), random.nextBoolean());
+                    break;
+                case 3: {
+                    EndpointElement endpoint = TopologyTestElements.newEndpoint(wup.getNodeInstanceID(), "endpoint-" + elementCounter.incrementAndGet());
+                    topologyDM.addEndpoint(endpoint);
+                    endpoints.add(endpoint);
+                    topologyDM.addEndpointToNode(wup.getNodeInstanceID(), endpoint.getEndpointInstanceID());
+                    break;
+                }
+                case 4:
+                    if (endpoints.size() >= 2 && random.nextBoolean()) {
+                        LinkElement link = TopologyTestElements.newLink(endpoints.get(random.nextInt(endpoints.size())), endpoints.get(random.nextInt(endpoints.size())), "link-" + elementCounter.incrementAndGet());
+                        topologyDM.addLink(link);
+                        links.add(link);
+                    } else if (!links.isEmpty()) {
+                        topologyDM.removeLink(links.get(random.nextInt(links.size())).getLinkID());
+                    }
+                    break;
+                default: {
+                    RuntimeException[] mutationFailures = topologyDM.applyMutations(Arrays.asList(
+                            TopologyMutation.removeNode(wup.getNodeInstanceID()),
+                            TopologyMutation.addNode(reregistered(wup)),
+                            TopologyMutation.addContainedNode(wup.getContainingElementID(), wup.getNodeInstanceID()),
+                            TopologyMutation.setInstanceInPlace(wup.getNodeInstanceID(), random.nextBoolean())));
+                    assertThat(mutationFailures).containsOnlyNulls();
+                }
+            }
+        } catch (IllegalArgumentException nodeRemovedConcurrently) {
+            // e.g. the instanceInPlace state (or an Endpoint) of a Node that another writer has just removed
+        }
+    }
+
+    /**
+     * @return A fresh copy of the Node (with no contained Nodes or Endpoints), as re-registered after
+     * a restart
+     */
+    private static NodeElement reregistered(NodeElement node) {
+        NodeElement copy = new NodeElement();
+        copy.setNodeInstanceID(node.getNodeInstanceID());
+        copy.setContainingElementID(node.getContainingElementID());
+        copy.setNodeArchetype(node.getNodeArchetype());
+        copy.setVersion(node.getVersion());
+        copy.setConcurrencyMode(node.getConcurrencyMode());
+        copy.setResilienceMode(node.getResilienceMode());
+        copy.setInstanceInPlace(true);
+        return (copy);
+    }
+}
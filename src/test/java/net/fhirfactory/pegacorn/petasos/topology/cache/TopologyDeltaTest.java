@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.nio.ByteBuffer;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that applying the TopologyDelta computed between two TopologyDMs brings the target in line
+ * with the source - so their Merkle digests match, and a second delta is empty - whether the target
+ * starts empty or has diverged from the source.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyDeltaTest {
+
+    private static final int SERVICE_COUNT = 3;
+    private static final int WUPS_PER_SERVICE = 3;
+
+    private TopologyDM source;
+    private TopologyDM target;
+
+    @BeforeEach
+    public void buildTopologies() {
+        source = new TopologyDM();
+        target = new TopologyDM();
+        registerCommonTopology(source);
+        registerCommonTopology(target);
+    }
+
+    /**
+     * Registers the same topology (from distinct, but equal, elements) in a TopologyDM - a Platform
+     * of Services, each with WUPs linked ingress to egress.
+     */
+    private static void registerCommonTopology(TopologyDM topologyDM) {
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        NodeElement platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        for (int serviceIndex = 0; serviceIndex < SERVICE_COUNT; serviceIndex++) {
+            NodeElement service = TopologyTestElements.newNode(platform, NodeElementTypeEnum.SERVICE, "service-" + serviceIndex);
+            topologyDM.addNode(service);
+            EndpointElement previousEgress = null;
+            for (int wupIndex = 0; wupIndex < WUPS_PER_SERVICE; wupIndex++) {
+                NodeElement wup = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-" + wupIndex);
+                EndpointElement ingress = TopologyTestElements.newEndpoint(wup, "ingress");
+                EndpointElement egress = TopologyTestElements.newEndpoint(wup, "egress");
+                topologyDM.addEndpoint(ingress);
+                topologyDM.addEndpoint(egress);
+                topologyDM.addNode(wup);
+                if (previousEgress != null) {
+                    topologyDM.addLink(TopologyTestElements.newLink(previousEgress, ingress, "link"));
+                }
+                previousEgress = egress;
+            }
+        }
+    }
+
+    private static NodeElement getNode(TopologyDM topologyDM, String serviceName, String wupName) {
+        for (NodeElement currentNode : topologyDM.getNodeSet()) {
+            String nodeFDN = currentNode.getNodeInstanceID().toFullString();
+            if (nodeFDN.contains("=" + serviceName) && (wupName == null ? !nodeFDN.contains("WUP=") : nodeFDN.endsWith("=" + wupName + "}"))) {
+                return (currentNode);
+            }
+        }
+        throw (new IllegalStateException("no node for " + serviceName + "/" + wupName));
+    }
+
+    @Test
+    public void equalTopologiesHaveAnEmptyDelta() {
+        assertThat(target.getTopologyDigest()).isEqualTo(source.getTopologyDigest());
+        assertThat(target.computeDeltaFrom(source).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void deltaBringsAnEmptyTopologyInLineWithTheSource() {
+        TopologyDM emptyTarget = new TopologyDM();
+
+        TopologyDelta delta = emptyTarget.computeDeltaFrom(source);
+        emptyTarget.applyDelta(TopologyDelta.decode(ByteBuffer.wrap(delta.encode())));
+
+        assertThat(delta.getAddedNodes()).hasSize(source.getNodeSet().size());
+        assertThat(emptyTarget.getTopologyDigest()).isEqualTo(source.getTopologyDigest());
+        assertThat(emptyTarget.computeDeltaFrom(source).isEmpty()).isTrue();
+        assertThat(emptyTarget.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void deltaReconcilesDivergedTopologies() {
+        NodeElement sourceWUP = getNode(source, "service-0", "wup-1");
+        source.setNodeInstanceInPlace(sourceWUP.getNodeInstanceID(), false);
+        EndpointElement addedEndpoint = TopologyTestElements.newEndpoint(sourceWUP.getNodeInstanceID(), "monitor");
+        source.addEndpoint(addedEndpoint);
+        source.addEndpointToNode(sourceWUP.getNodeInstanceID(), addedEndpoint.getEndpointInstanceID());
+        NodeElement addedWUP = TopologyTestElements.newNode(getNode(source, "service-1", null), NodeElementTypeEnum.WUP, "wup-added");
+        source.addNode(addedWUP);
+        NodeElement sourceRemovedWUP = getNode(source, "service-2", "wup-0");
+        source.removeNode(sourceRemovedWUP.getNodeInstanceID());
+        NodeElement targetOnlyWUP = TopologyTestElements.newNode(getNode(target, "service-2", null), NodeElementTypeEnum.WUP, "wup-stale");
+        target.addNode(targetOnlyWUP);
+        target.setNodeInstanceInPlace(getNode(target, "service-1", "wup-2").getNodeInstanceID(), false);
+        assertThat(target.getTopologyDigest()).isNotEqualTo(source.getTopologyDigest());
+
+        TopologyDelta delta = target.computeDeltaFrom(source);
+        target.applyDelta(TopologyDelta.decode(ByteBuffer.wrap(delta.encode())));
+
+        assertThat(target.getTopologyDigest()).isEqualTo(source.getTopologyDigest());
+        assertThat(target.computeDeltaFrom(source).isEmpty()).isTrue();
+        assertThat(target.getNode(targetOnlyWUP.getNodeInstanceID())).isNull();
+        assertThat(target.getNode(sourceRemovedWUP.getNodeInstanceID())).isNull();
+        assertThat(target.getNode(addedWUP.getNodeInstanceID())).isNotNull();
+        assertThat(target.getNode(sourceWUP.getNodeInstanceID()).isInstanceInPlace()).isFalse();
+        assertThat(target.getNode(sourceWUP.getNodeInstanceID()).getEndpoints()).contains(addedEndpoint.getEndpointInstanceID());
+        assertThat(target.getNodeSet()).hasSameSizeAs(source.getNodeSet());
+        assertThat(target.getEndpointSet()).hasSameSizeAs(source.getEndpointSet());
+        assertThat(target.getLinkSet()).hasSameSizeAs(source.getLinkSet());
+        assertThat(target.verifyConsistency()).isEmpty();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that the TopologyJournal, once attached to a TopologyDM, records the mutations in the order
+ * they were applied (so a replay reproduces the topology, even after concurrent mutations of the
+ * same Node), and that a torn tail and compaction don't lose any applied mutation.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyJournalTest {
+
+    private static final long COMMIT_INTERVAL_MILLIS = 10;
+
+    @TempDir
+    Path journalDirectory;
+
+    private Path journalFile;
+    private TopologyDM topologyDM;
+    private TopologyJournal journal;
+    private NodeElement platform;
+    private List<NodeElement> wups;
+
+    @BeforeEach
+    public void attachJournal() throws IOException {
+        journalFile = journalDirectory.resolve("topology.journal");
+        topologyDM = new TopologyDM();
+        journal = TopologyJournal.open(journalFile, true, COMMIT_INTERVAL_MILLIS);
+        topologyDM.setJournal(journal);
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        wups = new ArrayList<NodeElement>();
+        for (int index = 0; index < 4; index++) {
+            wups.add(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-" + index));
+        }
+        topologyDM.addNode(solution);
+        topologyDM.addTopology(Arrays.asList(platform, wups.get(0), wups.get(1)), null, null);
+        topologyDM.addNode(wups.get(2));
+        topologyDM.addNode(wups.get(3));
+    }
+
+    @AfterEach
+    public void closeJournal() {
+        topologyDM.setJournal(null);
+        journal.close();
+    }
+
+    private TopologyDM replayJournal() throws IOException {
+        TopologyDM replayedDM = new TopologyDM();
+        TopologyJournal reopenedJournal = TopologyJournal.open(journalFile, true, COMMIT_INTERVAL_MILLIS);
+        try {
+            reopenedJournal.replay(replayedDM);
+        } finally {
+            reopenedJournal.close();
+        }
+        return (replayedDM);
+    }
+
+    @Test
+    public void replayReproducesTheTopology() throws IOException {
+        EndpointElement ingress = TopologyTestElements.newEndpoint(wups.get(0).getNodeInstanceID(), "ingress");
+        EndpointElement egress = TopologyTestElements.newEndpoint(wups.get(1).getNodeInstanceID(), "egress");
+        topologyDM.addEndpoint(ingress);
+        topologyDM.addEndpoint(egress);
+        topologyDM.addEndpointToNode(wups.get(0).getNodeInstanceID(), ingress.getEndpointInstanceID());
+        topologyDM.addEndpointToNode(wups.get(1).getNodeInstanceID(), egress.getEndpointInstanceID());
+        topologyDM.addLink(TopologyTestElements.newLink(egress, ingress, "egress-ingress"));
+        topologyDM.setNodeInstanceInPlace(wups.get(0).getNodeInstanceID(), false);
+        topologyDM.removeNode(wups.get(3).getNodeInstanceID());
+        topologyDM.applyMutations(Arrays.asList(TopologyMutation.setInstanceInPlace(wups.get(1).getNodeInstanceID(), false), TopologyMutation.removeNode(wups.get(2).getNodeInstanceID())));
+        journal.flush();
+
+        TopologyDM replayedDM = replayJournal();
+
+        assertThat(replayedDM.getTopologyDigest()).isEqualTo(topologyDM.getTopologyDigest());
+        assertThat(replayedDM.getNodeSet()).hasSize(4);
+        assertThat(replayedDM.getNode(wups.get(0).getNodeInstanceID()).isInstanceInPlace()).isFalse();
+        assertThat(replayedDM.getNode(wups.get(0).getNodeInstanceID()).getEndpoints()).containsExactly(ingress.getEndpointInstanceID());
+        assertThat(replayedDM.getLinkSet()).hasSize(1);
+        assertThat(replayedDM.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void containedNodeAdditionsAreJournaled() throws IOException {
+        NodeElement monitor = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Monitor");
+        NodeElement probe = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Probe");
+        topologyDM.addNode(monitor);
+        topologyDM.addNode(probe);
+        topologyDM.addContainedNode(platform.getNodeInstanceID(), monitor.getNodeInstanceID());
+        topologyDM.applyMutations(Arrays.asList(TopologyMutation.addContainedNode(platform.getNodeInstanceID(), probe.getNodeInstanceID())));
+        journal.flush();
+
+        TopologyDM replayedDM = replayJournal();
+
+        assertThat(replayedDM.getNode(platform.getNodeInstanceID()).getContainedElements()).contains(monitor.getNodeInstanceID(), probe.getNodeInstanceID());
+    }
+
+    @Test
+    public void failedMutationsAreNotJournaled() throws IOException {
+        journal.flush();
+        long journalLength = journal.getJournalLength();
+        RuntimeException[] failures = topologyDM.applyMutations(Arrays.asList(TopologyMutation.setInstanceInPlace(TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "unregistered").getNodeInstanceID(), false)));
+        journal.flush();
+
+        assertThat(failures[0]).isInstanceOf(IllegalArgumentException.class);
+        assertThat(journal.getJournalLength()).isEqualTo(journalLength);
+    }
+
+    @Test
+    public void concurrentChangesToTheSameNodeReplayInApplyOrder() throws Exception {
+        int writerCount = 8;
+        ExecutorService writers = Executors.newFixedThreadPool(writerCount);
+        try {
+            for (int round = 0; round < 20; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> flips = new ArrayList<Future<?>>();
+                for (int writer = 0; writer < writerCount; writer++) {
+                    flips.add(writers.submit(() -> {
+                        start.await();
+                        for (int flip = 0; flip < 50; flip++) {
+                            for (NodeElement currentWUP : wups) {
+                                topologyDM.setNodeInstanceInPlace(currentWUP.getNodeInstanceID(), ThreadLocalRandom.current().nextBoolean());
+                            }
+                        }
+                        journal.awaitCommit();
+                        return (null);
+                    }));
+                }
+                start.countDown();
+                for (Future<?> currentFlips : flips) {
+                    currentFlips.get();
+                }
+            }
+        } finally {
+            writers.shutdown();
+        }
+
+        TopologyDM replayedDM = replayJournal();
+
+        for (NodeElement currentWUP : wups) {
+            assertThat(replayedDM.getNode(currentWUP.getNodeInstanceID()).isInstanceInPlace()).isEqualTo(currentWUP.isInstanceInPlace());
+        }
+        assertThat(replayedDM.getTopologyDigest()).isEqualTo(topologyDM.getTopologyDigest());
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnOpen() throws IOException {
+        journal.flush();
+        long validLength = journal.getJournalLength();
+        topologyDM.setJournal(null);
+        journal.close();
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer tornRecord = ByteBuffer.allocate(12);
+            tornRecord.putInt(0, 64);
+            channel.write(tornRecord);
+        }
+
+        journal = TopologyJournal.open(journalFile, true, COMMIT_INTERVAL_MILLIS);
+        assertThat(journal.getJournalLength()).isEqualTo(validLength);
+        TopologyDM replayedDM = new TopologyDM();
+        assertThat(journal.replay(replayedDM)).isEqualTo(4);
+        assertThat(replayedDM.getTopologyDigest()).isEqualTo(topologyDM.getTopologyDigest());
+    }
+
+    @Test
+    public void compactionKeepsRecordsAppendedWhileTheSnapshotIsWritten() throws IOException {
+        Path snapshotFile = journalDirectory.resolve("topology.snapshot");
+        NodeElement lateWUP = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "late-wup");
+        journal.compact(() -> {
+            topologyDM.writeSnapshot(snapshotFile);
+            topologyDM.addNode(lateWUP);
+            topologyDM.setNodeInstanceInPlace(wups.get(0).getNodeInstanceID(), false);
+            journal.awaitCommit();
+        });
+
+        TopologyDM restoredDM = new TopologyDM();
+        restoredDM.restoreSnapshot(MappedTopologySnapshot.open(snapshotFile, 0));
+        TopologyJournal reopenedJournal = TopologyJournal.open(journalFile, true, COMMIT_INTERVAL_MILLIS);
+        try {
+            assertThat(reopenedJournal.replay(restoredDM)).isEqualTo(2);
+        } finally {
+            reopenedJournal.close();
+        }
+
+        assertThat(restoredDM.getNode(lateWUP.getNodeInstanceID())).isNotNull();
+        assertThat(restoredDM.getNode(wups.get(0).getNodeInstanceID()).isInstanceInPlace()).isFalse();
+        assertThat(restoredDM.getTopologyDigest()).isEqualTo(topologyDM.getTopologyDigest());
+    }
+}
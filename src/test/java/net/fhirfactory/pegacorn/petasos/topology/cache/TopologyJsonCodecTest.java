@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ConcurrencyModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.resilience.mode.ResilienceModeEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests of the TopologyJsonCodec - a topology written as JSON and read back (in batches) into
+ * another TopologyDM must be identical to the original.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyJsonCodecTest {
+
+    private TopologyDM sourceDM;
+    private NodeElement platform;
+    private NodeElement firstWUP;
+
+    @BeforeEach
+    public void buildTopology() {
+        sourceDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        solution.setResilienceMode(ResilienceModeEnum.RESILIENCE_MODE_CLUSTERED);
+        platform = TopologyTestElements.newNodeWithoutModes(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        firstWUP = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-0");
+        firstWUP.setConcurrencyMode(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+        firstWUP.setInstanceInPlace(false);
+        NodeElement secondWUP = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-1");
+        EndpointElement egress = TopologyTestElements.newEndpoint(firstWUP, "egress");
+        EndpointElement ingress = TopologyTestElements.newEndpoint(secondWUP, "ingress");
+        List<NodeElement> nodes = new ArrayList<NodeElement>();
+        nodes.add(solution);
+        nodes.add(platform);
+        nodes.add(firstWUP);
+        nodes.add(secondWUP);
+        List<EndpointElement> endpoints = new ArrayList<EndpointElement>();
+        endpoints.add(egress);
+        endpoints.add(ingress);
+        List<LinkElement> links = new ArrayList<LinkElement>();
+        links.add(TopologyTestElements.newLink(egress, ingress, "link-0"));
+        sourceDM.addTopology(nodes, links, endpoints);
+    }
+
+    @Test
+    public void roundTripReproducesTheTopology() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        sourceDM.writeJson(output, true);
+
+        TopologyDM targetDM = new TopologyDM();
+        int elementCount = targetDM.readJson(new ByteArrayInputStream(output.toByteArray()), 2);
+
+        assertThat(elementCount).isEqualTo(7);
+        assertThat(targetDM.getTopologyDigest()).isEqualTo(sourceDM.getTopologyDigest());
+        assertThat(targetDM.verifyConsistency()).isEmpty();
+        NodeElement readWUP = targetDM.getNode(firstWUP.getNodeInstanceID());
+        assertThat(readWUP).isNotNull();
+        assertThat(readWUP.getVersion()).isEqualTo(firstWUP.getVersion());
+        assertThat(readWUP.getNodeArchetype()).isEqualTo(NodeElementTypeEnum.WUP);
+        assertThat(readWUP.getContainingElementID()).isEqualTo(platform.getNodeInstanceID());
+        assertThat(readWUP.getConcurrencyMode()).isEqualTo(ConcurrencyModeEnum.CONCURRENCY_MODE_CONCURRENT);
+        assertThat(readWUP.isInstanceInPlace()).isFalse();
+        assertThat(readWUP.getEndpoints()).containsExactlyInAnyOrderElementsOf(firstWUP.getEndpoints());
+        assertThat(targetDM.getNode(platform.getNodeInstanceID()).getConcurrencyMode()).isNull();
+        assertThat(targetDM.getNode(platform.getNodeInstanceID()).getContainedElements()).hasSize(2);
+        assertThat(targetDM.getEffectiveResilienceMode(firstWUP.getNodeInstanceID())).isEqualTo(sourceDM.getEffectiveResilienceMode(firstWUP.getNodeInstanceID()));
+
+        ByteArrayOutputStream secondOutput = new ByteArrayOutputStream();
+        targetDM.writeJson(secondOutput, false);
+        TopologyDM thirdDM = new TopologyDM();
+        thirdDM.readJson(new ByteArrayInputStream(secondOutput.toByteArray()), TopologyJsonCodec.DEFAULT_IMPORT_BATCH_SIZE);
+        assertThat(thirdDM.getTopologyDigest()).isEqualTo(sourceDM.getTopologyDigest());
+    }
+
+    @Test
+    public void elementsAreDeliveredInBoundedBatches() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        sourceDM.writeJson(output, true);
+        List<Integer> batchSizes = new ArrayList<Integer>();
+
+        int elementCount = TopologyJsonCodec.read(new ByteArrayInputStream(output.toByteArray()), 3,
+                (nodes, links, endpoints) -> batchSizes.add(nodes.size() + links.size() + endpoints.size()));
+
+        assertThat(elementCount).isEqualTo(7);
+        assertThat(batchSizes).allMatch(batchSize -> batchSize > 0 && batchSize <= 3);
+        assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(7);
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws IOException {
+        String json = "{\"formatVersion\":1,\"generator\":{\"name\":\"other\",\"tags\":[1,2]},"
+                + "\"endpoints\":[{\"id\":\"" + firstWUP.getEndpoints().iterator().next().getContent() + "\",\"version\":\"1.0.0\",\"extra\":[true]}]}";
+        List<EndpointElement> readEndpoints = new ArrayList<EndpointElement>();
+
+        int elementCount = TopologyJsonCodec.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), 10,
+                (nodes, links, endpoints) -> readEndpoints.addAll(endpoints));
+
+        assertThat(elementCount).isEqualTo(1);
+        assertThat(readEndpoints.get(0).getEndpointInstanceID()).isEqualTo(firstWUP.getEndpoints().iterator().next());
+        assertThat(readEndpoints.get(0).getVersion()).isEqualTo("1.0.0");
+    }
+
+    @Test
+    public void laterFormatVersionIsRejected() {
+        String json = "{\"formatVersion\":" + (TopologyJsonCodec.FORMAT_VERSION + 1) + ",\"nodes\":[]}";
+
+        assertThatThrownBy(() -> TopologyJsonCodec.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), 10, (nodes, links, endpoints) -> {
+        })).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that TopologyDM.getNodePage() pages through the matching Nodes in canonical key order -
+ * each exactly once, both for the whole topology and for a (small or large) subtree - and that the
+ * cursor is stable when Nodes are added ahead of it, and that a consistent streamNodes() query for a
+ * subtree matches the snapshot's subtree.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyNodePagingTest {
+
+    private static final int SERVICE_COUNT = 10;
+    private static final int WUPS_PER_SERVICE = 20;
+
+    private TopologyDM topologyDM;
+    private NodeElement platform;
+    private List<NodeElement> services;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        services = new ArrayList<NodeElement>();
+        for (int serviceIndex = 0; serviceIndex < SERVICE_COUNT; serviceIndex++) {
+            NodeElement service = TopologyTestElements.newNode(platform, NodeElementTypeEnum.SERVICE, "service-" + serviceIndex);
+            services.add(service);
+            topologyDM.addNode(service);
+            for (int wupIndex = 0; wupIndex < WUPS_PER_SERVICE; wupIndex++) {
+                topologyDM.addNode(TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-" + wupIndex));
+            }
+        }
+    }
+
+    private List<String> readAllPages(TopologyNodeQuery query, int pageSize) {
+        ArrayList<String> pagedKeys = new ArrayList<String>();
+        String cursor = null;
+        do {
+            TopologyPage<NodeElement> page = topologyDM.getNodePage(query, cursor, pageSize);
+            assertThat(page.getElements().size()).isLessThanOrEqualTo(pageSize);
+            for (NodeElement currentNode : page.getElements()) {
+                pagedKeys.add(TopologyDM.canonicalKey(currentNode.getNodeInstanceID()));
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return (pagedKeys);
+    }
+
+    private List<String> expectedKeys(TopologyNodeQuery query) {
+        return (topologyDM.streamNodes(query, false, false).map(node -> TopologyDM.canonicalKey(node.getNodeInstanceID())).sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void pagesCoverTheWholeTopologyInKeyOrder() {
+        TopologyNodeQuery wups = TopologyNodeQuery.all().withArchetype(NodeElementTypeEnum.WUP);
+
+        List<String> pagedKeys = readAllPages(wups, 7);
+
+        assertThat(pagedKeys).hasSize(SERVICE_COUNT * WUPS_PER_SERVICE);
+        assertThat(pagedKeys).isEqualTo(expectedKeys(wups));
+        assertThat(readAllPages(TopologyNodeQuery.all(), 1000)).hasSize(topologyDM.getNodeSet().size());
+    }
+
+    @Test
+    public void pagesCoverLargeAndSmallSubtrees() {
+        TopologyNodeQuery largeSubtree = TopologyNodeQuery.all().withContainingNode(platform.getNodeInstanceID());
+        TopologyNodeQuery smallSubtree = TopologyNodeQuery.all().withContainingNode(services.get(3).getNodeInstanceID());
+
+        assertThat(readAllPages(largeSubtree, 50)).isEqualTo(expectedKeys(largeSubtree)).hasSize(SERVICE_COUNT * (WUPS_PER_SERVICE + 1));
+        assertThat(readAllPages(smallSubtree, 3)).isEqualTo(expectedKeys(smallSubtree)).hasSize(WUPS_PER_SERVICE);
+    }
+
+    @Test
+    public void cursorIsStableWhenNodesAreAddedBehindIt() {
+        TopologyNodeQuery wups = TopologyNodeQuery.all().withArchetype(NodeElementTypeEnum.WUP);
+        TopologyPage<NodeElement> firstPage = topologyDM.getNodePage(wups, null, 10);
+        String lastKeyOfFirstPage = TopologyDM.canonicalKey(firstPage.getElements().get(9).getNodeInstanceID());
+
+        topologyDM.addNode(TopologyTestElements.newNode(services.get(0), NodeElementTypeEnum.WUP, "aaa-added"));
+        TopologyPage<NodeElement> secondPage = topologyDM.getNodePage(wups, firstPage.getNextCursor(), 10);
+
+        assertThat(firstPage.getNextCursor()).isEqualTo(lastKeyOfFirstPage);
+        assertThat(secondPage.getElements()).hasSize(10);
+        for (NodeElement currentNode : secondPage.getElements()) {
+            assertThat(TopologyDM.canonicalKey(currentNode.getNodeInstanceID())).isGreaterThan(lastKeyOfFirstPage);
+        }
+    }
+
+    @Test
+    public void consistentSubtreeStreamMatchesTheLiveSubtree() {
+        TopologyNodeQuery serviceSubtree = TopologyNodeQuery.all().withContainingNode(services.get(5).getNodeInstanceID()).withInstanceInPlace(true);
+        topologyDM.setNodeInstanceInPlace(topologyDM.getContainedNodes(services.get(5).getNodeInstanceID()).get(0).getNodeInstanceID(), false);
+
+        List<String> consistentKeys = topologyDM.streamNodes(serviceSubtree, true, false).map(node -> TopologyDM.canonicalKey(node.getNodeInstanceID())).sorted().collect(Collectors.toList());
+
+        assertThat(consistentKeys).hasSize(WUPS_PER_SERVICE - 1);
+        assertThat(consistentKeys).isEqualTo(expectedKeys(serviceSubtree));
+        assertThat(topologyDM.streamNodes(TopologyNodeQuery.all().withContainingNode(platform.getNodeInstanceID()), true, true).count()).isEqualTo(SERVICE_COUNT * (WUPS_PER_SERVICE + 1));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.cache;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that a TopologySnapshot is immutable - in particular that the TopologyDM's in-place
+ * changes to its elements don't show through an earlier snapshot - and that each snapshot only
+ * copies the elements that changed since the previous one.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologySnapshotTest {
+
+    private TopologyDM topologyDM;
+    private NodeElement platform;
+    private NodeElement wup;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        wup = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-0");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        topologyDM.addNode(wup);
+    }
+
+    @Test
+    public void inPlaceChangesAreNotVisibleThroughEarlierSnapshot() {
+        TopologySnapshot before = topologyDM.getSnapshot();
+
+        topologyDM.setNodeInstanceInPlace(wup.getNodeInstanceID(), false);
+        EndpointElement endpoint = TopologyTestElements.newEndpoint(wup.getNodeInstanceID(), "ingress");
+        topologyDM.addEndpoint(endpoint);
+        topologyDM.addEndpointToNode(wup.getNodeInstanceID(), endpoint.getEndpointInstanceID());
+        NodeElement secondWUP = TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, "wup-1");
+        topologyDM.addNode(secondWUP);
+        TopologySnapshot after = topologyDM.getSnapshot();
+
+        NodeElement wupBefore = before.getNode(wup.getNodeInstanceID());
+        assertThat(wupBefore).isNotSameAs(wup);
+        assertThat(wupBefore.isInstanceInPlace()).isTrue();
+        assertThat(wupBefore.getEndpoints()).isEmpty();
+        assertThat(before.getNode(platform.getNodeInstanceID()).getContainedElements()).hasSize(1);
+        assertThat(before.getEndpointCount()).isZero();
+        assertThat(before.getNodeCount()).isEqualTo(3);
+
+        NodeElement wupAfter = after.getNode(wup.getNodeInstanceID());
+        assertThat(wupAfter.isInstanceInPlace()).isFalse();
+        assertThat(wupAfter.getEndpoints()).containsExactly(endpoint.getEndpointInstanceID());
+        assertThat(after.getNode(platform.getNodeInstanceID()).getContainedElements()).hasSize(2);
+        assertThat(after.getEndpoint(endpoint.getEndpointInstanceID())).isNotNull();
+        assertThat(after.getNodeCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void unchangedElementsAreSharedBetweenSnapshots() {
+        TopologySnapshot before = topologyDM.getSnapshot();
+        long buildCount = topologyDM.getMetrics().getSnapshotBuildCount();
+
+        topologyDM.setNodeInstanceInPlace(wup.getNodeInstanceID(), false);
+        TopologySnapshot after = topologyDM.getSnapshot();
+
+        assertThat(after).isNotSameAs(before);
+        assertThat(topologyDM.getSnapshot()).isSameAs(after);
+        assertThat(topologyDM.getMetrics().getSnapshotBuildCount()).isEqualTo(buildCount + 1);
+        assertThat(after.getNode(platform.getNodeInstanceID())).isSameAs(before.getNode(platform.getNodeInstanceID()));
+        assertThat(after.getNode(wup.getNodeInstanceID())).isNotSameAs(before.getNode(wup.getNodeInstanceID()));
+    }
+
+    @Test
+    public void removedElementsLeaveLaterSnapshotsOnly() {
+        TopologySnapshot before = topologyDM.getSnapshot();
+
+        topologyDM.removeNode(wup.getNodeInstanceID());
+        TopologySnapshot after = topologyDM.getSnapshot();
+
+        assertThat(before.getNode(wup.getNodeInstanceID())).isNotNull();
+        assertThat(after.getNode(wup.getNodeInstanceID())).isNull();
+        assertThat(after.getNodes()).hasSize(2);
+        assertThat(after.getNode(platform.getNodeInstanceID()).getContainedElements()).isEmpty();
+        assertThat(before.getNode(platform.getNodeInstanceID()).getContainedElements()).hasSize(1);
+    }
+}
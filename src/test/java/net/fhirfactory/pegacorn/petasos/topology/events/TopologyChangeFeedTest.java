@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.events;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Tests the TopologyChangeFeed's delivery to a slow subscriber - pending changes to an element are
+ * coalesced, a subscriber that falls too far behind is sent RESYNC_REQUIRED, and publishing never
+ * waits on a subscriber.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyChangeFeedTest {
+
+    private static final long DELIVERY_TIMEOUT_MILLIS = 5000L;
+
+    private TopologyChangeFeed changeFeed;
+    private NodeElement service;
+    private BlockingSubscriber slowSubscriber;
+
+    @BeforeEach
+    public void startFeed() {
+        changeFeed = new TopologyChangeFeed();
+        service = TopologyTestElements.newNode(null, NodeElementTypeEnum.SERVICE, "Service");
+        slowSubscriber = new BlockingSubscriber();
+    }
+
+    @AfterEach
+    public void stopFeed() {
+        slowSubscriber.release();
+        changeFeed.shutdown();
+    }
+
+    @Test
+    public void pendingChangesToAnElementAreCoalesced() throws InterruptedException {
+        changeFeed.subscribe(slowSubscriber);
+        blockSubscriber();
+        NodeElement wupA = newWUP("wup-a");
+        NodeElement wupB = newWUP("wup-b");
+
+        publish(TopologyChangeTypeEnum.ADDED, wupA, 2);
+        publish(TopologyChangeTypeEnum.UPDATED, wupA, 3);
+        publish(TopologyChangeTypeEnum.UPDATED, wupB, 4);
+        publish(TopologyChangeTypeEnum.INSTANCE_IN_PLACE_CHANGED, wupB, 5);
+        publish(TopologyChangeTypeEnum.UPDATED, wupB, 6);
+        slowSubscriber.release();
+
+        awaitCondition(() -> slowSubscriber.receivedEvents.size() >= 3);
+        List<TopologyChangeEvent> receivedEvents = slowSubscriber.receivedEvents;
+        assertThat(receivedEvents).hasSize(3);
+        assertThat(receivedEvents.get(1).getElementID()).isSameAs(wupA.getNodeInstanceID());
+        assertThat(receivedEvents.get(1).getChangeType()).isEqualTo(TopologyChangeTypeEnum.ADDED);
+        assertThat(receivedEvents.get(1).getEpoch()).isEqualTo(3);
+        assertThat(receivedEvents.get(2).getElementID()).isSameAs(wupB.getNodeInstanceID());
+        assertThat(receivedEvents.get(2).getChangeType()).isEqualTo(TopologyChangeTypeEnum.UPDATED);
+        assertThat(receivedEvents.get(2).getEpoch()).isEqualTo(6);
+    }
+
+    @Test
+    public void removalAfterAdditionIsDeliveredAsTheRemoval() throws InterruptedException {
+        changeFeed.subscribe(slowSubscriber);
+        blockSubscriber();
+        NodeElement wup = newWUP("wup-a");
+
+        publish(TopologyChangeTypeEnum.ADDED, wup, 2);
+        changeFeed.publish(TopologyChangeTypeEnum.REMOVED, TopologyElementTypeEnum.NODE, wup.getNodeInstanceID().getContent(), wup.getNodeInstanceID(), null, 3);
+        slowSubscriber.release();
+
+        awaitCondition(() -> slowSubscriber.receivedEvents.size() >= 2);
+        assertThat(slowSubscriber.receivedEvents).hasSize(2);
+        assertThat(slowSubscriber.receivedEvents.get(1).getChangeType()).isEqualTo(TopologyChangeTypeEnum.REMOVED);
+        assertThat(slowSubscriber.receivedEvents.get(1).getElement()).isNull();
+    }
+
+    @Test
+    public void overflowingSubscriberIsSentResyncRequired() throws InterruptedException {
+        changeFeed.subscribe(slowSubscriber, 2);
+        blockSubscriber();
+
+        for (int count = 0; count < 5; count++) {
+            publish(TopologyChangeTypeEnum.ADDED, newWUP("wup-" + count), 10 + count);
+        }
+        slowSubscriber.release();
+
+        awaitCondition(() -> slowSubscriber.receivedEvents.size() >= 2);
+        TopologyChangeEvent resyncEvent = slowSubscriber.receivedEvents.get(1);
+        assertThat(resyncEvent.getChangeType()).isEqualTo(TopologyChangeTypeEnum.RESYNC_REQUIRED);
+        assertThat(resyncEvent.getEpoch()).isEqualTo(14);
+        assertThat(resyncEvent.getElementID()).isNull();
+
+        publish(TopologyChangeTypeEnum.ADDED, newWUP("wup-after"), 15);
+        awaitCondition(() -> slowSubscriber.receivedEvents.size() >= 3);
+        assertThat(slowSubscriber.receivedEvents).hasSize(3);
+        assertThat(slowSubscriber.receivedEvents.get(2).getChangeType()).isEqualTo(TopologyChangeTypeEnum.ADDED);
+    }
+
+    @Test
+    public void publishingNeverWaitsOnABlockedSubscriber() throws InterruptedException {
+        BlockingSubscriber fastSubscriber = new BlockingSubscriber();
+        fastSubscriber.release();
+        changeFeed.subscribe(slowSubscriber, 100);
+        changeFeed.subscribe(fastSubscriber);
+        blockSubscriber();
+        NodeElement wup = newWUP("wup-0");
+
+        assertTimeoutPreemptively(Duration.ofMillis(DELIVERY_TIMEOUT_MILLIS), () -> {
+            for (int count = 0; count < 100000; count++) {
+                publish(TopologyChangeTypeEnum.UPDATED, wup, 2 + count);
+                if (count % 1000 == 0) {
+                    publish(TopologyChangeTypeEnum.ADDED, newWUP("wup-" + count), 2 + count);
+                }
+            }
+        });
+
+        assertThat(slowSubscriber.receivedEvents).hasSize(1);
+        awaitCondition(() -> !fastSubscriber.receivedEvents.isEmpty()
+                && fastSubscriber.receivedEvents.get(fastSubscriber.receivedEvents.size() - 1).getEpoch() >= 100001);
+        slowSubscriber.release();
+        awaitCondition(() -> slowSubscriber.receivedEvents.size() > 1);
+    }
+
+    private NodeElement newWUP(String name) {
+        return (TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, name));
+    }
+
+    private void publish(TopologyChangeTypeEnum changeType, NodeElement node, long epoch) {
+        changeFeed.publish(changeType, TopologyElementTypeEnum.NODE, node.getNodeInstanceID().getContent(), node.getNodeInstanceID(), node, epoch);
+    }
+
+    /**
+     * Publishes a change to the Service and waits until the slow subscriber is blocked delivering it.
+     */
+    private void blockSubscriber() throws InterruptedException {
+        publish(TopologyChangeTypeEnum.ADDED, service, 1);
+        assertThat(slowSubscriber.blocked.await(DELIVERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(condition.getAsBoolean()).as("condition met within %d ms", DELIVERY_TIMEOUT_MILLIS).isTrue();
+    }
+
+    /**
+     * Records the events delivered to it, blocking in its first delivery until released.
+     */
+    private static class BlockingSubscriber implements TopologyChangeSubscriber {
+        final CopyOnWriteArrayList<TopologyChangeEvent> receivedEvents = new CopyOnWriteArrayList<TopologyChangeEvent>();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void onTopologyChange(TopologyChangeEvent changeEvent) {
+            receivedEvents.add(changeEvent);
+            blocked.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.liveness;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that the TopologyLivenessTracker takes a Node whose lease runs out (and, optionally, its
+ * contained Nodes) out of place, that a heartbeat puts it back in place, and that a heartbeat which
+ * arrives while an expiry is taking the Node out of place leaves it in place once both are done.
+ * The wheel is ticked by the tests (rather than by the tracker's own thread).
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyLivenessTrackerTest {
+
+    private static final long TICK_MILLIS = 10;
+    private static final long SHORT_LEASE_MILLIS = 30;
+    private static final long LONG_LEASE_MILLIS = 60000;
+
+    private TopologyDM topologyDM;
+    private NodeElement service;
+    private NodeElement firstWUP;
+    private NodeElement secondWUP;
+    private volatile NodeElementIdentifier blockedNodeID;
+    private CountDownLatch takingOutOfPlace;
+    private CountDownLatch proceed;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        NodeElement platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        service = TopologyTestElements.newNode(platform, NodeElementTypeEnum.SERVICE, "Service");
+        firstWUP = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-0");
+        secondWUP = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-1");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        topologyDM.addNode(service);
+        topologyDM.addNode(firstWUP);
+        topologyDM.addNode(secondWUP);
+        blockedNodeID = null;
+        takingOutOfPlace = new CountDownLatch(1);
+        proceed = new CountDownLatch(1);
+    }
+
+    /**
+     * Sets the instanceInPlace state through the TopologyDM - holding up the taking out of place of
+     * the blocked Node until the test lets it proceed.
+     */
+    private void updateInstanceInPlace(NodeElementIdentifier nodeID, Boolean instanceInPlace) {
+        if (!instanceInPlace && nodeID.equals(blockedNodeID)) {
+            takingOutOfPlace.countDown();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        topologyDM.setNodeInstanceInPlace(nodeID, instanceInPlace);
+    }
+
+    private TopologyLivenessTracker newTracker(boolean cascadeToContainedNodes) {
+        return (new TopologyLivenessTracker(topologyDM, this::updateInstanceInPlace, TICK_MILLIS, TopologyLivenessTracker.DEFAULT_WHEEL_SIZE, cascadeToContainedNodes));
+    }
+
+    private boolean isInPlace(NodeElement node) {
+        return (topologyDM.getNode(node.getNodeInstanceID()).isInstanceInPlace());
+    }
+
+    private static void awaitLeaseExpiry() throws InterruptedException {
+        Thread.sleep(SHORT_LEASE_MILLIS + 3 * TICK_MILLIS);
+    }
+
+    @Test
+    public void expiredNodeIsPutBackInPlaceByItsNextHeartbeat() throws Exception {
+        TopologyLivenessTracker tracker = newTracker(false);
+        assertThat(tracker.recordHeartbeat(service.getNodeInstanceID(), SHORT_LEASE_MILLIS)).isTrue();
+
+        awaitLeaseExpiry();
+        tracker.tick();
+        assertThat(isInPlace(service)).isFalse();
+        assertThat(isInPlace(firstWUP)).isTrue();
+
+        assertThat(tracker.recordHeartbeat(service.getNodeInstanceID(), SHORT_LEASE_MILLIS)).isTrue();
+        assertThat(isInPlace(service)).isTrue();
+    }
+
+    @Test
+    public void expiryCascadesToContainedNodesWithoutLiveLeases() throws Exception {
+        TopologyLivenessTracker tracker = newTracker(true);
+        tracker.recordHeartbeat(service.getNodeInstanceID(), SHORT_LEASE_MILLIS);
+        tracker.recordHeartbeat(secondWUP.getNodeInstanceID(), LONG_LEASE_MILLIS);
+
+        awaitLeaseExpiry();
+        tracker.tick();
+
+        assertThat(isInPlace(service)).isFalse();
+        assertThat(isInPlace(firstWUP)).isFalse();
+        assertThat(isInPlace(secondWUP)).isTrue();
+        assertThat(tracker.recordHeartbeat(firstWUP.getNodeInstanceID(), LONG_LEASE_MILLIS)).isTrue();
+        assertThat(isInPlace(firstWUP)).isTrue();
+    }
+
+    @Test
+    public void heartbeatDuringExpiryLeavesNodeInPlace() throws Exception {
+        TopologyLivenessTracker tracker = newTracker(false);
+        tracker.recordHeartbeat(service.getNodeInstanceID(), SHORT_LEASE_MILLIS);
+        awaitLeaseExpiry();
+        blockedNodeID = service.getNodeInstanceID();
+
+        assertThat(isInPlace(service)).isTrue();
+        assertHeartbeatWaitsForExpiry(tracker, service);
+    }
+
+    @Test
+    public void heartbeatFromContainedNodeDuringCascadeLeavesNodeInPlace() throws Exception {
+        TopologyLivenessTracker tracker = newTracker(true);
+        tracker.recordHeartbeat(service.getNodeInstanceID(), SHORT_LEASE_MILLIS);
+        awaitLeaseExpiry();
+        blockedNodeID = firstWUP.getNodeInstanceID();
+
+        assertHeartbeatWaitsForExpiry(tracker, firstWUP);
+        assertThat(isInPlace(service)).isFalse();
+    }
+
+    /**
+     * Ticks the wheel on another thread, and sends a heartbeat from the Node while the tick is
+     * taking it out of place: the heartbeat must wait for the tick, and then put the Node back in place.
+     */
+    private void assertHeartbeatWaitsForExpiry(TopologyLivenessTracker tracker, NodeElement node) throws Exception {
+        Thread ticker = new Thread(tracker::tick);
+        ticker.start();
+        assertThat(takingOutOfPlace.await(5, TimeUnit.SECONDS)).isTrue();
+        AtomicBoolean heartbeatAccepted = new AtomicBoolean(false);
+        Thread heartbeat = new Thread(() -> heartbeatAccepted.set(tracker.recordHeartbeat(node.getNodeInstanceID(), LONG_LEASE_MILLIS)));
+        heartbeat.start();
+        heartbeat.join(100);
+        assertThat(heartbeat.isAlive()).as("heartbeat waits for the expiry in progress").isTrue();
+
+        proceed.countDown();
+        ticker.join(5000);
+        heartbeat.join(5000);
+
+        assertThat(heartbeatAccepted.get()).isTrue();
+        assertThat(isInPlace(node)).isTrue();
+        assertThat(tracker.getLeaseExpiry(node.getNodeInstanceID())).isGreaterThan(System.currentTimeMillis());
+    }
+}
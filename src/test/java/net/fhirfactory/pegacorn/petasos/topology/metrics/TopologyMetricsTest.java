@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.metrics;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.EndpointElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.LinkElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.manager.TopologyIM;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the recording of the topology metrics (operation latencies and lookup hit rates) by the
+ * TopologyIM and TopologyDM, and their exposure via the TopologyMetricsMXBean.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyMetricsTest {
+
+    private static final String TEST_OBJECT_NAME = "net.fhirfactory.pegacorn.petasos:type=TopologyMetrics,name=TopologyMetricsTest";
+
+    private TopologyDM topologyDM;
+    private TopologyIM topologyIM;
+    private TopologyMetrics metrics;
+    private NodeElement wup;
+    private EndpointElement endpoint;
+    private LinkElement link;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        topologyIM = new TopologyIM(topologyDM);
+        metrics = topologyIM.getMetrics();
+        NodeElement service = TopologyTestElements.newNode(null, NodeElementTypeEnum.SERVICE, "Service");
+        wup = TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, "wup-0");
+        endpoint = TopologyTestElements.newEndpoint(wup, "ingress");
+        EndpointElement serviceEndpoint = TopologyTestElements.newEndpoint(service, "egress");
+        link = TopologyTestElements.newLink(endpoint, serviceEndpoint, "link-0");
+        topologyIM.registerTopology(Arrays.asList(service, wup), Collections.singletonList(link), Arrays.asList(endpoint, serviceEndpoint));
+    }
+
+    @AfterEach
+    public void shutdown() {
+        metrics.unregisterMBean();
+        topologyIM.shutdown();
+    }
+
+    @Test
+    public void lookupsAreTimed() {
+        topologyIM.getNode(wup.getNodeInstanceID());
+        topologyIM.getNode("wup-0", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION);
+        topologyIM.getNodeByKey("no-such-key");
+        topologyIM.getLink(link.getLinkID());
+        topologyIM.getEndpoint(endpoint.getEndpointInstanceID());
+        topologyIM.getEndpoint(wup, "ingress", null);
+        topologyIM.getConcurrencyMode(wup.getNodeInstanceID());
+        topologyIM.getDeploymentResilienceMode(wup.getNodeInstanceID());
+
+        for (TopologyOperationEnum currentOperation : Arrays.asList(TopologyOperationEnum.GET_NODE, TopologyOperationEnum.GET_NODE_BY_SIGNATURE,
+                TopologyOperationEnum.GET_NODE_BY_KEY, TopologyOperationEnum.GET_LINK, TopologyOperationEnum.GET_ENDPOINT,
+                TopologyOperationEnum.GET_NODE_ENDPOINT, TopologyOperationEnum.GET_CONCURRENCY_MODE, TopologyOperationEnum.GET_DEPLOYMENT_RESILIENCE_MODE)) {
+            assertThat(metrics.getOperationLatency(currentOperation).getCount()).as(currentOperation.getOperationName()).isEqualTo(1);
+        }
+        assertThat(metrics.getOperationCount(TopologyOperationEnum.REGISTER_TOPOLOGY.getOperationName())).isEqualTo(1);
+        assertThat(metrics.getOperationLatencySummary()).anyMatch(line -> line.startsWith("getNodeEndpoint: count=1"));
+    }
+
+    @Test
+    public void lookupHitsAndMissesAreCounted() {
+        topologyIM.getNode(wup.getNodeInstanceID());
+        topologyIM.getNode(TopologyTestElements.newNode(wup, NodeElementTypeEnum.WUP, "absent").getNodeInstanceID());
+        topologyIM.getNode("wup-0", NodeElementTypeEnum.WUP, TopologyTestElements.VERSION);
+        topologyIM.getNodeByKey("no-such-key");
+
+        assertThat(metrics.getLookupHitCount(TopologyLookupEnum.NODE_BY_ID)).isEqualTo(1);
+        assertThat(metrics.getLookupMissCount(TopologyLookupEnum.NODE_BY_ID)).isEqualTo(1);
+        assertThat(metrics.getLookupHitRate(TopologyLookupEnum.NODE_BY_ID)).isEqualTo(0.5);
+        assertThat(metrics.getLookupHitCount(TopologyLookupEnum.NODE_BY_SIGNATURE)).isEqualTo(1);
+        assertThat(metrics.getLookupMissCount(TopologyLookupEnum.NODE_BY_KEY)).isEqualTo(1);
+    }
+
+    @Test
+    public void latencyIsRecordedAgainstTheOperation() {
+        metrics.recordOperation(TopologyOperationEnum.QUERY_NODES, System.nanoTime() - 2000000L);
+
+        assertThat(metrics.getOperationCount("queryNodes")).isEqualTo(1);
+        assertThat(metrics.getOperationMaximumLatencyMicros("queryNodes")).isGreaterThanOrEqualTo(2000.0);
+        assertThat(metrics.getOperationMeanLatencyMicros("queryNodes")).isGreaterThanOrEqualTo(2000.0);
+        assertThatThrownBy(() -> metrics.getOperationCount("noSuchOperation")).isInstanceOf(IllegalArgumentException.class);
+
+        metrics.reset();
+
+        assertThat(metrics.getOperationCount("queryNodes")).isZero();
+        assertThat(metrics.getOperationLatencySummary()).isEmpty();
+    }
+
+    @Test
+    public void metricsAreAvailableViaTheMXBean() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(TEST_OBJECT_NAME);
+        topologyIM.getTopologySnapshot();
+        topologyIM.getNode(wup.getNodeInstanceID());
+
+        metrics.registerMBean(TEST_OBJECT_NAME);
+
+        assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+        assertThat(mbeanServer.getAttribute(objectName, "SnapshotBuildCount")).isEqualTo(1L);
+        assertThat((String[]) mbeanServer.getAttribute(objectName, "OperationNames")).contains("getNode", "getDeploymentResilienceMode");
+        Object operationCount = mbeanServer.invoke(objectName, "getOperationCount", new Object[]{"getNode"}, new String[]{String.class.getName()});
+        assertThat(operationCount).isEqualTo(1L);
+        assertThat(mbeanServer.getAttribute(objectName, "MapSizes")).isNotNull();
+
+        metrics.unregisterMBean();
+
+        assertThat(mbeanServer.isRegistered(objectName)).isFalse();
+    }
+
+    @Test
+    public void topologyIMRegistersTheMXBeanUntilShutdown() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(TopologyMetrics.DEFAULT_OBJECT_NAME);
+
+        topologyIM.initialise();
+
+        assertThat(mbeanServer.isRegistered(objectName)).isTrue();
+
+        topologyIM.shutdown();
+
+        assertThat(mbeanServer.isRegistered(objectName)).isFalse();
+    }
+}
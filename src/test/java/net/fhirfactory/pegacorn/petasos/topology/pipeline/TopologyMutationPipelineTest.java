@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyMutation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests that the TopologyMutationPipeline runs queued operations in their place among the queued
+ * mutations, invokes the applied batch listener once per batch (before the mutation listener),
+ * leaves the epoch unchanged for a batch that changes nothing, and rejects - rather than applying on the submitter's thread - a mutation submitted to a full queue.
+ * The writer is held up by a gate operation, so the tests control what is queued behind it.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyMutationPipelineTest {
+
+    private static final long AWAIT_SECONDS = 5;
+
+    private TopologyDM topologyDM;
+    private NodeElement platform;
+    private List<String> listenerCalls;
+    private CountDownLatch gateEntered;
+    private CountDownLatch gateOpen;
+    private TopologyMutationPipeline pipeline;
+
+    @BeforeEach
+    public void buildTopology() {
+        topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        listenerCalls = Collections.synchronizedList(new ArrayList<String>());
+        gateEntered = new CountDownLatch(1);
+        gateOpen = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void stopPipeline() {
+        gateOpen.countDown();
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    private void startPipeline(int queueCapacity, TopologyBackPressurePolicyEnum backPressurePolicy) {
+        pipeline = new TopologyMutationPipeline(topologyDM, queueCapacity, TopologyMutationPipeline.DEFAULT_MAXIMUM_BATCH_SIZE, backPressurePolicy, 0, () -> listenerCalls.add("batch"), mutation -> listenerCalls.add("mutation"));
+        pipeline.start();
+    }
+
+    /**
+     * Queues an operation that holds up the writer until the gate is opened, and waits for the
+     * writer to reach it.
+     */
+    private CompletableFuture<Void> closeGate() throws InterruptedException {
+        CompletableFuture<Void> gate = pipeline.submitOperation(() -> {
+            gateEntered.countDown();
+            try {
+                gateOpen.await(AWAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(gateEntered.await(AWAIT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        return (gate);
+    }
+
+    private NodeElement newWUP(String name) {
+        return (TopologyTestElements.newNode(platform, NodeElementTypeEnum.WUP, name));
+    }
+
+    @Test
+    public void operationRunsAfterTheMutationsQueuedAheadOfIt() throws Exception {
+        startPipeline(100, TopologyBackPressurePolicyEnum.REJECT);
+        NodeElement aheadWUP = newWUP("wup-ahead");
+        NodeElement behindWUP = newWUP("wup-behind");
+        List<Boolean> registeredWhenRun = new ArrayList<Boolean>();
+        CompletableFuture<Void> gate = closeGate();
+
+        CompletableFuture<Void> ahead = pipeline.submit(TopologyMutation.addNode(aheadWUP));
+        CompletableFuture<Void> operation = pipeline.submitOperation(() -> {
+            registeredWhenRun.add(topologyDM.getNode(aheadWUP.getNodeInstanceID()) != null);
+            registeredWhenRun.add(topologyDM.getNode(behindWUP.getNodeInstanceID()) != null);
+        });
+        CompletableFuture<Void> behind = pipeline.submit(TopologyMutation.addNode(behindWUP));
+        gateOpen.countDown();
+        CompletableFuture.allOf(gate, ahead, operation, behind).get(AWAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertThat(registeredWhenRun).containsExactly(true, false);
+        assertThat(topologyDM.getNode(behindWUP.getNodeInstanceID())).isNotNull();
+    }
+
+    @Test
+    public void batchListenerIsInvokedOncePerBatchBeforeTheMutationListener() throws Exception {
+        startPipeline(100, TopologyBackPressurePolicyEnum.REJECT);
+        CompletableFuture<Void> gate = closeGate();
+
+        List<CompletableFuture<Void>> completions = new ArrayList<CompletableFuture<Void>>();
+        for (int count = 0; count < 10; count++) {
+            completions.add(pipeline.submit(TopologyMutation.addNode(newWUP("wup-" + count))));
+        }
+        gateOpen.countDown();
+        gate.get(AWAIT_SECONDS, TimeUnit.SECONDS);
+        CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).get(AWAIT_SECONDS, TimeUnit.SECONDS);
+
+        List<String> expectedCalls = new ArrayList<String>();
+        expectedCalls.add("batch");
+        expectedCalls.add("batch");
+        expectedCalls.addAll(Collections.nCopies(10, "mutation"));
+        assertThat(listenerCalls).containsExactlyElementsOf(expectedCalls);
+        assertThat(pipeline.getMutationsApplied()).isEqualTo(10);
+    }
+
+    @Test
+    public void batchOfNoOpMutationsLeavesTheEpochUnchanged() throws Exception {
+        startPipeline(100, TopologyBackPressurePolicyEnum.REJECT);
+        NodeElement absentWUP = newWUP("wup-absent");
+        long epochBefore = topologyDM.getEpoch();
+        CompletableFuture<Void> gate = closeGate();
+
+        List<CompletableFuture<Void>> completions = new ArrayList<CompletableFuture<Void>>();
+        completions.add(pipeline.submit(TopologyMutation.removeNode(absentWUP.getNodeInstanceID())));
+        completions.add(pipeline.submit(TopologyMutation.removeEndpoint(TopologyTestElements.newEndpoint(absentWUP, "ingress").getEndpointInstanceID())));
+        completions.add(pipeline.submit(TopologyMutation.setInstanceInPlace(platform.getNodeInstanceID(), true)));
+        gateOpen.countDown();
+        gate.get(AWAIT_SECONDS, TimeUnit.SECONDS);
+        CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).get(AWAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertThat(topologyDM.getEpoch()).isEqualTo(epochBefore);
+        assertThat(topologyDM.hasChangedSince(epochBefore)).isFalse();
+        assertThat(pipeline.getMutationsApplied()).isEqualTo(3);
+    }
+
+    @Test
+    public void mutationSubmittedToAFullQueueIsRejected() throws Exception {
+        startPipeline(1, TopologyBackPressurePolicyEnum.REJECT);
+        NodeElement queuedWUP = newWUP("wup-queued");
+        NodeElement rejectedWUP = newWUP("wup-rejected");
+        closeGate();
+
+        CompletableFuture<Void> queued = pipeline.submit(TopologyMutation.addNode(queuedWUP));
+        CompletableFuture<Void> rejected = pipeline.submit(TopologyMutation.addNode(rejectedWUP));
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(topologyDM.getNode(rejectedWUP.getNodeInstanceID())).isNull();
+        gateOpen.countDown();
+        queued.get(AWAIT_SECONDS, TimeUnit.SECONDS);
+        assertThat(topologyDM.getNode(queuedWUP.getNodeInstanceID())).isNotNull();
+    }
+}
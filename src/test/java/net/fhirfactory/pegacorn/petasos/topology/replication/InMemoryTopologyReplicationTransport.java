@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.replication;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * A TopologyReplicationTransport for the tests, which delivers the messages published on a shared
+ * (in-memory) Channel to every started transport - including the publisher's own - one message at a
+ * time, in the order they were published. Each message is encoded and decoded on the way, so the
+ * receivers never share elements with the sender (as per a real transport).
+ * <p>
+ * The Channel can be told to drop messages (e.g. to simulate a lost DELTA), and records every
+ * message published on it.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class InMemoryTopologyReplicationTransport implements TopologyReplicationTransport {
+
+    private final Channel channel;
+    private final String receiverName;
+    private volatile Consumer<TopologyReplicationMessage> messageListener;
+    private ExecutorService deliverer;
+
+    /**
+     * @param channel The channel shared by the replicating instances
+     * @param receiverName The name of the receiving instance (as passed to the Channel's drop filter)
+     */
+    public InMemoryTopologyReplicationTransport(Channel channel, String receiverName) {
+        this.channel = channel;
+        this.receiverName = receiverName;
+    }
+
+    /**
+     * The publish/subscribe channel shared by the InMemoryTopologyReplicationTransports of the
+     * replicating instances.
+     */
+    public static class Channel {
+        private final List<InMemoryTopologyReplicationTransport> transports = new CopyOnWriteArrayList<InMemoryTopologyReplicationTransport>();
+        private final List<TopologyReplicationMessage> publishedMessages = new CopyOnWriteArrayList<TopologyReplicationMessage>();
+        private volatile BiPredicate<String, TopologyReplicationMessage> dropFilter = (receiverName, message) -> false;
+
+        /**
+         * @param dropFilter Tested with the name of the receiver and each message - the message isn't
+         * delivered to the receiver if it returns true
+         */
+        public void setDropFilter(BiPredicate<String, TopologyReplicationMessage> dropFilter) {
+            this.dropFilter = dropFilter;
+        }
+
+        /**
+         * @return Every message published on the channel (whether or not it was delivered), in order
+         */
+        public List<TopologyReplicationMessage> getPublishedMessages() {
+            return (publishedMessages);
+        }
+
+        private synchronized void publish(TopologyReplicationMessage message) {
+            publishedMessages.add(message);
+            byte[] encodedMessage = message.encode();
+            for (InMemoryTopologyReplicationTransport currentTransport : transports) {
+                if (!dropFilter.test(currentTransport.receiverName, message)) {
+                    currentTransport.deliver(encodedMessage);
+                }
+            }
+        }
+    }
+
+    private synchronized void deliver(byte[] encodedMessage) {
+        if (deliverer != null) {
+            deliverer.execute(() -> {
+                Consumer<TopologyReplicationMessage> currentListener = messageListener;
+                if (currentListener != null) {
+                    currentListener.accept(TopologyReplicationMessage.decode(encodedMessage));
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized void start(Consumer<TopologyReplicationMessage> messageListener) {
+        if (messageListener == null) {
+            throw (new IllegalArgumentException(".start(): messageListener is null"));
+        }
+        this.messageListener = messageListener;
+        this.deliverer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread delivererThread = new Thread(runnable, "InMemoryTopologyReplicationTransport-" + receiverName);
+            delivererThread.setDaemon(true);
+            return (delivererThread);
+        });
+        channel.transports.add(this);
+    }
+
+    @Override
+    public void publish(TopologyReplicationMessage message) {
+        synchronized (this) {
+            if (deliverer == null) {
+                throw (new IllegalStateException(".publish(): transport has not been started"));
+            }
+        }
+        channel.publish(message);
+    }
+
+    @Override
+    public void close() {
+        channel.transports.remove(this);
+        ExecutorService stoppedDeliverer;
+        synchronized (this) {
+            stoppedDeliverer = deliverer;
+            deliverer = null;
+            messageListener = null;
+        }
+        if (stoppedDeliverer != null) {
+            stoppedDeliverer.shutdown();
+            try {
+                stoppedDeliverer.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
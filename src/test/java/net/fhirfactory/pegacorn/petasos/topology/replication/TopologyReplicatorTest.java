@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.replication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
+import net.fhirfactory.pegacorn.petasos.topology.TopologyTestElements;
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the TopologyReplicator over an InMemoryTopologyReplicationTransport: that the instances'
+ * topologies converge, that an instance which loses a DELTA catches up (from the following DELTA,
+ * or from the sender's HEARTBEAT) without losing the changes the sender hadn't yet seen, and that
+ * applied remote changes aren't published back out.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologyReplicatorTest {
+
+    private static final long BATCH_WINDOW_MILLIS = 10;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 200;
+    private static final long CONVERGENCE_TIMEOUT_MILLIS = 10000;
+
+    private InMemoryTopologyReplicationTransport.Channel channel;
+    private List<TopologyReplicator> replicators;
+    private NodeElement platform;
+    private List<NodeElement> services;
+
+    @BeforeEach
+    public void openChannel() {
+        channel = new InMemoryTopologyReplicationTransport.Channel();
+        replicators = new ArrayList<TopologyReplicator>();
+    }
+
+    @AfterEach
+    public void stopReplicators() {
+        for (TopologyReplicator currentReplicator : replicators) {
+            currentReplicator.stop();
+        }
+    }
+
+    /**
+     * Starts a replicating instance, whose TopologyDM holds the same (common) topology as the others.
+     */
+    private TopologyDM startInstance(String instanceID) {
+        TopologyDM topologyDM = new TopologyDM();
+        NodeElement solution = TopologyTestElements.newNode(null, NodeElementTypeEnum.SOLUTION, "Solution");
+        platform = TopologyTestElements.newNode(solution, NodeElementTypeEnum.PLATFORM, "Platform");
+        services = new ArrayList<NodeElement>();
+        topologyDM.addNode(solution);
+        topologyDM.addNode(platform);
+        for (int serviceIndex = 0; serviceIndex < 3; serviceIndex++) {
+            NodeElement service = TopologyTestElements.newNode(platform, NodeElementTypeEnum.SERVICE, "service-" + serviceIndex);
+            services.add(service);
+            topologyDM.addNode(service);
+        }
+        TopologyReplicator replicator = new TopologyReplicator(topologyDM, new InMemoryTopologyReplicationTransport(channel, instanceID), instanceID, BATCH_WINDOW_MILLIS, HEARTBEAT_INTERVAL_MILLIS, null);
+        replicator.start();
+        replicators.add(replicator);
+        return (topologyDM);
+    }
+
+    private TopologyReplicator getReplicator(String instanceID) {
+        for (TopologyReplicator currentReplicator : replicators) {
+            if (currentReplicator.getInstanceID().equals(instanceID)) {
+                return (currentReplicator);
+            }
+        }
+        throw (new IllegalArgumentException("no replicator for " + instanceID));
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONVERGENCE_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(BATCH_WINDOW_MILLIS);
+        }
+        assertThat(condition.getAsBoolean()).as("condition met within %d ms", CONVERGENCE_TIMEOUT_MILLIS).isTrue();
+    }
+
+    private static boolean digestsMatch(TopologyDM... topologyDMs) {
+        for (TopologyDM currentDM : topologyDMs) {
+            if (currentDM.getTopologyDigest() != topologyDMs[0].getTopologyDigest()) {
+                return (false);
+            }
+        }
+        return (true);
+    }
+
+    private void registerWUPs(TopologyDM topologyDM, NodeElement service, String namePrefix, int wupCount) {
+        for (int wupIndex = 0; wupIndex < wupCount; wupIndex++) {
+            topologyDM.addNode(TopologyTestElements.newNode(service, NodeElementTypeEnum.WUP, namePrefix + wupIndex));
+        }
+    }
+
+    @Test
+    public void concurrentChangesOnDifferentInstancesConverge() throws Exception {
+        TopologyDM instanceA = startInstance("A");
+        TopologyDM instanceB = startInstance("B");
+        TopologyDM instanceC = startInstance("C");
+
+        Thread writerA = new Thread(() -> registerWUPs(instanceA, services.get(0), "wup-a-", 50));
+        Thread writerB = new Thread(() -> registerWUPs(instanceB, services.get(1), "wup-b-", 50));
+        writerA.start();
+        writerB.start();
+        writerA.join();
+        writerB.join();
+        instanceB.setNodeInstanceInPlace(services.get(2).getNodeInstanceID(), false);
+
+        awaitCondition(() -> digestsMatch(instanceA, instanceB, instanceC) && instanceC.getNodeSet().size() == 105);
+        assertThat(instanceA.getNode(services.get(2).getNodeInstanceID()).isInstanceInPlace()).isFalse();
+        assertThat(instanceC.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void lostDeltaIsRecoveredFromTheFollowingDelta() throws Exception {
+        TopologyDM instanceA = startInstance("A");
+        TopologyDM instanceB = startInstance("B");
+        AtomicBoolean deltaDropped = new AtomicBoolean(false);
+        channel.setDropFilter((receiverName, message) -> receiverName.equals("B") && message.getMessageType() == TopologyReplicationMessageTypeEnum.DELTA && deltaDropped.compareAndSet(false, true));
+
+        registerWUPs(instanceA, services.get(0), "wup-lost-", 5);
+        awaitCondition(deltaDropped::get);
+        registerWUPs(instanceA, services.get(1), "wup-following-", 5);
+
+        awaitCondition(() -> digestsMatch(instanceA, instanceB));
+        TopologyReplicator replicatorB = getReplicator("B");
+        assertThat(replicatorB.getGapsDetected()).isGreaterThanOrEqualTo(1);
+        awaitCondition(() -> replicatorB.getSnapshotsApplied() >= 1);
+        awaitCondition(() -> replicatorB.getAppliedSequenceNumbers().get("A") == getReplicator("A").getPublishedSequenceNumber());
+    }
+
+    @Test
+    public void catchUpSnapshotKeepsChangesTheSenderHasNotSeen() throws Exception {
+        TopologyDM instanceA = startInstance("A");
+        TopologyDM instanceB = startInstance("B");
+        TopologyDM instanceC = startInstance("C");
+        AtomicBoolean isolateCFromA = new AtomicBoolean(true);
+        AtomicBoolean dropArmed = new AtomicBoolean(false);
+        channel.setDropFilter((receiverName, message) -> {
+            if (receiverName.equals("A") && message.getSourceInstanceID().equals("C")) {
+                return (isolateCFromA.get());
+            }
+            return (receiverName.equals("B") && message.getSourceInstanceID().equals("A") && message.getMessageType() == TopologyReplicationMessageTypeEnum.DELTA && dropArmed.compareAndSet(true, false));
+        });
+
+        Thread writerB = new Thread(() -> registerWUPs(instanceB, services.get(1), "wup-b-", 20));
+        Thread writerC = new Thread(() -> registerWUPs(instanceC, services.get(2), "wup-c-", 20));
+        writerB.start();
+        writerC.start();
+        writerB.join();
+        writerC.join();
+        awaitCondition(() -> instanceB.getNodeSet().size() == 45 && instanceA.getNodeSet().size() == 25);
+
+        dropArmed.set(true);
+        registerWUPs(instanceA, services.get(0), "wup-a-", 20);
+        awaitCondition(() -> getReplicator("B").getSnapshotsApplied() >= 1);
+        assertThat(instanceB.getNodeSet()).hasSize(65);
+
+        isolateCFromA.set(false);
+        awaitCondition(() -> digestsMatch(instanceA, instanceB, instanceC) && instanceA.getNodeSet().size() == 65);
+        assertThat(getReplicator("B").getGapsDetected()).isGreaterThanOrEqualTo(1);
+        assertThat(getReplicator("A").getGapsDetected()).isGreaterThanOrEqualTo(1);
+        assertThat(instanceA.verifyConsistency()).isEmpty();
+        assertThat(instanceB.verifyConsistency()).isEmpty();
+        assertThat(instanceC.verifyConsistency()).isEmpty();
+    }
+
+    @Test
+    public void lostFinalDeltaIsRecoveredFromTheHeartbeat() throws Exception {
+        TopologyDM instanceA = startInstance("A");
+        TopologyDM instanceB = startInstance("B");
+        channel.setDropFilter((receiverName, message) -> receiverName.equals("B") && message.getMessageType() == TopologyReplicationMessageTypeEnum.DELTA);
+
+        instanceA.setNodeInstanceInPlace(services.get(0).getNodeInstanceID(), false);
+
+        awaitCondition(() -> digestsMatch(instanceA, instanceB));
+        assertThat(instanceB.getNode(services.get(0).getNodeInstanceID()).isInstanceInPlace()).isFalse();
+        assertThat(getReplicator("B").getGapsDetected()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void appliedRemoteChangesAreNotPublishedAgain() throws Exception {
+        TopologyDM instanceA = startInstance("A");
+        TopologyDM instanceB = startInstance("B");
+        TopologyDM instanceC = startInstance("C");
+
+        registerWUPs(instanceA, services.get(0), "wup-", 10);
+        instanceA.setNodeInstanceInPlace(services.get(1).getNodeInstanceID(), false);
+        awaitCondition(() -> digestsMatch(instanceA, instanceB, instanceC) && instanceB.getNodeSet().size() == 15);
+        Thread.sleep(HEARTBEAT_INTERVAL_MILLIS);
+
+        for (TopologyReplicationMessage currentMessage : channel.getPublishedMessages()) {
+            if (currentMessage.getMessageType() != TopologyReplicationMessageTypeEnum.HEARTBEAT) {
+                assertThat(currentMessage.getSourceInstanceID()).isEqualTo("A");
+            }
+        }
+        assertThat(getReplicator("B").getDeltasPublished()).isZero();
+        assertThat(getReplicator("C").getDeltasPublished()).isZero();
+        assertThat(getReplicator("B").getDeltasApplied()).isEqualTo(getReplicator("A").getDeltasPublished());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter (ACT Health)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.petasos.topology.soak;
+
+import net.fhirfactory.pegacorn.petasos.topology.cache.TopologyDM;
+import net.fhirfactory.pegacorn.petasos.topology.manager.TopologyIM;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyBackPressurePolicyEnum;
+import net.fhirfactory.pegacorn.petasos.topology.pipeline.TopologyMutationPipeline;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A short (smoke) run of the TopologySoakHarness - with the mutators applied directly and through
+ * the mutation pipeline - which must finish without a failed operation or a consistency violation.
+ * See the topology-soak profile for long runs.
+ *
+ * @author Mark A. Hunter
+ * @since 2020-07-01
+ */
+public class TopologySoakHarnessTest {
+
+    private static final int THREAD_COUNT = 8;
+    private static final long DURATION_MILLIS = 3000;
+    private static final long CHECK_INTERVAL_MILLIS = 500;
+    private static final int BASE_NODE_COUNT = 2000;
+
+    private static void runSoak(TopologyIM topologyIM) throws InterruptedException {
+        TopologySoakHarness harness = new TopologySoakHarness(topologyIM, THREAD_COUNT, DURATION_MILLIS, CHECK_INTERVAL_MILLIS, TopologySoakHarness.parseOperationMix(TopologySoakHarness.DEFAULT_OPERATION_MIX));
+        harness.populate(BASE_NODE_COUNT);
+
+        boolean passed = harness.run();
+
+        assertThat(harness.getFailures()).isEmpty();
+        assertThat(passed).isTrue();
+        assertThat(harness.getConsistencyCheckCount()).isGreaterThan(1);
+        for (TopologySoakOperationEnum currentOperation : TopologySoakOperationEnum.values()) {
+            assertThat(harness.getOperationLatency(currentOperation).getCount()).as(currentOperation.getOperationName()).isPositive();
+        }
+    }
+
+    @Test
+    public void directMutationSoakHasNoViolations() throws InterruptedException {
+        runSoak(new TopologyIM(new TopologyDM()));
+    }
+
+    @Test
+    public void pipelinedMutationSoakHasNoViolations() throws InterruptedException {
+        TopologyIM topologyIM = new TopologyIM(new TopologyDM());
+        topologyIM.enableAsyncMutations(TopologyMutationPipeline.DEFAULT_QUEUE_CAPACITY, TopologyMutationPipeline.DEFAULT_MAXIMUM_BATCH_SIZE, TopologyBackPressurePolicyEnum.BLOCK, 0);
+        try {
+            runSoak(topologyIM);
+        } finally {
+            topologyIM.disableAsyncMutations();
+        }
+    }
+}